@@ -29,6 +29,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 
 import javax.naming.NamingException;
@@ -74,6 +75,8 @@ import com.orientechnologies.orient.core.storage.OStorageAbstract;
 import com.orientechnologies.orient.core.tx.OTransaction;
 import com.orientechnologies.orient.core.tx.OTransactionAbstract;
 import com.orientechnologies.orient.enterprise.channel.binary.OAsynchChannelServiceThread;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryAsynch;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryAsynchResponse;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryClient;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
 import com.orientechnologies.orient.enterprise.channel.binary.ONetworkProtocolException;
@@ -165,6 +168,7 @@ public class OStorageRemote extends OStorageAbstract {
 
 			configuration = new OStorageConfiguration(this);
 			configuration.load();
+			level2Cache.configure(configuration);
 
 		} catch (Exception e) {
 			if (!OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean())
@@ -418,6 +422,68 @@ public class OStorageRemote extends OStorageAbstract {
 		} while (true);
 	}
 
+	/**
+	 * Sends the request to load a record without waiting for the response. Many requests can be in flight on the same channel: the
+	 * responses are matched to the requests by the order the server sends them. The fetch plan is not supported because the fetched
+	 * records would be bound to the database of the thread that reads the response.
+	 * 
+	 * @param iCallback
+	 *          Optional callback invoked once the record has been received. It's executed by the thread that reads the response, so it
+	 *          must be short and must not use the database
+	 * @return The future content of the record, null if the record doesn't exist
+	 */
+	public Future<ORawBuffer> readRecordAsynch(final ORecordId iRid, final boolean iIgnoreCache,
+			final ORecordCallback<ORawBuffer> iCallback) {
+		checkConnection();
+
+		do {
+			try {
+
+				OChannelBinaryClient network = null;
+				try {
+					network = beginRequest(OChannelBinaryProtocol.REQUEST_RECORD_LOAD);
+					network.writeRID(iRid);
+					network.writeString("");
+					if (network.getSrvProtocolVersion() >= 9)
+						network.writeByte((byte) (iIgnoreCache ? 1 : 0));
+
+					final OChannelBinaryAsynchResponse<ORawBuffer> response = new OChannelBinaryAsynchResponse<ORawBuffer>(network) {
+						@Override
+						protected ORawBuffer readResponse(final OChannelBinaryAsynch iChannel) throws IOException {
+							if (iChannel.readByte() == 0)
+								return null;
+
+							final ORawBuffer buffer = new ORawBuffer(iChannel.readBytes(), iChannel.readInt(), iChannel.readByte());
+
+							// NO FETCH PLAN: SKIP ANY OTHER RECORD
+							while (iChannel.readByte() == 2)
+								OChannelBinaryProtocol.readIdentifiable((OChannelBinaryClient) iChannel);
+
+							return buffer;
+						}
+
+						@Override
+						protected void onCompletion(final ORawBuffer iResult, final Throwable iError) {
+							if (iCallback != null && iError == null)
+								iCallback.call(iResult);
+						}
+					};
+
+					// REGISTER IT BEFORE TO RELEASE THE CHANNEL TO KEEP THE ORDER OF THE REQUESTS
+					network.registerAsynchResponse(getSessionId(), response);
+					return response;
+
+				} finally {
+					endRequest(network);
+				}
+
+			} catch (Exception e) {
+				handleException("Error on read record " + iRid, e);
+
+			}
+		} while (true);
+	}
+
 	public int updateRecord(final ORecordId iRid, final byte[] iContent, final int iVersion, final byte iRecordType, final int iMode,
 			final ORecordCallback<Integer> iCallback) {
 		checkConnection();
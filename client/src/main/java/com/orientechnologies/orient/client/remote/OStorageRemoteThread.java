@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.orientechnologies.common.concur.resource.OSharedResourceAdaptive;
@@ -145,6 +146,12 @@ public class OStorageRemoteThread implements OStorage {
 		return delegate.readRecord(iRid, iFetchPlan, iIgnoreCache, null);
 	}
 
+	public Future<ORawBuffer> readRecordAsynch(final ORecordId iRid, final boolean iIgnoreCache,
+			final ORecordCallback<ORawBuffer> iCallback) {
+		delegate.setSessionId(sessionId);
+		return delegate.readRecordAsynch(iRid, iIgnoreCache, iCallback);
+	}
+
 	public int updateRecord(final ORecordId iRid, final byte[] iContent, final int iVersion, final byte iRecordType, final int iMode,
 			ORecordCallback<Integer> iCallback) {
 		delegate.setSessionId(sessionId);
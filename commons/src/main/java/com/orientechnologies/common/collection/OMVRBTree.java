@@ -591,14 +591,17 @@ public abstract class OMVRBTree<K, V> extends AbstractMap<K, V> implements ONavi
 		if (pageItemFound)
 			return p;
 			// NOT MATCHED, POSITION IS ALREADY TO THE NEXT ONE
-		else if (pageIndex < p.getSize()) {
-			if (key instanceof OCompositeKey)
-				return adjustSearchResult((OCompositeKey)key, partialSearchMode, p);
-			else
-				return p;
+		else if (pageIndex >= p.getSize()) {
+			// NOT MATCHED AFTER THE LAST KEY OF THE PAGE: THE NEXT ONE IS THE FIRST OF THE NEXT PAGE
+			p = next(p);
+			if (p == null)
+				return null;
 		}
 
-		return null;
+		if (key instanceof OCompositeKey)
+			return adjustSearchResult((OCompositeKey)key, partialSearchMode, p);
+		else
+			return p;
 	}
 
 	/**
@@ -681,7 +684,8 @@ public abstract class OMVRBTree<K, V> extends AbstractMap<K, V> implements ONavi
 			// NOT MATCHED, POSITION IS ALREADY TO THE NEXT ONE
 			return p;
 
-		return null;
+		// NOT MATCHED AFTER THE LAST KEY OF THE PAGE: RETURN THE FIRST OF THE NEXT PAGE
+		return next(p);
 	}
 
 	/**
@@ -2738,6 +2742,73 @@ public abstract class OMVRBTree<K, V> extends AbstractMap<K, V> implements ONavi
 		return middle;
 	}
 
+	/**
+	 * Builds the tree bottom-up from entries sorted by key, without searches and rotations. The entries fill the pages up to the
+	 * default page size, then the pages are linked as a balanced tree where the middle page is the root, like buildFromSorted() does
+	 * with single entries. The tree must be empty.
+	 * 
+	 * @param iEntries
+	 *          Entries ordered by key, without duplicated keys
+	 * @param iSize
+	 *          Number of entries returned by the iterator
+	 */
+	public void putAllSorted(final Iterator<? extends Map.Entry<K, V>> iEntries, final int iSize) {
+		if (root != null)
+			throw new IllegalStateException("The tree is not empty");
+
+		if (iSize == 0)
+			return;
+
+		final int pageSize = getDefaultPageSize();
+		final int pages = (iSize + pageSize - 1) / pageSize;
+
+		setRoot(buildPagesFromSorted(0, 0, pages - 1, computeRedLevel(pages), pageSize, iSize, iEntries));
+		setSize(iSize);
+		modCount++;
+	}
+
+	/**
+	 * Recursive helper of putAllSorted(): builds the subtree of the pages from lo to hi. The pages are created in key order, all full
+	 * but the last one.
+	 */
+	private OMVRBTreeEntry<K, V> buildPagesFromSorted(final int level, final int lo, final int hi, final int redLevel,
+			final int pageSize, final int size, final Iterator<? extends Map.Entry<K, V>> it) {
+		if (hi < lo)
+			return null;
+
+		final int mid = (lo + hi) / 2;
+
+		OMVRBTreeEntry<K, V> left = null;
+		if (lo < mid)
+			left = buildPagesFromSorted(level + 1, lo, mid - 1, redLevel, pageSize, size, it);
+
+		// FILL THE PAGE
+		final int items = Math.min(pageSize, size - mid * pageSize);
+
+		Map.Entry<K, V> entry = it.next();
+		final OMVRBTreeEntry<K, V> middle = createEntry(entry.getKey(), entry.getValue());
+		for (int i = 1; i < items; ++i) {
+			entry = it.next();
+			middle.insert(i, entry.getKey(), entry.getValue());
+		}
+
+		// COLOR THE PAGES IN THE NON-FULL BOTTOM MOST LEVEL RED
+		middle.setColor(level == redLevel ? RED : BLACK);
+
+		if (left != null) {
+			middle.setLeft(left);
+			left.setParent(middle);
+		}
+
+		if (mid < hi) {
+			final OMVRBTreeEntry<K, V> right = buildPagesFromSorted(level + 1, mid + 1, hi, redLevel, pageSize, size, it);
+			middle.setRight(right);
+			right.setParent(middle);
+		}
+
+		return middle;
+	}
+
 	/**
 	 * Find the level down to which to assign all nodes BLACK. This is the last `full' level of the complete binary tree produced by
 	 * buildTree. The remaining nodes are colored RED. (This makes a `nice' set of color assignments wrt future insertions.) This
@@ -131,6 +131,34 @@ public abstract class OAbstractRecordCache extends OSharedResourceAbstract {
 		return underlying.limit();
 	}
 
+	/**
+	 * Estimated memory taken by the cached entries, in bytes
+	 * 
+	 * @return non-negative long
+	 */
+	public long getMemory() {
+		return underlying.memory();
+	}
+
+	/**
+	 * Maximum memory the cached entries should take, in bytes
+	 * 
+	 * @return non-positive long if the memory is not bounded
+	 */
+	public long getMaxMemory() {
+		return underlying.memoryLimit();
+	}
+
+	/**
+	 * Changes the maximum memory the cached entries should take. Entries are evicted if the new limit is exceeded
+	 * 
+	 * @param iMaxMemory
+	 *          maximum memory in bytes, non-positive long to not bound the memory
+	 */
+	public void setMaxMemory(final long iMaxMemory) {
+		underlying.setMemoryLimit(iMaxMemory);
+	}
+
 	/**
 	 * All operations running at cache initialization stage
 	 */
@@ -154,6 +182,18 @@ public abstract class OAbstractRecordCache extends OSharedResourceAbstract {
 				return getMaxSize();
 			}
 		});
+
+		OProfiler.getInstance().registerHookValue(profilerPrefix + ".cache.memory", new OProfilerHookValue() {
+			public Object getValue() {
+				return getMemory();
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue(profilerPrefix + ".cache.maxMemory", new OProfilerHookValue() {
+			public Object getValue() {
+				return getMaxMemory();
+			}
+		});
 	}
 
 	/**
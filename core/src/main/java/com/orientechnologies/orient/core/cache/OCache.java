@@ -115,6 +115,29 @@ public interface OCache {
    */
   int limit();
 
+  /**
+   * Estimated amount of memory taken by the stored records, in bytes. The size of every record is estimated from the length of its
+   * serialized content
+   *
+   * @return non-negative number
+   */
+  long memory();
+
+  /**
+   * Maximum amount of memory the stored records should take, in bytes
+   *
+   * @return non-positive number if the memory is not bounded
+   */
+  long memoryLimit();
+
+  /**
+   * Change the maximum amount of memory the stored records should take. Records are evicted immediately if the new limit is
+   * exceeded
+   *
+   * @param limit maximum amount of memory in bytes, non-positive number to not bound the memory
+   */
+  void setMemoryLimit(long limit);
+
   /**
    * Keys of all stored in cache records
    *
@@ -26,10 +26,18 @@ import static com.orientechnologies.orient.core.config.OGlobalConfiguration.*;
  */
 public class OCacheLocator {
   public OCache primaryCache() {
-    return new ODefaultCache(CACHE_LEVEL1_SIZE.getValueAsInteger());
+    final OCache cache = new ODefaultCache(CACHE_LEVEL1_SIZE.getValueAsInteger());
+    cache.setMemoryLimit(CACHE_LEVEL1_MEMORY.getValueAsLong());
+    return cache;
   }
 
   public OCache secondaryCache() {
+    final OCache cache = createSecondaryCache();
+    cache.setMemoryLimit(CACHE_LEVEL2_MEMORY.getValueAsLong());
+    return cache;
+  }
+
+  private OCache createSecondaryCache() {
     String cacheClassName = CACHE_LEVEL2_IMPL.getValueAsString();
     try {
       Class<?> cacheClass = findByCanonicalName(cacheClassName);
@@ -0,0 +1,36 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.cache;
+
+import com.orientechnologies.orient.core.record.ORecordInternal;
+
+/**
+ * Estimates the memory taken by the cached records. The estimation is based on the length of the serialized content of the record,
+ * already known when the record is loaded from the storage, plus a fixed overhead for the record instance, its identity and the
+ * cache entry.
+ * 
+ * @author Luca Garulli
+ */
+final class OCacheRecordWeigher {
+	static final int	ENTRY_OVERHEAD	= 128;
+
+	private OCacheRecordWeigher() {
+	}
+
+	static int weigh(final ORecordInternal<?> iRecord) {
+		return ENTRY_OVERHEAD + Math.max(0, iRecord.getSize());
+	}
+}
@@ -17,6 +17,8 @@ package com.orientechnologies.orient.core.cache;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -134,6 +136,28 @@ public class ODefaultCache implements OCache {
 		return limit;
 	}
 
+	public long memory() {
+		lock.acquireSharedLock();
+		try {
+			return cache.getMemory();
+		} finally {
+			lock.releaseSharedLock();
+		}
+	}
+
+	public long memoryLimit() {
+		return cache.getMemoryLimit();
+	}
+
+	public void setMemoryLimit(final long iLimit) {
+		lock.acquireExclusiveLock();
+		try {
+			cache.setMemoryLimit(iLimit);
+		} finally {
+			lock.releaseExclusiveLock();
+		}
+	}
+
 	public Collection<ORID> keys() {
 		lock.acquireSharedLock();
 		try {
@@ -152,6 +176,15 @@ public class ODefaultCache implements OCache {
 		}
 	}
 
+	private void removeEldestByMemory(final long threshold) {
+		lock.acquireExclusiveLock();
+		try {
+			cache.removeEldestByMemory(threshold);
+		} finally {
+			lock.releaseExclusiveLock();
+		}
+	}
+
 	public void lock(final ORID id) {
 		lock.acquireExclusiveLock();
 	}
@@ -161,22 +194,95 @@ public class ODefaultCache implements OCache {
 	}
 
 	/**
-	 * Implementation of {@link LinkedHashMap} that will remove eldest entries if size limit will be exceeded.
+	 * Implementation of {@link LinkedHashMap} that will remove eldest entries if size limit or memory limit will be exceeded. The
+	 * estimated size of every record is kept at insertion time since the record could change while cached.
 	 * 
 	 * @author Luca Garulli
 	 */
 	@SuppressWarnings("serial")
 	static final class OLinkedHashMapCache extends LinkedHashMap<ORID, ORecordInternal<?>> {
-		private final int	limit;
+		private final int										limit;
+		private final Map<ORID, Integer>	weights	= new HashMap<ORID, Integer>();
+		private long												memory;
+		private volatile long								memoryLimit;
 
 		public OLinkedHashMapCache(final int initialCapacity, final float loadFactor, final int limit) {
 			super(initialCapacity, loadFactor, true);
 			this.limit = limit;
 		}
 
+		@Override
+		public ORecordInternal<?> put(final ORID key, final ORecordInternal<?> value) {
+			final int weight = OCacheRecordWeigher.weigh(value);
+			final Integer previousWeight = weights.put(key, weight);
+			memory += previousWeight != null ? weight - previousWeight : weight;
+
+			final ORecordInternal<?> previous = super.put(key, value);
+
+			if (memoryLimit > 0 && memory > memoryLimit)
+				removeEldestByMemory(memoryLimit);
+
+			return previous;
+		}
+
+		@Override
+		public ORecordInternal<?> remove(final Object key) {
+			final Integer weight = weights.remove(key);
+			if (weight != null)
+				memory -= weight;
+			return super.remove(key);
+		}
+
+		@Override
+		public void clear() {
+			super.clear();
+			weights.clear();
+			memory = 0;
+		}
+
 		@Override
 		protected boolean removeEldestEntry(final Map.Entry<ORID, ORecordInternal<?>> eldest) {
-			return limit > 0 ? size() - limit > 0 : false;
+			if (limit > 0 && size() - limit > 0) {
+				// THE MAP REMOVES THE ENTRY BY ITSELF
+				final Integer weight = weights.remove(eldest.getKey());
+				if (weight != null)
+					memory -= weight;
+				return true;
+			}
+			return false;
+		}
+
+		long getMemory() {
+			return memory;
+		}
+
+		long getMemoryLimit() {
+			return memoryLimit;
+		}
+
+		void setMemoryLimit(final long iLimit) {
+			memoryLimit = iLimit;
+			if (memoryLimit > 0 && memory > memoryLimit)
+				removeEldestByMemory(memoryLimit);
+		}
+
+		/**
+		 * Removes the least recently used entries until the memory taken is under the threshold. Like removeEldest() the dirty and
+		 * pinned records are never removed. The last inserted entry is always kept, even if bigger than the threshold.
+		 */
+		void removeEldestByMemory(final long threshold) {
+			int left = size();
+			for (Iterator<Map.Entry<ORID, ORecordInternal<?>>> it = entrySet().iterator(); it.hasNext() && memory > threshold
+					&& left-- > 1;) {
+				final Map.Entry<ORID, ORecordInternal<?>> entry = it.next();
+				if (entry.getValue().isDirty() || entry.getValue().isPinned() == Boolean.TRUE)
+					continue;
+
+				final Integer weight = weights.remove(entry.getKey());
+				if (weight != null)
+					memory -= weight;
+				it.remove();
+			}
 		}
 
 		void removeEldest(final int amount) {
@@ -204,7 +310,13 @@ public class ODefaultCache implements OCache {
 				if (oldSize == 0)
 					return;
 
-				if (freeMemoryPercentage < 10) {
+				if (memoryLimit() > 0) {
+					// THE MEMORY IS ALREADY BOUNDED: FREE JUST A PART OF IT INSTEAD OF CLEARING THE CACHE
+					final long oldMemory = memory();
+					removeEldestByMemory((long) (oldMemory * (freeMemoryPercentage < 10 ? 0.5f : 0.9f)));
+					OLogManager.instance().debug(this, "Low memory (%d%%): reducing cached records memory from %d to %d bytes",
+							freeMemoryPercentage, oldMemory, memory());
+				} else if (freeMemoryPercentage < 10) {
 					OLogManager.instance().debug(this, "Low memory (%d%%): clearing %d cached records", freeMemoryPercentage, size());
 					removeEldest(oldSize);
 				} else {
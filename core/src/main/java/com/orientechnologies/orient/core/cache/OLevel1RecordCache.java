@@ -144,6 +144,7 @@ public class OLevel1RecordCache extends OAbstractRecordCache {
 
 	@Override
 	public String toString() {
-		return "DB level1 cache records = " + getSize() + ", maxSize= " + getMaxSize();
+		return "DB level1 cache records = " + getSize() + ", maxSize= " + getMaxSize() + ", memory = " + getMemory() + ", maxMemory = "
+				+ getMaxMemory();
 	}
 }
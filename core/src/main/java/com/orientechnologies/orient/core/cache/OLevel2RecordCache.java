@@ -15,8 +15,15 @@
  */
 package com.orientechnologies.orient.core.cache;
 
+import static com.orientechnologies.orient.core.config.OGlobalConfiguration.CACHE_LEVEL2_MEMORY;
 import static com.orientechnologies.orient.core.config.OGlobalConfiguration.CACHE_LEVEL2_STRATEGY;
 
+import com.orientechnologies.common.io.OFileUtils;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
+import com.orientechnologies.orient.core.config.OStorageConfiguration;
+import com.orientechnologies.orient.core.config.OStorageEntryConfiguration;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.ORecordInternal;
@@ -30,7 +37,9 @@ import com.orientechnologies.orient.core.storage.OStorage;
  */
 public class OLevel2RecordCache extends OAbstractRecordCache {
 
-	private STRATEGY	strategy;
+	private STRATEGY			strategy;
+	private final String	CACHE_HIT;
+	private final String	CACHE_MISS;
 
 	public enum STRATEGY {
 		POP_RECORD, COPY_RECORD
@@ -39,9 +48,23 @@ public class OLevel2RecordCache extends OAbstractRecordCache {
 	public OLevel2RecordCache(final OStorage iStorage) {
 		super(new OCacheLocator().secondaryCache());
 		profilerPrefix = "storage." + iStorage.getName();
+		CACHE_HIT = profilerPrefix + ".cache.found";
+		CACHE_MISS = profilerPrefix + ".cache.notFound";
 		strategy = STRATEGY.values()[(CACHE_LEVEL2_STRATEGY.getValueAsInteger())];
 	}
 
+	@Override
+	public void startup() {
+		super.startup();
+
+		if (underlying instanceof OStripedCache)
+			OProfiler.getInstance().registerHookValue(profilerPrefix + ".cache.evicted", new OProfilerHookValue() {
+				public Object getValue() {
+					return ((OStripedCache) underlying).getEvictions();
+				}
+			});
+	}
+
 	/**
 	 * Push record to cache. Identifier of record used as access key
 	 * 
@@ -88,20 +111,26 @@ public class OLevel2RecordCache extends OAbstractRecordCache {
 		if (!isEnabled() || iRID.getClusterId() == excludedCluster)
 			return null;
 
-		final ORecordInternal<?> record;
-		underlying.lock(iRID);
-		try {
+		ORecordInternal<?> record;
+		if (strategy == STRATEGY.COPY_RECORD) {
+			// THE CACHED INSTANCE IS NEVER GIVEN TO THE DATABASES: RETURN A CLONE WITHOUT CHANGING THE CACHE (THE LOOKUP ALSO UPDATES THE
+			// LRU)
+			underlying.lock(iRID);
+			try {
+				record = underlying.get(iRID);
+			} finally {
+				underlying.unlock(iRID);
+			}
+
+			if (record != null && !record.isDirty())
+				record = (ORecordInternal<?>) record.flatCopy();
+		} else
 			record = underlying.remove(iRID);
 
-			if (record == null || record.isDirty())
-				return null;
+		if (record != null && record.isDirty())
+			record = null;
 
-			if (strategy == STRATEGY.COPY_RECORD)
-				// PUT BACK A CLONE (THIS UPDATE ALSO THE LRU)
-				underlying.put((ORecordInternal<?>) record.flatCopy());
-		} finally {
-			underlying.unlock(iRID);
-		}
+		OProfiler.getInstance().updateCounter(record != null ? CACHE_HIT : CACHE_MISS, 1L);
 
 		return record;
 	}
@@ -110,8 +139,28 @@ public class OLevel2RecordCache extends OAbstractRecordCache {
 		strategy = newStrategy;
 	}
 
+	/**
+	 * Applies the settings of the storage overriding the global ones. Called once the storage configuration is loaded.
+	 * 
+	 * @param iConfiguration
+	 *          storage configuration
+	 */
+	public void configure(final OStorageConfiguration iConfiguration) {
+		if (iConfiguration == null || iConfiguration.properties == null)
+			return;
+
+		for (OStorageEntryConfiguration e : iConfiguration.properties)
+			if (CACHE_LEVEL2_MEMORY.getKey().equals(e.name) && e.value != null)
+				try {
+					setMaxMemory(OFileUtils.getSizeAsNumber(e.value));
+				} catch (IllegalArgumentException ex) {
+					OLogManager.instance().warn(this, "Invalid value for storage setting '%s': %s", e.name, e.value);
+				}
+	}
+
 	@Override
 	public String toString() {
-		return "STORAGE level2 cache records = " + getSize() + ", maxSize = " + getMaxSize();
+		return "STORAGE level2 cache records = " + getSize() + ", maxSize = " + getMaxSize() + ", memory = " + getMemory()
+				+ ", maxMemory = " + getMaxMemory();
 	}
 }
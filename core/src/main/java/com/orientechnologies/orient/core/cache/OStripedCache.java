@@ -0,0 +1,382 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.memory.OMemoryWatchDog;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+
+/**
+ * Concurrent implementation of {@link OCache} to use as level-2 cache in highly concurrent environments. Set
+ * "cache.level2.impl" to this class name to use it.<br/>
+ * <br/>
+ * The records are split in segments by the hash of their identity. Lookups don't acquire any lock, while the eviction follows the
+ * CLOCK (second chance) algorithm, an approximation of LRU: a lookup only marks the entry as referenced, and when the segment is
+ * full the entries not referenced since the last sweep are evicted. The {@link #lock(ORID)} and {@link #unlock(ORID)} methods lock
+ * only the segment of the record. Both the size limit and the memory limit are split evenly among the segments.
+ * 
+ * @author Luca Garulli
+ */
+public class OStripedCache implements OCache {
+	private static final int					QUEUE_SLACK	= 16;
+
+	private final AtomicBoolean				enabled			= new AtomicBoolean(false);
+	private final OCacheSegment[]			segments;
+	private final int									limit;
+	private final int									segmentLimit;
+	private final AtomicLong					evictions		= new AtomicLong();
+	private volatile long							memoryLimit	= -1;
+	private volatile long							segmentMemoryLimit	= -1;
+
+	protected OMemoryWatchDog.Listener	lowMemoryListener;
+
+	private static final class OCacheEntry {
+		private final ORID								key;
+		private final ORecordInternal<?>	record;
+		private final int									weight;
+		private volatile boolean					referenced;
+
+		private OCacheEntry(final ORID iKey, final ORecordInternal<?> iRecord) {
+			key = iKey;
+			record = iRecord;
+			weight = OCacheRecordWeigher.weigh(iRecord);
+		}
+	}
+
+	private static final class OCacheSegment {
+		private final ConcurrentHashMap<ORID, OCacheEntry>		entries		= new ConcurrentHashMap<ORID, OCacheEntry>();
+		private final ConcurrentLinkedQueue<OCacheEntry>	clock			= new ConcurrentLinkedQueue<OCacheEntry>();
+		private final AtomicInteger												size			= new AtomicInteger();
+		private final AtomicInteger												queued		= new AtomicInteger();
+		private final AtomicLong													memory		= new AtomicLong();
+		private final AtomicBoolean												sweeping	= new AtomicBoolean();
+		private final ReentrantLock												lock			= new ReentrantLock();
+	}
+
+	public OStripedCache(final int initialLimit) {
+		limit = initialLimit;
+
+		// USE MORE SEGMENTS THAN CORES TO KEEP LOW THE PROBABILITY OF COLLISIONS ON THE SEGMENT LOCKS
+		int concurrency = 1;
+		while (concurrency < Runtime.getRuntime().availableProcessors() * 4)
+			concurrency <<= 1;
+
+		segments = new OCacheSegment[concurrency];
+		for (int i = 0; i < segments.length; ++i)
+			segments[i] = new OCacheSegment();
+
+		segmentLimit = limit > 0 ? Math.max(1, (limit + segments.length - 1) / segments.length) : -1;
+	}
+
+	public void startup() {
+		lowMemoryListener = Orient.instance().getMemoryWatchDog().addListener(new OLowMemoryListener());
+		enable();
+	}
+
+	public void shutdown() {
+		Orient.instance().getMemoryWatchDog().removeListener(lowMemoryListener);
+		disable();
+	}
+
+	public boolean isEnabled() {
+		return enabled.get();
+	}
+
+	public boolean enable() {
+		return enabled.compareAndSet(false, true);
+	}
+
+	public boolean disable() {
+		clear();
+		return enabled.compareAndSet(true, false);
+	}
+
+	public ORecordInternal<?> get(final ORID id) {
+		if (!isEnabled())
+			return null;
+
+		final OCacheEntry entry = segmentFor(id).entries.get(id);
+		if (entry == null)
+			return null;
+
+		if (!entry.referenced)
+			// WRITE ONLY IF NEEDED TO AVOID TO INVALIDATE THE CPU CACHES AT EVERY HIT
+			entry.referenced = true;
+
+		return entry.record;
+	}
+
+	public ORecordInternal<?> put(final ORecordInternal<?> record) {
+		if (!isEnabled())
+			return null;
+
+		final OCacheSegment segment = segmentFor(record.getIdentity());
+		final OCacheEntry entry = new OCacheEntry(record.getIdentity(), record);
+
+		final OCacheEntry previous = segment.entries.put(entry.key, entry);
+		if (previous == null)
+			segment.size.incrementAndGet();
+		segment.memory.addAndGet(previous != null ? entry.weight - previous.weight : entry.weight);
+
+		segment.clock.offer(entry);
+		segment.queued.incrementAndGet();
+
+		if ((segmentLimit > 0 && segment.size.get() > segmentLimit)
+				|| (segmentMemoryLimit > 0 && segment.memory.get() > segmentMemoryLimit)
+				|| segment.queued.get() > segment.size.get() * 2 + QUEUE_SLACK)
+			sweep(segment, segmentLimit, segmentMemoryLimit);
+
+		return previous != null ? previous.record : null;
+	}
+
+	public ORecordInternal<?> remove(final ORID id) {
+		if (!isEnabled())
+			return null;
+
+		final OCacheSegment segment = segmentFor(id);
+		final OCacheEntry entry = segment.entries.remove(id);
+		if (entry == null)
+			return null;
+
+		// THE ENTRY IN THE CLOCK QUEUE WILL BE DISCARDED AT THE NEXT SWEEP
+		segment.size.decrementAndGet();
+		segment.memory.addAndGet(-entry.weight);
+		return entry.record;
+	}
+
+	public void clear() {
+		if (!isEnabled())
+			return;
+
+		for (OCacheSegment segment : segments) {
+			segment.lock.lock();
+			try {
+				segment.entries.clear();
+				segment.clock.clear();
+
+				// RECORDS COULD BE PUT IN THE MEANWHILE
+				long memory = 0;
+				for (OCacheEntry entry : segment.entries.values())
+					memory += entry.weight;
+				segment.memory.set(memory);
+				segment.size.set(segment.entries.size());
+				segment.queued.set(segment.clock.size());
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (OCacheSegment segment : segments)
+			size += segment.size.get();
+		return size;
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+	public long memory() {
+		long memory = 0;
+		for (OCacheSegment segment : segments)
+			memory += segment.memory.get();
+		return memory;
+	}
+
+	public long memoryLimit() {
+		return memoryLimit;
+	}
+
+	public void setMemoryLimit(final long iLimit) {
+		memoryLimit = iLimit > 0 ? iLimit : -1;
+		segmentMemoryLimit = iLimit > 0 ? Math.max(1, iLimit / segments.length) : -1;
+
+		if (segmentMemoryLimit > 0)
+			for (OCacheSegment segment : segments)
+				if (segment.memory.get() > segmentMemoryLimit)
+					sweep(segment, segmentLimit, segmentMemoryLimit);
+	}
+
+	public Collection<ORID> keys() {
+		final List<ORID> keys = new ArrayList<ORID>(size());
+		for (OCacheSegment segment : segments)
+			keys.addAll(segment.entries.keySet());
+		return keys;
+	}
+
+	public void lock(final ORID id) {
+		segmentFor(id).lock.lock();
+	}
+
+	public void unlock(final ORID id) {
+		segmentFor(id).lock.unlock();
+	}
+
+	/**
+	 * Returns the number of records evicted because the cache was full or the memory was low.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Browses the clock queue of the segment evicting the entries not referenced since the last sweep, until the segment size and
+	 * memory are under the targets. The referenced entries get a second chance: the flag is reset and they are moved at the end of
+	 * the queue. The entries of removed records are discarded. Dirty and pinned records are never evicted: they are moved at the end of
+	 * the queue and the sweep stops once it has found only them in a whole round. Only one thread at a time sweeps a segment.
+	 * 
+	 * @param iTarget
+	 *          Maximum number of entries to keep, -1 to not bound the entries
+	 * @param iMemoryTarget
+	 *          Maximum memory the entries can take, -1 to not bound the memory. The last entry is kept even if bigger
+	 */
+	private void sweep(final OCacheSegment iSegment, final int iTarget, final long iMemoryTarget) {
+		if (!iSegment.sweeping.compareAndSet(false, true))
+			// ANOTHER THREAD IS ALREADY SWEEPING THE SEGMENT
+			return;
+
+		try {
+			// IF THE QUEUE CONTAINS TOO MANY REMOVED ENTRIES BROWSE IT ALL TO DISCARD THEM
+			int toCompact = iSegment.queued.get() > iSegment.size.get() * 2 + QUEUE_SLACK ? iSegment.queued.get() : 0;
+			int unevictables = 0;
+
+			// EVERY ENTRY CAN BE VISITED AT MOST TWICE: THE SECOND TIME IS NOT REFERENCED ANYMORE
+			for (int toVisit = iSegment.queued.get() * 2; toVisit > 0; --toVisit, --toCompact) {
+				final boolean evict = (iTarget > -1 && iSegment.size.get() > iTarget)
+						|| (iMemoryTarget > -1 && iSegment.memory.get() > iMemoryTarget && iSegment.size.get() > 1);
+				if (!evict && toCompact <= 0)
+					break;
+
+				final OCacheEntry entry = iSegment.clock.poll();
+				if (entry == null)
+					break;
+				iSegment.queued.decrementAndGet();
+
+				if (iSegment.entries.get(entry.key) != entry)
+					// REMOVED OR REPLACED: DISCARD IT
+					continue;
+
+				if (evict && !isEvictable(entry)) {
+					// KEEP IT WITHOUT CONSUMING ITS SECOND CHANCE
+					iSegment.clock.offer(entry);
+					if (++unevictables > iSegment.queued.incrementAndGet())
+						// A WHOLE ROUND WITHOUT EVICTABLE ENTRIES
+						break;
+					continue;
+				}
+
+				if (evict && !entry.referenced) {
+					if (iSegment.entries.remove(entry.key, entry)) {
+						iSegment.size.decrementAndGet();
+						iSegment.memory.addAndGet(-entry.weight);
+						evictions.incrementAndGet();
+					}
+					continue;
+				}
+
+				// SECOND CHANCE
+				if (evict)
+					entry.referenced = false;
+				iSegment.clock.offer(entry);
+				iSegment.queued.incrementAndGet();
+			}
+		} finally {
+			iSegment.sweeping.set(false);
+		}
+	}
+
+	/**
+	 * Evicts the entries of all the segments until the size, or the memory if bounded, is reduced by the requested percentage. If the
+	 * clock doesn't find enough entries to evict, the remaining ones are evicted in any order skipping dirty and pinned records.
+	 */
+	private void shrink(final float iPercentage) {
+		final boolean byMemory = memoryLimit > 0;
+
+		for (OCacheSegment segment : segments) {
+			final int target = byMemory ? -1 : (int) (segment.size.get() * (1 - iPercentage));
+			final long memoryTarget = byMemory ? (long) (segment.memory.get() * (1 - iPercentage)) : -1;
+
+			sweep(segment, target, memoryTarget);
+
+			if (byMemory ? segment.memory.get() > memoryTarget : segment.size.get() > target) {
+				// THE SEGMENT IS UNBOUNDED OR FULL OF REFERENCED ENTRIES: EVICT THE REMAINING ONES IN ANY ORDER
+				for (Iterator<OCacheEntry> it = segment.entries.values().iterator(); it.hasNext()
+						&& (byMemory ? segment.memory.get() > memoryTarget : segment.size.get() > target);) {
+					final OCacheEntry entry = it.next();
+					if (isEvictable(entry) && segment.entries.remove(entry.key, entry)) {
+						segment.size.decrementAndGet();
+						segment.memory.addAndGet(-entry.weight);
+						evictions.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isEvictable(final OCacheEntry iEntry) {
+		return !iEntry.record.isDirty() && iEntry.record.isPinned() != Boolean.TRUE;
+	}
+
+	private OCacheSegment segmentFor(final ORID id) {
+		// SPREAD THE BITS SINCE THE HASH CODE OF SEQUENTIAL RECORDS IS SEQUENTIAL TOO
+		int h = id.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[h & (segments.length - 1)];
+	}
+
+	class OLowMemoryListener implements OMemoryWatchDog.Listener {
+		public void memoryUsageLow(final long freeMemory, final long freeMemoryPercentage) {
+			try {
+				final int oldSize = size();
+				if (oldSize == 0)
+					return;
+
+				if (memoryLimit > 0) {
+					// THE MEMORY IS ALREADY BOUNDED: FREE JUST A PART OF IT INSTEAD OF CLEARING THE CACHE
+					final long oldMemory = memory();
+					shrink(freeMemoryPercentage < 10 ? 0.5f : 0.1f);
+					OLogManager.instance().debug(this, "Low memory (%d%%): reducing cached records memory from %d to %d bytes",
+							freeMemoryPercentage, oldMemory, memory());
+				} else if (freeMemoryPercentage < 10) {
+					OLogManager.instance().debug(this, "Low memory (%d%%): clearing %d cached records", freeMemoryPercentage, oldSize);
+					shrink(1f);
+				} else {
+					shrink(0.1f);
+					OLogManager.instance().debug(this, "Low memory (%d%%): reducing cached records number from %d to %d",
+							freeMemoryPercentage, oldSize, size());
+				}
+			} catch (Exception e) {
+				OLogManager.instance().error(this, "Error occurred during striped cache cleanup", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.compression;
+
+/**
+ * Compression algorithm used to store the records of a cluster. Implementations must be stateless and thread-safe: the same
+ * instance is shared by all the clusters using it.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public interface OCompression {
+	/**
+	 * Returns the unique id of the algorithm. It's stored with every compressed record, so it can never change once assigned.
+	 */
+	public byte getId();
+
+	public String getName();
+
+	/**
+	 * Compresses the content.
+	 * 
+	 * @return The compressed content or null if the content can't be compressed
+	 */
+	public byte[] compress(byte[] iContent, int iOffset, int iLength);
+
+	/**
+	 * Uncompresses a content previously compressed with {@link #compress(byte[], int, int)}.
+	 * 
+	 * @param iUncompressedLength
+	 *          Length of the original content
+	 */
+	public byte[] uncompress(byte[] iContent, int iOffset, int iLength, int iUncompressedLength);
+}
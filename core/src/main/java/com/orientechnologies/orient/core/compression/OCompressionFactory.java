@@ -0,0 +1,81 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.compression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.orientechnologies.common.factory.ODynamicFactory;
+import com.orientechnologies.orient.core.exception.OConfigurationException;
+
+/**
+ * Factory of the compression algorithms available for the clusters. To register 3rd party implementations use:
+ * OCompressionFactory.instance().register(<name>, <instance>);
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OCompressionFactory extends ODynamicFactory<String, OCompression> {
+	public static final String									NONE			= "none";
+
+	protected static final OCompressionFactory	instance	= new OCompressionFactory();
+
+	protected final Map<Byte, OCompression>			byId			= new HashMap<Byte, OCompression>();
+
+	public OCompressionFactory() {
+		register(ODeflateCompression.NAME, new ODeflateCompression());
+	}
+
+	@Override
+	public synchronized void register(final String iName, final OCompression iCompression) {
+		final OCompression existent = byId.get(iCompression.getId());
+		if (existent != null && !existent.getName().equals(iName))
+			throw new OConfigurationException("Compression id " + iCompression.getId() + " is already used by '" + existent.getName()
+					+ "'");
+
+		super.register(iName, iCompression);
+		byId.put(iCompression.getId(), iCompression);
+	}
+
+	/**
+	 * Returns the compression by name.
+	 * 
+	 * @return The compression or null if the name is null or "none"
+	 */
+	public OCompression getCompression(final String iName) {
+		if (iName == null || iName.equalsIgnoreCase(NONE))
+			return null;
+
+		final OCompression compression = registry.get(iName.toLowerCase());
+		if (compression == null)
+			throw new OConfigurationException("Compression '" + iName + "' is not configured");
+		return compression;
+	}
+
+	/**
+	 * Returns the compression by the id stored in the compressed records.
+	 */
+	public OCompression getCompression(final byte iId) {
+		final OCompression compression = byId.get(iId);
+		if (compression == null)
+			throw new OConfigurationException("Compression with id " + iId + " is not configured");
+		return compression;
+	}
+
+	public static OCompressionFactory instance() {
+		return instance;
+	}
+}
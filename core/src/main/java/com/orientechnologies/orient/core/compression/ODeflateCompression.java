@@ -0,0 +1,100 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.compression;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.orientechnologies.orient.core.exception.OStorageException;
+
+/**
+ * Compression based on the Deflate algorithm of the JDK, tuned for speed. Deflater and Inflater instances are kept per thread
+ * since they are expensive to create.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class ODeflateCompression implements OCompression {
+	public static final byte		ID		= 1;
+	public static final String	NAME	= "deflate";
+
+	private static final ThreadLocal<Deflater>	deflater	= new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED, true);
+		}
+	};
+
+	private static final ThreadLocal<Inflater>	inflater	= new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	public byte getId() {
+		return ID;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public byte[] compress(final byte[] iContent, final int iOffset, final int iLength) {
+		final Deflater d = deflater.get();
+		d.reset();
+		d.setInput(iContent, iOffset, iLength);
+		d.finish();
+
+		// THE BUFFER HAS THE SIZE OF THE ORIGINAL CONTENT: IF THE COMPRESSED ONE DOESN'T FIT IT'S USELESS TO STORE IT COMPRESSED
+		final byte[] buffer = new byte[iLength];
+		int written = 0;
+		while (!d.finished()) {
+			if (written == buffer.length)
+				return null;
+			written += d.deflate(buffer, written, buffer.length - written);
+		}
+
+		final byte[] result = new byte[written];
+		System.arraycopy(buffer, 0, result, 0, written);
+		return result;
+	}
+
+	public byte[] uncompress(final byte[] iContent, final int iOffset, final int iLength, final int iUncompressedLength) {
+		final Inflater i = inflater.get();
+		i.reset();
+		i.setInput(iContent, iOffset, iLength);
+
+		final byte[] result = new byte[iUncompressedLength];
+		try {
+			int read = 0;
+			while (read < result.length) {
+				final int n = i.inflate(result, read, result.length - read);
+				if (n == 0)
+					break;
+				read += n;
+			}
+
+			if (read != result.length)
+				throw new OStorageException("Error on uncompressing record: expected " + iUncompressedLength + " bytes but found " + read);
+
+		} catch (DataFormatException e) {
+			throw new OStorageException("Error on uncompressing record: the content is corrupted", e);
+		}
+		return result;
+	}
+}
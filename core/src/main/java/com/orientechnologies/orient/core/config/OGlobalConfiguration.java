@@ -59,16 +59,42 @@ public enum OGlobalConfiguration {
 	STORAGE_RECORD_LOCK_TIMEOUT("storage.record.lockTimeout", "Maximum timeout in milliseconds to lock a shared record",
 			Integer.class, 5000),
 
+	STORAGE_BATCH_READ_MAX_GAP("storage.batchRead.maxGap",
+			"Maximum gap in bytes between two records of a batch read to join them in one read from the data segment", Integer.class,
+			4096),
+
+	STORAGE_BATCH_READ_MAX_SIZE("storage.batchRead.maxSize", "Maximum size in bytes of a single read of a batch read", Integer.class,
+			1048576),
+
+	STORAGE_COMPRESSION_MIN_SIZE("storage.compression.minSize",
+			"Minimum size in bytes of the records to compress in the clusters with a compression configured. Smaller records are stored as is",
+			Integer.class, 128),
+
+	STORAGE_READ_AHEAD_RECORDS("storage.readAhead.records",
+			"Number of records read in batch while browsing the clusters of a local storage. 0 disables the read-ahead", Integer.class,
+			32),
+
 	// CACHE
 	CACHE_LEVEL1_ENABLED("cache.level1.enabled", "Use the level-1 cache", Boolean.class, true),
 
 	CACHE_LEVEL1_SIZE("cache.level1.size", "Size of the cache that keeps the record in memory", Integer.class, -1),
 
+	CACHE_LEVEL1_MEMORY("cache.level1.memory",
+			"Maximum memory in bytes the records in the level-1 cache can take, estimated from the size of their serialized content. -1 = unbounded",
+			Long.class, -1),
+
 	CACHE_LEVEL2_ENABLED("cache.level2.enabled", "Use the level-2 cache", Boolean.class, true),
 
 	CACHE_LEVEL2_SIZE("cache.level2.size", "Size of the cache that keeps the record in memory", Integer.class, -1),
 
-	CACHE_LEVEL2_IMPL("cache.level2.impl", "Actual implementation of secondary cache", String.class, ODefaultCache.class
+	CACHE_LEVEL2_MEMORY(
+			"cache.level2.memory",
+			"Maximum memory in bytes the records in the level-2 cache of every storage can take, estimated from the size of their serialized content. It can be overridden per storage with a storage property with the same name. -1 = unbounded",
+			Long.class, -1),
+
+	CACHE_LEVEL2_IMPL("cache.level2.impl",
+			"Actual implementation of secondary cache. Use com.orientechnologies.orient.core.cache.OStripedCache in highly concurrent environments",
+			String.class, ODefaultCache.class
 			.getCanonicalName()),
 
 	CACHE_LEVEL2_STRATEGY("cache.level2.strategy",
@@ -89,6 +115,51 @@ public enum OGlobalConfiguration {
 
 	DB_VALIDATION("db.validation", "Enables or disables validation of records", Boolean.class, true),
 
+	DB_DOCUMENT_LAZY_FIELDS("db.document.lazyFields",
+			"Deserializes only the accessed fields of the documents written in binary format, the others are kept serialized", Boolean.class,
+			true),
+
+	// QUERIES
+	QUERY_STATEMENT_CACHE_SIZE("query.statementCache.size",
+			"Number of parsed SELECT statements kept per database to execute them again without parsing. 0 disables the cache",
+			Integer.class, 100),
+
+	QUERY_GROUPBY_MAX_GROUPS("query.groupBy.maxGroups",
+			"Maximum number of groups of GROUP BY aggregated in memory at the same time. The records of the other groups are written to a temporary file and aggregated in further passes",
+			Integer.class, 100000),
+
+	QUERY_PARALLEL_ENABLED("query.parallel.enabled",
+			"Scans the clusters of the classes in parallel to evaluate the WHERE condition of SELECT. Used only on local storages, outside transactions and with simple conditions",
+			Boolean.class, false),
+
+	QUERY_PARALLEL_THREADS("query.parallel.threads", "Number of threads that scan the clusters in parallel. 0 means the number of cores",
+			Integer.class, 0),
+
+	QUERY_PARALLEL_CHUNK_SIZE("query.parallel.chunkSize", "Number of cluster positions scanned by every parallel task", Integer.class,
+			1000),
+
+	QUERY_PARALLEL_MIN_RECORDS("query.parallel.minRecords", "Minimum number of records of the class to scan it in parallel",
+			Integer.class, 10000),
+
+	QUERY_PLANNER_MIN_RECORDS("query.planner.minRecords",
+			"Minimum number of records of a class to choose the indexes to use in queries by estimating the records they select with their statistics",
+			Integer.class, 1000),
+
+	QUERY_PLANNER_RANDOM_READ_COST("query.planner.randomReadCost",
+			"Cost of loading a record found by an index compared to reading it while scanning the clusters. The query planner scans the clusters when loading the records selected by the indexes costs more",
+			Float.class, 4f),
+
+	QUERY_PLANNER_HISTOGRAM_BUCKETS("query.planner.histogramBuckets",
+			"Number of buckets of the histogram of the keys kept for every index to estimate the records selected by a condition",
+			Integer.class, 32),
+
+	QUERY_PLANNER_STATISTICS_REFRESH("query.planner.statisticsRefresh",
+			"Percentage of the entries of an index that must change before its statistics are computed again", Integer.class, 10),
+
+	QUERY_PLANNER_STATISTICS_STEP("query.planner.statisticsStep",
+			"Number of entries of an index browsed by every step of the computation of its statistics. The index is locked only during a step, so the changes are not blocked for the whole computation",
+			Integer.class, 1000),
+
 	// SETTINGS OF NON-TRANSACTIONAL MODE
 	NON_TX_RECORD_UPDATE_SYNCH("nonTX.recordUpdate.synch",
 			"Executes a synch against the file-system at every record operation. This slows down records updates "
@@ -105,8 +176,33 @@ public enum OGlobalConfiguration {
 			"Executes a synch against the file-system at every log entry. This slows down transactions but guarantee transaction reliability on unreliable drives",
 			Boolean.class, Boolean.FALSE),
 
+	TX_LOG_WAL(
+			"tx.log.wal",
+			"Uses the transaction log as write-ahead log: at commit only the log is synchronized, while clusters and data segments are synchronized at checkpoints. On restart the committed transactions not synchronized yet are redone",
+			Boolean.class, Boolean.FALSE),
+
+	TX_LOG_CHECKPOINT_INTERVAL("tx.log.checkpoint.interval",
+			"Maximum time in ms between two checkpoints of the write-ahead log. Bounds the recovery time after a crash", Long.class,
+			60000),
+
+	TX_LOG_CHECKPOINT_SIZE("tx.log.checkpoint.size",
+			"Size in bytes of the write-ahead log that forces a checkpoint and the restart of the log, default is 64Mb", Integer.class,
+			67108864),
+
 	TX_COMMIT_SYNCH("tx.commit.synch", "Synchronizes the storage after transaction commit", Boolean.class, false),
 
+	TX_COMMIT_GROUP(
+			"tx.commit.group",
+			"Groups the transactions committed concurrently and synchronizes the storage once for all of them. This speeds up concurrent commits keeping the same reliability of tx.commit.synch",
+			Boolean.class, Boolean.FALSE),
+
+	TX_COMMIT_GROUP_WINDOW("tx.commit.group.window",
+			"Maximum time in ms a group commit waits for other transactions to join before to synchronize the storage", Integer.class, 5),
+
+	TX_COMMIT_GROUP_MAX_SIZE("tx.commit.group.maxSize",
+			"Maximum number of transactions in a group commit. Once reached the storage is synchronized without waiting for the window",
+			Integer.class, 100),
+
 	// GRAPH
 	BLUEPRINTS_TX_MODE("blueprints.graph.txMode",
 			"Transaction mode used in TinkerPop Blueprints implementation. 0 = Automatic (default), 1 = Manual", Integer.class, 0),
@@ -152,6 +248,20 @@ public enum OGlobalConfiguration {
 	MVRBTREE_RID_NODE_SAVE_MEMORY("mvrbtree.ridNodeSaveMemory",
 			"Save memory usage by avoid keeping RIDs in memory but creating them at every access", Boolean.class, Boolean.FALSE),
 
+	// INDEX REBUILD
+	INDEX_REBUILD_SORT_BUFFER("index.rebuild.sortBuffer",
+			"Keys sorted in memory while rebuilding an index. Beyond this the sorted keys are spilled to temporary files and merged",
+			Integer.class, 250000),
+
+	INDEX_REBUILD_PARALLEL("index.rebuild.parallel",
+			"Reads the records to index with the threads of the parallel scan on local databases with at least "
+					+ "'query.parallel.minRecords' records", Boolean.class, Boolean.TRUE),
+
+	// HASH INDEXES
+	INDEX_HASH_BUCKET_SIZE("index.hash.bucketSize",
+			"Average entries per bucket of the hash indexes. When exceeded the table grows by splitting one bucket at every insertion",
+			Integer.class, 128),
+
 	// COLLECTIONS
 	LAZYSET_WORK_ON_STREAM("lazyset.workOnStream", "Upon add avoid unmarshalling set", Boolean.class, true),
 
@@ -169,6 +279,24 @@ public enum OGlobalConfiguration {
 			"Max distance in bytes between holes to cause their defrag. Set it to -1 to use dynamic size. Beware that if the db is huge moving blocks to defrag could be expensive",
 			Integer.class, 32768),
 
+	FILE_DEFRAG_BACKGROUND(
+			"file.defrag.background",
+			"Defrags the data segments in background instead of moving the records on deletes and updates. Deleted space is merged only with the adjacent holes and compacted later",
+			Boolean.class, false),
+
+	FILE_DEFRAG_BACKGROUND_INTERVAL("file.defrag.background.interval", "Interval in ms between two runs of the background defrag",
+			Integer.class, 5000),
+
+	FILE_DEFRAG_BACKGROUND_THRESHOLD("file.defrag.background.threshold",
+			"Percentage of a data segment occupied by holes to start the background defrag. The defrag continues until the half of it",
+			Integer.class, 20),
+
+	FILE_DEFRAG_BACKGROUND_MAX_MOVE("file.defrag.background.maxMove",
+			"Maximum bytes of records the background defrag moves at every step while locking the data segment", Integer.class, 65536),
+
+	FILE_DEFRAG_BACKGROUND_MAX_TIME("file.defrag.background.maxTime",
+			"Maximum time in ms of every run of the background defrag", Integer.class, 200),
+
 	FILE_MMAP_STRATEGY(
 			"file.mmap.strategy",
 			"Strategy to use with memory mapped files. 0 = USE MMAP ALWAYS, 1 = USE MMAP ON WRITES OR ON READ JUST WHEN THE BLOCK POOL IS FREE, 2 = USE MMAP ON WRITES OR ON READ JUST WHEN THE BLOCK IS ALREADY AVAILABLE, 3 = USE MMAP ONLY IF BLOCK IS ALREADY AVAILABLE, 4 = NEVER USE MMAP",
@@ -208,6 +336,21 @@ public enum OGlobalConfiguration {
 	FILE_MMAP_FORCE_RETRY("file.mmap.forceRetry", "Number of times the memory-mapped block will try to flush to disk", Integer.class,
 			50),
 
+	FILE_PAGECACHE_ENABLED(
+			"file.pageCache.enabled",
+			"Accesses the storage files through the off-heap page cache instead of memory mapping or the channel. The file format doesn't change, so it can be enabled on existent databases. Modified pages not written yet are lost if the process is killed",
+			Boolean.class, false),
+
+	FILE_PAGECACHE_PAGE_SIZE("file.pageCache.pageSize", "Size in bytes of the pages of the off-heap page cache", Integer.class, 65536),
+
+	FILE_PAGECACHE_MAX_MEMORY("file.pageCache.maxMemory",
+			"Memory in bytes allocated out of the Java heap by the page cache, shared among all the opened files", Long.class,
+			134217728),
+
+	FILE_PAGECACHE_FLUSH_INTERVAL("file.pageCache.flushInterval",
+			"Interval in ms between two writes of the modified pages to the files by the background thread. 0 = write on eviction and synch only",
+			Integer.class, 1000),
+
 	// NETWORK
 	NETWORK_SOCKET_BUFFER_SIZE("network.socketBufferSize", "TCP/IP Socket buffer size", Integer.class, 32768),
 
@@ -236,6 +379,17 @@ public enum OGlobalConfiguration {
 
 	NETWORK_BINARY_DEBUG("network.binary.debug", "Debug mode: print all data incoming on the binary channel", Boolean.class, false),
 
+	NETWORK_BINARY_NIO("network.binary.nio",
+			"Serves the binary connections with a selector and a pool of worker threads instead of a thread per connection", Boolean.class,
+			false),
+
+	NETWORK_BINARY_NIO_WORKERS("network.binary.nio.workers",
+			"Number of worker threads executing the requests of the binary connections served by a selector", Integer.class, 16),
+
+	NETWORK_BINARY_NIO_READ_TIMEOUT("network.binary.nio.readTimeout",
+			"Timeout in ms to wait for the rest of a request partially received. Then the worker thread leaves the connection to the selector "
+					+ "and reads the request again when the rest arrives", Integer.class, 100),
+
 	NETWORK_HTTP_MAX_CONTENT_LENGTH("network.http.maxLength", "TCP/IP max content length in bytes for HTTP requests", Integer.class,
 			100000),
 
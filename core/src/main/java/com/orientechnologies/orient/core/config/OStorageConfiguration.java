@@ -44,7 +44,7 @@ import com.orientechnologies.orient.core.storage.impl.local.OStorageLocal;
 public class OStorageConfiguration implements OSerializableStream {
 	public static final ORecordId							CONFIG_RID			= new ORecordId(0, 0);
 
-	public static final int										CURRENT_VERSION	= 3;
+	public static final int										CURRENT_VERSION	= 5;
 
 	public int																version					= -1;
 	public String															name;
@@ -56,6 +56,7 @@ public class OStorageConfiguration implements OSerializableStream {
 	public String															localeCountry		= Locale.getDefault().getCountry();
 	public String															dateFormat			= "yyyy-MM-dd";
 	public String															dateTimeFormat	= "yyyy-MM-dd HH:mm:ss";
+	public String															recordFormat;
 
 	public final OStorageSegmentConfiguration	fileTemplate;
 
@@ -184,6 +185,8 @@ public class OStorageConfiguration implements OSerializableStream {
 				index = phySegmentFromStream(values, index, phyCluster);
 				phyCluster.setHoleFile(new OStorageClusterHoleConfiguration(phyCluster, read(values[index++]), read(values[index++]),
 						read(values[index++])));
+				if (version >= 4)
+					phyCluster.setCompression(read(values[index++]));
 				currentCluster = phyCluster;
 			} else if (clusterType.equals("m"))
 				// MEMORY CLUSTER
@@ -226,6 +229,9 @@ public class OStorageConfiguration implements OSerializableStream {
 			properties.add(new OStorageEntryConfiguration(read(values[index++]), read(values[index++])));
 		}
 
+		if (version >= 5)
+			recordFormat = read(values[index++]);
+
 		return this;
 	}
 
@@ -262,6 +268,7 @@ public class OStorageConfiguration implements OSerializableStream {
 				write(buffer, "p");
 				phySegmentToStream(buffer, (OStoragePhysicalClusterConfiguration) c);
 				fileToStream(buffer, ((OStoragePhysicalClusterConfiguration) c).getHoleFile());
+				write(buffer, ((OStoragePhysicalClusterConfiguration) c).getCompression());
 			} else if (c instanceof OStorageMemoryClusterConfiguration) {
 				// MEMORY
 				write(buffer, "m");
@@ -288,6 +295,8 @@ public class OStorageConfiguration implements OSerializableStream {
 		for (OStorageEntryConfiguration e : properties)
 			entryToStream(buffer, e);
 
+		write(buffer, recordFormat);
+
 		// PLAIN: ALLOCATE ENOUGHT SPACE TO REUSE IT EVERY TIME
 		buffer.append("|");
 
@@ -21,6 +21,7 @@ public class OStoragePhysicalClusterConfiguration extends OStorageSegmentConfigu
 
 	private OStorageFileConfiguration	holeFile;
 	private int												dataSegmentId;
+	private String											compression;
 
 	public OStoragePhysicalClusterConfiguration(final OStorageConfiguration iStorageConfiguration, final int iId,
 			final int iDataSegmentId) {
@@ -65,4 +66,15 @@ public class OStoragePhysicalClusterConfiguration extends OStorageSegmentConfigu
 	public void setDataSegmentId(int dataSegmentId) {
 		this.dataSegmentId = dataSegmentId;
 	}
+
+	/**
+	 * Returns the name of the compression used for the records of the cluster, or null if the records are not compressed.
+	 */
+	public String getCompression() {
+		return compression;
+	}
+
+	public void setCompression(final String compression) {
+		this.compression = compression;
+	}
 }
@@ -40,6 +40,7 @@ import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
 import com.orientechnologies.orient.core.fetch.OFetchHelper;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.intent.OIntent;
+import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializerFactory;
 import com.orientechnologies.orient.core.storage.ORawBuffer;
 import com.orientechnologies.orient.core.storage.OStorage;
 import com.orientechnologies.orient.core.storage.OStorage.CLUSTER_TYPE;
@@ -474,6 +475,8 @@ public class ODatabaseRaw implements ODatabase {
 		switch (iAttribute) {
 		case STATUS:
 			return getStatus();
+		case RECORDFORMAT:
+			return storage.getConfiguration().recordFormat;
 		}
 
 		return null;
@@ -489,6 +492,14 @@ public class ODatabaseRaw implements ODatabase {
 		case STATUS:
 			setStatus(STATUS.valueOf(stringValue.toUpperCase(Locale.ENGLISH)));
 			break;
+		case RECORDFORMAT:
+			if (stringValue != null && ORecordSerializerFactory.instance().getFormat(stringValue) == null)
+				throw new IllegalArgumentException("Record format '" + stringValue + "' is not registered");
+
+			// RECORDS ALREADY WRITTEN KEEP THEIR FORMAT
+			storage.getConfiguration().recordFormat = stringValue;
+			storage.getConfiguration().update();
+			break;
 		}
 
 		return (DB) this;
@@ -41,9 +41,11 @@ import com.orientechnologies.orient.core.dictionary.ODictionary;
 import com.orientechnologies.orient.core.exception.ODatabaseException;
 import com.orientechnologies.orient.core.exception.OSecurityAccessException;
 import com.orientechnologies.orient.core.fetch.OFetchHelper;
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
 import com.orientechnologies.orient.core.hook.OHookThreadLocal;
 import com.orientechnologies.orient.core.hook.ORecordHook;
 import com.orientechnologies.orient.core.hook.ORecordHook.TYPE;
+import com.orientechnologies.orient.core.hook.ORecordHookAbstract;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.index.OClassIndexManager;
@@ -56,9 +58,12 @@ import com.orientechnologies.orient.core.metadata.security.OUserTrigger;
 import com.orientechnologies.orient.core.query.OQuery;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializer;
 import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializerFactory;
+import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerSchemaAware2CSV;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.OSQLQueryProfile;
 import com.orientechnologies.orient.core.storage.ORawBuffer;
 import com.orientechnologies.orient.core.storage.OStorageEmbedded;
 import com.orientechnologies.orient.core.tx.OTransactionRealAbstract;
@@ -73,12 +78,14 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 	private String													recordFormat;
 	private Set<ORecordHook>								hooks								= new HashSet<ORecordHook>();
 	private final Set<ORecordHook>					unmodifiableHooks;
+	private Boolean													readHooks;
 	private boolean													retainRecords				= true;
 	private OLevel1RecordCache							level1Cache;
 	private boolean													mvcc;
 	private boolean													validation;
 	private ODictionary<ORecordInternal<?>>	dictionary;
 	private ODataSegmentStrategy						dataSegmentStrategy	= new ODefaultDataSegmentStrategy();
+	private long														writes;
 
 	public ODatabaseRecordAbstract(final String iURL, final byte iRecordType) {
 		super(new ODatabaseRaw(iURL));
@@ -200,6 +207,7 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 		super.close();
 
 		hooks.clear();
+		readHooks = null;
 		dictionary = null;
 
 		user = null;
@@ -523,6 +531,19 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 
 	public <RET extends ORecordInternal<?>> RET executeReadRecord(final ORecordId iRid, ORecordInternal<?> iRecord,
 			final String iFetchPlan, final boolean iIgnoreCache) {
+		return (RET) executeReadRecord(iRid, iRecord, iFetchPlan, iIgnoreCache, null);
+	}
+
+	/**
+	 * Reads a record using the content already read from the storage if any. The transaction and the level-1 cache are checked
+	 * before as usual.
+	 * 
+	 * @param iPrefetched
+	 *          Record content already read from the storage, for example by a read-ahead. If null the content is read from the
+	 *          storage
+	 */
+	public <RET extends ORecordInternal<?>> RET executeReadRecord(final ORecordId iRid, ORecordInternal<?> iRecord,
+			final String iFetchPlan, final boolean iIgnoreCache, final ORawBuffer iPrefetched) {
 		checkOpeness();
 
 		// setCurrentDatabaseinThreadLocal();
@@ -540,7 +561,12 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 				// SEARCH INTO THE CACHE
 				record = getLevel1Cache().findRecord(iRid);
 
+			final OSQLQueryProfile profile = OSQLQueryProfile.get();
+
 			if (record != null) {
+				if (profile != null)
+					profile.recordLoaded(true, 0);
+
 				if (iRecord != null) {
 					iRecord.fromStream(record.toStream());
 					record = iRecord;
@@ -556,10 +582,18 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 				return (RET) record;
 			}
 
-			final ORawBuffer recordBuffer = underlying.read(iRid, iFetchPlan, iIgnoreCache);
+			final ORawBuffer recordBuffer;
+			if (iPrefetched != null) {
+				OFetchHelper.checkFetchPlanValid(iFetchPlan);
+				recordBuffer = iPrefetched;
+			} else
+				recordBuffer = underlying.read(iRid, iFetchPlan, iIgnoreCache);
 			if (recordBuffer == null)
 				return null;
 
+			if (profile != null)
+				profile.recordLoaded(false, recordBuffer.buffer != null ? recordBuffer.buffer.length : 0);
+
 			if (iRecord == null || iRecord.getRecordType() != recordBuffer.recordType)
 				// NO SAME RECORD TYPE: CAN'T REUSE OLD ONE BUT CREATE A NEW ONE FOR IT
 				iRecord = Orient.instance().getRecordFactoryManager().newInstance(recordBuffer.recordType);
@@ -588,6 +622,70 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 		return null;
 	}
 
+	/**
+	 * Reads the content of a record as stored, without creating the record. Used to send records without deserializing them. The
+	 * security is checked as on loading.
+	 * 
+	 * @return The record content, or null if the record must be loaded since it's part of the current transaction or some hook is
+	 *         called on reading. Null is returned also if the record doesn't exist
+	 */
+	public ORawBuffer readRaw(final ORecordId iRid, final boolean iIgnoreCache) {
+		checkOpeness();
+		checkSecurity(ODatabaseSecurityResources.CLUSTER, ORole.PERMISSION_READ, getClusterNameById(iRid.getClusterId()));
+
+		if (hasReadHooks() || getTransaction().getRecord(iRid) != null)
+			// THE RECORD MUST BE LOADED
+			return null;
+
+		if (!iIgnoreCache) {
+			// THE RECORD IN CACHE COULD BE NEWER
+			final ORecordInternal<?> record = getLevel1Cache().findRecord(iRid);
+			if (record != null)
+				return new ORawBuffer(record.toStream(), record.getVersion(), record.getRecordType());
+		}
+
+		return underlying.read(iRid, null, iIgnoreCache);
+	}
+
+	/**
+	 * Tells if some registered hook could be interested on reading. Hooks that extend ORecordHookAbstract or ODocumentHookAbstract
+	 * without overriding the reading methods are ignored.
+	 */
+	protected boolean hasReadHooks() {
+		if (readHooks == null) {
+			boolean found = false;
+			for (ORecordHook hook : hooks)
+				if (isReadHook(hook)) {
+					found = true;
+					break;
+				}
+			readHooks = found;
+		}
+		return readHooks;
+	}
+
+	private static boolean isReadHook(final ORecordHook iHook) {
+		final Class<?> base;
+		final Class<?> recordClass;
+		if (iHook instanceof ODocumentHookAbstract) {
+			base = ODocumentHookAbstract.class;
+			recordClass = ODocument.class;
+		} else if (iHook instanceof ORecordHookAbstract) {
+			base = ORecordHookAbstract.class;
+			recordClass = ORecord.class;
+		} else
+			// UNKNOWN
+			return true;
+
+		try {
+			return iHook.getClass().getMethod("onTrigger", TYPE.class, ORecord.class).getDeclaringClass() != base
+					|| iHook.getClass().getMethod("onRecordBeforeRead", recordClass).getDeclaringClass() != base
+					|| iHook.getClass().getMethod("onRecordAfterRead", recordClass).getDeclaringClass() != base;
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+
 	public void executeSaveRecord(final ORecordInternal<?> iRecord, String iClusterName, final int iVersion, final byte iRecordType,
 			final OPERATION_MODE iMode) {
 		checkOpeness();
@@ -595,6 +693,8 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 		if (!iRecord.isDirty())
 			return;
 
+		writes++;
+
 		final ORecordId rid = (ORecordId) iRecord.getIdentity();
 
 		if (rid == null)
@@ -694,6 +794,8 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 		if (!rid.isValid())
 			return;
 
+		writes++;
+
 		checkSecurity(ODatabaseSecurityResources.CLUSTER, ORole.PERMISSION_DELETE, getClusterNameById(rid.clusterId));
 
 		setCurrentDatabaseinThreadLocal();
@@ -765,6 +867,9 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 		case STATUS:
 			setStatusInternal(STATUS.valueOf(stringValue.toUpperCase(Locale.ENGLISH)));
 			break;
+		case RECORDFORMAT:
+			underlying.set(iAttribute, iValue);
+			break;
 		}
 	}
 
@@ -783,11 +888,13 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 
 	public <DB extends ODatabaseComplex<?>> DB registerHook(final ORecordHook iHookImpl) {
 		hooks.add(iHookImpl);
+		readHooks = null;
 		return (DB) this;
 	}
 
 	public <DB extends ODatabaseComplex<?>> DB unregisterHook(final ORecordHook iHookImpl) {
 		hooks.remove(iHookImpl);
+		readHooks = null;
 		return (DB) this;
 	}
 
@@ -828,6 +935,25 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 		}
 	}
 
+	/**
+	 * Returns the number of records saved or deleted through this database instance. Used to discard the records read in advance.
+	 */
+	public long getWrites() {
+		return writes;
+	}
+
+	/**
+	 * Assigns the record format of the database to the document to save. Embedded documents are serialized with their owner.
+	 */
+	protected void assignRecordFormat(final ODocument iDocument) {
+		if (iDocument.hasOwners())
+			return;
+
+		final String formatName = getStorage().getConfiguration().recordFormat;
+		final ORecordSerializer format = formatName != null ? ORecordSerializerFactory.instance().getFormat(formatName) : null;
+		iDocument.setRecordFormat(format != null ? format : ORecordSerializerSchemaAware2CSV.INSTANCE);
+	}
+
 	protected ORecordSerializer resolveFormat(final Object iObject) {
 		return ORecordSerializerFactory.instance().getFormatForObject(iObject, recordFormat);
 	}
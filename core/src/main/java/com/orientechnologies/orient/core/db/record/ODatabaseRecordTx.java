@@ -20,6 +20,7 @@ import com.orientechnologies.orient.core.db.ODatabaseListener;
 import com.orientechnologies.orient.core.exception.OTransactionException;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.tx.OTransaction;
 import com.orientechnologies.orient.core.tx.OTransaction.TXSTATUS;
 import com.orientechnologies.orient.core.tx.OTransaction.TXTYPE;
@@ -213,6 +214,9 @@ public class ODatabaseRecordTx extends ODatabaseRecordAbstract {
 
 	@Override
 	public ODatabaseRecord save(final ORecordInternal<?> iContent, final String iClusterName, final OPERATION_MODE iMode) {
+		if (iContent instanceof ODocument)
+			assignRecordFormat((ODocument) iContent);
+
 		currentTx.saveRecord(iContent, iClusterName, iMode);
 		return this;
 	}
@@ -0,0 +1,489 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.orientechnologies.common.collection.OCompositeKey;
+import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExternal;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.annotation.ODocumentInstance;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.db.record.ORecordElement;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.memory.OMemoryWatchDog.Listener;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
+import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerStringAbstract;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
+
+/**
+ * Base class of the persistent indexes. Handles the configuration, the indexed clusters, the transactions and the database events,
+ * while the implementations handle the structure where the keys are stored.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public abstract class OIndexAbstract<T> extends OSharedResourceAdaptiveExternal implements OIndexInternal<T> {
+	protected static final String	CONFIG_MAP_RID	= "mapRid";
+	protected static final String	CONFIG_CLUSTERS	= "clusters";
+	protected String							name;
+	protected String							type;
+	protected Set<String>					clustersToIndex	= new LinkedHashSet<String>();
+	protected OIndexDefinition		indexDefinition;
+
+	@ODocumentInstance
+	protected ODocument						configuration;
+	private final Listener				watchDog;
+
+	public OIndexAbstract(final String iType) {
+		super(true, OGlobalConfiguration.MVRBTREE_TIMEOUT.getValueAsInteger(), true);
+
+		type = iType;
+		watchDog = new Listener() {
+			public void memoryUsageLow(final long iFreeMemory, final long iFreeMemoryPercentage) {
+				onMemoryUsageLow(iFreeMemoryPercentage);
+			}
+		};
+	}
+
+	/**
+	 * Loads the structure of the keys saved in the record passed. Called under the exclusive lock.
+	 */
+	protected abstract void loadMap(ORID iRid);
+
+	/**
+	 * Frees the keys in memory: they are loaded again by the next access. Called under the exclusive lock.
+	 */
+	protected abstract void unloadMap();
+
+	/**
+	 * Saves the changes of the keys, always when forced, otherwise only when the configured number of updates is reached. Called
+	 * under the exclusive lock.
+	 */
+	protected abstract void commitMapChanges(boolean iForce);
+
+	/**
+	 * Updates the keys in memory after the commit of the transaction. Called under the exclusive lock.
+	 */
+	protected abstract void onMapTxCommit();
+
+	/**
+	 * Tells to the structure of the keys if the changes are made by a transaction, so they are saved at every update.
+	 */
+	protected abstract void setMapRunningTransaction(boolean iTxRunning);
+
+	/**
+	 * Called by the memory watch dog when the free memory is running low.
+	 */
+	protected abstract void onMemoryUsageLow(long iFreeMemoryPercentage);
+
+	public void flush() {
+		lazySave();
+	}
+
+	public OIndexInternal<T> loadFromConfiguration(final ODocument iConfig) {
+		acquireExclusiveLock();
+		try {
+
+			final ORID rid = (ORID) iConfig.field(CONFIG_MAP_RID, ORID.class);
+			if (rid == null)
+				throw new OIndexException("Error during deserialization of index definition: '" + CONFIG_MAP_RID + "' attribute is null");
+
+			configuration = iConfig;
+			name = configuration.field(OIndexInternal.CONFIG_NAME);
+
+			final ODocument indexDefinitionDoc = configuration.field(OIndexInternal.INDEX_DEFINITION);
+			if (indexDefinitionDoc != null) {
+				try {
+					final String indexDefClassName = configuration.field(OIndexInternal.INDEX_DEFINITION_CLASS);
+					final Class<?> indexDefClass = Class.forName(indexDefClassName);
+					indexDefinition = (OIndexDefinition) indexDefClass.getDeclaredConstructor().newInstance();
+					indexDefinition.fromStream(indexDefinitionDoc);
+
+				} catch (final ClassNotFoundException e) {
+					throw new OIndexException("Error during deserialization of index definition", e);
+				} catch (final NoSuchMethodException e) {
+					throw new OIndexException("Error during deserialization of index definition", e);
+				} catch (final InvocationTargetException e) {
+					throw new OIndexException("Error during deserialization of index definition", e);
+				} catch (final InstantiationException e) {
+					throw new OIndexException("Error during deserialization of index definition", e);
+				} catch (final IllegalAccessException e) {
+					throw new OIndexException("Error during deserialization of index definition", e);
+				}
+			} else {
+				// @COMPATIBILITY 1.0rc6 new index model was implemented
+				final Boolean isAutomatic = configuration.field(OIndexInternal.CONFIG_AUTOMATIC);
+				if (Boolean.TRUE.equals(isAutomatic)) {
+					final int pos = name.lastIndexOf('.');
+					if (pos < 0)
+						throw new OIndexException("Can not convert from old index model to new one. "
+								+ "Invalid index name. Dot (.) separator should be present.");
+					final String className = name.substring(0, pos);
+					final String propertyName = name.substring(pos + 1);
+
+					final String keyTypeStr = configuration.field(OIndexInternal.CONFIG_KEYTYPE);
+					if (keyTypeStr == null)
+						throw new OIndexException("Can not convert from old index model to new one. " + "Index key type is absent.");
+					final OType keyType = OType.valueOf(keyTypeStr.toUpperCase(Locale.ENGLISH));
+					indexDefinition = new OPropertyIndexDefinition(className, propertyName, keyType);
+
+					configuration.removeField(OIndexInternal.CONFIG_AUTOMATIC);
+					configuration.removeField(OIndexInternal.CONFIG_KEYTYPE);
+				} else if (configuration.field(OIndexInternal.CONFIG_KEYTYPE) != null) {
+					final String keyTypeStr = configuration.field(OIndexInternal.CONFIG_KEYTYPE);
+					final OType keyType = OType.valueOf(keyTypeStr.toUpperCase(Locale.ENGLISH));
+
+					indexDefinition = new OSimpleKeyIndexDefinition(keyType);
+
+					configuration.removeField(OIndexInternal.CONFIG_KEYTYPE);
+				}
+			}
+
+			clustersToIndex.clear();
+
+			final Collection<? extends String> clusters = configuration.field(CONFIG_CLUSTERS);
+			if (clusters != null)
+				clustersToIndex.addAll(clusters);
+
+			loadMap(rid);
+
+			installHooks(iConfig.getDatabase());
+
+			return this;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public Collection<OIdentifiable> getValues(final Collection<?> iKeys) {
+		return getValues(iKeys, -1);
+	}
+
+	public Collection<ODocument> getEntries(final Collection<?> iKeys) {
+		return getEntries(iKeys, -1);
+	}
+
+	public long rebuild() {
+		return rebuild(null);
+	}
+
+	public boolean remove(final Object iKey, final OIdentifiable iValue) {
+		return remove(iKey);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public OIndexInternal<T> getInternal() {
+		return this;
+	}
+
+	public Set<String> getClusters() {
+
+		acquireSharedLock();
+		try {
+
+			return Collections.unmodifiableSet(clustersToIndex);
+
+		} finally {
+			releaseSharedLock();
+		}
+	}
+
+	public OIndexAbstract<T> addCluster(final String iClusterName) {
+		acquireExclusiveLock();
+		try {
+			if (clustersToIndex.add(iClusterName))
+				updateConfiguration();
+			return this;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public OIndexAbstract<T> removeCluster(String iClusterName) {
+		acquireExclusiveLock();
+		try {
+			if (clustersToIndex.remove(iClusterName))
+				updateConfiguration();
+			return this;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public void checkEntry(final OIdentifiable iRecord, final Object iKey) {
+	}
+
+	public void unload() {
+
+		acquireExclusiveLock();
+		try {
+
+			unloadMap();
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public ODocument updateConfiguration() {
+
+		acquireExclusiveLock();
+		try {
+
+			configuration.setInternalStatus(ORecordElement.STATUS.UNMARSHALLING);
+
+			try {
+				configuration.field(OIndexInternal.CONFIG_TYPE, type);
+				configuration.field(OIndexInternal.CONFIG_NAME, name);
+
+				if (indexDefinition != null) {
+					final ODocument indexDefDocument = indexDefinition.toStream();
+					if (!indexDefDocument.hasOwners())
+						indexDefDocument.addOwner(configuration);
+
+					configuration.field(OIndexInternal.INDEX_DEFINITION, indexDefDocument, OType.EMBEDDED);
+					configuration.field(OIndexInternal.INDEX_DEFINITION_CLASS, indexDefinition.getClass().getName());
+				} else {
+					configuration.removeField(OIndexInternal.INDEX_DEFINITION);
+					configuration.removeField(OIndexInternal.INDEX_DEFINITION_CLASS);
+				}
+
+				configuration.field(CONFIG_CLUSTERS, clustersToIndex, OType.EMBEDDEDSET);
+				configuration.field(CONFIG_MAP_RID, getIdentity());
+
+			} finally {
+				configuration.setInternalStatus(ORecordElement.STATUS.LOADED);
+			}
+
+		} finally {
+			releaseExclusiveLock();
+		}
+		return configuration;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void commit(final ODocument iDocument) {
+		if (iDocument == null)
+			return;
+
+		acquireExclusiveLock();
+		try {
+			setMapRunningTransaction(true);
+
+			final Boolean clearAll = (Boolean) iDocument.field("clear");
+			if (clearAll != null && clearAll)
+				clear();
+
+			final Collection<ODocument> entries = iDocument.field("entries");
+
+			for (final ODocument entry : entries) {
+				final String serializedKey = OStringSerializerHelper.decode((String) entry.field("k"));
+
+				final Object key;
+				if (serializedKey.startsWith("["))
+					key = new OCompositeKey((List<? extends Comparable<?>>) ORecordSerializerStringAbstract.fieldTypeFromStream(iDocument,
+							OType.EMBEDDEDLIST, OStringSerializerHelper.decode(serializedKey)));
+				else
+					key = ORecordSerializerStringAbstract.getTypeValue(serializedKey);
+
+				final List<ODocument> operations = (List<ODocument>) entry.field("ops");
+				if (operations != null) {
+					for (final ODocument op : operations) {
+						final int operation = (Integer) op.rawField("o");
+						final OIdentifiable value = op.field("v", OType.LINK);
+
+						if (operation == OPERATION.PUT.ordinal())
+							put(key, value);
+						else if (operation == OPERATION.REMOVE.ordinal()) {
+							if (key.equals("*"))
+								remove(value);
+							else if (value == null)
+								remove(key);
+							else
+								remove(key, value);
+						}
+					}
+				}
+			}
+
+		} finally {
+			releaseExclusiveLock();
+			setMapRunningTransaction(false);
+		}
+	}
+
+	public ODocument getConfiguration() {
+		return configuration;
+	}
+
+	public boolean isAutomatic() {
+		return indexDefinition != null && indexDefinition.getClassName() != null;
+	}
+
+	protected void installHooks(final ODatabaseRecord iDatabase) {
+		OProfiler.getInstance().registerHookValue("index." + name + ".items", new OProfilerHookValue() {
+			public Object getValue() {
+				return getSize();
+			}
+		});
+
+		Orient.instance().getMemoryWatchDog().addListener(watchDog);
+		iDatabase.registerListener(this);
+	}
+
+	protected void uninstallHooks(final ODatabaseRecord iDatabase) {
+		OProfiler.getInstance().unregisterHookValue("index." + name + ".items");
+		Orient.instance().getMemoryWatchDog().removeListener(watchDog);
+		iDatabase.unregisterListener(this);
+	}
+
+	public void onCreate(final ODatabase iDatabase) {
+	}
+
+	public void onDelete(final ODatabase iDatabase) {
+	}
+
+	public void onOpen(final ODatabase iDatabase) {
+	}
+
+	public void onBeforeTxBegin(final ODatabase iDatabase) {
+		acquireExclusiveLock();
+		try {
+
+			commitMapChanges(true);
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public void onBeforeTxRollback(final ODatabase iDatabase) {
+	}
+
+	public boolean onCorruptionRepairDatabase(final ODatabase iDatabase, final String iReason, String iWhatWillbeFixed) {
+		return false;
+	}
+
+	public void onAfterTxRollback(final ODatabase iDatabase) {
+
+		acquireExclusiveLock();
+		try {
+
+			unloadMap();
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public void onBeforeTxCommit(final ODatabase iDatabase) {
+	}
+
+	public void onAfterTxCommit(final ODatabase iDatabase) {
+		acquireExclusiveLock();
+		try {
+
+			onMapTxCommit();
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public void onClose(final ODatabase iDatabase) {
+		acquireExclusiveLock();
+		try {
+
+			commitMapChanges(false);
+			Orient.instance().getMemoryWatchDog().removeListener(watchDog);
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	protected void checkForKeyType(final Object iKey) {
+		if (indexDefinition == null) {
+			// RECOGNIZE THE KEY TYPE AT RUN-TIME
+
+			final OType type = OType.getTypeByClass(iKey.getClass());
+			if (type == null)
+				return;
+
+			indexDefinition = new OSimpleKeyIndexDefinition(type);
+
+			updateConfiguration();
+		}
+	}
+
+	protected ODatabaseRecord getDatabase() {
+		return ODatabaseRecordThreadLocal.INSTANCE.get();
+	}
+
+	public OType[] getKeyTypes() {
+		if (indexDefinition == null)
+			return null;
+
+		return indexDefinition.getTypes();
+	}
+
+	public OIndexDefinition getDefinition() {
+		return indexDefinition;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o)
+			return true;
+		if (o == null || getClass() != o.getClass())
+			return false;
+
+		final OIndexAbstract<?> that = (OIndexAbstract<?>) o;
+
+		if (!name.equals(that.name))
+			return false;
+
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+}
@@ -15,7 +15,10 @@
  */
 package com.orientechnologies.orient.core.index;
 
+import java.util.List;
+
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 
 /**
@@ -42,6 +45,7 @@ public class OIndexDictionary extends OIndexOneValue {
 
 			if (value == null || !value.equals(iSingleValue))
 				map.put(iKey, iSingleValue);
+				modifications++;
 
 			return this;
 
@@ -50,6 +54,14 @@ public class OIndexDictionary extends OIndexOneValue {
 		}
 	}
 
+	/**
+	 * The last value wins like on put.
+	 */
+	@Override
+	protected OIdentifiable createRebuildValue(final Object iKey, final List<ORID> iValues) {
+		return iValues.get(iValues.size() - 1);
+	}
+
 	/**
 	 * Disables check of entries.
 	 */
@@ -0,0 +1,240 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.orientechnologies.common.util.OArrays;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializer;
+
+/**
+ * Sorts the entries of an index before to insert them in the tree. The entries are kept in memory up to the buffer size, then they
+ * are sorted and spilled to a temporary file as a sorted run. The iterator returns the entries in key order merging the runs.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OIndexExternalSorter implements Iterable<Object[]> {
+	private static final Comparator<Object[]>	COMPARATOR	= new Comparator<Object[]>() {
+																													@SuppressWarnings("unchecked")
+																													public int compare(final Object[] o1, final Object[] o2) {
+																														return ((Comparable<Object>) o1[0]).compareTo(o2[0]);
+																													}
+																												};
+
+	private final OBinarySerializer<Object>		keySerializer;
+	private final int													bufferSize;
+	private Object[][]												buffer;
+	private int																bufferUsed;
+	private boolean														sorted;
+	private final List<File>									runs				= new ArrayList<File>();
+	private final List<DataInputStream>				readers			= new ArrayList<DataInputStream>();
+	private long															size;
+
+	private class ORun {
+		private final DataInputStream	in;
+		private final int							index;
+		private Object[]							current;
+
+		private ORun(final DataInputStream iIn, final int iIndex) throws IOException {
+			in = iIn;
+			index = iIndex;
+			current = read(in);
+		}
+
+		private Object[] next() throws IOException {
+			final Object[] result = current;
+			current = read(in);
+			return result;
+		}
+	}
+
+	public OIndexExternalSorter(final OBinarySerializer<Object> iKeySerializer, final int iBufferSize) {
+		keySerializer = iKeySerializer;
+		bufferSize = Math.max(1, iBufferSize);
+		buffer = new Object[Math.min(bufferSize, 1024)][];
+	}
+
+	public void add(final Object iKey, final ORID iRid) {
+		if (bufferUsed == bufferSize)
+			spill();
+
+		if (bufferUsed == buffer.length)
+			buffer = OArrays.copyOf(buffer, Math.min(bufferSize, buffer.length * 2));
+
+		buffer[bufferUsed++] = new Object[] { iKey, iRid };
+		size++;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the entries, as arrays of key and RID, ordered by key. The entries with the same key are returned in the order they
+	 * have been added. Every call browses the entries again: the runs spilled to the
+	 * temporary files are merged again.
+	 */
+	public Iterator<Object[]> iterator() {
+		if (runs.isEmpty()) {
+			// ALL IN MEMORY
+			if (!sorted) {
+				Arrays.sort(buffer, 0, bufferUsed, COMPARATOR);
+				sorted = true;
+			}
+			return Arrays.asList(buffer).subList(0, bufferUsed).iterator();
+		}
+
+		if (bufferUsed > 0)
+			spill();
+		buffer = null;
+
+		// CLOSE THE FILES OF THE PREVIOUS MERGE
+		closeReaders();
+
+		final PriorityQueue<ORun> queue = new PriorityQueue<ORun>(runs.size(), new Comparator<ORun>() {
+			public int compare(final ORun o1, final ORun o2) {
+				final int result = COMPARATOR.compare(o1.current, o2.current);
+				// SAME KEY: THE ENTRIES OF THE FIRST RUN HAVE BEEN ADDED BEFORE
+				return result != 0 ? result : o1.index - o2.index;
+			}
+		});
+
+		try {
+			for (File run : runs) {
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 65536));
+				readers.add(in);
+
+				final ORun r = new ORun(in, readers.size());
+				if (r.current != null)
+					queue.add(r);
+			}
+		} catch (IOException e) {
+			close();
+			throw new OIndexException("Error on reading the sorted keys of the index", e);
+		}
+
+		return new Iterator<Object[]>() {
+			public boolean hasNext() {
+				return !queue.isEmpty();
+			}
+
+			public Object[] next() {
+				final ORun run = queue.poll();
+				if (run == null)
+					throw new NoSuchElementException();
+
+				try {
+					final Object[] result = run.next();
+					if (run.current != null)
+						queue.add(run);
+					return result;
+				} catch (IOException e) {
+					throw new OIndexException("Error on reading the sorted keys of the index", e);
+				}
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		};
+	}
+
+	/**
+	 * Deletes the temporary files.
+	 */
+	public void close() {
+		closeReaders();
+
+		for (File run : runs)
+			run.delete();
+		runs.clear();
+
+		buffer = null;
+	}
+
+	private void closeReaders() {
+		for (DataInputStream in : readers)
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		readers.clear();
+	}
+
+	/**
+	 * Sorts the entries in memory and writes them to a new temporary file.
+	 */
+	private void spill() {
+		Arrays.sort(buffer, 0, bufferUsed, COMPARATOR);
+
+		try {
+			final File run = File.createTempFile("orient-index-", ".run");
+			run.deleteOnExit();
+			runs.add(run);
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 65536));
+			try {
+				for (int i = 0; i < bufferUsed; ++i) {
+					final byte[] key = new byte[keySerializer.getObjectSize(buffer[i][0])];
+					keySerializer.serialize(buffer[i][0], key, 0);
+
+					out.writeInt(key.length);
+					out.write(key);
+					((ORID) buffer[i][1]).toStream(out);
+					buffer[i] = null;
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			close();
+			throw new OIndexException("Error on writing the sorted keys of the index to a temporary file", e);
+		}
+
+		bufferUsed = 0;
+	}
+
+	private Object[] read(final DataInputStream iIn) throws IOException {
+		final int length;
+		try {
+			length = iIn.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		final byte[] key = new byte[length];
+		iIn.readFully(key);
+		return new Object[] { keySerializer.deserialize(key, 0), new ORecordId().fromStream(iIn) };
+	}
+}
@@ -78,6 +78,14 @@ public class OIndexFullText extends OIndexMultiValues {
 		}
 	}
 
+	/**
+	 * The keys are split in words on put, so they can't be sorted on rebuild.
+	 */
+	@Override
+	protected boolean isRebuildSorted() {
+		return false;
+	}
+
 	/**
 	 * Indexes a value and save the index. Splits the value in single words and index each one. Save of the index is responsibility of
 	 * the caller.
@@ -108,6 +116,7 @@ public class OIndexFullText extends OIndexMultiValues {
 
 				// SAVE THE INDEX ENTRY
 				map.put(word, refs);
+				modifications++;
 
 			} finally {
 				releaseExclusiveLock();
@@ -142,6 +151,7 @@ public class OIndexFullText extends OIndexMultiValues {
 							map.remove(iKey);
 						else
 							map.put(iKey, recs);
+						modifications++;
 						removed = true;
 					}
 				}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import com.orientechnologies.common.collection.OCompositeKey;
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OCompositeKeySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OSimpleKeySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
+import com.orientechnologies.orient.core.type.hash.OLinearHashDatabase;
+
+/**
+ * Index based on a persistent linear hash table. Lookups and updates cost a constant number of record accesses regardless of the
+ * size of the index, but the keys are not ordered, so range queries are not supported.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public abstract class OIndexHashAbstract<T> extends OIndexAbstract<T> {
+	protected OLinearHashDatabase<Object, T>	map;
+	private volatile boolean								optimizeNeeded;
+
+	public OIndexHashAbstract(final String iType) {
+		super(iType);
+	}
+
+	/**
+	 * Creates the index.
+	 * 
+	 * @param iDatabase
+	 *          Current Database instance
+	 * @param iClusterIndexName
+	 *          Cluster name where to place the buckets
+	 * @param iProgressListener
+	 */
+	@SuppressWarnings("unchecked")
+	public OIndexInternal<?> create(final String iName, final OIndexDefinition iIndexDefinition, final ODatabaseRecord iDatabase,
+			final String iClusterIndexName, final int[] iClusterIdsToIndex, final OProgressListener iProgressListener,
+			final OStreamSerializer iValueSerializer) {
+		acquireExclusiveLock();
+		try {
+
+			name = iName;
+			configuration = new ODocument();
+
+			indexDefinition = iIndexDefinition;
+
+			if (iClusterIdsToIndex != null)
+				for (final int id : iClusterIdsToIndex)
+					clustersToIndex.add(iDatabase.getClusterNameById(id));
+
+			final OBinarySerializer<?> keySerializer;
+			if (indexDefinition instanceof ORuntimeKeyIndexDefinition)
+				keySerializer = ((ORuntimeKeyIndexDefinition) indexDefinition).getSerializer();
+			else if (indexDefinition != null && indexDefinition.getTypes().length > 1)
+				keySerializer = OCompositeKeySerializer.INSTANCE;
+			else if (indexDefinition != null)
+				keySerializer = new OSimpleKeySerializer(indexDefinition.getTypes()[0]);
+			else
+				keySerializer = new OSimpleKeySerializer();
+
+			map = new OLinearHashDatabase<Object, T>(iClusterIndexName, (OBinarySerializer<Object>) keySerializer, iValueSerializer);
+
+			installHooks(iDatabase);
+
+			rebuild(iProgressListener);
+			updateConfiguration();
+		} catch (Exception e) {
+			if (map != null)
+				map.delete();
+			if (e instanceof OIndexException)
+				throw (OIndexException) e;
+
+			throw new OIndexException("Cannot create the index '" + iName + "'", e);
+
+		} finally {
+			releaseExclusiveLock();
+		}
+		return this;
+	}
+
+	public boolean contains(final Object iKey) {
+
+		acquireExclusiveLock();
+		try {
+
+			return map.containsKey(toKey(iKey));
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public Collection<OIdentifiable> getValuesBetween(final Object iRangeFrom, final Object iRangeTo) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<OIdentifiable> getValuesBetween(final Object iRangeFrom, final boolean iFromInclusive, final Object iRangeTo,
+			final boolean iToInclusive) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<OIdentifiable> getValuesBetween(final Object iRangeFrom, final boolean iFromInclusive, final Object iRangeTo,
+			final boolean iToInclusive, final int maxValuesToFetch) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<OIdentifiable> getValuesMajor(final Object fromKey, final boolean isInclusive) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<OIdentifiable> getValuesMajor(final Object fromKey, final boolean isInclusive, final int maxValuesToFetch) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<OIdentifiable> getValuesMinor(final Object toKey, final boolean isInclusive) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<OIdentifiable> getValuesMinor(final Object toKey, final boolean isInclusive, final int maxValuesToFetch) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesMajor(final Object fromKey, final boolean isInclusive) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesMajor(final Object fromKey, final boolean isInclusive, final int maxEntriesToFetch) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesMinor(final Object toKey, final boolean isInclusive) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesMinor(final Object toKey, final boolean isInclusive, final int maxEntriesToFetch) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesBetween(final Object iRangeFrom, final Object iRangeTo) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesBetween(final Object iRangeFrom, final Object iRangeTo, final boolean iInclusive) {
+		throw rangeNotSupported();
+	}
+
+	public Collection<ODocument> getEntriesBetween(final Object iRangeFrom, final Object iRangeTo, final boolean iInclusive,
+			final int maxEntriesToFetch) {
+		throw rangeNotSupported();
+	}
+
+	public ORID getIdentity() {
+		return map.getRecord().getIdentity();
+	}
+
+	/**
+	 * Populates the index with all the existent records. Uses the massive insert intent to speed up and keep the consumed memory low.
+	 */
+	public long rebuild(final OProgressListener iProgressListener) {
+		clear();
+
+		long documentIndexed = 0;
+
+		final boolean intentInstalled = getDatabase().declareIntent(new OIntentMassiveInsert());
+
+		acquireExclusiveLock();
+		try {
+
+			int documentNum = 0;
+			long documentTotal = 0;
+
+			for (final String cluster : clustersToIndex)
+				documentTotal += getDatabase().countClusterElements(cluster);
+
+			if (iProgressListener != null)
+				iProgressListener.onBegin(this, documentTotal);
+
+			for (final String clusterName : clustersToIndex)
+				for (final ORecord<?> record : getDatabase().browseCluster(clusterName)) {
+					if (record instanceof ODocument) {
+						final ODocument doc = (ODocument) record;
+						final Object fieldValue = indexDefinition.getDocumentValueToIndex(doc);
+
+						if (fieldValue != null) {
+							if (fieldValue instanceof Collection) {
+								for (final Object fieldValueItem : (Collection<?>) fieldValue) {
+									put(fieldValueItem, doc);
+								}
+							} else
+								put(fieldValue, doc);
+
+							++documentIndexed;
+						}
+					}
+					documentNum++;
+
+					if (iProgressListener != null)
+						iProgressListener.onProgress(this, documentNum, documentNum * 100f / documentTotal);
+				}
+
+			lazySave();
+
+			if (iProgressListener != null)
+				iProgressListener.onCompletition(this, true);
+
+		} catch (final Exception e) {
+			if (iProgressListener != null)
+				iProgressListener.onCompletition(this, false);
+
+			clear();
+
+			throw new OIndexException("Error on rebuilding the index for clusters: " + clustersToIndex, e);
+
+		} finally {
+			if (intentInstalled)
+				getDatabase().declareIntent(null);
+
+			releaseExclusiveLock();
+		}
+
+		return documentIndexed;
+	}
+
+	public boolean remove(final Object key) {
+
+		acquireExclusiveLock();
+		try {
+
+			return map.remove(toKey(key)) != null;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public OIndex<T> clear() {
+
+		acquireExclusiveLock();
+		try {
+
+			map.clear();
+			return this;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public OIndexInternal<T> delete() {
+
+		acquireExclusiveLock();
+
+		try {
+			map.delete();
+			return this;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public OIndexInternal<T> lazySave() {
+
+		acquireExclusiveLock();
+		try {
+
+			map.lazySave();
+			return this;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public ORecord<?> getRecord() {
+		return map.getRecord();
+	}
+
+	public Iterator<Entry<Object, T>> iterator() {
+
+		acquireExclusiveLock();
+		try {
+
+			return map.iterator();
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public Iterable<Object> keys() {
+
+		acquireExclusiveLock();
+		try {
+
+			return map.keys();
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public long getSize() {
+
+		acquireSharedLock();
+		try {
+
+			return map.size();
+
+		} finally {
+			releaseSharedLock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		acquireSharedLock();
+		try {
+
+			return name + " (" + (type != null ? type : "?") + ")" + (map != null ? " " + map : "");
+
+		} finally {
+			releaseSharedLock();
+		}
+	}
+
+	@Override
+	protected void installHooks(final ODatabaseRecord iDatabase) {
+		super.installHooks(iDatabase);
+
+		OProfiler.getInstance().registerHookValue("index." + name + ".buckets", new OProfilerHookValue() {
+			public Object getValue() {
+				return map != null ? map.getBuckets() : "-";
+			}
+		});
+	}
+
+	@Override
+	protected void uninstallHooks(final ODatabaseRecord iDatabase) {
+		OProfiler.getInstance().unregisterHookValue("index." + name + ".buckets");
+		super.uninstallHooks(iDatabase);
+	}
+
+	@Override
+	protected void loadMap(final ORID iRid) {
+		map = new OLinearHashDatabase<Object, T>(getDatabase(), iRid);
+		map.load();
+	}
+
+	@Override
+	protected void unloadMap() {
+		map.unload();
+	}
+
+	@Override
+	protected void commitMapChanges(final boolean iForce) {
+		map.commitChanges(iForce);
+	}
+
+	@Override
+	protected void onMapTxCommit() {
+		map.onAfterTxCommit();
+	}
+
+	@Override
+	protected void setMapRunningTransaction(final boolean iTxRunning) {
+		map.setRunningTransaction(iTxRunning);
+	}
+
+	@Override
+	protected void onMemoryUsageLow(final long iFreeMemoryPercentage) {
+		// THE BUCKETS ARE FREED BY THE NEXT OPERATION, SINCE SAVING THEM NEEDS THE DATABASE
+		optimizeNeeded = true;
+	}
+
+	/**
+	 * Frees the buckets in memory if the memory is running low. Must be called under the exclusive lock.
+	 */
+	protected void checkMemory() {
+		if (!optimizeNeeded || map == null)
+			return;
+
+		optimizeNeeded = false;
+
+		OLogManager.instance().debug(this, "Forcing optimization of Index %s (%d items). Found %d buckets in memory...", name,
+				map.size(), map.getBucketsInMemory());
+
+		final int freed = map.optimize();
+
+		OLogManager.instance().debug(this, "Completed! Freed %d buckets and now %d buckets reside in memory", freed,
+				map.getBucketsInMemory());
+	}
+
+	/**
+	 * Converts the key to the type of the index, since the keys are hashed by their binary form: 10 as integer and 10 as long would
+	 * be different keys.
+	 */
+	protected Object toKey(final Object iKey) {
+		if (indexDefinition == null || iKey instanceof OCompositeKey || indexDefinition.getTypes().length != 1)
+			return iKey;
+
+		final Class<?> javaType = indexDefinition.getTypes()[0].getDefaultJavaType();
+		if (javaType == null || javaType.isInstance(iKey))
+			return iKey;
+
+		final Object key = OType.convert(iKey, javaType);
+		return key != null ? key : iKey;
+	}
+
+	private UnsupportedOperationException rangeNotSupported() {
+		return new UnsupportedOperationException("Range queries are not supported by the hash index '" + name + "'");
+	}
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerListRID;
+import com.orientechnologies.orient.core.type.tree.OMVRBTreeRIDSet;
+
+/**
+ * Hash index implementation that allows multiple values for the same key.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OIndexHashNotUnique extends OIndexHashAbstract<Set<OIdentifiable>> {
+
+	public static final String	TYPE_ID	= OClass.INDEX_TYPE.NOTUNIQUE_HASH.toString();
+
+	public OIndexHashNotUnique() {
+		super(TYPE_ID);
+	}
+
+	public OIndexHashNotUnique create(final String iName, final OIndexDefinition iIndexDefinition, final ODatabaseRecord iDatabase,
+			final String iClusterIndexName, final int[] iClusterIdsToIndex, final OProgressListener iProgressListener) {
+		return (OIndexHashNotUnique) super.create(iName, iIndexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex,
+				iProgressListener, OStreamSerializerListRID.INSTANCE);
+	}
+
+	public Set<OIdentifiable> get(final Object iKey) {
+
+		acquireExclusiveLock();
+		try {
+
+			checkMemory();
+			final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(toKey(iKey));
+
+			if (values == null)
+				return Collections.emptySet();
+
+			return values;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public OIndexHashNotUnique put(final Object iKey, final OIdentifiable iSingleValue) {
+
+		acquireExclusiveLock();
+		try {
+
+			checkForKeyType(iKey);
+			checkMemory();
+
+			final Object key = toKey(iKey);
+			Set<OIdentifiable> values = map.get(key);
+
+			if (values == null)
+				values = new OMVRBTreeRIDSet().setAutoConvert(false);
+
+			if (!iSingleValue.getIdentity().isValid())
+				((ORecord<?>) iSingleValue).save();
+
+			values.add(iSingleValue);
+
+			map.put(key, values);
+			return this;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	@Override
+	public boolean remove(final Object iKey, final OIdentifiable iValue) {
+
+		acquireExclusiveLock();
+		try {
+
+			final Object key = toKey(iKey);
+			final Set<OIdentifiable> recs = get(key);
+			if (recs.remove(iValue)) {
+				if (recs.isEmpty())
+					map.remove(key);
+				else
+					map.put(key, recs);
+				return true;
+			}
+			return false;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public int remove(final OIdentifiable iRecord) {
+
+		acquireExclusiveLock();
+		try {
+
+			final List<Object> keys = new ArrayList<Object>();
+			for (final Entry<Object, Set<OIdentifiable>> entries : map)
+				if (entries.getValue() != null && entries.getValue().contains(iRecord))
+					keys.add(entries.getKey());
+
+			// REMOVE THEM AFTER THE BROWSING TO NOT CHANGE THE BUCKETS WHILE ITERATING
+			for (Object key : keys)
+				remove(key, iRecord);
+
+			return keys.size();
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public int count(final OIdentifiable iRecord) {
+
+		acquireExclusiveLock();
+		try {
+
+			int tot = 0;
+			for (final Entry<Object, Set<OIdentifiable>> entries : map)
+				if (entries.getValue() != null && entries.getValue().contains(iRecord))
+					++tot;
+
+			return tot;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public Collection<OIdentifiable> getValues(final Collection<?> iKeys, final int maxValuesToSearch) {
+		acquireExclusiveLock();
+
+		final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
+		try {
+			checkMemory();
+
+			for (final Object key : iKeys) {
+				final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(toKey(key));
+
+				if (values == null)
+					continue;
+
+				for (final OIdentifiable value : values) {
+					if (maxValuesToSearch > -1 && maxValuesToSearch == result.size())
+						return result;
+
+					result.add(value);
+				}
+			}
+
+			return result;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public Collection<ODocument> getEntries(final Collection<?> iKeys, final int maxEntriesToFetch) {
+		acquireExclusiveLock();
+
+		final Set<ODocument> result = new ODocumentFieldsHashSet();
+		try {
+			checkMemory();
+
+			for (final Object key : iKeys) {
+				final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(toKey(key));
+
+				if (values == null)
+					continue;
+
+				for (final OIdentifiable value : values) {
+					if (maxEntriesToFetch > -1 && maxEntriesToFetch == result.size())
+						return result;
+
+					final ODocument document = new ODocument();
+					document.field("key", key);
+					document.field("rid", value.getIdentity());
+					document.unsetDirty();
+
+					result.add(document);
+				}
+			}
+
+			return result;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerRID;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChangesPerKey;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChangesPerKey.OTransactionIndexEntry;
+
+/**
+ * Hash index implementation that allows only one value for a key.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OIndexHashUnique extends OIndexHashAbstract<OIdentifiable> {
+
+	public static final String	TYPE_ID	= OClass.INDEX_TYPE.UNIQUE_HASH.toString();
+
+	public OIndexHashUnique() {
+		super(TYPE_ID);
+	}
+
+	public OIndexHashUnique create(final String iName, final OIndexDefinition iIndexDefinition, final ODatabaseRecord iDatabase,
+			final String iClusterIndexName, final int[] iClusterIdsToIndex, final OProgressListener iProgressListener) {
+		return (OIndexHashUnique) super.create(iName, iIndexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex,
+				iProgressListener, OStreamSerializerRID.INSTANCE);
+	}
+
+	public OIdentifiable get(final Object iKey) {
+
+		acquireExclusiveLock();
+		try {
+
+			checkMemory();
+			return map.get(toKey(iKey));
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public OIndexHashUnique put(final Object iKey, final OIdentifiable iSingleValue) {
+		acquireExclusiveLock();
+		try {
+			checkForKeyType(iKey);
+			checkMemory();
+
+			final Object key = toKey(iKey);
+			final OIdentifiable value = map.get(key);
+
+			if (value != null) {
+				// CHECK IF THE ID IS THE SAME OF CURRENT: THIS IS THE UPDATE CASE
+				if (!value.equals(iSingleValue))
+					throw new OIndexException("Found duplicated key '" + iKey + "' on unique index '" + name + "' for record "
+							+ iSingleValue.getIdentity() + ". The record already present in the index is " + value.getIdentity());
+				else
+					return this;
+			}
+
+			map.put(key, iSingleValue);
+			return this;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public int remove(final OIdentifiable iRecord) {
+
+		acquireExclusiveLock();
+		try {
+
+			final Set<Object> keys = new HashSet<Object>();
+			for (final Entry<Object, OIdentifiable> entries : map)
+				if (entries.getValue().equals(iRecord))
+					keys.add(entries.getKey());
+
+			// REMOVE THEM AFTER THE BROWSING TO NOT CHANGE THE BUCKETS WHILE ITERATING
+			for (Object key : keys)
+				remove(key, iRecord);
+
+			return keys.size();
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public int count(final OIdentifiable iRecord) {
+
+		acquireExclusiveLock();
+		try {
+
+			int tot = 0;
+			for (final Entry<Object, OIdentifiable> entries : map)
+				if (entries.getValue().equals((iRecord)))
+					++tot;
+
+			return tot;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	@Override
+	public void checkEntry(final OIdentifiable iRecord, final Object iKey) {
+		// CHECK IF ALREADY EXIST
+		final OIdentifiable indexedRID = get(iKey);
+		if (indexedRID != null && !indexedRID.getIdentity().equals(iRecord.getIdentity())) {
+			// CHECK IF IN THE SAME TX THE ENTRY WAS DELETED
+			final OTransactionIndexChanges indexChanges = ODatabaseRecordThreadLocal.INSTANCE.get().getTransaction()
+					.getIndexChanges(getName());
+			if (indexChanges != null) {
+				final OTransactionIndexChangesPerKey keyChanges = indexChanges.getChangesPerKey(iKey);
+				if (keyChanges != null) {
+					for (OTransactionIndexEntry entry : keyChanges.entries) {
+						if (entry.operation == OPERATION.REMOVE)
+							// WAS DELETED, OK!
+							return;
+					}
+				}
+			}
+
+			OLogManager.instance().exception("Found duplicated key '%s' previously assigned to the record %s", null,
+					OIndexException.class, iKey, indexedRID);
+		}
+	}
+
+	public Collection<OIdentifiable> getValues(final Collection<?> iKeys, final int maxValuesToSearch) {
+		acquireExclusiveLock();
+
+		final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
+		try {
+			checkMemory();
+
+			for (final Object key : iKeys) {
+				if (maxValuesToSearch > -1 && result.size() == maxValuesToSearch)
+					return result;
+
+				final OIdentifiable val = map.get(toKey(key));
+				if (val != null) {
+					result.add(val);
+				}
+			}
+
+			return result;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	public Collection<ODocument> getEntries(final Collection<?> iKeys, final int maxEntriesToFetch) {
+		acquireExclusiveLock();
+
+		final Set<ODocument> result = new ODocumentFieldsHashSet();
+		try {
+			checkMemory();
+
+			for (final Object key : iKeys) {
+				if (maxEntriesToFetch > -1 && result.size() == maxEntriesToFetch)
+					return result;
+
+				final OIdentifiable val = map.get(toKey(key));
+				if (val != null) {
+					final ODocument document = new ODocument();
+					document.field("key", key);
+					document.field("rid", val.getIdentity());
+					document.unsetDirty();
+
+					result.add(document);
+				}
+			}
+
+			return result;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+}
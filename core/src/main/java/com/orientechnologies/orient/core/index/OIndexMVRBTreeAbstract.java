@@ -15,44 +15,38 @@
  */
 package com.orientechnologies.orient.core.index;
 
-import java.lang.reflect.InvocationTargetException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.orientechnologies.common.collection.OCompositeKey;
-import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExternal;
+import com.orientechnologies.common.collection.OSimpleImmutableEntry;
 import com.orientechnologies.common.listener.OProgressListener;
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.common.profiler.OProfiler;
 import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
-import com.orientechnologies.orient.core.Orient;
-import com.orientechnologies.orient.core.annotation.ODocumentInstance;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
-import com.orientechnologies.orient.core.db.ODatabase;
-import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecordAbstract;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
-import com.orientechnologies.orient.core.db.record.ORecordElement;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
-import com.orientechnologies.orient.core.memory.OMemoryWatchDog.Listener;
-import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
-import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
 import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializer;
 import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OCompositeKeySerializer;
 import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OSimpleKeySerializer;
-import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerStringAbstract;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
-import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
+import com.orientechnologies.orient.core.sql.OSQLParallelScan;
+import com.orientechnologies.orient.core.storage.OStorageEmbedded;
 import com.orientechnologies.orient.core.type.tree.OMVRBTreeDatabaseLazySave;
+import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeMapProvider;
 import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeProviderAbstract;
 
 /**
@@ -61,32 +55,15 @@ import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeProviderAbs
  * @author Luca Garulli
  * 
  */
-public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveExternal implements OIndexInternal<T> {
-	protected static final String										CONFIG_MAP_RID	= "mapRid";
-	protected static final String										CONFIG_CLUSTERS	= "clusters";
-	protected String																name;
-	protected String																type;
+public abstract class OIndexMVRBTreeAbstract<T> extends OIndexAbstract<T> {
 	protected OMVRBTreeDatabaseLazySave<Object, T>	map;
-	protected Set<String>														clustersToIndex	= new LinkedHashSet<String>();
-	protected OIndexDefinition											indexDefinition;
-
-	@ODocumentInstance
-	protected ODocument															configuration;
-	private final Listener													watchDog;
+	protected long																	modifications;
+	private volatile OIndexStatistics								statistics;
+	private volatile long														statisticsModifications;
+	private final AtomicBoolean											statisticsComputing	= new AtomicBoolean();
 
 	public OIndexMVRBTreeAbstract(final String iType) {
-		super(true, OGlobalConfiguration.MVRBTREE_TIMEOUT.getValueAsInteger(), true);
-
-		type = iType;
-		watchDog = new Listener() {
-			public void memoryUsageLow(final long iFreeMemory, final long iFreeMemoryPercentage) {
-				map.setOptimization(iFreeMemoryPercentage < 10 ? 2 : 1);
-			}
-		};
-	}
-
-	public void flush() {
-		lazySave();
+		super(iType);
 	}
 
 	/**
@@ -149,83 +126,6 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		return this;
 	}
 
-	public OIndexInternal<T> loadFromConfiguration(final ODocument iConfig) {
-		acquireExclusiveLock();
-		try {
-
-			final ORID rid = (ORID) iConfig.field(CONFIG_MAP_RID, ORID.class);
-			if (rid == null)
-				throw new OIndexException("Error during deserialization of index definition: '" + CONFIG_MAP_RID + "' attribute is null");
-
-			configuration = iConfig;
-			name = configuration.field(OIndexInternal.CONFIG_NAME);
-
-			final ODocument indexDefinitionDoc = configuration.field(OIndexInternal.INDEX_DEFINITION);
-			if (indexDefinitionDoc != null) {
-				try {
-					final String indexDefClassName = configuration.field(OIndexInternal.INDEX_DEFINITION_CLASS);
-					final Class<?> indexDefClass = Class.forName(indexDefClassName);
-					indexDefinition = (OIndexDefinition) indexDefClass.getDeclaredConstructor().newInstance();
-					indexDefinition.fromStream(indexDefinitionDoc);
-
-				} catch (final ClassNotFoundException e) {
-					throw new OIndexException("Error during deserialization of index definition", e);
-				} catch (final NoSuchMethodException e) {
-					throw new OIndexException("Error during deserialization of index definition", e);
-				} catch (final InvocationTargetException e) {
-					throw new OIndexException("Error during deserialization of index definition", e);
-				} catch (final InstantiationException e) {
-					throw new OIndexException("Error during deserialization of index definition", e);
-				} catch (final IllegalAccessException e) {
-					throw new OIndexException("Error during deserialization of index definition", e);
-				}
-			} else {
-				// @COMPATIBILITY 1.0rc6 new index model was implemented
-				final Boolean isAutomatic = configuration.field(OIndexInternal.CONFIG_AUTOMATIC);
-				if (Boolean.TRUE.equals(isAutomatic)) {
-					final int pos = name.lastIndexOf('.');
-					if (pos < 0)
-						throw new OIndexException("Can not convert from old index model to new one. "
-								+ "Invalid index name. Dot (.) separator should be present.");
-					final String className = name.substring(0, pos);
-					final String propertyName = name.substring(pos + 1);
-
-					final String keyTypeStr = configuration.field(OIndexInternal.CONFIG_KEYTYPE);
-					if (keyTypeStr == null)
-						throw new OIndexException("Can not convert from old index model to new one. " + "Index key type is absent.");
-					final OType keyType = OType.valueOf(keyTypeStr.toUpperCase(Locale.ENGLISH));
-					indexDefinition = new OPropertyIndexDefinition(className, propertyName, keyType);
-
-					configuration.removeField(OIndexInternal.CONFIG_AUTOMATIC);
-					configuration.removeField(OIndexInternal.CONFIG_KEYTYPE);
-				} else if (configuration.field(OIndexInternal.CONFIG_KEYTYPE) != null) {
-					final String keyTypeStr = configuration.field(OIndexInternal.CONFIG_KEYTYPE);
-					final OType keyType = OType.valueOf(keyTypeStr.toUpperCase(Locale.ENGLISH));
-
-					indexDefinition = new OSimpleKeyIndexDefinition(keyType);
-
-					configuration.removeField(OIndexInternal.CONFIG_KEYTYPE);
-				}
-			}
-
-			clustersToIndex.clear();
-
-			final Collection<? extends String> clusters = configuration.field(CONFIG_CLUSTERS);
-			if (clusters != null)
-				clustersToIndex.addAll(clusters);
-
-			map = new OMVRBTreeDatabaseLazySave<Object, T>(getDatabase(), rid);
-			map.load();
-
-			installHooks(iConfig.getDatabase());
-
-			return this;
-
-		} finally {
-			releaseExclusiveLock();
-		}
-	}
-
 	public boolean contains(final Object iKey) {
 
 		acquireExclusiveLock();
@@ -310,24 +210,15 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		return getEntriesBetween(iRangeFrom, iRangeTo, iInclusive, -1);
 	}
 
-	public Collection<OIdentifiable> getValues(final Collection<?> iKeys) {
-		return getValues(iKeys, -1);
-	}
-
-	public Collection<ODocument> getEntries(final Collection<?> iKeys) {
-		return getEntries(iKeys, -1);
-	}
-
 	public ORID getIdentity() {
 		return ((OMVRBTreeProviderAbstract<Object, ?>) map.getProvider()).getRecord().getIdentity();
 	}
 
-	public long rebuild() {
-		return rebuild(null);
-	}
-
 	/**
 	 * Populates the index with all the existent records. Uses the massive insert intent to speed up and keep the consumed memory low.
+	 * The keys are collected and sorted first, spilling them to temporary files after "index.rebuild.sortBuffer" keys, then the tree
+	 * is built bottom-up with full pages, without searches and rotations. On local databases the records are read by the threads of
+	 * the parallel scan.
 	 */
 	public long rebuild(final OProgressListener iProgressListener) {
 		clear();
@@ -337,6 +228,8 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		final boolean intentInstalled = getDatabase().declareIntent(new OIntentMassiveInsert());
 
 		acquireExclusiveLock();
+
+		final OIndexExternalSorter sorter = createRebuildSorter();
 		try {
 
 			int documentNum = 0;
@@ -348,28 +241,47 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 			if (iProgressListener != null)
 				iProgressListener.onBegin(this, documentTotal);
 
-			for (final String clusterName : clustersToIndex)
-				for (final ORecord<?> record : getDatabase().browseCluster(clusterName)) {
-					if (record instanceof ODocument) {
-						final ODocument doc = (ODocument) record;
-						final Object fieldValue = indexDefinition.getDocumentValueToIndex(doc);
+			if (isParallelRebuild(documentTotal)) {
+				final int[] clusterIds = new int[clustersToIndex.size()];
+				int i = 0;
+				for (final String clusterName : clustersToIndex)
+					clusterIds[i++] = getDatabase().getClusterIdByName(clusterName);
+
+				final OSQLParallelScan scan = new OSQLParallelScan(getDatabase(), (ODatabaseRecordAbstract) getDatabase(), clusterIds,
+						null, null);
+				try {
+					for (final OIdentifiable record : scan) {
+						if (indexRecord((ORecord<?>) record, sorter))
+							++documentIndexed;
+						documentNum++;
 
-						if (fieldValue != null) {
-							if (fieldValue instanceof Collection) {
-								for (final Object fieldValueItem : (Collection<?>) fieldValue) {
-									put(fieldValueItem, doc);
-								}
-							} else
-								put(fieldValue, doc);
+						if (iProgressListener != null)
+							iProgressListener.onProgress(this, documentNum, documentNum * 100f / documentTotal);
+					}
+				} finally {
+					scan.close();
+				}
+				OProfiler.getInstance().updateCounter("Index.rebuild.parallel", 1);
 
+			} else
+				for (final String clusterName : clustersToIndex)
+					for (final ORecord<?> record : getDatabase().browseCluster(clusterName)) {
+						if (indexRecord(record, sorter))
 							++documentIndexed;
-						}
+						documentNum++;
+
+						if (iProgressListener != null)
+							iProgressListener.onProgress(this, documentNum, documentNum * 100f / documentTotal);
 					}
-					documentNum++;
 
-					if (iProgressListener != null)
-						iProgressListener.onProgress(this, documentNum, documentNum * 100f / documentTotal);
-				}
+			if (sorter != null) {
+				if (map.isEmpty())
+					buildFromSorted(sorter);
+				else
+					// THE TREE ALREADY CONTAINS THE KEYS NOT SORTED: INSERT IN KEY ORDER
+					for (final Object[] entry : sorter)
+						put(entry[0], (ORID) entry[1]);
+			}
 
 			lazySave();
 
@@ -385,6 +297,9 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 			throw new OIndexException("Error on rebuilding the index for clusters: " + clustersToIndex, e);
 
 		} finally {
+			if (sorter != null)
+				sorter.close();
+
 			if (intentInstalled)
 				getDatabase().declareIntent(null);
 
@@ -394,8 +309,115 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		return documentIndexed;
 	}
 
-	public boolean remove(final Object iKey, final OIdentifiable iValue) {
-		return remove(iKey);
+	/**
+	 * Tells if the keys can be sorted before to insert them on rebuild. Indexes that don't put the keys as they are must return false.
+	 */
+	protected boolean isRebuildSorted() {
+		return true;
+	}
+
+	/**
+	 * Returns the value to store in the tree for a key found on rebuild.
+	 * 
+	 * @param iKey
+	 *          Key to index
+	 * @param iValues
+	 *          RIDs of the records with the key, in the order they have been found
+	 */
+	protected abstract T createRebuildValue(Object iKey, List<ORID> iValues);
+
+	/**
+	 * Builds the tree from the sorted keys. The first browsing counts the distinct keys, the second one groups the RIDs of every key
+	 * in the value to store.
+	 */
+	@SuppressWarnings("unchecked")
+	private void buildFromSorted(final OIndexExternalSorter iSorter) {
+		int keys = 0;
+		Object lastKey = null;
+		for (final Object[] entry : iSorter) {
+			if (lastKey == null || ((Comparable<Object>) lastKey).compareTo(entry[0]) != 0)
+				++keys;
+			lastKey = entry[0];
+		}
+
+		final Iterator<Object[]> sorted = iSorter.iterator();
+		map.putAllSorted(new Iterator<Entry<Object, T>>() {
+			private Object[]	nextEntry	= sorted.hasNext() ? sorted.next() : null;
+
+			public boolean hasNext() {
+				return nextEntry != null;
+			}
+
+			public Entry<Object, T> next() {
+				if (nextEntry == null)
+					throw new NoSuchElementException();
+
+				final Object key = nextEntry[0];
+				final List<ORID> values = new ArrayList<ORID>();
+				do {
+					values.add((ORID) nextEntry[1]);
+					nextEntry = sorted.hasNext() ? sorted.next() : null;
+				} while (nextEntry != null && ((Comparable<Object>) key).compareTo(nextEntry[0]) == 0);
+
+				return new OSimpleImmutableEntry<Object, T>(key, createRebuildValue(key, values));
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		}, keys);
+
+		modifications += iSorter.size();
+	}
+
+	/**
+	 * Puts the keys of the record in the index, or in the sorter if not null.
+	 * 
+	 * @return true if the record has been indexed, otherwise false
+	 */
+	private boolean indexRecord(final ORecord<?> iRecord, final OIndexExternalSorter iSorter) {
+		if (!(iRecord instanceof ODocument))
+			return false;
+
+		final ODocument doc = (ODocument) iRecord;
+		final Object fieldValue = indexDefinition.getDocumentValueToIndex(doc);
+
+		if (fieldValue == null)
+			return false;
+
+		if (fieldValue instanceof Collection) {
+			for (final Object fieldValueItem : (Collection<?>) fieldValue) {
+				if (iSorter != null && fieldValueItem != null)
+					iSorter.add(fieldValueItem, doc.getIdentity());
+				else
+					put(fieldValueItem, doc);
+			}
+		} else if (iSorter != null)
+			iSorter.add(fieldValue, doc.getIdentity());
+		else
+			put(fieldValue, doc);
+
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private OIndexExternalSorter createRebuildSorter() {
+		if (!isRebuildSorted() || clustersToIndex.isEmpty())
+			return null;
+
+		final OBinarySerializer<?> keySerializer = ((OMVRBTreeMapProvider<Object, T>) map.getProvider()).getKeySerializer();
+		if (keySerializer == null)
+			return null;
+
+		return new OIndexExternalSorter((OBinarySerializer<Object>) keySerializer,
+				OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.getValueAsInteger());
+	}
+
+	private boolean isParallelRebuild(final long iDocumentTotal) {
+		final ODatabaseRecord database = getDatabase();
+		return OGlobalConfiguration.INDEX_REBUILD_PARALLEL.getValueAsBoolean() && database instanceof ODatabaseRecordAbstract
+				&& database.getStorage() instanceof OStorageEmbedded && !database.getTransaction().isActive()
+				&& iDocumentTotal >= OGlobalConfiguration.QUERY_PARALLEL_MIN_RECORDS.getValueAsInteger();
 	}
 
 	public boolean remove(final Object key) {
@@ -403,6 +425,7 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		acquireExclusiveLock();
 		try {
 
+			modifications++;
 			return map.remove(key) != null;
 
 		} finally {
@@ -416,6 +439,7 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		try {
 
 			map.clear();
+			modifications++;
 			return this;
 
 		} finally {
@@ -477,198 +501,145 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		}
 	}
 
-	public long getSize() {
+	/**
+	 * Returns the entry next to a key in the order of the index, used to browse the index one key at the time. The values are copied,
+	 * so the entry can be used without holding the lock of the index.
+	 * 
+	 * @param iKey
+	 *          Key to start from. If null the first entry is returned, or the last one if iAscending is false
+	 * @param iInclusive
+	 *          Tells if the entry of the key itself can be returned
+	 * @param iAscending
+	 *          Direction of the browsing
+	 * @return The next entry, or null if there are no more entries in that direction
+	 */
+	public Entry<Object, Collection<OIdentifiable>> getNextEntry(final Object iKey, final boolean iInclusive, final boolean iAscending) {
 
-		acquireSharedLock();
+		acquireExclusiveLock();
 		try {
 
-			return map.size();
+			final Entry<Object, T> entry;
+			if (iKey == null)
+				entry = iAscending ? map.firstEntry() : map.lastEntry();
+			else if (iAscending)
+				entry = iInclusive ? map.ceilingEntry(iKey) : map.higherEntry(iKey);
+			else
+				entry = iInclusive ? map.floorEntry(iKey) : map.lowerEntry(iKey);
+
+			if (entry == null)
+				return null;
+
+			final Collection<OIdentifiable> values;
+			if (entry.getValue() instanceof Collection<?>) {
+				final Collection<?> collection = (Collection<?>) entry.getValue();
+				final List<OIdentifiable> list = new ArrayList<OIdentifiable>(collection.size());
+				for (Object o : collection)
+					list.add((OIdentifiable) o);
+				values = list;
+			} else if (entry.getValue() != null)
+				values = Collections.singletonList((OIdentifiable) entry.getValue());
+			else
+				values = Collections.emptyList();
+
+			return new AbstractMap.SimpleImmutableEntry<Object, Collection<OIdentifiable>>(entry.getKey(), values);
 
 		} finally {
-			releaseSharedLock();
+			releaseExclusiveLock();
 		}
 	}
 
-	public String getName() {
-		return name;
-	}
-
-	public String getType() {
-		return type;
-	}
+	/**
+	 * Returns the statistics about the keys of the index used by the query planner. They are computed browsing the index the first
+	 * time and again after "query.planner.statisticsRefresh" percent of the entries changed. The index is browsed in steps of
+	 * "query.planner.statisticsStep" entries and it's locked only during a step. While a thread computes them, the other threads get
+	 * the previous statistics.
+	 * 
+	 * @return The statistics or null if they are being computed for the first time by another thread
+	 */
+	public OIndexStatistics getStatistics() {
+		final OIndexStatistics current = statistics;
+		if (current != null
+				&& modifications - statisticsModifications <= Math.max(100, current.getValues()
+						* OGlobalConfiguration.QUERY_PLANNER_STATISTICS_REFRESH.getValueAsInteger() / 100))
+			return current;
 
-	@Override
-	public String toString() {
-		if (tryAcquireExclusiveLock())
-			try {
+		if (!statisticsComputing.compareAndSet(false, true))
+			// ANOTHER THREAD IS COMPUTING THEM
+			return current;
 
-				return name + " (" + (type != null ? type : "?") + ")" + (map != null ? " " + map : "");
-
-			} finally {
-				releaseExclusiveLock();
-			}
-		return "!Locked resource";
-	}
+		try {
+			final long timer = OProfiler.getInstance().startChrono();
 
-	public OIndexInternal<T> getInternal() {
-		return this;
-	}
+			final int step = OGlobalConfiguration.QUERY_PLANNER_STATISTICS_STEP.getValueAsInteger();
+			OIndexStatistics computed = null;
+			long startModifications = 0;
+			Object lastKey = null;
 
-	public Set<String> getClusters() {
+			boolean completed = false;
+			while (!completed) {
+				acquireExclusiveLock();
+				try {
+					final Iterator<Entry<Object, T>> entries;
+					if (computed == null) {
+						computed = new OIndexStatistics(map.size(), OGlobalConfiguration.QUERY_PLANNER_HISTOGRAM_BUCKETS.getValueAsInteger());
+						startModifications = modifications;
+						entries = map.entrySet().iterator();
+					} else
+						// GO ON FROM THE LAST KEY: THE ENTRIES CAN BE CHANGED IN THE MEANWHILE
+						entries = map.tailMap(lastKey, false).entrySet().iterator();
+
+					for (int i = 0; i < step && entries.hasNext(); ++i) {
+						final Entry<Object, T> entry = entries.next();
+						lastKey = entry.getKey();
+						computed.add(lastKey, entry.getValue());
+					}
+					completed = !entries.hasNext();
 
-		acquireSharedLock();
-		try {
+				} finally {
+					releaseExclusiveLock();
+				}
+			}
 
-			return Collections.unmodifiableSet(clustersToIndex);
+			// THE CHANGES MADE DURING THE COMPUTATION ARE CONSIDERED ONLY PARTIALLY
+			statisticsModifications = startModifications;
+			statistics = computed.complete();
 
-		} finally {
-			releaseSharedLock();
-		}
-	}
+			OProfiler.getInstance().stopChrono("Index.statistics", timer);
+			return statistics;
 
-	public OIndexMVRBTreeAbstract<T> addCluster(final String iClusterName) {
-		acquireExclusiveLock();
-		try {
-			if (clustersToIndex.add(iClusterName))
-				updateConfiguration();
-			return this;
 		} finally {
-			releaseExclusiveLock();
+			statisticsComputing.set(false);
 		}
 	}
 
-	public OIndexMVRBTreeAbstract<T> removeCluster(String iClusterName) {
-		acquireExclusiveLock();
-		try {
-			if (clustersToIndex.remove(iClusterName))
-				updateConfiguration();
-			return this;
-		} finally {
-			releaseExclusiveLock();
-		}
-	}
-
-	public void checkEntry(final OIdentifiable iRecord, final Object iKey) {
-	}
-
-	public void unload() {
+	public long getSize() {
 
-		acquireExclusiveLock();
+		acquireSharedLock();
 		try {
 
-			map.unload();
+			return map.size();
 
 		} finally {
-			releaseExclusiveLock();
+			releaseSharedLock();
 		}
 	}
 
-	public ODocument updateConfiguration() {
-
-		acquireExclusiveLock();
-		try {
-
-			configuration.setInternalStatus(ORecordElement.STATUS.UNMARSHALLING);
-
+	@Override
+	public String toString() {
+		if (tryAcquireExclusiveLock())
 			try {
-				configuration.field(OIndexInternal.CONFIG_TYPE, type);
-				configuration.field(OIndexInternal.CONFIG_NAME, name);
-
-				if (indexDefinition != null) {
-					final ODocument indexDefDocument = indexDefinition.toStream();
-					if (!indexDefDocument.hasOwners())
-						indexDefDocument.addOwner(configuration);
 
-					configuration.field(OIndexInternal.INDEX_DEFINITION, indexDefDocument, OType.EMBEDDED);
-					configuration.field(OIndexInternal.INDEX_DEFINITION_CLASS, indexDefinition.getClass().getName());
-				} else {
-					configuration.removeField(OIndexInternal.INDEX_DEFINITION);
-					configuration.removeField(OIndexInternal.INDEX_DEFINITION_CLASS);
-				}
-
-				configuration.field(CONFIG_CLUSTERS, clustersToIndex, OType.EMBEDDEDSET);
-				configuration.field(CONFIG_MAP_RID, ((OMVRBTreeProviderAbstract<Object, ?>) map.getProvider()).getRecord().getIdentity());
+				return name + " (" + (type != null ? type : "?") + ")" + (map != null ? " " + map : "");
 
 			} finally {
-				configuration.setInternalStatus(ORecordElement.STATUS.LOADED);
-			}
-
-		} finally {
-			releaseExclusiveLock();
-		}
-		return configuration;
-	}
-
-	@SuppressWarnings("unchecked")
-	public void commit(final ODocument iDocument) {
-		if (iDocument == null)
-			return;
-
-		acquireExclusiveLock();
-		try {
-			map.setRunningTransaction(true);
-
-			final Boolean clearAll = (Boolean) iDocument.field("clear");
-			if (clearAll != null && clearAll)
-				clear();
-
-			final Collection<ODocument> entries = iDocument.field("entries");
-
-			for (final ODocument entry : entries) {
-				final String serializedKey = OStringSerializerHelper.decode((String) entry.field("k"));
-
-				final Object key;
-				if (serializedKey.startsWith("["))
-					key = new OCompositeKey((List<? extends Comparable<?>>) ORecordSerializerStringAbstract.fieldTypeFromStream(iDocument,
-							OType.EMBEDDEDLIST, OStringSerializerHelper.decode(serializedKey)));
-				else
-					key = ORecordSerializerStringAbstract.getTypeValue(serializedKey);
-
-				final List<ODocument> operations = (List<ODocument>) entry.field("ops");
-				if (operations != null) {
-					for (final ODocument op : operations) {
-						final int operation = (Integer) op.rawField("o");
-						final OIdentifiable value = op.field("v", OType.LINK);
-
-						if (operation == OPERATION.PUT.ordinal())
-							put(key, value);
-						else if (operation == OPERATION.REMOVE.ordinal()) {
-							if (key.equals("*"))
-								remove(value);
-							else if (value == null)
-								remove(key);
-							else
-								remove(key, value);
-						}
-					}
-				}
+				releaseExclusiveLock();
 			}
-
-		} finally {
-			releaseExclusiveLock();
-			map.setRunningTransaction(false);
-		}
-	}
-
-	public ODocument getConfiguration() {
-		return configuration;
-	}
-
-	public boolean isAutomatic() {
-		return indexDefinition != null && indexDefinition.getClassName() != null;
+		return "!Locked resource";
 	}
 
+	@Override
 	protected void installHooks(final ODatabaseRecord iDatabase) {
-		OProfiler.getInstance().registerHookValue("index." + name + ".items", new OProfilerHookValue() {
-			public Object getValue() {
-				acquireSharedLock();
-				try {
-					return map != null ? map.size() : "-";
-				} finally {
-					releaseSharedLock();
-				}
-			}
-		});
+		super.installHooks(iDatabase);
 
 		OProfiler.getInstance().registerHookValue("index." + name + ".entryPointSize", new OProfilerHookValue() {
 			public Object getValue() {
@@ -687,83 +658,45 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 				return map != null ? map.getOptimizeThreshold() : "-";
 			}
 		});
-
-		Orient.instance().getMemoryWatchDog().addListener(watchDog);
-		iDatabase.registerListener(this);
 	}
 
+	@Override
 	protected void uninstallHooks(final ODatabaseRecord iDatabase) {
-		OProfiler.getInstance().unregisterHookValue("index." + name + ".items");
 		OProfiler.getInstance().unregisterHookValue("index." + name + ".entryPointSize");
 		OProfiler.getInstance().unregisterHookValue("index." + name + ".maxUpdateBeforeSave");
 		OProfiler.getInstance().unregisterHookValue("index." + name + ".optimizationThreshold");
-		Orient.instance().getMemoryWatchDog().removeListener(watchDog);
-		iDatabase.unregisterListener(this);
-	}
-
-	public void onCreate(final ODatabase iDatabase) {
+		super.uninstallHooks(iDatabase);
 	}
 
-	public void onDelete(final ODatabase iDatabase) {
-	}
-
-	public void onOpen(final ODatabase iDatabase) {
-	}
-
-	public void onBeforeTxBegin(final ODatabase iDatabase) {
-		acquireExclusiveLock();
-		try {
-
-			map.commitChanges(true);
-
-		} finally {
-			releaseExclusiveLock();
-		}
-	}
-
-	public void onBeforeTxRollback(final ODatabase iDatabase) {
+	@Override
+	protected void loadMap(final ORID iRid) {
+		map = new OMVRBTreeDatabaseLazySave<Object, T>(getDatabase(), iRid);
+		map.load();
 	}
 
-	public boolean onCorruptionRepairDatabase(final ODatabase iDatabase, final String iReason, String iWhatWillbeFixed) {
-		return false;
+	@Override
+	protected void unloadMap() {
+		map.unload();
 	}
 
-	public void onAfterTxRollback(final ODatabase iDatabase) {
-
-		acquireExclusiveLock();
-		try {
-
-			map.unload();
-
-		} finally {
-			releaseExclusiveLock();
-		}
+	@Override
+	protected void commitMapChanges(final boolean iForce) {
+		map.commitChanges(iForce);
 	}
 
-	public void onBeforeTxCommit(final ODatabase iDatabase) {
+	@Override
+	protected void onMapTxCommit() {
+		map.onAfterTxCommit();
 	}
 
-	public void onAfterTxCommit(final ODatabase iDatabase) {
-		acquireExclusiveLock();
-		try {
-
-			map.onAfterTxCommit();
-
-		} finally {
-			releaseExclusiveLock();
-		}
+	@Override
+	protected void setMapRunningTransaction(final boolean iTxRunning) {
+		map.setRunningTransaction(iTxRunning);
 	}
 
-	public void onClose(final ODatabase iDatabase) {
-		acquireExclusiveLock();
-		try {
-
-			map.commitChanges();
-			Orient.instance().getMemoryWatchDog().removeListener(watchDog);
-
-		} finally {
-			releaseExclusiveLock();
-		}
+	@Override
+	protected void onMemoryUsageLow(final long iFreeMemoryPercentage) {
+		map.setOptimization(iFreeMemoryPercentage < 10 ? 2 : 1);
 	}
 
 	protected void optimize(final boolean iHardMode) {
@@ -788,52 +721,4 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 		}
 	}
 
-	protected void checkForKeyType(final Object iKey) {
-		if (indexDefinition == null) {
-			// RECOGNIZE THE KEY TYPE AT RUN-TIME
-
-			final OType type = OType.getTypeByClass(iKey.getClass());
-			if (type == null)
-				return;
-
-			indexDefinition = new OSimpleKeyIndexDefinition(type);
-
-			updateConfiguration();
-		}
-	}
-
-	protected ODatabaseRecord getDatabase() {
-		return ODatabaseRecordThreadLocal.INSTANCE.get();
-	}
-
-	public OType[] getKeyTypes() {
-		if (indexDefinition == null)
-			return null;
-
-		return indexDefinition.getTypes();
-	}
-
-	public OIndexDefinition getDefinition() {
-		return indexDefinition;
-	}
-
-	@Override
-	public boolean equals(final Object o) {
-		if (this == o)
-			return true;
-		if (o == null || getClass() != o.getClass())
-			return false;
-
-		final OIndexMVRBTreeAbstract<?> that = (OIndexMVRBTreeAbstract<?>) o;
-
-		if (!name.equals(that.name))
-			return false;
-
-		return true;
-	}
-
-	@Override
-	public int hashCode() {
-		return name.hashCode();
-	}
 }
@@ -392,11 +392,11 @@ public abstract class OIndexManagerAbstract extends ODocumentWrapperNoClass impl
 
 	protected OIndex<?> preProcessBeforeReturn(final OIndexInternal<?> index) {
 		getDatabase().registerListener(index);
-		if (index instanceof OIndexMultiValues)
+		if (index instanceof OIndexMultiValues || index instanceof OIndexHashNotUnique)
 			return new OIndexTxAwareMultiValue(getDatabase(), (OIndex<Collection<OIdentifiable>>) getIndexInstance(index));
 		else if (index instanceof OIndexDictionary)
 			return new OIndexTxAwareDictionary(getDatabase(), (OIndex<OIdentifiable>) getIndexInstance(index));
-		else if (index instanceof OIndexOneValue)
+		else if (index instanceof OIndexOneValue || index instanceof OIndexHashUnique)
 			return new OIndexTxAwareOneValue(getDatabase(), (OIndex<OIdentifiable>) getIndexInstance(index));
 		return index;
 	}
@@ -28,6 +28,7 @@ import com.orientechnologies.common.collection.OMVRBTreeEntry;
 import com.orientechnologies.common.listener.OProgressListener;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerListRID;
@@ -79,6 +80,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
 			values.add(iSingleValue);
 
 			map.put(iKey, values);
+			modifications++;
 			return this;
 
 		} finally {
@@ -86,6 +88,14 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
 		}
 	}
 
+	@Override
+	protected Set<OIdentifiable> createRebuildValue(final Object iKey, final List<ORID> iValues) {
+		final Set<OIdentifiable> values = new OMVRBTreeRIDSet().setAutoConvert(false);
+		for (ORID rid : iValues)
+			values.add(rid);
+		return values;
+	}
+
 	@Override
 	public boolean remove(final Object iKey, final OIdentifiable iValue) {
 
@@ -98,6 +108,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
 					map.remove(iKey);
 				else
 					map.put(iKey, recs);
+				modifications++;
 				return true;
 			}
 			return false;
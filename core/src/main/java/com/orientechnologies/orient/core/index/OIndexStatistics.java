@@ -0,0 +1,252 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+/**
+ * Statistics about the distribution of the keys of an index used by the query planner to estimate how many records a condition
+ * selects. Keeps the number of keys and of values, the most common keys with their exact number of values, to handle skewed
+ * fields, and an histogram where every bucket holds the same number of keys, with the number of values of its keys. The statistics
+ * are computed browsing the whole index, so they are a snapshot: the index computes them again after a percentage of its entries
+ * changed. They can be computed in steps by adding the entries with {@link #add(Object, Object)} and calling {@link #complete()} at
+ * the end, so the index can be changed between the steps.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OIndexStatistics {
+	private static final int				MOST_COMMON_KEYS	= 16;
+
+	private final long							keysPerBucket;
+	private long										keys;
+	private long										values;
+	private int											bucket;
+	private PriorityQueue<OKeyCount>	top								= new PriorityQueue<OKeyCount>();
+	private final Object[]					bucketMin;
+	private final Object[]					bucketMax;
+	private final long[]						bucketKeys;
+	private final long[]						bucketValues;
+	private final long[]						bucketCommonKeys;
+	private final long[]						bucketCommonValues;
+	private final Map<Object, Long>	mostCommon				= new HashMap<Object, Long>();
+	private long										mostCommonValues;
+
+	/**
+	 * Computes the statistics browsing the entries in the order of the index.
+	 * 
+	 * @param iEntries
+	 *          Entries of the index in ascending order of key
+	 * @param iKeys
+	 *          Number of keys of the index
+	 * @param iBuckets
+	 *          Number of buckets of the histogram
+	 */
+	public OIndexStatistics(final Iterator<? extends Entry<Object, ?>> iEntries, final long iKeys, final int iBuckets) {
+		this(iKeys, iBuckets);
+
+		while (iEntries.hasNext()) {
+			final Entry<Object, ?> entry = iEntries.next();
+			add(entry.getKey(), entry.getValue());
+		}
+		complete();
+	}
+
+	/**
+	 * Starts the statistics to compute in steps: the entries are added by {@link #add(Object, Object)}.
+	 * 
+	 * @param iKeys
+	 *          Number of keys of the index when the computation starts, used to size the buckets of the histogram
+	 * @param iBuckets
+	 *          Number of buckets of the histogram
+	 */
+	public OIndexStatistics(final long iKeys, final int iBuckets) {
+		final int buckets = (int) Math.max(1, Math.min(iBuckets, iKeys));
+		keysPerBucket = Math.max(1, (iKeys + buckets - 1) / buckets);
+
+		bucketMin = new Object[buckets];
+		bucketMax = new Object[buckets];
+		bucketKeys = new long[buckets];
+		bucketValues = new long[buckets];
+		bucketCommonKeys = new long[buckets];
+		bucketCommonValues = new long[buckets];
+	}
+
+	/**
+	 * Adds an entry of the index. The entries must be added in ascending order of key.
+	 * 
+	 * @param iKey
+	 *          Key of the entry
+	 * @param iValue
+	 *          The value of the key or the collection of its values
+	 */
+	public void add(final Object iKey, final Object iValue) {
+		final long count;
+		if (iValue instanceof Collection<?>)
+			count = ((Collection<?>) iValue).size();
+		else
+			count = iValue != null ? 1 : 0;
+
+		// THE KEYS ADDED WHILE THE STATISTICS ARE COMPUTED GO IN THE LAST BUCKET
+		if (bucketKeys[bucket] >= keysPerBucket && bucket < bucketKeys.length - 1)
+			bucket++;
+
+		if (bucketKeys[bucket] == 0)
+			bucketMin[bucket] = iKey;
+		bucketMax[bucket] = iKey;
+		bucketKeys[bucket]++;
+		bucketValues[bucket] += count;
+		keys++;
+		values += count;
+
+		if (count > 1 && (top.size() < MOST_COMMON_KEYS || top.peek().count < count)) {
+			if (top.size() >= MOST_COMMON_KEYS)
+				top.poll();
+			top.add(new OKeyCount(iKey, count));
+		}
+	}
+
+	/**
+	 * Ends the computation after all the entries have been added.
+	 * 
+	 * @return This instance
+	 */
+	public OIndexStatistics complete() {
+		for (OKeyCount k : top) {
+			mostCommon.put(k.key, k.count);
+			mostCommonValues += k.count;
+
+			// REMOVE THE MOST COMMON KEYS FROM THEIR BUCKET TO NOT INFLATE THE AVERAGE OF THE OTHER KEYS
+			final int i = getBucket(k.key);
+			if (i > -1) {
+				bucketCommonKeys[i]++;
+				bucketCommonValues[i] += k.count;
+			}
+		}
+		top = null;
+		return this;
+	}
+
+	/**
+	 * Returns the number of keys of the index when the statistics were computed.
+	 */
+	public long getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Returns the number of values of the index when the statistics were computed.
+	 */
+	public long getValues() {
+		return values;
+	}
+
+	/**
+	 * Estimates the number of values of a key. The most common keys are known exactly, the others are estimated with the average of
+	 * the keys of their bucket.
+	 */
+	public long estimateEquals(final Object iKey) {
+		if (iKey == null || values == 0)
+			return 0;
+
+		final Long count = mostCommon.get(iKey);
+		if (count != null)
+			return count;
+
+		try {
+			final int i = getBucket(iKey);
+			if (i == -1)
+				// OUT OF THE RANGE OF THE KEYS
+				return 0;
+			return Math.max(1, (bucketValues[i] - bucketCommonValues[i]) / Math.max(1, bucketKeys[i] - bucketCommonKeys[i]));
+
+		} catch (ClassCastException e) {
+			// KEY OF A DIFFERENT TYPE: USE THE AVERAGE OF THE KEYS NOT AMONG THE MOST COMMON ONES
+			return Math.max(1, (values - mostCommonValues) / Math.max(1, keys - mostCommon.size()));
+		}
+	}
+
+	/**
+	 * Estimates the number of values of the keys in a range. The buckets entirely inside the range count all their values, the ones
+	 * crossing the boundaries count the half of them.
+	 * 
+	 * @param iFrom
+	 *          Lower bound of the range, or null if unbounded
+	 * @param iTo
+	 *          Upper bound of the range, or null if unbounded
+	 */
+	public long estimateRange(final Object iFrom, final Object iTo) {
+		if (values == 0)
+			return 0;
+
+		try {
+			long total = 0;
+			for (int i = 0; i < bucketMax.length && bucketKeys[i] > 0; ++i) {
+				if (iFrom != null && compare(bucketMax[i], iFrom) < 0)
+					// BUCKET BEFORE THE RANGE
+					continue;
+				if (iTo != null && compare(bucketMin[i], iTo) > 0)
+					// BUCKET AFTER THE RANGE
+					break;
+
+				if ((iFrom == null || compare(bucketMin[i], iFrom) >= 0) && (iTo == null || compare(bucketMax[i], iTo) <= 0))
+					total += bucketValues[i];
+				else
+					total += Math.max(1, bucketValues[i] / 2);
+			}
+			return total;
+
+		} catch (ClassCastException e) {
+			return values / 3;
+		}
+	}
+
+	private int getBucket(final Object iKey) {
+		for (int i = 0; i < bucketMax.length && bucketKeys[i] > 0; ++i)
+			if (compare(iKey, bucketMin[i]) >= 0 && compare(iKey, bucketMax[i]) <= 0)
+				return i;
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return "keys=" + keys + " values=" + values + " buckets=" + bucketMax.length + " mostCommonKeys=" + mostCommon.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compare(final Object iFirst, final Object iSecond) {
+		return ((Comparable<Object>) iFirst).compareTo(iSecond);
+	}
+
+	private static class OKeyCount implements Comparable<OKeyCount> {
+		private final Object	key;
+		private final long		count;
+
+		public OKeyCount(final Object iKey, final long iCount) {
+			key = iKey;
+			count = iCount;
+		}
+
+		public int compareTo(final OKeyCount o) {
+			return count < o.count ? -1 : count > o.count ? 1 : 0;
+		}
+	}
+}
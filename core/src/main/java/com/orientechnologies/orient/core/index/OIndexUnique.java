@@ -15,7 +15,10 @@
  */
 package com.orientechnologies.orient.core.index;
 
+import java.util.List;
+
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 
 /**
@@ -49,10 +52,23 @@ public class OIndexUnique extends OIndexOneValue {
 			}
 
 			map.put(iKey, iSingleValue);
+			modifications++;
 			return this;
 
 		} finally {
 			releaseExclusiveLock();
 		}
 	}
+
+	@Override
+	protected OIdentifiable createRebuildValue(final Object iKey, final List<ORID> iValues) {
+		final ORID value = iValues.get(0);
+
+		for (int i = 1; i < iValues.size(); ++i)
+			if (!value.equals(iValues.get(i)))
+				throw new OIndexException("Found duplicated key '" + iKey + "' on unique index '" + name + "' for record "
+						+ iValues.get(i) + ". The record already present in the index is " + value);
+
+		return value;
+	}
 }
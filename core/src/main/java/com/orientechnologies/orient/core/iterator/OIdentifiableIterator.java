@@ -19,12 +19,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecordAbstract;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.db.record.ORecordOperation;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocal;
 
 /**
  * Iterator class to browse forward and backward the records of a cluster. Once browsed in a direction, the iterator cannot change
@@ -51,12 +55,19 @@ public abstract class OIdentifiableIterator<REC extends OIdentifiable> implement
 	protected long													totalAvailableRecords;
 	protected List<ORecordOperation>				txEntries;
 	protected int														currentTxEntryPosition	= -1;
+	protected int														readAheadSize;
+	protected ORawBuffer[]									readAheadBuffers;
+	protected int														readAheadClusterId			= -1;
+	protected long													readAheadFrom;
+	protected long													readAheadWrites;
+	protected long													readAheadStorageVersion;
 
 	public OIdentifiableIterator(final ODatabaseRecord iDatabase, final ODatabaseRecordAbstract iLowLevelDatabase) {
 		database = iDatabase;
 		lowLevelDatabase = iLowLevelDatabase;
 
 		current.clusterPosition = -1; // DEFAULT = START FROM THE BEGIN
+		readAheadSize = OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.getValueAsInteger();
 	}
 
 	public abstract boolean hasPrevious();
@@ -215,15 +226,78 @@ public abstract class OIdentifiableIterator<REC extends OIdentifiable> implement
 
 		current.clusterPosition += iMovement;
 
+		final ORawBuffer prefetched = iMovement > 0 ? readAhead() : null;
+
 		if (iRecord != null) {
 			iRecord.setIdentity(current);
-			iRecord = lowLevelDatabase.load(iRecord, fetchPlan);
+			iRecord = lowLevelDatabase.executeReadRecord(current, iRecord, fetchPlan, false, prefetched);
 		} else
-			iRecord = lowLevelDatabase.load(current, fetchPlan);
+			iRecord = lowLevelDatabase.executeReadRecord(current, null, fetchPlan, false, prefetched);
 
 		if (iRecord != null)
 			browsedRecords++;
 
 		return iRecord;
 	}
+
+	/**
+	 * Browsing forward a local storage, reads in batch the content of the next records, up to "storage.readAhead.records", and
+	 * returns the content of the current one. The content is consumed once read. The records read in advance are discarded if the
+	 * storage has been changed in the meanwhile, also by other databases, and read again with a smaller batch.
+	 * 
+	 * @return The content of the current record or null if not available
+	 */
+	protected ORawBuffer readAhead() {
+		if (readAheadSize <= 1)
+			return null;
+
+		if (readAheadBuffers != null && readAheadWrites != lowLevelDatabase.getWrites()) {
+			// RECORDS WRITTEN WHILE BROWSING COULD HAVE BEEN READ IN ADVANCE: STOP READING AHEAD
+			readAheadBuffers = null;
+			readAheadSize = 0;
+			return null;
+		}
+
+		final OStorage storage = lowLevelDatabase.getStorage();
+
+		if (readAheadBuffers != null && readAheadStorageVersion != storage.getVersion()) {
+			// RECORDS CHANGED BY ANOTHER DATABASE COULD HAVE BEEN READ IN ADVANCE: READ AGAIN, LESS RECORDS EVERY TIME THE STORAGE CHANGES
+			readAheadBuffers = null;
+			readAheadSize /= 2;
+			if (readAheadSize <= 1)
+				return null;
+		}
+
+		if (readAheadBuffers == null || readAheadClusterId != current.clusterId || current.clusterPosition < readAheadFrom
+				|| current.clusterPosition >= readAheadFrom + readAheadBuffers.length) {
+			if (!(storage instanceof OStorageLocal)) {
+				// NOT SUPPORTED
+				readAheadSize = 0;
+				return null;
+			}
+
+			long toRead = Math.min(readAheadSize, lastClusterPosition - current.clusterPosition + 1);
+			if (limit > -1)
+				toRead = Math.min(toRead, limit - browsedRecords);
+
+			if (toRead <= 1)
+				return null;
+
+			final ORecordId[] rids = new ORecordId[(int) toRead];
+			for (int i = 0; i < rids.length; ++i)
+				rids[i] = new ORecordId(current.clusterId, current.clusterPosition + i);
+
+			// GET THE VERSION BEFORE READING: A CHANGE IN THE MEANWHILE IS DETECTED AT THE NEXT RECORD
+			readAheadStorageVersion = storage.getVersion();
+			readAheadBuffers = ((OStorageLocal) storage).readRecords(rids);
+			readAheadClusterId = current.clusterId;
+			readAheadFrom = current.clusterPosition;
+			readAheadWrites = lowLevelDatabase.getWrites();
+		}
+
+		final int index = (int) (current.clusterPosition - readAheadFrom);
+		final ORawBuffer buffer = readAheadBuffers[index];
+		readAheadBuffers[index] = null;
+		return buffer;
+	}
 }
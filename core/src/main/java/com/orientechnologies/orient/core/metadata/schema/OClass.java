@@ -35,7 +35,7 @@ public interface OClass extends Comparable<OClass> {
 	}
 
 	public static enum INDEX_TYPE {
-		UNIQUE, NOTUNIQUE, FULLTEXT, DICTIONARY, PROXY
+		UNIQUE, NOTUNIQUE, FULLTEXT, DICTIONARY, PROXY, UNIQUE_HASH, NOTUNIQUE_HASH
 	}
 
 	public <T> T newInstance() throws InstantiationException, IllegalAccessException;
@@ -375,6 +375,10 @@ public enum OType {
 		return null;
 	}
 
+	public int getId() {
+		return id;
+	}
+
 	public Class<?> getDefaultJavaType() {
 		return javaTypes.length > 0 ? javaTypes[0] : null;
 	}
@@ -27,6 +27,7 @@ import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
 
 @SuppressWarnings({ "unchecked", "serial" })
 public abstract class ORecordSchemaAwareAbstract<T> extends ORecordAbstract<T> implements ORecordSchemaAware<T> {
@@ -49,7 +50,7 @@ public abstract class ORecordSchemaAwareAbstract<T> extends ORecordAbstract<T> i
 			return;
 
 		checkForLoading();
-		checkForFields();
+		checkForFields(ODocumentHelper.ATTRIBUTE_CLASS);
 
 		if (_clazz != null) {
 			if (_clazz.isStrictMode()) {
@@ -71,13 +72,13 @@ public abstract class ORecordSchemaAwareAbstract<T> extends ORecordAbstract<T> i
 		if (_clazz == null)
 			// DESERIALIZE ONLY IF THE CLASS IS NOT SETTED: THIS PREVENT TO
 			// UNMARSHALL THE RECORD EVEN IF SETTED BY fromString()
-			checkForFields();
+			checkForFields(ODocumentHelper.ATTRIBUTE_CLASS);
 		return _clazz;
 	}
 
 	public String getClassName() {
 		checkForLoading();
-		checkForFields();
+		checkForFields(ODocumentHelper.ATTRIBUTE_CLASS);
 		return _clazz != null ? _clazz.getName() : null;
 	}
 
@@ -123,7 +124,10 @@ public abstract class ORecordSchemaAwareAbstract<T> extends ORecordAbstract<T> i
 		throw new UnsupportedOperationException();
 	}
 
-	protected void checkForFields() {
+	/**
+	 * Deserializes the fields if not yet done. Implementations able to deserialize single fields can load only iFields.
+	 */
+	protected void checkForFields(final String... iFields) {
 		if (_status == ORecordElement.STATUS.LOADED && fields() == 0)
 			// POPULATE FIELDS LAZY
 			deserializeFields();
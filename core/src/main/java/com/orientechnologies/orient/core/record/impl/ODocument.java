@@ -30,6 +30,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.ODetachable;
@@ -57,7 +58,9 @@ import com.orientechnologies.orient.core.record.ORecordAbstract;
 import com.orientechnologies.orient.core.record.ORecordSchemaAwareAbstract;
 import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
 import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
+import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializer;
 import com.orientechnologies.orient.core.serialization.serializer.record.ORecordSerializerFactory;
+import com.orientechnologies.orient.core.serialization.serializer.record.binary.ORecordSerializerBinary;
 import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerSchemaAware2CSV;
 
 /**
@@ -78,6 +81,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	protected boolean																				_lazyLoad					= true;
 
 	protected List<WeakReference<ORecordElement>>						_owners						= null;
+	protected byte[]																				_lazySource;
 
 	protected static final String[]													EMPTY_STRINGS			= new String[] {};
 
@@ -230,7 +234,11 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	 * instance has the same identity and values but all the internal structure are totally independent by the source.
 	 */
 	public ODocument copy() {
-		return copy((ODocument) copyTo(new ODocument()));
+		final ODocument cloned = copy((ODocument) copyTo(new ODocument()));
+		if (!_dirty)
+			// THE COPY OF THE COLLECTIONS CLEARED THE SOURCE, BUT IT'S STILL THE CONTENT OF THE FIELDS
+			cloned._source = _source;
+		return cloned;
 	}
 
 	/**
@@ -444,6 +452,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	public void fromString(final String iValue) {
 		_dirty = true;
 		_source = OBinaryProtocol.string2bytes(iValue);
+		_lazySource = null;
 
 		removeAllCollectionChangeListeners();
 
@@ -481,15 +490,18 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 			return null;
 
 		checkForLoading();
-		checkForFields();
-
-		if (_fieldValues.size() == 0)
-			// NO FIELDS
-			return null;
 
 		// OPTIMIZATION
-		if (iFieldName.charAt(0) != '@' && OStringSerializerHelper.indexOf(iFieldName, 0, '.', '[') == -1)
+		if (iFieldName.charAt(0) != '@' && OStringSerializerHelper.indexOf(iFieldName, 0, '.', '[') == -1) {
+			checkForFields(iFieldName);
 			return (RET) _fieldValues.get(iFieldName);
+		}
+
+		checkForFields(ODocumentHelper.ATTRIBUTE_CLASS);
+
+		if (_fieldValues.size() == 0 && _lazySource == null)
+			// NO FIELDS
+			return null;
 
 		// NOT FOUND, PARSE THE FIELD NAME
 		return (RET) ODocumentHelper.getFieldValue(this, iFieldName);
@@ -618,9 +630,11 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 		iFieldName = checkFieldName(iFieldName);
 
 		checkForLoading();
-		checkForFields();
+		checkForFields(iFieldName);
 
-		_source = null;
+		if (_status != STATUS.UNMARSHALLING)
+			// WHILE UNMARSHALLING THE SOURCE IS STILL VALID: KEEP IT TO SEND OR SAVE THE RECORD WITHOUT SERIALIZING IT AGAIN
+			_source = null;
 
 		final boolean knownProperty = _fieldValues.containsKey(iFieldName);
 		final Object oldValue = _fieldValues.get(iFieldName);
@@ -888,7 +902,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 			return false;
 
 		checkForLoading();
-		checkForFields();
+		checkForFields(iFieldName);
 		return _fieldValues.containsKey(iFieldName);
 	}
 
@@ -958,8 +972,10 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 					e.setDirty();
 			}
 		}
-		// THIS IS IMPORTANT TO BE SURE THAT FIELDS ARE LOADED BEFORE IT'S TOO LATE AND THE RECORD _SOURCE IS NULL
-		checkForFields();
+		// THIS IS IMPORTANT TO BE SURE THAT FIELDS ARE LOADED BEFORE IT'S TOO LATE AND THE RECORD _SOURCE IS NULL. FIELDS NOT
+		// DESERIALIZED YET ARE KEPT IN THE LAZY SOURCE
+		if (_lazySource == null)
+			checkForFields(ODocumentHelper.ATTRIBUTE_CLASS);
 
 		return super.setDirty();
 	}
@@ -1002,6 +1018,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 		_fieldOriginalValues = null;
 		_fieldChangeListeners = null;
 		_fieldCollectionChangeTimeLines = null;
+		_lazySource = null;
 
 		super.fromStream(iRecordBuffer);
 
@@ -1032,6 +1049,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	@Override
 	public ODocument unload() {
 		super.unload();
+		_lazySource = null;
 
 		removeAllCollectionChangeListeners();
 
@@ -1050,6 +1068,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	@Override
 	public ODocument clear() {
 		super.clear();
+		_lazySource = null;
 
 		removeAllCollectionChangeListeners();
 
@@ -1069,6 +1088,7 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	@Override
 	public ODocument reset() {
 		super.reset();
+		_lazySource = null;
 		removeAllCollectionChangeListeners();
 
 		if (_fieldValues != null)
@@ -1150,6 +1170,8 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 	}
 
 	public boolean isEmpty() {
+		if (_lazySource != null)
+			checkForFields();
 		return _fieldValues == null || _fieldValues.isEmpty();
 	}
 
@@ -1157,16 +1179,100 @@ public class ODocument extends ORecordSchemaAwareAbstract<Object> implements Ite
 		return _owners != null && !_owners.isEmpty();
 	}
 
+	/**
+	 * Deserializes the fields if not yet done. Documents written in binary format deserialize only the requested fields, keeping the
+	 * others serialized until they are accessed. Pass no fields to deserialize all of them.
+	 */
 	@Override
-	protected void checkForFields() {
+	protected void checkForFields(final String... iFields) {
 		if (_fieldValues == null)
 			_fieldValues = _ordered ? new LinkedHashMap<String, Object>() : new HashMap<String, Object>();
 
-		if (_status == ORecordElement.STATUS.LOADED && _fieldValues.size() == 0)
+		if (_status != ORecordElement.STATUS.LOADED)
+			return;
+
+		if (iFields.length > 0 && checkForLazySource()) {
+			for (String f : iFields)
+				if (!_fieldValues.containsKey(f)) {
+					// DESERIALIZE ONLY THE REQUESTED FIELDS
+					deserializeLazyFields(iFields);
+					break;
+				}
+			return;
+		}
+
+		if (_lazySource != null)
+			// DESERIALIZE THE REMAINING FIELDS
+			deserializeLazyFields(null);
+		else if (_fieldValues.size() == 0)
 			// POPULATE FIELDS LAZY
 			deserializeFields();
 	}
 
+	/**
+	 * Internal. Returns the serialized content the fields not deserialized yet are read from, or null if all the fields are in memory.
+	 */
+	public byte[] getLazySource() {
+		return _lazySource;
+	}
+
+	/**
+	 * Internal. Returns the names of the fields in memory, without deserializing the others.
+	 */
+	public Set<String> getLoadedFieldNames() {
+		return _fieldValues != null ? _fieldValues.keySet() : Collections.<String> emptySet();
+	}
+
+	/**
+	 * Sets the format used to serialize the document. Internal.
+	 */
+	public void setRecordFormat(final ORecordSerializer iFormat) {
+		if (iFormat != _recordFormat) {
+			_recordFormat = iFormat;
+			if (isDirty())
+				// SERIALIZE AGAIN IN THE NEW FORMAT
+				_source = null;
+		}
+	}
+
+	/**
+	 * Starts the lazy deserialization of the fields if the source is in binary format and nothing has been deserialized yet.
+	 * 
+	 * @return true if the fields can be deserialized one by one
+	 */
+	private boolean checkForLazySource() {
+		if (_lazySource == null) {
+			if (!_fieldValues.isEmpty() || !ORecordSerializerBinary.isBinary(_source)
+					|| !OGlobalConfiguration.DB_DOCUMENT_LAZY_FIELDS.getValueAsBoolean())
+				return false;
+			_lazySource = _source;
+		}
+		return true;
+	}
+
+	private void deserializeLazyFields(final String[] iFields) {
+		_status = ORecordElement.STATUS.UNMARSHALLING;
+		final String[] serializedFields = ORecordSerializerBinary.INSTANCE.fromStream(_lazySource, this, iFields);
+		_status = ORecordElement.STATUS.LOADED;
+
+		if (iFields == null) {
+			// ALL THE FIELDS ARE IN MEMORY
+			_lazySource = null;
+
+			if (_ordered) {
+				// RESTORE THE SERIALIZED ORDER, THE NEW FIELDS GO AT THE END
+				final Map<String, Object> ordered = new LinkedHashMap<String, Object>();
+				for (String f : serializedFields)
+					if (_fieldValues.containsKey(f))
+						ordered.put(f, _fieldValues.get(f));
+				for (Entry<String, Object> entry : _fieldValues.entrySet())
+					if (!ordered.containsKey(entry.getKey()))
+						ordered.put(entry.getKey(), entry.getValue());
+				_fieldValues = ordered;
+			}
+		}
+	}
+
 	/**
 	 * Internal.
 	 */
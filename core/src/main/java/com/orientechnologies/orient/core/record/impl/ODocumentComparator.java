@@ -47,10 +47,15 @@ public class ODocumentComparator implements Comparator<OIdentifiable> {
 
 		for (OPair<String, String> field : orderCriteria) {
 			fieldValue1 = ((ODocument) iDoc1.getRecord()).field(field.getKey());
+			fieldValue2 = ((ODocument) iDoc2.getRecord()).field(field.getKey());
+
+			if (fieldValue1 == null && fieldValue2 == null)
+				// BOTH NULL: CONTINUE WITH THE NEXT FIELD
+				continue;
+
 			if (fieldValue1 == null)
 				return factor(-1, field.getValue());
 
-			fieldValue2 = ((ODocument) iDoc2.getRecord()).field(field.getKey());
 			if (fieldValue2 == null)
 				return factor(1, field.getValue());
 
@@ -0,0 +1,587 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.serialization.serializer.record.binary;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.util.OTriple;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.OUserObject2RecordHandler;
+import com.orientechnologies.orient.core.exception.OSerializationException;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OProperty;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
+import com.orientechnologies.orient.core.serialization.OMemoryStream;
+import com.orientechnologies.orient.core.serialization.serializer.record.OSerializationThreadLocal;
+import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerSchemaAware2CSV;
+
+/**
+ * Serializes documents in binary format. The record starts with a header that contains the class name and, for every field, the
+ * name, the type and the offset of the value, so a field can be found without parsing the others. Numbers and dates are written as
+ * variable length integers, RIDs as cluster id and position in fixed bytes, strings as UTF-8. Collections, maps and embedded
+ * documents are written in the CSV format inside the binary record. Documents use the field directory to deserialize only the
+ * accessed fields, and the fields never accessed are copied as they are when the document is saved again.<br/>
+ * Format version 1:
+ * 
+ * <pre>
+ * +-------+---------+------------+-------------+-----------------------------------------------------+------+
+ * | MAGIC | VERSION | CLASS NAME | FIELD COUNT | FIELD: NAME, TYPE, [LINKED TYPE], [VALUE OFFSET] ... | DATA |
+ * +-------+---------+------------+-------------+-----------------------------------------------------+------+
+ * </pre>
+ * 
+ * Records written in CSV are still read since they never start with the magic byte.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class ORecordSerializerBinary extends ORecordSerializerSchemaAware2CSV {
+	public static final String									NAME						= "binary";
+	public static final ORecordSerializerBinary	INSTANCE				= new ORecordSerializerBinary();
+
+	public static final byte										MAGIC						= 0;
+	public static final byte										CURRENT_VERSION	= 1;
+
+	// FLAGS OF THE TYPE BYTE
+	private static final int										NULL_VALUE			= 0x20;
+	private static final int										CSV_VALUE				= 0x40;
+	private static final int										TYPE_MASK				= 0x1F;
+
+	/**
+	 * Tells if the content has been written by this serializer.
+	 */
+	public static boolean isBinary(final byte[] iSource) {
+		return iSource != null && iSource.length > 1 && iSource[0] == MAGIC;
+	}
+
+	@Override
+	public String toString() {
+		return NAME;
+	}
+
+	@Override
+	public ORecordInternal<?> fromStream(final byte[] iSource, final ORecordInternal<?> iRecord) {
+		if (!isBinary(iSource))
+			// WRITTEN IN CSV
+			return super.fromStream(iSource, iRecord);
+
+		if (!(iRecord instanceof ODocument))
+			throw new OSerializationException("Cannot unmarshall a record of type " + iRecord.getClass().getSimpleName() + " from binary");
+
+		fromStream(iSource, (ODocument) iRecord, null, false);
+		return iRecord;
+	}
+
+	/**
+	 * Deserializes some fields of the document, skipping the fields already in memory. Used by the documents to deserialize the fields
+	 * lazily.
+	 * 
+	 * @param iFields
+	 *          Fields to deserialize, null to deserialize all the fields not in memory yet
+	 * @return The names of all the fields in the serialized content, in the written order
+	 */
+	public String[] fromStream(final byte[] iSource, final ODocument iRecord, final String[] iFields) {
+		return fromStream(iSource, iRecord, iFields, true);
+	}
+
+	private String[] fromStream(final byte[] iSource, final ODocument iRecord, final String[] iFields, final boolean iSkipLoaded) {
+		final long timer = OProfiler.getInstance().startChrono();
+
+		final OMemoryStream stream = new OMemoryStream(iSource);
+		final Header header = readHeader(stream, iRecord);
+		iRecord.setClassNameIfExists(header.className.length() > 0 ? header.className : null);
+
+		final Set<String> loaded = iSkipLoaded ? iRecord.getLoadedFieldNames() : null;
+
+		for (int i = 0; i < header.names.length; ++i) {
+			final String name = header.names[i];
+			if (iFields != null && !contains(iFields, name) || loaded != null && loaded.contains(name))
+				continue;
+
+			try {
+				if ((header.types[i] & NULL_VALUE) != 0) {
+					iRecord.field(name, (Object) null);
+					continue;
+				}
+
+				final OType type = OType.getById((byte) (header.types[i] & TYPE_MASK));
+
+				stream.jump(header.dataBegin + header.offsets[i]);
+
+				if ((header.types[i] & CSV_VALUE) != 0)
+					csvFieldFromStream(iRecord, name, type, header.linkedTypes[i] > -1 ? OType.getById(header.linkedTypes[i]) : null,
+							readString(stream));
+				else
+					iRecord.field(name, valueFromStream(stream, type));
+
+			} catch (Exception e) {
+				OLogManager.instance().exception("Error on unmarshalling field '%s' in binary format", e, OSerializationException.class,
+						name);
+			}
+		}
+
+		OProfiler.getInstance().stopChrono("ORecordSerializerBinary.fromStream", timer);
+		return header.names;
+	}
+
+	@Override
+	public byte[] toStream(final ORecordInternal<?> iRecord, final boolean iOnlyDelta) {
+		if (!(iRecord instanceof ODocument))
+			throw new OSerializationException("Cannot marshall a record of type " + iRecord.getClass().getSimpleName() + " to binary");
+
+		final long timer = OProfiler.getInstance().startChrono();
+
+		final ODocument record = (ODocument) iRecord;
+		final Set<Integer> marshalledRecords = OSerializationThreadLocal.INSTANCE.get();
+
+		// CHECK IF THE RECORD IS PENDING TO BE MARSHALLED
+		final Integer identityRecord = System.identityHashCode(record);
+		if (marshalledRecords.contains(identityRecord))
+			return new byte[0];
+		marshalledRecords.add(identityRecord);
+
+		try {
+			final OMemoryStream header = new OMemoryStream(128);
+			final OMemoryStream data = new OMemoryStream(256);
+
+			header.write(MAGIC);
+			header.write(CURRENT_VERSION);
+			writeString(header, !iOnlyDelta && record.getSchemaClass() != null ? record.getSchemaClass().getStreamableName() : "");
+
+			// FIELDS NOT DESERIALIZED YET ARE COPIED AS THEY ARE
+			final byte[] lazySource = iOnlyDelta ? null : record.getLazySource();
+			final Header lazyHeader = lazySource != null ? readHeader(new OMemoryStream(lazySource), record) : null;
+			final Set<String> loaded = record.getLoadedFieldNames();
+
+			final String[] fieldNames;
+			if (lazyHeader != null) {
+				final Set<String> names = new LinkedHashSet<String>(Arrays.asList(lazyHeader.names));
+				names.addAll(loaded);
+				fieldNames = names.toArray(new String[names.size()]);
+			} else
+				fieldNames = iOnlyDelta && record.isTrackingChanges() ? record.getDirtyFields() : record.fieldNames();
+
+			OUserObject2RecordHandler objHandler = null;
+			if (ODatabaseRecordThreadLocal.INSTANCE.isDefined())
+				objHandler = ODatabaseRecordThreadLocal.INSTANCE.get();
+
+			final OMemoryStream fieldsHeader = new OMemoryStream(fieldNames.length * 16 + 1);
+			int fields = 0;
+
+			for (String fieldName : fieldNames) {
+				if (lazyHeader != null && !loaded.contains(fieldName)) {
+					writeString(fieldsHeader, fieldName);
+					fields++;
+					rawFieldToStream(lazySource, lazyHeader, lazyHeader.indexOf(fieldName), fieldsHeader, data);
+					continue;
+				}
+
+				final Object fieldValue = record.rawField(fieldName);
+
+				final OTriple<OType, OClass, OType> fieldType = getFieldType(record, fieldName, fieldValue);
+				if (fieldType == null)
+					// TRANSIENT FIELD
+					continue;
+
+				OType type = fieldType.key;
+				if (type == OType.EMBEDDED && fieldValue != null && !(fieldValue instanceof ODocument)) {
+					// NOT A DOCUMENT: TRY WITH THE TYPE OF THE VALUE, LIKE THE CSV FORMAT DOES ON READING
+					final OType valueType = OType.getTypeByClass(fieldValue.getClass());
+					if (valueType != null && isBinaryValue(valueType, fieldValue))
+						type = valueType;
+				}
+
+				writeString(fieldsHeader, fieldName);
+				fields++;
+
+				if (fieldValue == null) {
+					fieldsHeader.write(NULL_VALUE);
+					continue;
+				}
+
+				final int offset = data.getPosition();
+
+				if (isBinaryValue(type, fieldValue)) {
+					if (!valueToStream(record, data, objHandler, type, fieldName, fieldValue)) {
+						fieldsHeader.write(NULL_VALUE);
+						continue;
+					}
+					fieldsHeader.write(type.getId());
+
+				} else {
+					// WRITE IT AS CSV
+					final StringBuilder buffer = new StringBuilder();
+					fieldToStream(record, buffer, objHandler, type, fieldType.value, fieldType.subValue, fieldName, fieldValue,
+							marshalledRecords, true);
+					writeString(data, buffer.toString());
+
+					fieldsHeader.write(type.getId() | CSV_VALUE);
+					fieldsHeader.write(fieldType.subValue != null ? fieldType.subValue.getId() : -1);
+				}
+
+				writeVarLong(fieldsHeader, offset);
+			}
+
+			writeVarLong(header, fields);
+			header.write(fieldsHeader.getInternalBuffer(), 0, fieldsHeader.getPosition());
+
+			final int size = header.getPosition() + data.getPosition();
+
+			// GET THE OVERSIZE IF ANY, LIKE THE CSV FORMAT
+			final int newSize;
+			if (record.hasOwners())
+				newSize = size;
+			else if (record.getSize() >= size)
+				// REUSE ALL THE AVAILABLE SPACE TO AVOID FRAGMENTATION
+				newSize = record.getSize();
+			else if (record.getSchemaClass() != null && record.getSchemaClass().getOverSize() > 0)
+				newSize = (int) (size * record.getSchemaClass().getOverSize());
+			else
+				newSize = size;
+
+			final byte[] result = new byte[Math.max(size, newSize)];
+			System.arraycopy(header.getInternalBuffer(), 0, result, 0, header.getPosition());
+			System.arraycopy(data.getInternalBuffer(), 0, result, header.getPosition(), data.getPosition());
+			return result;
+
+		} finally {
+			marshalledRecords.remove(identityRecord);
+			OProfiler.getInstance().stopChrono("ORecordSerializerBinary.toStream", timer);
+		}
+	}
+
+	/**
+	 * Copies a field from another binary content without deserializing it.
+	 */
+	private static void rawFieldToStream(final byte[] iSource, final Header iHeader, final int iField,
+			final OMemoryStream iFieldsHeader, final OMemoryStream iData) {
+		final byte type = iHeader.types[iField];
+		iFieldsHeader.write(type);
+		if ((type & CSV_VALUE) != 0)
+			iFieldsHeader.write(iHeader.linkedTypes[iField]);
+
+		if ((type & NULL_VALUE) != 0)
+			return;
+
+		final int begin = iHeader.dataBegin + iHeader.offsets[iField];
+
+		// THE VALUE ENDS WHERE THE NEXT ONE BEGINS
+		int end = -1;
+		for (int i = iField + 1; i < iHeader.names.length && end == -1; ++i)
+			if ((iHeader.types[i] & NULL_VALUE) == 0)
+				end = iHeader.dataBegin + iHeader.offsets[i];
+
+		if (end == -1) {
+			// LAST VALUE: READ IT TO FIND THE END, THE CONTENT COULD BE PADDED
+			final OMemoryStream stream = new OMemoryStream(iSource);
+			stream.jump(begin);
+			if ((type & CSV_VALUE) != 0)
+				readString(stream);
+			else
+				valueFromStream(stream, OType.getById((byte) (type & TYPE_MASK)));
+			end = stream.getPosition();
+		}
+
+		writeVarLong(iFieldsHeader, iData.getPosition());
+		iData.write(iSource, begin, end - begin);
+	}
+
+	private static Header readHeader(final OMemoryStream iStream, final ODocument iRecord) {
+		iStream.jump(1);
+
+		final byte version = iStream.getAsByte();
+		if (version > CURRENT_VERSION)
+			throw new OSerializationException("Cannot unmarshall the record " + iRecord.getIdentity()
+					+ " written with binary format version " + version + ": the last supported version is " + CURRENT_VERSION);
+
+		final Header header = new Header();
+		header.className = readString(iStream);
+
+		final int fields = (int) readVarLong(iStream);
+		header.names = new String[fields];
+		header.types = new byte[fields];
+		header.linkedTypes = new byte[fields];
+		header.offsets = new int[fields];
+		for (int i = 0; i < fields; ++i) {
+			header.names[i] = readString(iStream);
+			header.types[i] = iStream.getAsByte();
+			if ((header.types[i] & CSV_VALUE) != 0)
+				header.linkedTypes[i] = iStream.getAsByte();
+			if ((header.types[i] & NULL_VALUE) == 0)
+				header.offsets[i] = (int) readVarLong(iStream);
+		}
+
+		header.dataBegin = iStream.getPosition();
+		return header;
+	}
+
+	private static boolean contains(final String[] iNames, final String iName) {
+		for (String n : iNames)
+			if (n.equals(iName))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Sets a field written in CSV format, like the CSV serializer does.
+	 */
+	private void csvFieldFromStream(final ODocument iRecord, final String iName, final OType iType, OType iLinkedType,
+			final String iValue) {
+		final OProperty prop = iRecord.getSchemaClass() != null ? iRecord.getSchemaClass().getProperty(iName) : null;
+		OClass linkedClass = null;
+		if (prop != null) {
+			linkedClass = prop.getLinkedClass();
+			if (prop.getLinkedType() != null)
+				iLinkedType = prop.getLinkedType();
+		}
+
+		final Object value = fieldFromStream(iRecord, iType, linkedClass, iLinkedType, iName, iValue);
+
+		if (iType == OType.EMBEDDEDLIST || iType == OType.EMBEDDEDSET || iType == OType.EMBEDDEDMAP || iType == OType.EMBEDDED) {
+			iRecord.field(iName, value, iType);
+
+			if (prop == null && iLinkedType == null && iType == OType.EMBEDDEDLIST && value instanceof Collection<?>
+					&& ((Collection<?>) value).isEmpty())
+				// EMPTY COLLECTION: TYPE UNKNOWN
+				iRecord.setFieldType(iName, null);
+		} else
+			iRecord.field(iName, value);
+	}
+
+	/**
+	 * Tells if the value can be written in binary for the type.
+	 */
+	private static boolean isBinaryValue(final OType iType, final Object iValue) {
+		switch (iType) {
+		case BOOLEAN:
+			return iValue instanceof Boolean;
+		case BYTE:
+		case SHORT:
+		case INTEGER:
+		case LONG:
+			return iValue instanceof Number && !(iValue instanceof BigDecimal) && !(iValue instanceof BigInteger);
+		case FLOAT:
+		case DOUBLE:
+			return iValue instanceof Number;
+		case DATE:
+		case DATETIME:
+			return iValue instanceof Date;
+		case STRING:
+			return iValue instanceof String;
+		case BINARY:
+			return iValue instanceof byte[];
+		case DECIMAL:
+			return iValue instanceof BigDecimal;
+		case LINK:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a value in binary.
+	 * 
+	 * @return false if the value is null, like the links to records without a valid RID
+	 */
+	private boolean valueToStream(final ODocument iRecord, final OMemoryStream iStream, final OUserObject2RecordHandler iObjHandler,
+			final OType iType, final String iName, final Object iValue) {
+		switch (iType) {
+		case BOOLEAN:
+			iStream.write(((Boolean) iValue).booleanValue() ? 1 : 0);
+			break;
+		case BYTE:
+			iStream.write(((Number) iValue).byteValue());
+			break;
+		case SHORT:
+		case INTEGER:
+		case LONG:
+			writeVarLong(iStream, zigZag(((Number) iValue).longValue()));
+			break;
+		case FLOAT:
+			iStream.set(Float.floatToIntBits(((Number) iValue).floatValue()));
+			break;
+		case DOUBLE:
+			iStream.set(Double.doubleToLongBits(((Number) iValue).doubleValue()));
+			break;
+		case DATE:
+		case DATETIME:
+			writeVarLong(iStream, zigZag(((Date) iValue).getTime()));
+			break;
+		case STRING:
+			writeString(iStream, (String) iValue);
+			break;
+		case BINARY:
+			writeVarLong(iStream, ((byte[]) iValue).length);
+			iStream.write((byte[]) iValue, 0, ((byte[]) iValue).length);
+			break;
+		case DECIMAL: {
+			final byte[] unscaled = ((BigDecimal) iValue).unscaledValue().toByteArray();
+			writeVarLong(iStream, zigZag(((BigDecimal) iValue).scale()));
+			writeVarLong(iStream, unscaled.length);
+			iStream.write(unscaled, 0, unscaled.length);
+			break;
+		}
+		case LINK: {
+			// LET THE CSV SERIALIZER SAVE THE NEW RECORDS AND RESOLVE THE RID
+			final StringBuilder buffer = new StringBuilder();
+			fieldToStream(iRecord, buffer, iObjHandler, OType.LINK, null, null, iName, iValue, null, true);
+			if (buffer.length() == 0)
+				return false;
+
+			final ORecordId rid = new ORecordId(buffer.toString());
+			iStream.set((short) rid.getClusterId());
+			iStream.set(rid.getClusterPosition());
+			break;
+		}
+		default:
+			return false;
+		}
+		return true;
+	}
+
+	private static Object valueFromStream(final OMemoryStream iStream, final OType iType) {
+		switch (iType) {
+		case BOOLEAN:
+			return iStream.getAsByte() != 0;
+		case BYTE:
+			return iStream.getAsByte();
+		case SHORT:
+			return (short) unZigZag(readVarLong(iStream));
+		case INTEGER:
+			return (int) unZigZag(readVarLong(iStream));
+		case LONG:
+			return unZigZag(readVarLong(iStream));
+		case FLOAT:
+			return Float.intBitsToFloat(iStream.getAsInteger());
+		case DOUBLE:
+			return Double.longBitsToDouble(iStream.getAsLong());
+		case DATE:
+		case DATETIME:
+			return new Date(unZigZag(readVarLong(iStream)));
+		case STRING:
+			return readString(iStream);
+		case BINARY: {
+			final byte[] value = new byte[(int) readVarLong(iStream)];
+			System.arraycopy(iStream.getInternalBuffer(), iStream.getPosition(), value, 0, value.length);
+			iStream.jump(iStream.getPosition() + value.length);
+			return value;
+		}
+		case DECIMAL: {
+			final int scale = (int) unZigZag(readVarLong(iStream));
+			final byte[] unscaled = new byte[(int) readVarLong(iStream)];
+			System.arraycopy(iStream.getInternalBuffer(), iStream.getPosition(), unscaled, 0, unscaled.length);
+			iStream.jump(iStream.getPosition() + unscaled.length);
+			return new BigDecimal(new BigInteger(unscaled), scale);
+		}
+		case LINK:
+			return new ORecordId(iStream.getAsShort(), iStream.getAsLong());
+		default:
+			throw new OSerializationException("Type " + iType + " is not supported in binary format");
+		}
+	}
+
+	private static void writeString(final OMemoryStream iStream, final String iValue) {
+		int length = 0;
+		for (int i = 0; i < iValue.length(); ++i) {
+			final char c = iValue.charAt(i);
+			length += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+		}
+		writeVarLong(iStream, length);
+
+		if (length == iValue.length())
+			// ASCII
+			for (int i = 0; i < length; ++i)
+				iStream.write(iValue.charAt(i));
+		else
+			try {
+				OBinaryProtocol.string2bytes(iValue, iStream);
+			} catch (java.io.IOException e) {
+				throw new OSerializationException("Error on writing string in binary format", e);
+			}
+	}
+
+	private static String readString(final OMemoryStream iStream) {
+		final int length = (int) readVarLong(iStream);
+		final int begin = iStream.getPosition();
+		iStream.jump(begin + length);
+		return OBinaryProtocol.bytes2string(iStream.getInternalBuffer(), begin, length);
+	}
+
+	/**
+	 * Writes the value in 7 bits groups, the highest bit tells if another group follows.
+	 */
+	private static void writeVarLong(final OMemoryStream iStream, long iValue) {
+		while ((iValue & ~0x7FL) != 0) {
+			iStream.write((int) ((iValue & 0x7F) | 0x80));
+			iValue >>>= 7;
+		}
+		iStream.write((int) iValue);
+	}
+
+	private static long readVarLong(final OMemoryStream iStream) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = iStream.getAsByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * Maps the signed values to unsigned ones, so small negative numbers take a few bytes too.
+	 */
+	private static long zigZag(final long iValue) {
+		return (iValue << 1) ^ (iValue >> 63);
+	}
+
+	private static long unZigZag(final long iValue) {
+		return (iValue >>> 1) ^ -(iValue & 1);
+	}
+
+	/**
+	 * Header of a record: class name and field directory.
+	 */
+	private static class Header {
+		String		className;
+		String[]	names;
+		byte[]		types;
+		byte[]		linkedTypes;
+		int[]			offsets;
+		int				dataBegin;
+
+		int indexOf(final String iName) {
+			for (int i = 0; i < names.length; ++i)
+				if (names[i].equals(iName))
+					return i;
+			return -1;
+		}
+	}
+}
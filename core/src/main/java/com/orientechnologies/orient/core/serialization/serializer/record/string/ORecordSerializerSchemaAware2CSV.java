@@ -25,6 +25,7 @@ import java.util.Set;
 
 import com.orientechnologies.common.collection.OMultiValue;
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.util.OTriple;
 import com.orientechnologies.orient.core.db.ODatabaseComplex;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.OUserObject2RecordHandler;
@@ -40,6 +41,7 @@ import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.ORecordSchemaAware;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
+import com.orientechnologies.orient.core.serialization.serializer.record.binary.ORecordSerializerBinary;
 
 public class ORecordSerializerSchemaAware2CSV extends ORecordSerializerCSVAbstract {
 	public static final String														NAME			= "ORecordDocument2csv";
@@ -55,6 +57,15 @@ public class ORecordSerializerSchemaAware2CSV extends ORecordSerializerCSVAbstra
 		return NAME;
 	}
 
+	@Override
+	public ORecordInternal<?> fromStream(final byte[] iSource, final ORecordInternal<?> iRecord) {
+		if (ORecordSerializerBinary.isBinary(iSource))
+			// WRITTEN BY THE BINARY SERIALIZER
+			return ORecordSerializerBinary.INSTANCE.fromStream(iSource, iRecord);
+
+		return super.fromStream(iSource, iRecord);
+	}
+
 	@Override
 	protected StringBuilder toString(ORecordInternal<?> iRecord, final StringBuilder iOutput, final String iFormat,
 			OUserObject2RecordHandler iObjHandler, final Set<Integer> iMarshalledRecords, final boolean iOnlyDelta) {
@@ -77,11 +88,7 @@ public class ORecordSerializerSchemaAware2CSV extends ORecordSerializerCSVAbstra
 			iOutput.append(OStringSerializerHelper.CLASS_SEPARATOR);
 		}
 
-		OProperty prop;
-		OType type;
-		OClass linkedClass;
-		OType linkedType;
-		String fieldClassName;
+		OTriple<OType, OClass, OType> fieldType;
 		int i = 0;
 
 		final String[] fieldNames = iOnlyDelta && record.isTrackingChanges() ? record.getDirtyFields() : record.fieldNames();
@@ -95,150 +102,15 @@ public class ORecordSerializerSchemaAware2CSV extends ORecordSerializerCSVAbstra
 			if (i > 0)
 				iOutput.append(OStringSerializerHelper.RECORD_SEPARATOR);
 
-			// SEARCH FOR A CONFIGURED PROPERTY
-			prop = record.getSchemaClass() != null ? record.getSchemaClass().getProperty(fieldName) : null;
-			fieldClassName = getClassName(fieldValue);
-
-			type = record.fieldType(fieldName);
-			linkedClass = null;
-			linkedType = null;
-
-			if (prop != null) {
-				// RECOGNIZED PROPERTY
-				type = prop.getType();
-				linkedClass = prop.getLinkedClass();
-				linkedType = prop.getLinkedType();
-
-			} else if (fieldValue != null) {
-				// NOT FOUND: TRY TO DETERMINE THE TYPE FROM ITS CONTENT
-				if (type == null) {
-					if (fieldValue.getClass() == byte[].class)
-						type = OType.BINARY;
-					else if (ODatabaseRecordThreadLocal.INSTANCE.isDefined() && fieldValue instanceof ORecord<?>) {
-						if (type == null)
-							// DETERMINE THE FIELD TYPE
-							if (fieldValue instanceof ODocument && ((ODocument) fieldValue).hasOwners())
-								type = OType.EMBEDDED;
-							else
-								type = OType.LINK;
-
-						linkedClass = getLinkInfo(ODatabaseRecordThreadLocal.INSTANCE.get(), fieldClassName);
-					} else if (fieldValue instanceof ORID)
-						// DETERMINE THE FIELD TYPE
-						type = OType.LINK;
-
-					else if (ODatabaseRecordThreadLocal.INSTANCE.isDefined()
-							&& ODatabaseRecordThreadLocal.INSTANCE.get().getDatabaseOwner() instanceof ODatabaseObject
-							&& ((ODatabaseObject) ODatabaseRecordThreadLocal.INSTANCE.get().getDatabaseOwner()).getEntityManager()
-									.getEntityClass(fieldClassName) != null) {
-						// DETERMINE THE FIELD TYPE
-						type = OType.LINK;
-						linkedClass = getLinkInfo(ODatabaseRecordThreadLocal.INSTANCE.get(), fieldClassName);
-					} else if (fieldValue instanceof Date)
-						type = OType.DATETIME;
-					else if (fieldValue instanceof String)
-						type = OType.STRING;
-					else if (fieldValue instanceof Integer || fieldValue instanceof BigInteger)
-						type = OType.INTEGER;
-					else if (fieldValue instanceof Long)
-						type = OType.LONG;
-					else if (fieldValue instanceof Float)
-						type = OType.FLOAT;
-					else if (fieldValue instanceof Short)
-						type = OType.SHORT;
-					else if (fieldValue instanceof Byte)
-						type = OType.BYTE;
-					else if (fieldValue instanceof Double)
-						type = OType.DOUBLE;
-					else if (fieldValue instanceof BigDecimal)
-						type = OType.DECIMAL;
-				}
-
-				if (fieldValue instanceof Collection<?> || fieldValue.getClass().isArray()) {
-					final int size = OMultiValue.getSize(fieldValue);
-
-					Boolean autoConvertLinks = null;
-					if (fieldValue instanceof ORecordLazyMultiValue) {
-						autoConvertLinks = ((ORecordLazyMultiValue) fieldValue).isAutoConvertToRecord();
-						if (autoConvertLinks)
-							// DISABLE AUTO CONVERT
-							((ORecordLazyMultiValue) fieldValue).setAutoConvertToRecord(false);
-					}
-
-					if (size > 0) {
-						final Object firstValue = OMultiValue.getFirstValue(fieldValue);
-
-						if (firstValue != null) {
-							if (firstValue instanceof ORID) {
-								linkedClass = null;
-								linkedType = OType.LINK;
-								if (fieldValue instanceof Set<?>)
-									type = OType.LINKSET;
-								else
-									type = OType.LINKLIST;
-							} else if (ODatabaseRecordThreadLocal.INSTANCE.isDefined()
-									&& (firstValue instanceof ORecord<?> || (ODatabaseRecordThreadLocal.INSTANCE.get().getDatabaseOwner() instanceof ODatabaseObject && ((ODatabaseObject) ODatabaseRecordThreadLocal.INSTANCE
-											.get().getDatabaseOwner()).getEntityManager().getEntityClass(getClassName(firstValue)) != null))) {
-								linkedClass = getLinkInfo(ODatabaseRecordThreadLocal.INSTANCE.get(), getClassName(firstValue));
-								if (type == null) {
-									// LINK: GET THE CLASS
-									linkedType = OType.LINK;
-
-									if (fieldValue instanceof Set<?>)
-										type = OType.LINKSET;
-									else
-										type = OType.LINKLIST;
-								} else
-									linkedType = OType.EMBEDDED;
-							} else {
-								// EMBEDDED COLLECTION
-								if (firstValue instanceof ODocument
-										&& ((((ODocument) firstValue).hasOwners()) || type == OType.EMBEDDEDSET || type == OType.EMBEDDEDLIST || type == OType.EMBEDDEDMAP))
-									linkedType = OType.EMBEDDED;
-								else if (firstValue instanceof Enum<?>)
-									linkedType = OType.STRING;
-								else {
-									linkedType = OType.getTypeByClass(firstValue.getClass());
-
-									if (linkedType != OType.LINK) {
-										// EMBEDDED FOR SURE SINCE IT CONTAINS JAVA TYPES
-										if (linkedType == null) {
-											linkedType = OType.EMBEDDED;
-											// linkedClass = new OClass(firstValue.getClass());
-										}
-									}
-								}
-
-								if (type == null)
-									if (fieldValue instanceof Set<?>)
-										type = OType.EMBEDDEDSET;
-									else
-										type = OType.EMBEDDEDLIST;
-							}
-						}
-					} else if (type == null)
-						type = OType.EMBEDDEDLIST;
-
-					if (fieldValue instanceof ORecordLazyMultiValue && autoConvertLinks) {
-						// REPLACE PREVIOUS SETTINGS
-						((ORecordLazyMultiValue) fieldValue).setAutoConvertToRecord(true);
-					}
-
-				} else if (fieldValue instanceof Map<?, ?> && type == null)
-					type = OType.EMBEDDEDMAP;
-			}
-
-			if (type == OType.TRANSIENT)
+			fieldType = getFieldType(record, fieldName, fieldValue);
+			if (fieldType == null)
 				// TRANSIENT FIELD
 				continue;
 
-			if (type == null)
-				type = OType.EMBEDDED;
-
 			iOutput.append(fieldName);
 			iOutput.append(FIELD_VALUE_SEPARATOR);
-			fieldToStream((ODocument) iRecord, iOutput, iObjHandler, type, linkedClass, linkedType, fieldName, fieldValue,
-					iMarshalledRecords, true);
+			fieldToStream((ODocument) iRecord, iOutput, iObjHandler, fieldType.key, fieldType.value, fieldType.subValue, fieldName,
+					fieldValue, iMarshalledRecords, true);
 
 			i++;
 		}
@@ -279,6 +151,160 @@ public class ORecordSerializerSchemaAware2CSV extends ORecordSerializerCSVAbstra
 		return iOutput;
 	}
 
+	/**
+	 * Determines the type of a field from the schema, the type set in the document or its value.
+	 * 
+	 * @return the type, the linked class and the linked type of the field, or null if the field is transient
+	 */
+	protected OTriple<OType, OClass, OType> getFieldType(final ODocument record, final String fieldName, final Object fieldValue) {
+		OProperty prop;
+		OType type;
+		OClass linkedClass;
+		OType linkedType;
+		String fieldClassName;
+
+		// SEARCH FOR A CONFIGURED PROPERTY
+		prop = record.getSchemaClass() != null ? record.getSchemaClass().getProperty(fieldName) : null;
+		fieldClassName = getClassName(fieldValue);
+
+		type = record.fieldType(fieldName);
+		linkedClass = null;
+		linkedType = null;
+
+		if (prop != null) {
+			// RECOGNIZED PROPERTY
+			type = prop.getType();
+			linkedClass = prop.getLinkedClass();
+			linkedType = prop.getLinkedType();
+
+		} else if (fieldValue != null) {
+			// NOT FOUND: TRY TO DETERMINE THE TYPE FROM ITS CONTENT
+			if (type == null) {
+				if (fieldValue.getClass() == byte[].class)
+					type = OType.BINARY;
+				else if (ODatabaseRecordThreadLocal.INSTANCE.isDefined() && fieldValue instanceof ORecord<?>) {
+					if (type == null)
+						// DETERMINE THE FIELD TYPE
+						if (fieldValue instanceof ODocument && ((ODocument) fieldValue).hasOwners())
+							type = OType.EMBEDDED;
+						else
+							type = OType.LINK;
+
+					linkedClass = getLinkInfo(ODatabaseRecordThreadLocal.INSTANCE.get(), fieldClassName);
+				} else if (fieldValue instanceof ORID)
+					// DETERMINE THE FIELD TYPE
+					type = OType.LINK;
+
+				else if (ODatabaseRecordThreadLocal.INSTANCE.isDefined()
+						&& ODatabaseRecordThreadLocal.INSTANCE.get().getDatabaseOwner() instanceof ODatabaseObject
+						&& ((ODatabaseObject) ODatabaseRecordThreadLocal.INSTANCE.get().getDatabaseOwner()).getEntityManager()
+								.getEntityClass(fieldClassName) != null) {
+					// DETERMINE THE FIELD TYPE
+					type = OType.LINK;
+					linkedClass = getLinkInfo(ODatabaseRecordThreadLocal.INSTANCE.get(), fieldClassName);
+				} else if (fieldValue instanceof Date)
+					type = OType.DATETIME;
+				else if (fieldValue instanceof String)
+					type = OType.STRING;
+				else if (fieldValue instanceof Integer || fieldValue instanceof BigInteger)
+					type = OType.INTEGER;
+				else if (fieldValue instanceof Long)
+					type = OType.LONG;
+				else if (fieldValue instanceof Float)
+					type = OType.FLOAT;
+				else if (fieldValue instanceof Short)
+					type = OType.SHORT;
+				else if (fieldValue instanceof Byte)
+					type = OType.BYTE;
+				else if (fieldValue instanceof Double)
+					type = OType.DOUBLE;
+				else if (fieldValue instanceof BigDecimal)
+					type = OType.DECIMAL;
+			}
+
+			if (fieldValue instanceof Collection<?> || fieldValue.getClass().isArray()) {
+				final int size = OMultiValue.getSize(fieldValue);
+
+				Boolean autoConvertLinks = null;
+				if (fieldValue instanceof ORecordLazyMultiValue) {
+					autoConvertLinks = ((ORecordLazyMultiValue) fieldValue).isAutoConvertToRecord();
+					if (autoConvertLinks)
+						// DISABLE AUTO CONVERT
+						((ORecordLazyMultiValue) fieldValue).setAutoConvertToRecord(false);
+				}
+
+				if (size > 0) {
+					final Object firstValue = OMultiValue.getFirstValue(fieldValue);
+
+					if (firstValue != null) {
+						if (firstValue instanceof ORID) {
+							linkedClass = null;
+							linkedType = OType.LINK;
+							if (fieldValue instanceof Set<?>)
+								type = OType.LINKSET;
+							else
+								type = OType.LINKLIST;
+						} else if (ODatabaseRecordThreadLocal.INSTANCE.isDefined()
+								&& (firstValue instanceof ORecord<?> || (ODatabaseRecordThreadLocal.INSTANCE.get().getDatabaseOwner() instanceof ODatabaseObject && ((ODatabaseObject) ODatabaseRecordThreadLocal.INSTANCE
+										.get().getDatabaseOwner()).getEntityManager().getEntityClass(getClassName(firstValue)) != null))) {
+							linkedClass = getLinkInfo(ODatabaseRecordThreadLocal.INSTANCE.get(), getClassName(firstValue));
+							if (type == null) {
+								// LINK: GET THE CLASS
+								linkedType = OType.LINK;
+
+								if (fieldValue instanceof Set<?>)
+									type = OType.LINKSET;
+								else
+									type = OType.LINKLIST;
+							} else
+								linkedType = OType.EMBEDDED;
+						} else {
+							// EMBEDDED COLLECTION
+							if (firstValue instanceof ODocument
+									&& ((((ODocument) firstValue).hasOwners()) || type == OType.EMBEDDEDSET || type == OType.EMBEDDEDLIST || type == OType.EMBEDDEDMAP))
+								linkedType = OType.EMBEDDED;
+							else if (firstValue instanceof Enum<?>)
+								linkedType = OType.STRING;
+							else {
+								linkedType = OType.getTypeByClass(firstValue.getClass());
+
+								if (linkedType != OType.LINK) {
+									// EMBEDDED FOR SURE SINCE IT CONTAINS JAVA TYPES
+									if (linkedType == null) {
+										linkedType = OType.EMBEDDED;
+										// linkedClass = new OClass(firstValue.getClass());
+									}
+								}
+							}
+
+							if (type == null)
+								if (fieldValue instanceof Set<?>)
+									type = OType.EMBEDDEDSET;
+								else
+									type = OType.EMBEDDEDLIST;
+						}
+					}
+				} else if (type == null)
+					type = OType.EMBEDDEDLIST;
+
+				if (fieldValue instanceof ORecordLazyMultiValue && autoConvertLinks) {
+					// REPLACE PREVIOUS SETTINGS
+					((ORecordLazyMultiValue) fieldValue).setAutoConvertToRecord(true);
+				}
+
+			} else if (fieldValue instanceof Map<?, ?> && type == null)
+				type = OType.EMBEDDEDMAP;
+		}
+
+		if (type == OType.TRANSIENT)
+			return null;
+
+		if (type == null)
+			type = OType.EMBEDDED;
+
+		return new OTriple<OType, OClass, OType>(type, linkedClass, linkedType);
+	}
+
 	private String getClassName(final Object iValue) {
 		if (iValue instanceof ORecordSchemaAware<?>)
 			return ((ORecordSchemaAware<?>) iValue).getClassName();
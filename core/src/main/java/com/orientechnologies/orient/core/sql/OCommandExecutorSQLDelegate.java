@@ -20,6 +20,7 @@ import java.util.Map;
 
 import com.orientechnologies.orient.core.command.OCommandContext;
 import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 
 /**
  * SQL UPDATE command.
@@ -29,6 +30,10 @@ import com.orientechnologies.orient.core.command.OCommandRequestText;
  */
 public class OCommandExecutorSQLDelegate extends OCommandExecutorSQLAbstract {
 	private OCommandExecutorSQLAbstract	delegate;
+	private OSQLStatementCache					statementCache;
+	private String											statementKey;
+	private int													schemaVersion;
+	private OCommandContext							executionContext;
 
 	@SuppressWarnings("unchecked")
 	public OCommandExecutorSQLDelegate parse(final OCommandRequestText iCommand) {
@@ -37,6 +42,24 @@ public class OCommandExecutorSQLDelegate extends OCommandExecutorSQLAbstract {
 			final String text = textRequest.getText();
 			final String textUpperCase = text.toUpperCase(Locale.ENGLISH);
 
+			if (textUpperCase.trim().startsWith(OCommandExecutorSQLSelect.KEYWORD_SELECT)) {
+				// LOOK FOR THE STATEMENT ALREADY PARSED
+				final ODatabaseRecord database = getDatabase();
+				statementCache = OSQLStatementCache.get(database);
+				if (statementCache != null) {
+					statementKey = OSQLStatementCache.normalize(text);
+					schemaVersion = database.getMetadata().getSchema().getVersion();
+
+					final OCommandExecutorSQLSelect cached = statementCache.acquire(statementKey, schemaVersion);
+					if (cached != null) {
+						cached.setLimit(iCommand.getLimit());
+						delegate = cached.reuse(iCommand);
+						delegate.setProgressListener(progressListener);
+						return this;
+					}
+				}
+			}
+
 			delegate = (OCommandExecutorSQLAbstract) OSQLEngine.getInstance().getCommand(textUpperCase);
 			if (delegate == null)
 				throw new IllegalArgumentException("Cannot find a command executor for the command request: " + iCommand);
@@ -44,17 +67,32 @@ public class OCommandExecutorSQLDelegate extends OCommandExecutorSQLAbstract {
 			delegate.setLimit(iCommand.getLimit());
 			delegate.parse(iCommand);
 			delegate.setProgressListener(progressListener);
+
+			if (statementKey != null && !(delegate instanceof OCommandExecutorSQLSelect && ((OCommandExecutorSQLSelect) delegate).isCacheable()))
+				// DON'T CACHE IT
+				statementKey = null;
 		} else
 			throw new IllegalArgumentException("Cannot find a command executor for the command request: " + iCommand);
 		return this;
 	}
 
 	public Object execute(final Map<Object, Object> iArgs) {
-		return delegate.execute(iArgs);
+		if (statementKey == null)
+			return delegate.execute(iArgs);
+
+		try {
+			return delegate.execute(iArgs);
+		} finally {
+			// THE EXECUTOR COULD BE TAKEN BY ANOTHER EXECUTION ONCE RELEASED
+			executionContext = delegate.getContext();
+			statementCache.release(statementKey, schemaVersion, (OCommandExecutorSQLSelect) delegate);
+		}
 	}
 
 	@Override
 	public OCommandContext getContext() {
+		if (executionContext != null)
+			return executionContext;
 		return delegate.getContext();
 	}
 
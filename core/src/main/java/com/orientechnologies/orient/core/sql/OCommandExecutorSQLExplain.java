@@ -0,0 +1,92 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.Locale;
+import java.util.Map;
+
+import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * SQL EXPLAIN and PROFILE commands. EXPLAIN returns the plan a SELECT would use without executing it. PROFILE executes the SELECT
+ * and returns the plan with the records estimated and actually loaded, the records scanned, loaded from the cache and from the
+ * storage, the index lookups, the bytes deserialized and the time spent in every phase. Both return a document, the records of the
+ * SELECT are not returned.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OCommandExecutorSQLExplain extends OCommandExecutorSQLAbstract {
+	public static final String				KEYWORD_EXPLAIN	= "EXPLAIN";
+	public static final String				KEYWORD_PROFILE	= "PROFILE";
+
+	private boolean										profile;
+	private OCommandRequestText				request;
+	private OCommandExecutorSQLSelect	select;
+
+	@SuppressWarnings("unchecked")
+	public OCommandExecutorSQLExplain parse(final OCommandRequestText iRequest) {
+		init(iRequest.getText());
+		request = iRequest;
+
+		final StringBuilder word = new StringBuilder();
+
+		final int pos = OSQLHelper.nextWord(text, textUpperCase, 0, word, true);
+		if (pos == -1 || !(word.toString().equals(KEYWORD_EXPLAIN) || word.toString().equals(KEYWORD_PROFILE)))
+			throw new OCommandSQLParsingException("Keyword " + KEYWORD_EXPLAIN + " or " + KEYWORD_PROFILE + " not found. Use "
+					+ getSyntax(), text, 0);
+
+		profile = word.toString().equals(KEYWORD_PROFILE);
+
+		final String selectText = text.substring(pos).trim();
+		if (!selectText.toUpperCase(Locale.ENGLISH).startsWith(OCommandExecutorSQLSelect.KEYWORD_SELECT))
+			throw new OCommandSQLParsingException("Only a SELECT can follow " + word + ". Use " + getSyntax(), text, pos);
+
+		// THE RECORDS FOUND ARE COLLECTED BY A QUERY OF ITS OWN, NOT SENT TO THE CALLER
+		select = new OCommandExecutorSQLSelect();
+		select.setLimit(iRequest.getLimit());
+		select.parse(new OSQLSynchQuery<ODocument>(selectText, iRequest.getLimit()));
+		return this;
+	}
+
+	/**
+	 * Explains or profiles the SELECT.
+	 */
+	public Object execute(final Map<Object, Object> iArgs) {
+		if (select == null)
+			throw new OCommandExecutionException("Cannot execute the command because it has not been parsed yet");
+
+		final ODocument result = profile ? select.profile(iArgs) : select.explain(iArgs);
+
+		if (request.getResultListener() != null) {
+			request.getResultListener().result(result);
+
+			if (request instanceof OSQLSynchQuery<?>)
+				// QUERY: RETURN THE DOCUMENT AS A RESULT SET
+				return ((OSQLSynchQuery<?>) request).getResult();
+		}
+
+		return result;
+	}
+
+	@Override
+	public String getSyntax() {
+		return "EXPLAIN|PROFILE <select>";
+	}
+}
@@ -84,6 +84,11 @@ public abstract class OCommandExecutorSQLExtractAbstract extends OCommandExecuto
 
 		init(iRequest.getText());
 
+		assignRequest(iRequest);
+		return this;
+	}
+
+	protected void assignRequest(final OCommandRequestText iRequest) {
 		if (iRequest instanceof OSQLSynchQuery) {
 			request = (OSQLSynchQuery<ORecordSchemaAware<?>>) iRequest;
 		} else if (iRequest instanceof OSQLAsynchQuery)
@@ -94,7 +99,6 @@ public abstract class OCommandExecutorSQLExtractAbstract extends OCommandExecuto
 			if (iRequest.getResultListener() != null)
 				request.setResultListener(iRequest.getResultListener());
 		}
-		return this;
 	}
 
 	public List<OIdentifiable> getResult() {
@@ -16,15 +16,18 @@
 package com.orientechnologies.orient.core.sql;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import com.orientechnologies.common.collection.OCompositeKey;
@@ -35,12 +38,15 @@ import com.orientechnologies.common.profiler.OProfiler;
 import com.orientechnologies.common.util.OPair;
 import com.orientechnologies.orient.core.command.OBasicCommandContext;
 import com.orientechnologies.orient.core.command.OCommandRequestText;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecordAbstract;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.db.record.ORecordElement;
 import com.orientechnologies.orient.core.exception.OCommandExecutionException;
 import com.orientechnologies.orient.core.exception.OQueryParsingException;
 import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.index.*;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
@@ -49,6 +55,7 @@ import com.orientechnologies.orient.core.metadata.security.ORole;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ODocumentComparator;
 import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
 import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterCondition;
@@ -58,6 +65,7 @@ import com.orientechnologies.orient.core.sql.functions.OSQLFunctionRuntime;
 import com.orientechnologies.orient.core.sql.functions.misc.OSQLFunctionCount;
 import com.orientechnologies.orient.core.sql.operator.OIndexReuseType;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperator;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorAnd;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorBetween;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorContains;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorContainsKey;
@@ -69,6 +77,8 @@ import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMajor;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMajorEquals;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinor;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorOr;
+import com.orientechnologies.orient.core.sql.query.OSQLQuery;
 import com.orientechnologies.orient.core.type.tree.OMVRBTreeRIDSet;
 
 /**
@@ -87,12 +97,26 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 	public static final String					KEYWORD_ORDER					= "ORDER";
 	public static final String					KEYWORD_BY						= "BY";
 	public static final String					KEYWORD_ORDER_BY			= "ORDER BY";
+	public static final String					KEYWORD_GROUP					= "GROUP";
+	public static final String					KEYWORD_GROUP_BY			= "GROUP BY";
 
 	private Map<String, Object>					projections						= null;
 	private List<OPair<String, String>>	orderedFields;
+	private List<String>								groupByFields;
 	private Object											flattenTarget;
 	private boolean											anyFunctionAggregates	= false;
 	private int													fetchLimit						= -1;
+	private int													sqlLimit							= -1;
+	private int													sqlSkip								= -1;
+	private boolean											cacheable							= false;
+	private OTopKResult									topK;
+	private boolean											orderedByIndex				= false;
+	private OSQLGroupBy									groupBy;
+	private long												classRecords					= -1;
+	private String											plan;
+	private long												planEstimatedRecords	= -1;
+	private long												planLoadedRecords;
+	private boolean											explaining						= false;
 
 	/**
 	 * Compile the filter conditions only the first time.
@@ -111,6 +135,9 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 
 		compiledFilter = OSQLEngine.getInstance().parseFromWhereCondition(text.substring(pos, endPosition), context);
 
+		// CHECK BEFORE THE OPTIMIZATION BECAUSE IT PRE-CALCULATES THE FUNCTIONS
+		cacheable = checkCacheable();
+
 		optimize();
 
 		currentPos = compiledFilter.currentPos < 0 ? endPosition : compiledFilter.currentPos + pos;
@@ -126,12 +153,14 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 
 				if (currentPos > -1) {
 					w = word.toString();
-					if (w.equals(KEYWORD_ORDER))
+					if (w.equals(KEYWORD_GROUP))
+						parseGroupBy(word);
+					else if (w.equals(KEYWORD_ORDER))
 						parseOrderBy(word);
 					else if (w.equals(KEYWORD_LIMIT))
-						parseLimit(word);
+						sqlLimit = parseLimit(word);
 					else if (w.equals(KEYWORD_SKIP))
-						parseSkip(word);
+						sqlSkip = parseSkip(word);
 					else
 						throw new OCommandSQLParsingException("Invalid keyword '" + w + "'");
 				}
@@ -140,63 +169,275 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 		if (limit == 0 || limit < -1) {
 			throw new IllegalArgumentException("Limit must be > 0 or = -1 (no limit)");
 		}
+		if (groupByFields != null && flattenTarget != null)
+			throw new OCommandSQLParsingException("GROUP BY cannot be used with FLATTEN()", text, 0);
+		return this;
+	}
+
+	/**
+	 * Prepares the executor, already parsed and executed, to execute the same statement for a new request. Used by the statement
+	 * cache to avoid parsing the statement again. The context of the previous execution could be still used by its caller, so a new
+	 * one is created.
+	 */
+	public OCommandExecutorSQLSelect reuse(final OCommandRequestText iRequest) {
+		getDatabase().checkSecurity(ODatabaseSecurityResources.COMMAND, ORole.PERMISSION_READ);
+
+		assignRequest(iRequest);
+
+		if (sqlLimit > -1)
+			limit = sqlLimit;
+		skip = sqlSkip > -1 ? sqlSkip : 0;
+
+		target = null;
+		tempResult = null;
+		topK = null;
+		orderedByIndex = false;
+		resultCount = 0;
+		parameters = null;
+		context = new OBasicCommandContext();
+		compiledFilter.unbindParameters();
 		return this;
 	}
 
+	/**
+	 * Tells if the parsed statement can be executed again by binding new parameters. Statements with sub-queries, functions, FLATTEN
+	 * or a target of records are excluded since they keep state or values computed only once.
+	 */
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
 	public Object execute(final Map<Object, Object> iArgs) {
+		orderedByIndex = false;
+		plan = null;
+		planEstimatedRecords = -1;
+		planLoadedRecords = 0;
 		fetchLimit = getQueryFetchLimit();
 
-		if (!assignTarget(iArgs)) {
-			if (compiledFilter.getTargetIndex() != null)
-				searchInIndex();
-			else
-				throw new OQueryParsingException("No source found in query: specify class, cluster(s), index or single record(s). Use "
-						+ getSyntax());
-		}
+		if (groupByFields != null)
+			groupBy = new OSQLGroupBy(groupByFields, projections, this, context);
 
-		executeSearch();
+		final OSQLQueryProfile profile = OSQLQueryProfile.get();
+		long timer = profile != null ? System.nanoTime() : 0;
+
+		try {
+			if (!assignTarget(iArgs)) {
+				if (compiledFilter.getTargetIndex() != null)
+					searchInIndex();
+				else
+					throw new OQueryParsingException("No source found in query: specify class, cluster(s), index or single record(s). Use "
+							+ getSyntax());
+			}
+
+			assignTargetPlan();
+
+			if (isSortNeeded() && limit > 0 && !anyFunctionAggregates && flattenTarget == null && groupBy == null) {
+				// KEEP ONLY THE FIRST RECORDS OF THE ORDER
+				topK = new OTopKResult(orderedFields, limit + skip);
+
+				if (tempResult != null) {
+					// RECORDS ALREADY FOUND BY THE INDEX SEARCH
+					for (OIdentifiable r : tempResult)
+						topK.add(r);
+					tempResult = null;
+				}
+			}
+
+			executeSearch();
+
+			if (profile != null) {
+				profile.addSearchTime(System.nanoTime() - timer);
+				timer = System.nanoTime();
+			}
+
+			if (topK != null) {
+				tempResult = topK.toList();
+				topK = null;
+			}
+
+			if (groupBy != null) {
+				tempResult = groupBy.getResult();
+
+				if (profile != null) {
+					profile.addGroupTime(System.nanoTime() - timer);
+					timer = System.nanoTime();
+				}
+			}
+
+		} finally {
+			if (groupBy != null) {
+				groupBy.close();
+				groupBy = null;
+			}
+		}
 
 		applyFlatten();
 		applyProjections();
+
+		if (profile != null) {
+			profile.addProjectionTime(System.nanoTime() - timer);
+			timer = System.nanoTime();
+		}
+
 		applyOrderBy();
+
+		if (profile != null)
+			profile.addSortTime(System.nanoTime() - timer);
+
+		applySkipAfterOrderBy();
 		applyLimit();
 
 		return handleResult();
 	}
 
+	/**
+	 * Describes the plan of the targets that are not classes, always browsed entirely.
+	 */
+	private void assignTargetPlan() {
+		if (plan != null || !isPlanDescribed())
+			return;
+
+		if (compiledFilter.getTargetIndex() != null)
+			plan = "INDEX " + compiledFilter.getTargetIndex();
+		else if (compiledFilter.getTargetClusters() != null)
+			plan = "CLUSTER SCAN " + compiledFilter.getTargetClusters().keySet();
+		else if (compiledFilter.getTargetRecords() != null)
+			plan = "RECORDS";
+	}
+
+	/**
+	 * Returns the plan the query would use without executing it: how the records of the target are searched and if they have to be
+	 * sorted and grouped.
+	 * 
+	 * @param iArgs
+	 *          Parameters to bind
+	 */
+	public ODocument explain(final Map<Object, Object> iArgs) {
+		orderedByIndex = false;
+		plan = null;
+		planEstimatedRecords = -1;
+		fetchLimit = getQueryFetchLimit();
+
+		explaining = true;
+		try {
+			if (!assignTarget(iArgs) && compiledFilter.getTargetIndex() == null)
+				throw new OQueryParsingException("No source found in query: specify class, cluster(s), index or single record(s). Use "
+						+ getSyntax());
+
+			assignTargetPlan();
+
+			final ODocument result = new ODocument();
+			result.field("plan", plan);
+			result.field("estimatedRecords", planEstimatedRecords);
+			if (groupByFields != null)
+				result.field("groupBy", groupByFields);
+			if (orderedFields != null)
+				result.field("sort", orderedByIndex ? "INDEX" : limit > 0 && !anyFunctionAggregates && flattenTarget == null
+						&& groupByFields == null ? "TOP " + (limit + skip) : "MEMORY");
+			return result;
+
+		} finally {
+			explaining = false;
+			target = null;
+			orderedByIndex = false;
+		}
+	}
+
+	/**
+	 * Executes the query collecting the metrics of its phases, then returns them with the plan used, the records estimated by the plan
+	 * and the ones actually loaded. The records found are not returned.
+	 * 
+	 * @param iArgs
+	 *          Parameters to bind
+	 */
+	public ODocument profile(final Map<Object, Object> iArgs) {
+		final OSQLQueryProfile profile = OSQLQueryProfile.start();
+		final Object result;
+		try {
+			result = execute(iArgs);
+		} finally {
+			OSQLQueryProfile.stop();
+		}
+
+		final ODocument doc = profile.toDocument();
+		doc.field("plan", plan);
+		doc.field("estimatedRecords", planEstimatedRecords);
+		doc.field("actualRecords", planLoadedRecords);
+		doc.field("resultRecords", result instanceof Collection<?> ? ((Collection<?>) result).size() : resultCount);
+		return doc;
+	}
+
+	/**
+	 * Tells if the plan has to be described: only for EXPLAIN and PROFILE, the other executions don't pay for its text.
+	 */
+	private boolean isPlanDescribed() {
+		return explaining || OSQLQueryProfile.get() != null;
+	}
+
 	protected void executeSearch() {
 		if (target == null)
 			// SEARCH WITHOUT USING TARGET (USUALLY WHEN INDEXES ARE INVOLVED)
 			return;
 
-		// BROWSE ALL THE RECORDS
-		for (OIdentifiable id : target) {
-			final ORecordInternal<?> record = id.getRecord();
+		try {
+			// BROWSE ALL THE RECORDS
+			final boolean parallel = target instanceof OSQLParallelScan;
+			for (OIdentifiable id : target) {
+				final ORecordInternal<?> record = id.getRecord();
 
-			if (record == null || record.getRecordType() != ODocument.RECORD_TYPE)
-				// WRONG RECORD TYPE: JUMP IT
-				continue;
+				if (record == null || record.getRecordType() != ODocument.RECORD_TYPE)
+					// WRONG RECORD TYPE: JUMP IT
+					continue;
 
-			if (filter(record))
-				if (!addResult(record))
-					// END OF EXECUTION
-					break;
+				if (!parallel)
+					planLoadedRecords++;
+
+				if (filter(record))
+					if (!addResult(record))
+						// END OF EXECUTION
+						break;
+			}
+		} finally {
+			if (target instanceof OSQLParallelScan) {
+				// STOP THE TASKS STILL RUNNING
+				((OSQLParallelScan) target).close();
+				planLoadedRecords += ((OSQLParallelScan) target).getScannedRecords();
+			}
 		}
 	}
 
 	protected boolean addResult(final OIdentifiable iRecord) {
-		if (skip > 0) {
+		if (groupBy != null) {
+			// AGGREGATE BY GROUP: SKIP AND LIMIT ARE APPLIED TO THE GROUPS
+			groupBy.add((ODocument) iRecord.getRecord());
+			return true;
+		}
+
+		if (skip > 0 && !isSortNeeded()) {
 			skip--;
 			return true;
 		}
 
+		if (topK != null && projections == null && !topK.canEnter(iRecord))
+			// IT CANNOT ENTER IN THE FIRST RECORDS OF THE ORDER: AVOID TO COPY IT
+			return true;
+
 		OIdentifiable recordCopy = iRecord instanceof ORecord<?> ? ((ORecord<?>) iRecord).copy() : iRecord.getIdentity().copy();
-		recordCopy = applyProjections(recordCopy);
+
+		final OSQLQueryProfile profile = OSQLQueryProfile.get();
+		if (profile != null) {
+			final long timer = System.nanoTime();
+			recordCopy = applyProjections(recordCopy);
+			profile.addProjectionTime(System.nanoTime() - timer);
+		} else
+			recordCopy = applyProjections(recordCopy);
 
 		resultCount++;
 
 		if (recordCopy != null)
-			if (anyFunctionAggregates || orderedFields != null || flattenTarget != null) {
+			if (topK != null)
+				topK.add(recordCopy);
+			else if (anyFunctionAggregates || isSortNeeded() || flattenTarget != null) {
 				// ORDER BY CLAUSE: COLLECT ALL THE RECORDS AND ORDER THEM AT THE END
 				if (tempResult == null)
 					tempResult = new ArrayList<OIdentifiable>();
@@ -215,8 +456,29 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 		return true;
 	}
 
+	@Override
+	protected boolean filter(final ORecordInternal<?> iRecord) {
+		final OSQLQueryProfile profile = OSQLQueryProfile.get();
+		if (profile == null)
+			return super.filter(iRecord);
+
+		final long timer = System.nanoTime();
+		try {
+			return super.filter(iRecord);
+		} finally {
+			profile.recordScanned(System.nanoTime() - timer);
+		}
+	}
+
+	/**
+	 * Tells if the result must be sorted at the end. It's false when the records are already browsed in the order of an index.
+	 */
+	private boolean isSortNeeded() {
+		return orderedFields != null && !orderedByIndex;
+	}
+
 	private int getQueryFetchLimit() {
-		if (orderedFields != null) {
+		if (isSortNeeded() || groupByFields != null) {
 			return -1;
 		}
 
@@ -250,6 +512,57 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 		return orderedFields;
 	}
 
+	/**
+	 * Returns the plan chosen to search the records of the class by using the indexes in the last execution, or null if the indexes
+	 * weren't considered. The plan is described only by EXPLAIN and PROFILE.
+	 */
+	public String getPlan() {
+		return plan;
+	}
+
+	/**
+	 * Returns the records the plan of the last execution was estimated to load, or -1 if unknown or not described.
+	 */
+	public long getPlanEstimatedRecords() {
+		return planEstimatedRecords;
+	}
+
+	/**
+	 * Returns the records loaded by using the indexes in the last execution.
+	 */
+	public long getPlanLoadedRecords() {
+		return planLoadedRecords;
+	}
+
+	public List<String> getGroupByFields() {
+		return groupByFields;
+	}
+
+	protected void parseGroupBy(final StringBuilder word) {
+		int newPos = OSQLHelper.nextWord(text, textUpperCase, currentPos, word, true);
+
+		if (!KEYWORD_BY.equals(word.toString()))
+			throw new OQueryParsingException("Expected keyword " + KEYWORD_BY);
+
+		currentPos = newPos;
+
+		groupByFields = new ArrayList<String>();
+		while (true) {
+			currentPos = OSQLHelper.nextWord(text, textUpperCase, currentPos, word, false, " ,");
+			if (currentPos == -1 || word.length() == 0)
+				throw new OCommandSQLParsingException("Group by field set was missed. Example: GROUP BY city, country", text, currentPos);
+
+			groupByFields.add(word.toString());
+
+			currentPos = OStringParser.jumpWhiteSpaces(text, currentPos);
+			if (currentPos == -1 || text.charAt(currentPos) != ',')
+				break;
+
+			// NEXT FIELD
+			currentPos++;
+		}
+	}
+
 	protected void parseOrderBy(final StringBuilder word) {
 		int newPos = OSQLHelper.nextWord(text, textUpperCase, currentPos, word, true);
 
@@ -270,7 +583,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 			fieldName = word.toString();
 
 			currentPos = OSQLHelper.nextWord(text, textUpperCase, currentPos, word, true);
-			if (currentPos == -1 || word.toString().equals(KEYWORD_LIMIT))
+			if (currentPos == -1 || word.toString().equals(KEYWORD_LIMIT) || word.toString().equals(KEYWORD_SKIP))
 				// END/NEXT CLAUSE: SET AS ASC BY DEFAULT
 				fieldOrdering = KEYWORD_ASC;
 			else {
@@ -309,23 +622,393 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 	protected void searchInClasses() {
 		final OClass cls = compiledFilter.getTargetClasses().keySet().iterator().next();
 
-		if (searchForIndexes(cls))
-			OProfiler.getInstance().updateCounter("Query.indexUsage", 1);
-		else
+		if (searchInIndexOrder(cls)) {
+			if (!explaining)
+				OProfiler.getInstance().updateCounter("Query.indexOrderBy", 1);
+		} else if (searchForIndexes(cls)) {
+			if (!explaining)
+				OProfiler.getInstance().updateCounter("Query.indexUsage", 1);
+		} else if (!searchInParallel(cls)) {
+			if (plan == null && isPlanDescribed()) {
+				plan = "FULL SCAN " + cls.getName();
+				planEstimatedRecords = cls.count();
+			}
+			if (!explaining)
+				super.searchInClasses();
+		}
+	}
+
+	/**
+	 * Scans the clusters of the class in parallel, if enabled and the WHERE condition allows it.
+	 * 
+	 * @return true if the target has been assigned, otherwise false
+	 */
+	private boolean searchInParallel(final OClass iSchemaClass) {
+		final ODatabaseRecord database = getDatabase();
+
+		final ORID[] ridRange = getRange();
+		if (ridRange[0] != null || ridRange[1] != null || !OSQLParallelScan.isApplicable(database, iSchemaClass, compiledFilter))
+			return false;
+
+		database.checkSecurity(ODatabaseSecurityResources.CLASS, ORole.PERMISSION_READ, iSchemaClass.getName().toLowerCase());
+
+		if (isPlanDescribed()) {
+			if (plan == null) {
+				plan = "FULL SCAN " + iSchemaClass.getName();
+				planEstimatedRecords = iSchemaClass.count();
+			}
+			plan = "PARALLEL " + plan;
+		}
+
+		if (explaining)
+			return true;
+
+		target = new OSQLParallelScan(database, (ODatabaseRecordAbstract) database, iSchemaClass, compiledFilter, context);
+		return true;
+	}
+
+	/**
+	 * Browses the index of the ORDER BY field to find the records already ordered, so the execution ends as soon as the limit is
+	 * reached without sorting. Used only with a limit or when the WHERE condition restricts the range of the same field, otherwise
+	 * scanning the clusters and sorting is cheaper than loading all the records in the order of the index.
+	 * 
+	 * @return true if the records have been browsed by the index, otherwise false
+	 */
+	private boolean searchInIndexOrder(final OClass iSchemaClass) {
+		if (orderedFields == null || orderedFields.size() != 1 || anyFunctionAggregates || flattenTarget != null
+				|| groupByFields != null)
+			return false;
+
+		final ODatabaseRecord database = getDatabase();
+		if (database.getTransaction().isActive())
+			// THE INDEXES DON'T CONTAIN THE CHANGES OF THE CURRENT TRANSACTION
+			return false;
+
+		final ORID[] ridRange = getRange();
+		if (ridRange[0] != null || ridRange[1] != null)
+			return false;
+
+		final String fieldName = orderedFields.get(0).getKey();
+		final boolean ascending = KEYWORD_ASC.equals(orderedFields.get(0).getValue());
+
+		if (projections != null) {
+			// THE ORDER IS APPLIED TO THE PROJECTION: IT MUST BE THE SAME FIELD
+			final Object projection = projections.get(fieldName);
+			if (!(projection instanceof OSQLFilterItemField) || ((OSQLFilterItemField) projection).hasChainOperators()
+					|| !fieldName.equals(((OSQLFilterItemField) projection).getRoot()))
+				return false;
+		}
+
+		final OIndexMVRBTreeAbstract<?> index = getOrderByIndex(iSchemaClass, fieldName);
+		if (index == null)
+			return false;
+
+		final OIndexKeyRange keyRange = new OIndexKeyRange();
+		analyzeOrderByRange(compiledFilter.getRootCondition(), fieldName, index.getDefinition(), keyRange);
+
+		// RECORDS WITH THE FIELD NULL ARE NOT INDEXED, BUT A RANGE ON THE FIELD EXCLUDES THEM ANYWAY
+		final boolean bounded = keyRange.from != null || keyRange.to != null;
+
+		orderedByIndex = true;
+		fetchLimit = getQueryFetchLimit();
+
+		if (!bounded
+				&& (fetchLimit < 0 || ascending && !(index instanceof OIndexUnique && index.getSize() == iSchemaClass.count()))) {
+			// NULLS COME FIRST IN ASCENDING ORDER: USE THE INDEX ONLY IF ALL THE RECORDS ARE INDEXED
+			orderedByIndex = false;
+			fetchLimit = getQueryFetchLimit();
+			return false;
+		}
+
+		database.checkSecurity(ODatabaseSecurityResources.CLASS, ORole.PERMISSION_READ, iSchemaClass.getName().toLowerCase());
+
+		if (isPlanDescribed())
+			plan = "INDEX ORDER BY " + index.getName() + (bounded ? " " + (keyRange.from != null ? keyRange.from : "") + ".."
+					+ (keyRange.to != null ? keyRange.to : "") : "") + (!bounded && !ascending ? " + FULL SCAN " + iSchemaClass.getName() : "");
+
+		if (explaining)
+			return true;
+
+		if (browseIndexInOrder(index, keyRange, ascending) && !bounded && !ascending) {
+			// NULLS COME LAST IN DESCENDING ORDER: APPEND THE RECORDS WITHOUT THE FIELD IN THE ORDER THEY ARE STORED
 			super.searchInClasses();
+			final Iterable<? extends OIdentifiable> records = target;
+			target = null;
+
+			for (OIdentifiable id : records) {
+				final ORecordInternal<?> record = id.getRecord();
+				planLoadedRecords++;
+
+				if (record == null || record.getRecordType() != ODocument.RECORD_TYPE || ((ODocument) record).field(fieldName) != null)
+					continue;
+
+				if (filter(record))
+					if (!addResult(record))
+						break;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the index on the single property passed, if any, with keys in the order of the values of the field.
+	 */
+	private OIndexMVRBTreeAbstract<?> getOrderByIndex(final OClass iSchemaClass, final String iFieldName) {
+		for (OIndex<?> index : iSchemaClass.getClassIndexes()) {
+			final OIndexDefinition definition = index.getDefinition();
+			if (!(definition instanceof OPropertyIndexDefinition) || definition instanceof OIndexDefinitionMultiValue
+					|| !iFieldName.equals(definition.getFields().get(0)))
+				continue;
+
+			final OIndex<?> internal = index.getInternal();
+			if (internal instanceof OIndexUnique || internal instanceof OIndexNotUnique)
+				return (OIndexMVRBTreeAbstract<?>) internal;
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the range of the field from the conditions in AND at the root of the WHERE clause. Other conditions are ignored since
+	 * every record is filtered anyway.
+	 */
+	private void analyzeOrderByRange(final Object iCondition, final String iFieldName, final OIndexDefinition iDefinition,
+			final OIndexKeyRange iRange) {
+		if (!(iCondition instanceof OSQLFilterCondition))
+			return;
+
+		final OSQLFilterCondition condition = (OSQLFilterCondition) iCondition;
+		final OQueryOperator operator = condition.getOperator();
+
+		if (operator == null) {
+			// BRACES
+			if (condition.getRight() == null)
+				analyzeOrderByRange(condition.getLeft(), iFieldName, iDefinition, iRange);
+			return;
+		}
+
+		if (operator instanceof OQueryOperatorAnd) {
+			analyzeOrderByRange(condition.getLeft(), iFieldName, iDefinition, iRange);
+			analyzeOrderByRange(condition.getRight(), iFieldName, iDefinition, iRange);
+			return;
+		}
+
+		final boolean fieldOnLeft = isOrderByField(condition.getLeft(), iFieldName);
+		if (fieldOnLeft == isOrderByField(condition.getRight(), iFieldName))
+			return;
+
+		final Object value = fieldOnLeft ? condition.getRight() : condition.getLeft();
+
+		if (operator instanceof OQueryOperatorBetween) {
+			if (!fieldOnLeft || !(value instanceof Object[]) || ((Object[]) value).length != 3)
+				return;
+
+			final Object[] betweenKeys = (Object[]) value;
+			iRange.setFrom(createOrderByKey(iDefinition, betweenKeys[0]), true);
+			iRange.setTo(createOrderByKey(iDefinition, betweenKeys[2]), true);
+			return;
+		}
+
+		final Object key = createOrderByKey(iDefinition, value);
+
+		if (operator instanceof OQueryOperatorEquals) {
+			iRange.setFrom(key, true);
+			iRange.setTo(key, true);
+		} else if (operator instanceof OQueryOperatorMajor || operator instanceof OQueryOperatorMajorEquals) {
+			if (fieldOnLeft)
+				iRange.setFrom(key, operator instanceof OQueryOperatorMajorEquals);
+			else
+				iRange.setTo(key, operator instanceof OQueryOperatorMajorEquals);
+		} else if (operator instanceof OQueryOperatorMinor || operator instanceof OQueryOperatorMinorEquals) {
+			if (fieldOnLeft)
+				iRange.setTo(key, operator instanceof OQueryOperatorMinorEquals);
+			else
+				iRange.setFrom(key, operator instanceof OQueryOperatorMinorEquals);
+		}
+	}
+
+	private static boolean isOrderByField(final Object iItem, final String iFieldName) {
+		return iItem instanceof OSQLFilterItemField && !((OSQLFilterItemField) iItem).hasChainOperators()
+				&& iFieldName.equals(((OSQLFilterItemField) iItem).getRoot());
+	}
+
+	private static Object createOrderByKey(final OIndexDefinition iDefinition, final Object iValue) {
+		if (iValue instanceof OSQLFilterItemField)
+			return null;
+
+		final Object value = OSQLHelper.getValue(iValue);
+		if (value == null)
+			return null;
+
+		return iDefinition.createValue(value);
+	}
+
+	/**
+	 * Browses the index one key at the time in the requested order, passing the records of every key to the result.
+	 * 
+	 * @return false if the limit has been reached, otherwise true
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean browseIndexInOrder(final OIndexMVRBTreeAbstract<?> iIndex, final OIndexKeyRange iRange, final boolean iAscending) {
+		Object key = iAscending ? iRange.from : iRange.to;
+		boolean inclusive = iAscending ? iRange.fromInclusive : iRange.toInclusive;
+		final Object lastKey = iAscending ? iRange.to : iRange.from;
+		final boolean lastInclusive = iAscending ? iRange.toInclusive : iRange.fromInclusive;
+
+		final OSQLQueryProfile profile = OSQLQueryProfile.get();
+
+		Entry<Object, Collection<OIdentifiable>> entry;
+		while ((entry = iIndex.getNextEntry(key, inclusive, iAscending)) != null) {
+			if (profile != null)
+				profile.indexLookup();
+
+			key = entry.getKey();
+			inclusive = false;
+
+			if (lastKey != null) {
+				final int compare = ((Comparable<Object>) key).compareTo(lastKey);
+				if ((iAscending ? compare > 0 : compare < 0) || compare == 0 && !lastInclusive)
+					// OUT OF THE RANGE
+					break;
+			}
+
+			for (OIdentifiable id : entry.getValue()) {
+				final ORecordInternal<?> record = id.getRecord();
+
+				if (record == null || record.getRecordType() != ODocument.RECORD_TYPE)
+					continue;
+
+				planLoadedRecords++;
+
+				if (filter(record))
+					if (!addResult(record))
+						// END OF EXECUTION
+						return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Range of keys to browse. Null bounds mean the first or the last key of the index.
+	 */
+	@SuppressWarnings("unchecked")
+	private static class OIndexKeyRange {
+		private Object	from;
+		private boolean	fromInclusive	= true;
+		private Object	to;
+		private boolean	toInclusive		= true;
+
+		private void setFrom(final Object iKey, final boolean iInclusive) {
+			if (iKey == null)
+				return;
+
+			final int compare = from == null ? 1 : ((Comparable<Object>) iKey).compareTo(from);
+			if (compare > 0 || compare == 0 && !iInclusive) {
+				// TIGHTER BOUND
+				from = iKey;
+				fromInclusive = iInclusive;
+			}
+		}
+
+		private void setTo(final Object iKey, final boolean iInclusive) {
+			if (iKey == null)
+				return;
+
+			final int compare = to == null ? -1 : ((Comparable<Object>) iKey).compareTo(to);
+			if (compare < 0 || compare == 0 && !iInclusive) {
+				// TIGHTER BOUND
+				to = iKey;
+				toInclusive = iInclusive;
+			}
+		}
 	}
 
-	@SuppressWarnings("rawtypes")
 	private boolean searchForIndexes(final OClass iSchemaClass) {
 		final ODatabaseRecord database = getDatabase();
 		database.checkSecurity(ODatabaseSecurityResources.CLASS, ORole.PERMISSION_READ, iSchemaClass.getName().toLowerCase());
 
-		// Create set that is sorted by amount of fields in OIndexSearchResult items
-		// so the most specific restrictions will be processed first.
-		final List<OIndexSearchResult> indexSearchResults = new ArrayList<OIndexSearchResult>();
+		// THE COST MODEL IS USED ONLY ON CLASSES BIG ENOUGH TO MAKE THE DIFFERENCE
+		final long records = iSchemaClass.count();
+		classRecords = records >= OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.getValueAsInteger() ? records : -1;
+
+		final OIndexPlan indexPlan = planIndexedCondition(iSchemaClass, compiledFilter.getRootCondition(), true);
+		if (indexPlan == null)
+			return false;
+
+		if (classRecords > -1 && indexPlan.estimated > -1
+				&& indexPlan.getCost(fetchLimit, OGlobalConfiguration.QUERY_PLANNER_RANDOM_READ_COST.getValueAsFloat()) > classRecords) {
+			// LOADING THE RECORDS FOUND BY THE INDEXES COSTS MORE THAN SCANNING THE CLUSTERS
+			if (isPlanDescribed()) {
+				plan = "FULL SCAN " + iSchemaClass.getName() + " instead of " + indexPlan;
+				planEstimatedRecords = classRecords;
+			}
+			if (!explaining)
+				OProfiler.getInstance().updateCounter("Query.plannerFullScan", 1);
+			return false;
+		}
+
+		if (isPlanDescribed()) {
+			plan = indexPlan.toString();
+			planEstimatedRecords = indexPlan.estimated;
+		}
+
+		if (explaining)
+			return true;
+
+		// THE COUNTERS ARE UPDATED ONCE PER QUERY, EVEN IF MORE INDEXES ARE USED
+		final Set<String> counters = new HashSet<String>();
+		fillSearchIndexResultSet(indexPlan.execute(fetchLimit, counters));
+		for (String counter : counters)
+			OProfiler.getInstance().updateCounter(counter, 1);
+		return true;
+	}
+
+	/**
+	 * Plans how to search the records of a condition by using the indexes. Conditions in AND can be solved by a composite index on
+	 * their fields, by intersecting the RIDs found for every condition or by using the index of one condition only, filtering the
+	 * other one record by record. Conditions in OR are solved by uniting the RIDs found for each of them, if every one is solved by
+	 * the indexes entirely. On classes with at least "query.planner.minRecords" records the cheapest alternative is chosen by
+	 * estimating the records selected by every index with its statistics. On smaller classes only one index is used: a composite
+	 * index if any, otherwise the one of the first condition in AND, and conditions in OR are not solved by the indexes. The records
+	 * found must be filtered by the condition anyway.
+	 * 
+	 * @param iLimitable
+	 *          Tells if the condition is solved by the index only, so the fetch limit can be applied to the index
+	 * @return The plan or null if the indexes can't be used
+	 */
+	private OIndexPlan planIndexedCondition(final OClass iSchemaClass, final OSQLFilterCondition iCondition, final boolean iLimitable) {
+		if (iCondition == null)
+			return null;
+
+		final OQueryOperator operator = iCondition.getOperator();
+		if (operator == null) {
+			// BRACES
+			if (iCondition.getRight() == null && iCondition.getLeft() instanceof OSQLFilterCondition)
+				return planIndexedCondition(iSchemaClass, (OSQLFilterCondition) iCondition.getLeft(), iLimitable);
+			return null;
+		}
+
+		if (operator instanceof OQueryOperatorOr) {
+			// ALL THE CONDITIONS IN OR MUST BE SOLVED BY THE INDEXES, OTHERWISE THE RECORDS THEY SELECT ARE LOST
+			if (classRecords == -1 || !(iCondition.getLeft() instanceof OSQLFilterCondition)
+					|| !(iCondition.getRight() instanceof OSQLFilterCondition))
+				return null;
+
+			final OIndexPlan left = planIndexedCondition(iSchemaClass, (OSQLFilterCondition) iCondition.getLeft(), false);
+			if (left == null || !left.complete)
+				return null;
+
+			final OIndexPlan right = planIndexedCondition(iSchemaClass, (OSQLFilterCondition) iCondition.getRight(), false);
+			if (right == null || !right.complete)
+				return null;
+
+			return new OIndexPlan(left, right, false, classRecords);
+		}
 
 		// fetch all possible variants of subqueries that can be used in indexes.
-		analyzeQueryBranch(iSchemaClass, compiledFilter.getRootCondition(), indexSearchResults);
+		final List<OIndexSearchResult> indexSearchResults = new ArrayList<OIndexSearchResult>();
+		final OIndexSearchResult conditionResult = analyzeQueryBranch(iSchemaClass, iCondition, indexSearchResults);
 
 		// most specific will be processed first
 		Collections.sort(indexSearchResults, new Comparator<OIndexSearchResult>() {
@@ -334,10 +1017,69 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 			}
 		});
 
+		if (!(operator instanceof OQueryOperatorAnd)) {
+			final OIndexLookup lookup = chooseIndexLookup(iSchemaClass, indexSearchResults);
+			return lookup != null ? new OIndexPlan(lookup, iLimitable, true) : null;
+		}
+
+		// A COMPOSITE INDEX ON SEVERAL CONDITIONS
+		final List<OIndexSearchResult> compositeSearchResults = new ArrayList<OIndexSearchResult>();
+		for (OIndexSearchResult searchResult : indexSearchResults)
+			if (searchResult.getFieldCount() > 1)
+				compositeSearchResults.add(searchResult);
+
+		final OIndexLookup compositeLookup = compositeSearchResults.isEmpty() ? null : chooseIndexLookup(iSchemaClass,
+				compositeSearchResults);
+		// THE COMPOSITE INDEX SOLVES THE CONDITION ENTIRELY IF IT COVERS ALL THE CONDITIONS IN AND
+		final OIndexPlan composite = compositeLookup != null ? new OIndexPlan(compositeLookup, false, conditionResult != null
+				&& compositeLookup.searchResult.getFieldCount() == conditionResult.getFieldCount()) : null;
+
+		if (classRecords == -1 && composite != null)
+			return composite;
+
+		final OIndexPlan left = iCondition.getLeft() instanceof OSQLFilterCondition ? planIndexedCondition(iSchemaClass,
+				(OSQLFilterCondition) iCondition.getLeft(), false) : null;
+		final OIndexPlan right = iCondition.getRight() instanceof OSQLFilterCondition ? planIndexedCondition(iSchemaClass,
+				(OSQLFilterCondition) iCondition.getRight(), false) : null;
+
+		final OIndexPlan intersection = classRecords > -1 && left != null && right != null ? new OIndexPlan(left, right, true,
+				classRecords) : null;
+
+		OIndexPlan best = null;
+		if (classRecords == -1 || !isEstimated(composite) || !isEstimated(left) || !isEstimated(right))
+			// NO ESTIMATION: INTERSECT ONLY IF THE STATISTICS ARE USED, OTHERWISE USE ONE CONDITION AND FILTER THE OTHER ONE RECORD BY
+			// RECORD
+			best = composite != null ? composite : intersection != null ? intersection : left != null ? left : right;
+		else {
+			// THE CHEAPEST ALTERNATIVE
+			final float randomReadCost = OGlobalConfiguration.QUERY_PLANNER_RANDOM_READ_COST.getValueAsFloat();
+			for (OIndexPlan p : new OIndexPlan[] { composite, intersection, left, right })
+				if (p != null && (best == null || p.getCost(-1, randomReadCost) < best.getCost(-1, randomReadCost)))
+					best = p;
+		}
+
+		if (best != null && (best == left || best == right))
+			// THE OTHER CONDITION IS NOT SOLVED BY THE INDEXES
+			best.complete = false;
+		return best;
+	}
+
+	private static boolean isEstimated(final OIndexPlan iPlan) {
+		return iPlan == null || iPlan.estimated > -1;
+	}
+
+	/**
+	 * Chooses the index to use to solve one of the search results. Without the cost model the first index that can be used is
+	 * chosen, otherwise the one that selects less records.
+	 * 
+	 * @return The lookup of the index or null if no index can be used
+	 */
+	@SuppressWarnings("rawtypes")
+	private OIndexLookup chooseIndexLookup(final OClass iSchemaClass, final List<OIndexSearchResult> indexSearchResults) {
+		OIndexLookup best = null;
+
 		// go through all variants to choose which one can be used for index search.
 		for (final OIndexSearchResult searchResult : indexSearchResults) {
-			final int searchResultFieldsCount = searchResult.fields().size();
-
 			final List<OIndex<?>> involvedIndexes = getInvolvedIndexes(iSchemaClass, searchResult);
 			Collections.sort(involvedIndexes, new Comparator<OIndex>() {
 				public int compare(final OIndex indexOne, final OIndex indexTwo) {
@@ -346,372 +1088,509 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 			});
 
 			// go through all possible index for given set of fields.
-			for (final OIndex index : involvedIndexes) {
-				final OIndexDefinition indexDefinition = index.getDefinition();
-				final OQueryOperator operator = searchResult.lastOperator;
-
-				// we need to test that last field in query subset and field in index that has the same position
-				// are equals.
-				if (!(operator instanceof OQueryOperatorEquals)) {
-					final String lastFiled = searchResult.lastField.getItemName(searchResult.lastField.getItemCount() - 1);
-					final String relatedIndexField = indexDefinition.getFields().get(searchResult.fieldValuePairs.size());
-					if (!lastFiled.equals(relatedIndexField))
-						continue;
-				}
+			for (final OIndex<?> index : involvedIndexes) {
+				final OIndexLookup lookup = createIndexLookup(searchResult, index);
+				if (lookup == null)
+					continue;
 
-				final List<Object> keyParams = new ArrayList<Object>(searchResultFieldsCount);
-				// We get only subset contained in processed sub query.
-				for (final String fieldName : indexDefinition.getFields().subList(0, searchResultFieldsCount)) {
-					final Object fieldValue = searchResult.fieldValuePairs.get(fieldName);
-					if (fieldValue != null)
-						keyParams.add(fieldValue);
-					else
-						keyParams.add(searchResult.lastValue);
-				}
+				if (classRecords == -1)
+					return lookup;
 
-				final OIndex internalIndex = index.getInternal();
-				final boolean indexCanBeUsedInEqualityOperators = (internalIndex instanceof OIndexUnique || internalIndex instanceof OIndexNotUnique);
+				lookup.estimated = lookup.estimate();
+				if (best == null || (best.estimated > -1 && lookup.estimated > -1 && lookup.estimated < best.estimated))
+					best = lookup;
+			}
+		}
+		return best;
+	}
 
-				if (indexDefinition.getParamCount() == 1) {
-					if (indexCanBeUsedInEqualityOperators && operator instanceof OQueryOperatorBetween) {
-						final Object[] betweenKeys = (Object[]) keyParams.get(0);
+	/**
+	 * Merges the RIDs of two index results sorting them.
+	 * 
+	 * @param iIntersection
+	 *          true to keep only the RIDs contained in both the results, false to keep all of them
+	 * @return The list of the RIDs merged, sorted and without duplicates
+	 */
+	private static List<OIdentifiable> mergeIndexResults(final Object iLeft, final Object iRight, final boolean iIntersection) {
+		final ORID[] left = getSortedRids(iLeft);
+		final ORID[] right = getSortedRids(iRight);
+
+		final List<OIdentifiable> result = new ArrayList<OIdentifiable>(iIntersection ? Math.min(left.length, right.length)
+				: left.length + right.length);
+
+		int l = 0;
+		int r = 0;
+		while (l < left.length && r < right.length) {
+			final int compare = left[l].compareTo(right[r]);
+			if (compare == 0) {
+				result.add(left[l++]);
+				r++;
+			} else if (compare < 0) {
+				if (!iIntersection)
+					result.add(left[l]);
+				l++;
+			} else {
+				if (!iIntersection)
+					result.add(right[r]);
+				r++;
+			}
+		}
 
-						final Object keyOne = indexDefinition.createValue(Collections.singletonList(OSQLHelper.getValue(betweenKeys[0])));
-						final Object keyTwo = indexDefinition.createValue(Collections.singletonList(OSQLHelper.getValue(betweenKeys[2])));
+		if (!iIntersection) {
+			while (l < left.length)
+				result.add(left[l++]);
+			while (r < right.length)
+				result.add(right[r++]);
+		}
 
-						if (keyOne == null || keyTwo == null)
-							continue;
+		return result;
+	}
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, true, keyTwo, true, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, true, keyTwo, true);
+	@SuppressWarnings("unchecked")
+	private static ORID[] getSortedRids(final Object iIndexResult) {
+		if (iIndexResult == null)
+			return new ORID[0];
 
-						fillSearchIndexResultSet(result);
-						return true;
-					}
+		if (iIndexResult instanceof OIdentifiable)
+			return new ORID[] { ((OIdentifiable) iIndexResult).getIdentity() };
 
-					if (indexCanBeUsedInEqualityOperators && operator instanceof OQueryOperatorIn) {
-						final List<Object> inParams = (List<Object>) keyParams.get(0);
-						final List<Object> inKeys = new ArrayList<Object>();
+		final Collection<OIdentifiable> values = (Collection<OIdentifiable>) iIndexResult;
+		final ORID[] rids = new ORID[values.size()];
+		int i = 0;
+		for (OIdentifiable value : values)
+			rids[i++] = value.getIdentity();
 
-						boolean containsNotCompatibleKey = false;
-						for (final Object keyValue : inParams) {
-							final Object key = indexDefinition.createValue(OSQLHelper.getValue(keyValue));
-							if (key == null) {
-								containsNotCompatibleKey = true;
-								break;
-							}
+		Arrays.sort(rids, 0, i);
 
-							inKeys.add(key);
+		// REMOVE DUPLICATES
+		int size = 0;
+		for (int k = 0; k < i; ++k)
+			if (size == 0 || !rids[k].equals(rids[size - 1]))
+				rids[size++] = rids[k];
 
-						}
-						if (containsNotCompatibleKey)
-							continue;
-
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValues(inKeys, fetchLimit);
-						else
-							result = index.getValues(inKeys);
+		if (size == rids.length)
+			return rids;
 
-						fillSearchIndexResultSet(result);
-						return true;
-					}
+		final ORID[] result = new ORID[size];
+		System.arraycopy(rids, 0, result, 0, size);
+		return result;
+	}
 
-					final Object key;
-					if (indexDefinition instanceof OIndexDefinitionMultiValue)
-						key = ((OIndexDefinitionMultiValue) indexDefinition).createSingleValue(keyParams.get(0));
-					else
-						key = indexDefinition.createValue(keyParams);
+	/**
+	 * Returns the value of the key in the index. A missing key is an empty result, not an index that can't be used.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Object getIndexValue(final OIndex iIndex, final Object iKey) {
+		final Object result = iIndex.get(iKey);
+		return result != null ? result : Collections.emptyList();
+	}
 
-					if (key == null)
-						continue;
 
-					if (internalIndex instanceof OIndexFullText && operator instanceof OQueryOperatorContainsText) {
-						fillSearchIndexResultSet(index.get(key));
-						return true;
-					}
+	/**
+	 * Creates the lookup of an index for a search result, without using the index yet.
+	 * 
+	 * @return The lookup or null if the index can't be used
+	 */
+	@SuppressWarnings("unchecked")
+	private OIndexLookup createIndexLookup(final OIndexSearchResult searchResult, final OIndex<?> index) {
+		final int searchResultFieldsCount = searchResult.fields().size();
+		final OIndexDefinition indexDefinition = index.getDefinition();
+		final OQueryOperator operator = searchResult.lastOperator;
+
+		// we need to test that last field in query subset and field in index that has the same position
+		// are equals.
+		if (!(operator instanceof OQueryOperatorEquals)) {
+			final String lastFiled = searchResult.lastField.getItemName(searchResult.lastField.getItemCount() - 1);
+			final String relatedIndexField = indexDefinition.getFields().get(searchResult.fieldValuePairs.size());
+			if (!lastFiled.equals(relatedIndexField))
+				return null;
+		}
 
-					if (!indexCanBeUsedInEqualityOperators)
-						continue;
+		final List<Object> keyParams = new ArrayList<Object>(searchResultFieldsCount);
+		// We get only subset contained in processed sub query.
+		for (final String fieldName : indexDefinition.getFields().subList(0, searchResultFieldsCount)) {
+			final Object fieldValue = searchResult.fieldValuePairs.get(fieldName);
+			if (fieldValue != null)
+				keyParams.add(fieldValue);
+			else
+				keyParams.add(searchResult.lastValue);
+		}
 
-					if (operator instanceof OQueryOperatorEquals) {
-						fillSearchIndexResultSet(index.get(key));
-						return true;
-					}
+		final OIndex<?> internalIndex = index.getInternal();
+		final boolean indexCanBeUsedInEqualityOperators = (internalIndex instanceof OIndexUnique || internalIndex instanceof OIndexNotUnique);
+		// HASH INDEXES SUPPORT ONLY LOOKUPS BY KEY
+		final boolean hashIndex = (internalIndex instanceof OIndexHashUnique || internalIndex instanceof OIndexHashNotUnique);
+		final OIndexLookup lookup = new OIndexLookup(index, searchResult);
 
-					if (operator instanceof OQueryOperatorContainsKey) {
-						if ((index.getDefinition() instanceof OPropertyMapIndexDefinition)
-								&& ((OPropertyMapIndexDefinition) index.getDefinition()).getIndexBy() == OPropertyMapIndexDefinition.INDEX_BY.KEY) {
-							fillSearchIndexResultSet(index.get(key));
-							return true;
-						}
-						continue;
-					}
+		if (indexDefinition.getParamCount() == 1) {
+			if (indexCanBeUsedInEqualityOperators && operator instanceof OQueryOperatorBetween) {
+				final Object[] betweenKeys = (Object[]) keyParams.get(0);
 
-					if (operator instanceof OQueryOperatorContainsValue) {
-						if ((index.getDefinition() instanceof OPropertyMapIndexDefinition)
-								&& ((OPropertyMapIndexDefinition) index.getDefinition()).getIndexBy() == OPropertyMapIndexDefinition.INDEX_BY.VALUE) {
-							fillSearchIndexResultSet(index.get(key));
-							return true;
-						}
-						continue;
-					}
+				final Object keyOne = indexDefinition.createValue(Collections.singletonList(OSQLHelper.getValue(betweenKeys[0])));
+				final Object keyTwo = indexDefinition.createValue(Collections.singletonList(OSQLHelper.getValue(betweenKeys[2])));
 
-					if (operator instanceof OQueryOperatorContains) {
-						fillSearchIndexResultSet(index.get(key));
-						return true;
-					}
+				if (keyOne == null || keyTwo == null)
+					return null;
 
-					if (operator instanceof OQueryOperatorMajor) {
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesMajor(key, false, fetchLimit);
-						else
-							result = index.getValuesMajor(key, false);
+				return lookup.setRange(keyOne, true, keyTwo, true);
+			}
 
-						fillSearchIndexResultSet(result);
-						return true;
-					}
+			if ((indexCanBeUsedInEqualityOperators || hashIndex) && operator instanceof OQueryOperatorIn) {
+				final List<Object> inParams = (List<Object>) keyParams.get(0);
+				final List<Object> inKeys = new ArrayList<Object>();
 
-					if (operator instanceof OQueryOperatorMajorEquals) {
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesMajor(key, true, fetchLimit);
-						else
-							result = index.getValuesMajor(key, true);
+				for (final Object keyValue : inParams) {
+					final Object key = indexDefinition.createValue(OSQLHelper.getValue(keyValue));
+					if (key == null)
+						return null;
 
-						fillSearchIndexResultSet(result);
-						return true;
-					}
+					inKeys.add(key);
+				}
 
-					if (operator instanceof OQueryOperatorMinor) {
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesMinor(key, false, fetchLimit);
-						else
-							result = index.getValuesMinor(key, false);
+				return lookup.setKeys(inKeys);
+			}
 
-						fillSearchIndexResultSet(result);
-						return true;
-					}
+			final Object key;
+			if (indexDefinition instanceof OIndexDefinitionMultiValue)
+				key = ((OIndexDefinitionMultiValue) indexDefinition).createSingleValue(keyParams.get(0));
+			else
+				key = indexDefinition.createValue(keyParams);
 
-					if (operator instanceof OQueryOperatorMinorEquals) {
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesMinor(key, true, fetchLimit);
-						else
-							result = index.getValuesMinor(key, true);
+			if (key == null)
+				return null;
 
-						fillSearchIndexResultSet(result);
-						return true;
-					}
-				} else {
-					if (!indexCanBeUsedInEqualityOperators)
-						continue;
+			if (internalIndex instanceof OIndexFullText && operator instanceof OQueryOperatorContainsText)
+				return lookup.setKey(key);
 
-					if (operator instanceof OQueryOperatorBetween) {
-						final Object[] betweenKeys = (Object[]) keyParams.get(keyParams.size() - 1);
+			if (!indexCanBeUsedInEqualityOperators && !hashIndex)
+				return null;
 
-						final Object betweenKeyOne = OSQLHelper.getValue(betweenKeys[0]);
+			if (operator instanceof OQueryOperatorEquals)
+				return lookup.setKey(key);
 
-						if (betweenKeyOne == null)
-							continue;
+			if (operator instanceof OQueryOperatorContainsKey) {
+				if ((index.getDefinition() instanceof OPropertyMapIndexDefinition)
+						&& ((OPropertyMapIndexDefinition) index.getDefinition()).getIndexBy() == OPropertyMapIndexDefinition.INDEX_BY.KEY)
+					return lookup.setKey(key);
+				return null;
+			}
 
-						final Object betweenKeyTwo = OSQLHelper.getValue(betweenKeys[2]);
+			if (operator instanceof OQueryOperatorContainsValue) {
+				if ((index.getDefinition() instanceof OPropertyMapIndexDefinition)
+						&& ((OPropertyMapIndexDefinition) index.getDefinition()).getIndexBy() == OPropertyMapIndexDefinition.INDEX_BY.VALUE)
+					return lookup.setKey(key);
+				return null;
+			}
 
-						if (betweenKeyTwo == null)
-							continue;
+			if (operator instanceof OQueryOperatorContains)
+				return lookup.setKey(key);
 
-						final List<Object> betweenKeyOneParams = new ArrayList<Object>(keyParams.size());
-						betweenKeyOneParams.addAll(keyParams.subList(0, keyParams.size() - 1));
-						betweenKeyOneParams.add(betweenKeyOne);
+			if (hashIndex)
+				return null;
 
-						final List<Object> betweenKeyTwoParams = new ArrayList<Object>(keyParams.size());
-						betweenKeyTwoParams.addAll(keyParams.subList(0, keyParams.size() - 1));
-						betweenKeyTwoParams.add(betweenKeyTwo);
+			if (operator instanceof OQueryOperatorMajor)
+				return lookup.setRange(key, false, null, false);
 
-						final Object keyOne = indexDefinition.createValue(betweenKeyOneParams);
+			if (operator instanceof OQueryOperatorMajorEquals)
+				return lookup.setRange(key, true, null, false);
 
-						if (keyOne == null)
-							continue;
+			if (operator instanceof OQueryOperatorMinor)
+				return lookup.setRange(null, false, key, false);
 
-						final Object keyTwo = indexDefinition.createValue(betweenKeyTwoParams);
+			if (operator instanceof OQueryOperatorMinorEquals)
+				return lookup.setRange(null, false, key, true);
 
-						if (keyTwo == null)
-							continue;
+		} else {
+			if (hashIndex) {
+				// ONLY THE WHOLE KEY CAN BE LOOKED UP
+				if (!(operator instanceof OQueryOperatorEquals) || searchResultFieldsCount < indexDefinition.getParamCount())
+					return null;
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, true, keyTwo, true, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, true, keyTwo, true);
+				final Object key = indexDefinition.createValue(keyParams);
+				return key != null ? lookup.setKey(key) : null;
+			}
 
-						fillSearchIndexResultSet(result);
+			if (!indexCanBeUsedInEqualityOperators)
+				return null;
 
-						if (OProfiler.getInstance().isRecording()) {
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage", 1);
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage." + indexDefinition.getParamCount(), 1);
-						}
+			if (operator instanceof OQueryOperatorBetween) {
+				final Object[] betweenKeys = (Object[]) keyParams.get(keyParams.size() - 1);
 
-						return true;
-					}
+				final Object betweenKeyOne = OSQLHelper.getValue(betweenKeys[0]);
 
-					if (operator instanceof OQueryOperatorEquals) {
-						// in case of composite keys several items can be returned in case of we perform search
-						// using part of composite key stored in index.
+				if (betweenKeyOne == null)
+					return null;
 
-						final Object keyOne = indexDefinition.createValue(keyParams);
+				final Object betweenKeyTwo = OSQLHelper.getValue(betweenKeys[2]);
 
-						if (keyOne == null)
-							continue;
+				if (betweenKeyTwo == null)
+					return null;
 
-						final Object keyTwo = indexDefinition.createValue(keyParams);
+				final List<Object> betweenKeyOneParams = new ArrayList<Object>(keyParams.size());
+				betweenKeyOneParams.addAll(keyParams.subList(0, keyParams.size() - 1));
+				betweenKeyOneParams.add(betweenKeyOne);
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, true, keyTwo, true, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, true, keyTwo, true);
+				final List<Object> betweenKeyTwoParams = new ArrayList<Object>(keyParams.size());
+				betweenKeyTwoParams.addAll(keyParams.subList(0, keyParams.size() - 1));
+				betweenKeyTwoParams.add(betweenKeyTwo);
 
-						fillSearchIndexResultSet(result);
+				final Object keyOne = indexDefinition.createValue(betweenKeyOneParams);
 
-						if (OProfiler.getInstance().isRecording()) {
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage", 1);
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage." + indexDefinition.getParamCount(), 1);
-						}
-						return true;
-					}
+				if (keyOne == null)
+					return null;
 
-					if (operator instanceof OQueryOperatorMajor) {
-						// if we have situation like "field1 = 1 AND field2 > 2"
-						// then we fetch collection which left not included boundary is the smallest composite key in the
-						// index that contains keys with values field1=1 and field2=2 and which right included boundary
-						// is the biggest composite key in the index that contains key with value field1=1.
+				final Object keyTwo = indexDefinition.createValue(betweenKeyTwoParams);
 
-						final Object keyOne = indexDefinition.createValue(keyParams);
+				if (keyTwo == null)
+					return null;
 
-						if (keyOne == null)
-							continue;
+				return lookup.setRange(keyOne, true, keyTwo, true);
+			}
 
-						final Object keyTwo = indexDefinition.createValue(keyParams.subList(0, keyParams.size() - 1));
+			if (operator instanceof OQueryOperatorEquals) {
+				// in case of composite keys several items can be returned in case of we perform search
+				// using part of composite key stored in index.
 
-						if (keyTwo == null)
-							continue;
+				final Object keyOne = indexDefinition.createValue(keyParams);
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, false, keyTwo, true, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, false, keyTwo, true);
+				if (keyOne == null)
+					return null;
 
-						fillSearchIndexResultSet(result);
+				final Object keyTwo = indexDefinition.createValue(keyParams);
 
-						if (OProfiler.getInstance().isRecording()) {
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage", 1);
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage." + indexDefinition.getParamCount(), 1);
-						}
-						return true;
-					}
+				return lookup.setRange(keyOne, true, keyTwo, true);
+			}
 
-					if (operator instanceof OQueryOperatorMajorEquals) {
-						// if we have situation like "field1 = 1 AND field2 >= 2"
-						// then we fetch collection which left included boundary is the smallest composite key in the
-						// index that contains keys with values field1=1 and field2=2 and which right included boundary
-						// is the biggest composite key in the index that contains key with value field1=1.
+			if (operator instanceof OQueryOperatorMajor || operator instanceof OQueryOperatorMajorEquals) {
+				// if we have situation like "field1 = 1 AND field2 > 2" (or >=)
+				// then we fetch collection which left not included (or included) boundary is the smallest composite key in the
+				// index that contains keys with values field1=1 and field2=2 and which right included boundary
+				// is the biggest composite key in the index that contains key with value field1=1.
 
-						final Object keyOne = indexDefinition.createValue(keyParams);
+				final Object keyOne = indexDefinition.createValue(keyParams);
 
-						if (keyOne == null)
-							continue;
+				if (keyOne == null)
+					return null;
 
-						final Object keyTwo = indexDefinition.createValue(keyParams.subList(0, keyParams.size() - 1));
+				final Object keyTwo = indexDefinition.createValue(keyParams.subList(0, keyParams.size() - 1));
 
-						if (keyTwo == null)
-							continue;
+				if (keyTwo == null)
+					return null;
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, true, keyTwo, true, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, true, keyTwo, true);
+				return lookup.setRange(keyOne, operator instanceof OQueryOperatorMajorEquals, keyTwo, true);
+			}
 
-						fillSearchIndexResultSet(result);
+			if (operator instanceof OQueryOperatorMinor || operator instanceof OQueryOperatorMinorEquals) {
+				// if we have situation like "field1 = 1 AND field2 < 2" (or <=)
+				// then we fetch collection which left included boundary is the smallest composite key in the
+				// index that contains key with value field1=1 and which right not included (or included) boundary
+				// is the biggest composite key in the index that contains key with values field1=1 and field2=2.
 
-						if (OProfiler.getInstance().isRecording()) {
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage", 1);
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage." + indexDefinition.getParamCount(), 1);
-						}
-						return true;
-					}
+				final Object keyOne = indexDefinition.createValue(keyParams.subList(0, keyParams.size() - 1));
 
-					if (operator instanceof OQueryOperatorMinor) {
-						// if we have situation like "field1 = 1 AND field2 < 2"
-						// then we fetch collection which left included boundary is the smallest composite key in the
-						// index that contains key with value field1=1 and which right not included boundary
-						// is the biggest composite key in the index that contains key with values field1=1 and field2=2.
+				if (keyOne == null)
+					return null;
 
-						final Object keyOne = indexDefinition.createValue(keyParams.subList(0, keyParams.size() - 1));
+				final Object keyTwo = indexDefinition.createValue(keyParams);
 
-						if (keyOne == null)
-							continue;
+				if (keyTwo == null)
+					return null;
 
-						final Object keyTwo = indexDefinition.createValue(keyParams);
+				return lookup.setRange(keyOne, true, keyTwo, operator instanceof OQueryOperatorMinorEquals);
+			}
+		}
+		return null;
+	}
 
-						if (keyTwo == null)
-							continue;
+	/**
+	 * Lookup of an index that solves a search result. It can be estimated with the statistics of the index before using it.
+	 */
+	private static class OIndexLookup {
+		private final OIndex<?>						index;
+		private final OIndexSearchResult	searchResult;
+		private Object										key;
+		private List<Object>							keys;
+		private boolean										range;
+		private Object										from;
+		private boolean										fromInclusive;
+		private Object										to;
+		private boolean										toInclusive;
+		private long											estimated	= -1;
+
+		private OIndexLookup(final OIndex<?> iIndex, final OIndexSearchResult iSearchResult) {
+			index = iIndex;
+			searchResult = iSearchResult;
+		}
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, true, keyTwo, false, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, true, keyTwo, false);
+		private OIndexLookup setKey(final Object iKey) {
+			key = iKey;
+			return this;
+		}
 
-						fillSearchIndexResultSet(result);
+		private OIndexLookup setKeys(final List<Object> iKeys) {
+			keys = iKeys;
+			return this;
+		}
 
-						if (OProfiler.getInstance().isRecording()) {
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage", 1);
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage." + indexDefinition.getParamCount(), 1);
-						}
-						return true;
-					}
+		/**
+		 * Sets the range of keys to look up. A null bound means the range is open on that side.
+		 */
+		private OIndexLookup setRange(final Object iFrom, final boolean iFromInclusive, final Object iTo, final boolean iToInclusive) {
+			range = true;
+			from = iFrom;
+			fromInclusive = iFromInclusive;
+			to = iTo;
+			toInclusive = iToInclusive;
+			return this;
+		}
 
-					if (operator instanceof OQueryOperatorMinorEquals) {
-						// if we have situation like "field1 = 1 AND field2 <= 2"
-						// then we fetch collection which left included boundary is the smallest composite key in the
-						// index that contains key with value field1=1 and which right not included boundary
-						// is the biggest composite key in the index that contains key with value field1=1 and field2=2.
+		/**
+		 * Estimates the records returned by the lookup with the statistics of the index.
+		 * 
+		 * @return The number of records or -1 if the index has no statistics
+		 */
+		private long estimate() {
+			if (!(index instanceof OIndexProxy) && index.getInternal() instanceof OIndexHashUnique)
+				// NO STATISTICS ARE NEEDED: ONE RECORD PER KEY AT MOST
+				return keys != null ? keys.size() : 1;
+
+			if (index instanceof OIndexProxy || !(index.getInternal() instanceof OIndexMVRBTreeAbstract<?>))
+				// THE INDEX OF A CHAIN OF FIELDS DOESN'T RETURN THE RECORDS OF THE CLASS
+				return -1;
+
+			final OIndexStatistics statistics = ((OIndexMVRBTreeAbstract<?>) index.getInternal()).getStatistics();
+			if (statistics == null)
+				// COMPUTED FOR THE FIRST TIME BY ANOTHER THREAD
+				return -1;
+
+			if (keys != null) {
+				long total = 0;
+				for (Object k : keys)
+					total += statistics.estimateEquals(k);
+				return total;
+			}
 
-						final Object keyOne = indexDefinition.createValue(keyParams.subList(0, keyParams.size() - 1));
+			if (range)
+				return statistics.estimateRange(from, to);
 
-						if (keyOne == null)
-							continue;
+			return statistics.estimateEquals(key);
+		}
 
-						final Object keyTwo = indexDefinition.createValue(keyParams);
+		private Object execute(final int iFetchLimit, final Set<String> iCounters) {
+			final OSQLQueryProfile profile = OSQLQueryProfile.get();
+			if (profile != null)
+				profile.indexLookup();
+
+			final Object result;
+			if (keys != null)
+				result = iFetchLimit > -1 ? index.getValues(keys, iFetchLimit) : index.getValues(keys);
+			else if (!range)
+				result = getIndexValue(index, key);
+			else if (to == null)
+				result = iFetchLimit > -1 ? index.getValuesMajor(from, fromInclusive, iFetchLimit) : index.getValuesMajor(from,
+						fromInclusive);
+			else if (from == null)
+				result = iFetchLimit > -1 ? index.getValuesMinor(to, toInclusive, iFetchLimit) : index.getValuesMinor(to, toInclusive);
+			else
+				result = iFetchLimit > -1 ? index.getValuesBetween(from, fromInclusive, to, toInclusive, iFetchLimit) : index
+						.getValuesBetween(from, fromInclusive, to, toInclusive);
 
-						if (keyTwo == null)
-							continue;
+			final int paramCount = index.getDefinition().getParamCount();
+			if (paramCount > 1 && OProfiler.getInstance().isRecording()) {
+				iCounters.add("Query.compositeIndexUsage");
+				iCounters.add("Query.compositeIndexUsage." + paramCount);
+			}
+			return result;
+		}
 
-						final Collection<OIdentifiable> result;
-						if (fetchLimit > -1)
-							result = index.getValuesBetween(keyOne, true, keyTwo, true, fetchLimit);
-						else
-							result = index.getValuesBetween(keyOne, true, keyTwo, true);
+		@Override
+		public String toString() {
+			// THE INDEXES OF A CHAIN OF FIELDS HAVE NO NAME
+			return (index instanceof OIndexProxy ? "INDEX CHAIN" : "INDEX " + index.getName()) + " " + searchResult.fields() + " "
+					+ searchResult.lastOperator.keyword;
+		}
+	}
 
-						fillSearchIndexResultSet(result);
+	/**
+	 * Plan of the search of the records by using the indexes: the lookup of an index, or the intersection or the union of the
+	 * records found by two plans. The estimated records are the ones to load, the entries the ones read from the indexes.
+	 */
+	private static class OIndexPlan {
+		// COST OF READING AN ENTRY OF AN INDEX COMPARED TO READING A RECORD WHILE SCANNING THE CLUSTERS
+		private static final float	INDEX_ENTRY_COST	= 0.1f;
+
+		private final OIndexLookup	lookup;
+		private final boolean				limitable;
+		private boolean							complete;
+		private final OIndexPlan		left;
+		private final OIndexPlan		right;
+		private final boolean				intersection;
+		private final long					estimated;
+		private final long					entries;
+
+		/**
+		 * @param iComplete
+		 *          Tells if the lookup selects exactly the records of the condition planned, false if only a part of the condition is
+		 *          solved by the index
+		 */
+		private OIndexPlan(final OIndexLookup iLookup, final boolean iLimitable, final boolean iComplete) {
+			lookup = iLookup;
+			limitable = iLimitable;
+			complete = iComplete;
+			left = null;
+			right = null;
+			intersection = false;
+			estimated = iLookup.estimated;
+			entries = iLookup.estimated;
+		}
 
-						if (OProfiler.getInstance().isRecording()) {
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage", 1);
-							OProfiler.getInstance().updateCounter("Query.compositeIndexUsage." + indexDefinition.getParamCount(), 1);
-						}
-						return true;
-					}
-				}
+		private OIndexPlan(final OIndexPlan iLeft, final OIndexPlan iRight, final boolean iIntersection, final long iClassRecords) {
+			lookup = null;
+			limitable = false;
+			complete = iLeft.complete && iRight.complete;
+			left = iLeft;
+			right = iRight;
+			intersection = iIntersection;
+
+			if (iLeft.estimated == -1 || iRight.estimated == -1 || iClassRecords <= 0) {
+				estimated = -1;
+				entries = -1;
+			} else {
+				// THE CONDITIONS ARE CONSIDERED INDEPENDENT
+				final long common = Math.min(Math.min(iLeft.estimated, iRight.estimated),
+						(long) Math.ceil((double) iLeft.estimated * iRight.estimated / iClassRecords));
+				estimated = iIntersection ? common : iLeft.estimated + iRight.estimated - common;
+				entries = iLeft.entries + iRight.entries;
 			}
 		}
-		return false;
+
+		private double getCost(final int iFetchLimit, final float iRandomReadCost) {
+			final long records = limitable && iFetchLimit > -1 ? Math.min(estimated, iFetchLimit) : estimated;
+			return entries * INDEX_ENTRY_COST + records * iRandomReadCost;
+		}
+
+		/**
+		 * @param iCounters
+		 *          Collects the names of the profiler counters to update
+		 */
+		private Object execute(final int iFetchLimit, final Set<String> iCounters) {
+			if (lookup != null)
+				return lookup.execute(limitable ? iFetchLimit : -1, iCounters);
+
+			final Object leftResult = left.execute(-1, iCounters);
+			final Object rightResult = right.execute(-1, iCounters);
+
+			iCounters.add(intersection ? "Query.indexIntersection" : "Query.indexUnion");
+			return mergeIndexResults(leftResult, rightResult, intersection);
+		}
+
+		@Override
+		public String toString() {
+			final String estimation = estimated > -1 ? " ~" + estimated : "";
+			if (lookup != null)
+				return lookup + estimation;
+			return (intersection ? "INTERSECTION(" : "UNION(") + left + ", " + right + ")" + estimation;
+		}
 	}
 
 	private List<OIndex<?>> getInvolvedIndexes(OClass iSchemaClass, OIndexSearchResult searchResultFields) {
@@ -827,6 +1706,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 								throw new OException("Error during loading record with id : " + record.getIdentity());
 							}
 						}
+						planLoadedRecords++;
 
 						if (filter((ORecordInternal<?>) record)) {
 							final boolean continueResultParsing = addResult(record);
@@ -837,6 +1717,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 				}
 			} else {
 				final ORecord<?> record = ((OIdentifiable) indexResult).getRecord();
+				planLoadedRecords++;
 				if (filter((ORecordInternal<?>) record))
 					addResult(record);
 			}
@@ -953,11 +1834,126 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 	}
 
 	private void applyOrderBy() {
-		if (orderedFields == null)
+		if (!isSortNeeded())
 			return;
 
 		ODocumentHelper.sort(getResult(), orderedFields);
-		orderedFields.clear();
+	}
+
+	/**
+	 * With ORDER BY the records to skip are the first of the order, not the first found. With GROUP BY they are the first groups.
+	 */
+	private void applySkipAfterOrderBy() {
+		if (!isSortNeeded() && groupByFields == null || skip <= 0 || tempResult == null)
+			return;
+
+		if (skip >= tempResult.size())
+			tempResult.clear();
+		else
+			tempResult = new ArrayList<OIdentifiable>(tempResult.subList(skip, tempResult.size()));
+		skip = 0;
+	}
+
+	/**
+	 * Keeps the first K records of the order in a bounded heap with the worst record on top. Records equal to the worst one are
+	 * rejected, so the result is the same as sorting all the records (the sort is stable) and taking the first K.
+	 */
+	private static class OTopKResult {
+		private final ODocumentComparator				comparator;
+		private final int												size;
+		private final PriorityQueue<OTopKEntry>	heap;
+		private long														sequence	= 0;
+
+		private static class OTopKEntry {
+			private final OIdentifiable	record;
+			private final long					sequence;
+
+			private OTopKEntry(final OIdentifiable iRecord, final long iSequence) {
+				record = iRecord;
+				sequence = iSequence;
+			}
+		}
+
+		private OTopKResult(final List<OPair<String, String>> iOrderCriteria, final int iSize) {
+			comparator = new ODocumentComparator(iOrderCriteria);
+			size = iSize;
+			heap = new PriorityQueue<OTopKEntry>(Math.min(iSize, 1024) + 1, new Comparator<OTopKEntry>() {
+				public int compare(final OTopKEntry iEntry1, final OTopKEntry iEntry2) {
+					// WORST FIRST
+					return -compareEntries(iEntry1, iEntry2);
+				}
+			});
+		}
+
+		/**
+		 * Tells if the record would enter in the first K records. Used to avoid to copy the records that would be discarded.
+		 */
+		private boolean canEnter(final OIdentifiable iRecord) {
+			return heap.size() < size || comparator.compare(iRecord, heap.peek().record) < 0;
+		}
+
+		private void add(final OIdentifiable iRecord) {
+			if (heap.size() < size)
+				heap.add(new OTopKEntry(iRecord, sequence++));
+			else if (comparator.compare(iRecord, heap.peek().record) < 0) {
+				heap.poll();
+				heap.add(new OTopKEntry(iRecord, sequence++));
+			}
+		}
+
+		private List<OIdentifiable> toList() {
+			final List<OTopKEntry> entries = new ArrayList<OTopKEntry>(heap);
+			Collections.sort(entries, new Comparator<OTopKEntry>() {
+				public int compare(final OTopKEntry iEntry1, final OTopKEntry iEntry2) {
+					return compareEntries(iEntry1, iEntry2);
+				}
+			});
+
+			final List<OIdentifiable> result = new ArrayList<OIdentifiable>(entries.size());
+			for (OTopKEntry e : entries)
+				result.add(e.record);
+			return result;
+		}
+
+		private int compareEntries(final OTopKEntry iEntry1, final OTopKEntry iEntry2) {
+			final int result = comparator.compare(iEntry1.record, iEntry2.record);
+			if (result != 0)
+				return result;
+			// SAME VALUES: THE FIRST FOUND COMES FIRST
+			return iEntry1.sequence < iEntry2.sequence ? -1 : iEntry1.sequence > iEntry2.sequence ? 1 : 0;
+		}
+	}
+
+	private boolean checkCacheable() {
+		if (flattenTarget != null || anyFunctionAggregates || compiledFilter.getTargetRecords() != null)
+			return false;
+
+		if (projections != null)
+			for (Object projection : projections.values())
+				if (!isCacheableItem(projection))
+					return false;
+
+		return isCacheableItem(compiledFilter.getRootCondition());
+	}
+
+	private static boolean isCacheableItem(final Object iItem) {
+		if (iItem instanceof OSQLFunctionRuntime || iItem instanceof OSQLQuery<?>)
+			return false;
+
+		if (iItem instanceof OSQLFilterCondition)
+			return isCacheableItem(((OSQLFilterCondition) iItem).getLeft()) && isCacheableItem(((OSQLFilterCondition) iItem).getRight());
+
+		if (iItem instanceof Collection<?>) {
+			for (Object o : (Collection<?>) iItem)
+				if (!isCacheableItem(o))
+					return false;
+		} else if (iItem instanceof Object[]) {
+			for (Object o : (Object[]) iItem)
+				if (!isCacheableItem(o))
+					return false;
+		}
+
+		return true;
 	}
 
 	/**
@@ -1053,6 +2049,15 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 				throw new OCommandExecutionException("'Key' field is required for queries against indexes");
 
 			final OQueryOperator indexOperator = compiledFilter.getRootCondition().getOperator();
+			final boolean hashIndex = index.getInternal() instanceof OIndexHashAbstract<?>;
+			if (hashIndex
+					&& (indexOperator instanceof OQueryOperatorBetween || indexOperator instanceof OQueryOperatorMajor
+							|| indexOperator instanceof OQueryOperatorMajorEquals || indexOperator instanceof OQueryOperatorMinor
+							|| indexOperator instanceof OQueryOperatorMinorEquals))
+				// THE KEYS OF THE HASH INDEXES ARE NOT ORDERED
+				throw new OCommandExecutionException("Index '" + index.getName() + "' of type " + index.getType()
+						+ " can't be searched by a range of keys: use the operators = and IN or an index of type UNIQUE or NOTUNIQUE");
+
 			if (indexOperator instanceof OQueryOperatorBetween) {
 				final Object[] values = (Object[]) compiledFilter.getRootCondition().getRight();
 				final Collection<ODocument> entries = index.getEntriesBetween(getIndexKey(index.getDefinition(), values[0]),
@@ -1104,7 +2109,8 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 				final Object keyValue = getIndexKey(index.getDefinition(), right);
 
 				final Object res;
-				if (index.getDefinition().getParamCount() == 1) {
+				if (index.getDefinition().getParamCount() == 1 || hashIndex) {
+					// THE HASH INDEXES ARE SEARCHED BY THE WHOLE KEY ONLY
 					res = index.get(keyValue);
 				} else {
 					final Object secondKey = getIndexKey(index.getDefinition(), right);
@@ -1123,7 +2129,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 
 		} else {
 			//for "select count(*) from index:" we do not need to fetch all index data.
-			if(anyFunctionAggregates && projections.entrySet().size() == 1) {
+			if(anyFunctionAggregates && groupByFields == null && projections.entrySet().size() == 1) {
 				final Object projection = projections.values().iterator().next();
 				if(projection instanceof OSQLFunctionRuntime &&
 								((OSQLFunctionRuntime)projection).getRoot().equals(OSQLFunctionCount.NAME)) {
@@ -1154,7 +2160,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 			}
 		}
 
-		if (anyFunctionAggregates) {
+		if (anyFunctionAggregates && groupByFields == null) {
 			for (final Entry<String, Object> projection : projections.entrySet()) {
 				if (projection.getValue() instanceof OSQLFunctionRuntime) {
 					final OSQLFunctionRuntime f = (OSQLFunctionRuntime) projection.getValue();
@@ -1204,7 +2210,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 	}
 
 	private void applyProjections() {
-		if (anyFunctionAggregates) {
+		if (anyFunctionAggregates && groupByFields == null) {
 			// EXECUTE AGGREGATIONS
 			Object value;
 			final ODocument result = new ODocument().setOrdered(true);
@@ -1246,6 +2252,6 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLExtractAbstrac
 
 	@Override
 	public String getSyntax() {
-		return "SELECT [<Projections>] FROM <Target> [WHERE <Condition>*] [ORDER BY <Fields>* [ASC|DESC]*] [LIMIT <MaxRecords>]";
+		return "SELECT [<Projections>] FROM <Target> [WHERE <Condition>*] [GROUP BY <Fields>*] [ORDER BY <Fields>* [ASC|DESC]*] [LIMIT <MaxRecords>]";
 	}
 }
@@ -39,6 +39,10 @@ public class ODefaultCommandExecutorSQLFactory implements OCommandExecutorSQLFac
                 OCommandExecutorSQLAlterDatabase.class);
         commands.put(OCommandExecutorSQLSelect.KEYWORD_SELECT, 
                 OCommandExecutorSQLSelect.class);
+        commands.put(OCommandExecutorSQLExplain.KEYWORD_EXPLAIN, 
+                OCommandExecutorSQLExplain.class);
+        commands.put(OCommandExecutorSQLExplain.KEYWORD_PROFILE, 
+                OCommandExecutorSQLExplain.class);
         commands.put(OCommandExecutorSQLTraverse.KEYWORD_TRAVERSE, 
                 OCommandExecutorSQLTraverse.class);
         commands.put(OCommandExecutorSQLInsert.KEYWORD_INSERT, 
@@ -0,0 +1,267 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.command.OCommandExecutor;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItem;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunctionRuntime;
+
+/**
+ * Hash aggregation of the records by the fields of GROUP BY. Every group keeps the values of the projections that don't aggregate,
+ * taken from the first record of the group, and its own instances of the aggregate functions. Without projections the first record of
+ * every group is returned.
+ * <p>
+ * Only "query.groupBy.maxGroups" groups are kept in memory: the records of the other groups are written to a temporary file and
+ * aggregated by further passes once the groups in memory are complete, so the memory used is bounded regardless of the number of
+ * groups.
+ * </p>
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OSQLGroupBy {
+	private final List<String>						fields;
+	private final Map<String, Object>			projections;
+	private final OCommandExecutor				requester;
+	private final OCommandContext					context;
+	private final int											maxGroups;
+
+	private Map<List<Object>, OGroup>			groups	= new LinkedHashMap<List<Object>, OGroup>();
+	private final List<OIdentifiable>			result	= new ArrayList<OIdentifiable>();
+
+	private File													spillFile;
+	private DataOutputStream							spillOutput;
+	private long													spilled;
+
+	private class OGroup {
+		private final ODocument								first;
+		private final Object[]								values;
+		private final OSQLFunctionRuntime[]	aggregations;
+
+		private OGroup(final ODocument iRecord) {
+			if (projections == null) {
+				first = iRecord.copy();
+				values = null;
+				aggregations = null;
+				return;
+			}
+
+			first = null;
+			values = new Object[projections.size()];
+			aggregations = new OSQLFunctionRuntime[projections.size()];
+
+			int i = 0;
+			for (Object projection : projections.values()) {
+				if (projection instanceof OSQLFunctionRuntime && ((OSQLFunctionRuntime) projection).aggregateResults())
+					aggregations[i] = ((OSQLFunctionRuntime) projection).newAggregation();
+				else if (projection instanceof OSQLFilterItem)
+					values[i] = ((OSQLFilterItem) projection).getValue(iRecord, context);
+				else
+					values[i] = projection;
+				++i;
+			}
+		}
+
+		private void aggregate(final ODocument iRecord) {
+			if (aggregations == null)
+				return;
+
+			for (OSQLFunctionRuntime f : aggregations)
+				if (f != null)
+					f.execute(iRecord, requester);
+		}
+
+		private ODocument getResult() {
+			if (first != null)
+				return first;
+
+			final ODocument doc = new ODocument().setOrdered(true);
+
+			// ASSIGN A TEMPORARY RID TO ALLOW PAGINATION IF ANY
+			((ORecordId) doc.getIdentity()).clusterId = -2;
+			((ORecordId) doc.getIdentity()).clusterPosition = result.size();
+
+			int i = 0;
+			for (String name : projections.keySet()) {
+				final Object value = aggregations[i] != null ? aggregations[i].getResult() : values[i];
+				if (value != null)
+					doc.field(name, value);
+				++i;
+			}
+			return doc;
+		}
+	}
+
+	public OSQLGroupBy(final List<String> iFields, final Map<String, Object> iProjections, final OCommandExecutor iRequester,
+			final OCommandContext iContext) {
+		fields = iFields;
+		projections = iProjections;
+		requester = iRequester;
+		context = iContext;
+		maxGroups = Math.max(1, OGlobalConfiguration.QUERY_GROUPBY_MAX_GROUPS.getValueAsInteger());
+	}
+
+	/**
+	 * Aggregates the record in its group, or writes it to the temporary file if its group is not in memory and there is no room for
+	 * a new one.
+	 */
+	public void add(final ODocument iRecord) {
+		final List<Object> key = getKey(iRecord);
+
+		OGroup group = groups.get(key);
+		if (group == null) {
+			if (groups.size() >= maxGroups) {
+				spill(iRecord);
+				return;
+			}
+
+			group = new OGroup(iRecord);
+			groups.put(key, group);
+		}
+
+		group.aggregate(iRecord);
+	}
+
+	/**
+	 * Completes the aggregation by processing the records written to the temporary file, if any, and returns a record for every
+	 * group.
+	 */
+	public List<OIdentifiable> getResult() {
+		try {
+			completeGroups();
+
+			while (spillFile != null) {
+				// AGGREGATE THE RECORDS OF THE PREVIOUS PASS: THE ONES OF GROUPS NOT IN MEMORY ARE WRITTEN TO A NEW FILE
+				final File input = spillFile;
+				spillOutput.close();
+				spillFile = null;
+				spillOutput = null;
+
+				try {
+					final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(input)));
+					try {
+						ODocument record;
+						while ((record = readRecord(in)) != null)
+							add(record);
+					} finally {
+						in.close();
+					}
+				} finally {
+					input.delete();
+				}
+
+				completeGroups();
+			}
+
+		} catch (IOException e) {
+			throw new OCommandExecutionException("Error on reading the records of GROUP BY from the temporary file", e);
+		} finally {
+			close();
+		}
+
+		if (spilled > 0)
+			OProfiler.getInstance().updateCounter("Query.groupBy.spilledRecords", spilled);
+
+		return result;
+	}
+
+	/**
+	 * Deletes the temporary file, if any.
+	 */
+	public void close() {
+		if (spillFile != null) {
+			try {
+				spillOutput.close();
+			} catch (IOException e) {
+				// IGNORE IT
+			}
+			spillFile.delete();
+			spillFile = null;
+			spillOutput = null;
+		}
+	}
+
+	private List<Object> getKey(final ODocument iRecord) {
+		final List<Object> key = new ArrayList<Object>(fields.size());
+		for (String field : fields)
+			key.add(iRecord.field(field));
+		return key;
+	}
+
+	private void completeGroups() {
+		for (Entry<List<Object>, OGroup> entry : groups.entrySet())
+			result.add(entry.getValue().getResult());
+		groups = new LinkedHashMap<List<Object>, OGroup>();
+	}
+
+	private void spill(final ODocument iRecord) {
+		try {
+			if (spillFile == null) {
+				spillFile = File.createTempFile("orientdb-groupby", ".tmp");
+				spillFile.deleteOnExit();
+				spillOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+			}
+
+			final byte[] content = iRecord.toStream();
+			spillOutput.writeUTF(iRecord.getIdentity().toString());
+			spillOutput.writeInt(content.length);
+			spillOutput.write(content);
+			spilled++;
+
+		} catch (IOException e) {
+			close();
+			throw new OCommandExecutionException("Error on writing the records of GROUP BY to the temporary file", e);
+		}
+	}
+
+	private static ODocument readRecord(final DataInputStream iInput) throws IOException {
+		final String rid;
+		try {
+			rid = iInput.readUTF();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		final byte[] content = new byte[iInput.readInt()];
+		iInput.readFully(content);
+
+		final ODocument record = new ODocument(new ORecordId(rid));
+		record.fromStream(content);
+		return record;
+	}
+}
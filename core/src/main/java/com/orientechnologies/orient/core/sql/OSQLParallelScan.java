@@ -0,0 +1,331 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.orientechnologies.common.exception.OException;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecordAbstract;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.db.record.ORecordElement;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilter;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterCondition;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItem;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemField;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemFieldMultiAbstract;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemParameter;
+import com.orientechnologies.orient.core.sql.query.OSQLQuery;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+import com.orientechnologies.orient.core.storage.OStorageEmbedded;
+
+/**
+ * Scans the clusters of a class in parallel. The clusters are split in ranges of "query.parallel.chunkSize" positions, got from
+ * getClusterDataRange(), that are read and evaluated against the WHERE condition by a pool of threads. The records that match are
+ * returned by the iterator in the same order of a sequential scan, cluster by cluster and position by position, so the result
+ * listener and the LIMIT behave as usual. Only a window of tasks is submitted in advance, so a LIMIT stops the scan soon.
+ * <p>
+ * The records that match are loaded again by the calling thread through the database, using the content already read, so the hooks,
+ * the level-1 cache and the security are applied as usual. The caller should evaluate the condition again against the loaded
+ * record.
+ * </p>
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OSQLParallelScan implements Iterable<OIdentifiable> {
+	private static ExecutorService									executor;
+
+	private final ODatabaseRecord										database;
+	private final ODatabaseRecordAbstract						lowLevelDatabase;
+	private final OStorageEmbedded									storage;
+	private final int[]															clusterIds;
+	private final OSQLFilter												filter;
+	private final OCommandContext										context;
+	private final OSQLQueryProfile									profile;
+	private final int																chunkSize;
+	private final int																window;
+
+	private int																			clusterIndex	= -1;
+	private long																		nextPosition;
+	private long																		lastPosition	= -1;
+	private final LinkedList<Future<List<Object[]>>>	pending				= new LinkedList<Future<List<Object[]>>>();
+	private Iterator<Object[]>											chunk					= Collections.<Object[]> emptyList().iterator();
+	private volatile boolean												closed				= false;
+	private final AtomicLong												scanned				= new AtomicLong();
+
+	private class OScanTask implements Callable<List<Object[]>> {
+		private final ORecordId[]	rids;
+
+		private OScanTask(final ORecordId[] iRids) {
+			rids = iRids;
+		}
+
+		public List<Object[]> call() throws Exception {
+			if (closed)
+				return Collections.emptyList();
+
+			final ODatabaseRecord previous = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+			ODatabaseRecordThreadLocal.INSTANCE.set(database);
+			try {
+				final ORawBuffer[] buffers = storage.readRecords(rids);
+				final long timer = profile != null ? System.nanoTime() : 0;
+				long scanned = 0;
+				long bytes = 0;
+
+				final List<Object[]> result = new ArrayList<Object[]>();
+				for (int i = 0; i < rids.length; ++i) {
+					if (buffers[i] == null || buffers[i].recordType != ODocument.RECORD_TYPE)
+						continue;
+
+					scanned++;
+					bytes += buffers[i].buffer.length;
+
+					if (filter != null) {
+						final ODocument doc = new ODocument();
+						doc.fill(rids[i], buffers[i].version, buffers[i].buffer, false);
+						doc.fromStream(buffers[i].buffer);
+						doc.setInternalStatus(ORecordElement.STATUS.LOADED);
+
+						if (!filter.evaluate(doc, context))
+							continue;
+					}
+
+					result.add(new Object[] { rids[i], buffers[i] });
+				}
+
+				OSQLParallelScan.this.scanned.addAndGet(scanned);
+				if (profile != null)
+					profile.recordsScanned(scanned, System.nanoTime() - timer, bytes);
+
+				return result;
+
+			} finally {
+				if (previous != null)
+					ODatabaseRecordThreadLocal.INSTANCE.set(previous);
+				else
+					ODatabaseRecordThreadLocal.INSTANCE.remove();
+			}
+		}
+	}
+
+	public OSQLParallelScan(final ODatabaseRecord iDatabase, final ODatabaseRecordAbstract iLowLevelDatabase, final OClass iClass,
+			final OSQLFilter iFilter, final OCommandContext iContext) {
+		this(iDatabase, iLowLevelDatabase, iClass.getPolymorphicClusterIds(), iFilter, iContext);
+		OProfiler.getInstance().updateCounter("Query.parallelScan", 1);
+	}
+
+	/**
+	 * Scans the clusters passed. If the filter is null all the documents are returned.
+	 */
+	public OSQLParallelScan(final ODatabaseRecord iDatabase, final ODatabaseRecordAbstract iLowLevelDatabase,
+			final int[] iClusterIds, final OSQLFilter iFilter, final OCommandContext iContext) {
+		database = ODatabaseRecordThreadLocal.INSTANCE.get();
+		lowLevelDatabase = iLowLevelDatabase;
+		storage = (OStorageEmbedded) iDatabase.getStorage();
+		clusterIds = iClusterIds;
+		filter = iFilter;
+		context = iContext;
+		profile = OSQLQueryProfile.get();
+		chunkSize = Math.max(1, OGlobalConfiguration.QUERY_PARALLEL_CHUNK_SIZE.getValueAsInteger());
+		window = getThreads() * 2;
+	}
+
+	/**
+	 * Tells if the class can be scanned in parallel. The condition must use only fields of the record, parameters and constants,
+	 * since the threads of the pool can't share the database to load other records.
+	 */
+	public static boolean isApplicable(final ODatabaseRecord iDatabase, final OClass iClass, final OSQLFilter iFilter) {
+		if (!OGlobalConfiguration.QUERY_PARALLEL_ENABLED.getValueAsBoolean())
+			return false;
+
+		if (!(iDatabase.getStorage() instanceof OStorageEmbedded) || iDatabase.getTransaction().isActive())
+			return false;
+
+		if (!isApplicable(iFilter.getRootCondition()))
+			return false;
+
+		return iClass.count() >= OGlobalConfiguration.QUERY_PARALLEL_MIN_RECORDS.getValueAsInteger();
+	}
+
+	public Iterator<OIdentifiable> iterator() {
+		return new Iterator<OIdentifiable>() {
+			private ORecordInternal<?>	next;
+
+			public boolean hasNext() {
+				while (next == null) {
+					final Object[] entry = nextEntry();
+					if (entry == null)
+						return false;
+
+					next = lowLevelDatabase.executeReadRecord((ORecordId) entry[0], null, null, false, (ORawBuffer) entry[1]);
+				}
+				return true;
+			}
+
+			public OIdentifiable next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				final OIdentifiable result = next;
+				next = null;
+				return result;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		};
+	}
+
+	/**
+	 * Returns the records read and evaluated by the threads so far.
+	 */
+	public long getScannedRecords() {
+		return scanned.get();
+	}
+
+	/**
+	 * Stops the scan. The tasks not started yet are cancelled.
+	 */
+	public void close() {
+		closed = true;
+		for (Future<List<Object[]>> f : pending)
+			f.cancel(false);
+		pending.clear();
+	}
+
+	private Object[] nextEntry() {
+		while (!chunk.hasNext()) {
+			submitTasks();
+
+			if (pending.isEmpty())
+				return null;
+
+			try {
+				chunk = pending.removeFirst().get().iterator();
+			} catch (InterruptedException e) {
+				close();
+				Thread.currentThread().interrupt();
+				throw new OCommandExecutionException("Parallel scan interrupted", e);
+			} catch (ExecutionException e) {
+				close();
+				if (e.getCause() instanceof OException)
+					throw (OException) e.getCause();
+				throw new OCommandExecutionException("Error on parallel scan of clusters", e.getCause());
+			}
+		}
+		return chunk.next();
+	}
+
+	/**
+	 * Submits the next ranges of positions, in the order of the scan, up to the window.
+	 */
+	private void submitTasks() {
+		while (!closed && pending.size() < window) {
+			if (nextPosition > lastPosition) {
+				// NEXT CLUSTER
+				if (++clusterIndex >= clusterIds.length)
+					return;
+
+				final long[] range = storage.getClusterDataRange(clusterIds[clusterIndex]);
+				nextPosition = Math.max(0, range[0]);
+				lastPosition = range[1];
+				continue;
+			}
+
+			final int size = (int) Math.min(chunkSize, lastPosition - nextPosition + 1);
+			final ORecordId[] rids = new ORecordId[size];
+			for (int i = 0; i < size; ++i)
+				rids[i] = new ORecordId(clusterIds[clusterIndex], nextPosition + i);
+			nextPosition += size;
+
+			pending.add(getExecutor().submit(new OScanTask(rids)));
+		}
+	}
+
+	private static boolean isApplicable(final Object iItem) {
+		if (iItem instanceof OSQLFilterCondition) {
+			final OSQLFilterCondition condition = (OSQLFilterCondition) iItem;
+			return isApplicable(condition.getLeft()) && isApplicable(condition.getRight());
+		}
+
+		if (iItem instanceof OSQLFilterItemField)
+			// LINKS ARE NOT ALLOWED
+			return !((OSQLFilterItemField) iItem).hasChainOperators();
+
+		if (iItem instanceof OSQLFilterItemParameter || iItem instanceof OSQLFilterItemFieldMultiAbstract)
+			return true;
+
+		if (iItem instanceof OSQLFilterItem || iItem instanceof OSQLQuery<?>)
+			// FUNCTIONS, VARIABLES AND SUB-QUERIES
+			return false;
+
+		if (iItem instanceof Collection<?>) {
+			for (Object o : (Collection<?>) iItem)
+				if (!isApplicable(o))
+					return false;
+		} else if (iItem instanceof Object[]) {
+			for (Object o : (Object[]) iItem)
+				if (!isApplicable(o))
+					return false;
+		}
+
+		return true;
+	}
+
+	private static int getThreads() {
+		final int threads = OGlobalConfiguration.QUERY_PARALLEL_THREADS.getValueAsInteger();
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "OrientDB SQL parallel scan " + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Metrics of a query executed by the PROFILE command. The profile is bound to the thread executing the query, so the database can
+ * account the records it loads without knowing the query. Outside a PROFILE the cost is a volatile read per record loaded.
+ * <p>
+ * The records scanned are the evaluations of the WHERE condition, the bytes deserialized are the contents of the records loaded from
+ * the storage. Times are collected in nanoseconds and returned in milliseconds.
+ * </p>
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OSQLQueryProfile {
+	private static final ThreadLocal<OSQLQueryProfile>	current		= new ThreadLocal<OSQLQueryProfile>();
+	private static final AtomicInteger									active		= new AtomicInteger();
+
+	private final long																	started		= System.nanoTime();
+	private long																				recordsScanned;
+	private long																				recordsFromCache;
+	private long																				recordsFromStorage;
+	private long																				bytesDeserialized;
+	private long																				indexLookups;
+	private long																				filterTime;
+	private long																				searchTime;
+	private long																				groupTime;
+	private long																				sortTime;
+	private long																				projectionTime;
+
+	/**
+	 * Starts to profile the queries executed by the current thread.
+	 */
+	public static OSQLQueryProfile start() {
+		final OSQLQueryProfile profile = new OSQLQueryProfile();
+		if (current.get() == null)
+			active.incrementAndGet();
+		current.set(profile);
+		return profile;
+	}
+
+	/**
+	 * Stops to profile the queries executed by the current thread.
+	 */
+	public static void stop() {
+		if (current.get() != null) {
+			current.remove();
+			active.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the profile of the current thread, or null if the thread isn't profiling.
+	 */
+	public static OSQLQueryProfile get() {
+		if (active.get() == 0)
+			return null;
+		return current.get();
+	}
+
+	public synchronized void recordScanned(final long iFilterTime) {
+		recordsScanned++;
+		filterTime += iFilterTime;
+	}
+
+	public synchronized void recordsScanned(final long iRecords, final long iFilterTime, final long iBytes) {
+		recordsScanned += iRecords;
+		filterTime += iFilterTime;
+		bytesDeserialized += iBytes;
+	}
+
+	public synchronized void recordLoaded(final boolean iFromCache, final int iBytes) {
+		if (iFromCache)
+			recordsFromCache++;
+		else {
+			recordsFromStorage++;
+			bytesDeserialized += iBytes;
+		}
+	}
+
+	public synchronized void indexLookup() {
+		indexLookups++;
+	}
+
+	public synchronized void addSearchTime(final long iTime) {
+		searchTime += iTime;
+	}
+
+	public synchronized void addGroupTime(final long iTime) {
+		groupTime += iTime;
+	}
+
+	public synchronized void addSortTime(final long iTime) {
+		sortTime += iTime;
+	}
+
+	public synchronized void addProjectionTime(final long iTime) {
+		projectionTime += iTime;
+	}
+
+	/**
+	 * Returns the metrics as a document.
+	 */
+	public synchronized ODocument toDocument() {
+		final ODocument doc = new ODocument();
+		doc.field("recordsScanned", recordsScanned);
+		doc.field("recordsFromCache", recordsFromCache);
+		doc.field("recordsFromStorage", recordsFromStorage);
+		doc.field("bytesDeserialized", bytesDeserialized);
+		doc.field("indexLookups", indexLookups);
+		doc.field("filterTime", toMillis(filterTime));
+		doc.field("searchTime", toMillis(searchTime));
+		doc.field("groupTime", toMillis(groupTime));
+		doc.field("sortTime", toMillis(sortTime));
+		doc.field("projectionTime", toMillis(projectionTime));
+		doc.field("elapsed", toMillis(System.nanoTime() - started));
+		return doc;
+	}
+
+	private static float toMillis(final long iNanos) {
+		return iNanos / 1000000f;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+
+/**
+ * Cache of the parsed SELECT statements of a database, shared by all the database instances opened against the same storage. The
+ * key is the SQL text with the white spaces outside the strings collapsed. Parsed executors hold the state of the execution, so
+ * every cached statement keeps a small pool of executors: each one is used by only one execution at a time and returned to the
+ * pool at the end, ready to bind the parameters of the next execution. Statements are discarded when the schema changes.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OSQLStatementCache {
+	private final int													maxIdle	= Runtime.getRuntime().availableProcessors();
+	private final Map<String, OStatement>					statements;
+	private final String											PROFILER_HIT;
+	private final String											PROFILER_MISS;
+
+	private static class OStatement {
+		private final int															schemaVersion;
+		private final Deque<OCommandExecutorSQLSelect>	idle	= new ArrayDeque<OCommandExecutorSQLSelect>();
+
+		private OStatement(final int iSchemaVersion) {
+			schemaVersion = iSchemaVersion;
+		}
+	}
+
+	public OSQLStatementCache(final String iStorageName, final int iMaxSize) {
+		statements = new LinkedHashMap<String, OStatement>(iMaxSize, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, OStatement> iEldest) {
+				return size() > iMaxSize;
+			}
+		};
+
+		PROFILER_HIT = "db." + iStorageName + ".statementCache.hit";
+		PROFILER_MISS = "db." + iStorageName + ".statementCache.miss";
+	}
+
+	/**
+	 * Returns the statement cache of the database.
+	 * 
+	 * @return The cache or null if it's disabled
+	 */
+	public static OSQLStatementCache get(final ODatabaseRecord iDatabase) {
+		final int maxSize = OGlobalConfiguration.QUERY_STATEMENT_CACHE_SIZE.getValueAsInteger();
+		if (maxSize <= 0)
+			return null;
+
+		return iDatabase.getStorage().getResource(OSQLStatementCache.class.getSimpleName(), new Callable<OSQLStatementCache>() {
+			public OSQLStatementCache call() {
+				return new OSQLStatementCache(iDatabase.getStorage().getName(), maxSize);
+			}
+		});
+	}
+
+	/**
+	 * Takes a parsed executor of the statement to use it exclusively.
+	 * 
+	 * @param iKey
+	 *          Statement key as returned by {@link #normalize(String)}
+	 * @param iSchemaVersion
+	 *          Current version of the schema
+	 * @return The executor or null if the statement is not cached or all its executors are in use
+	 */
+	public synchronized OCommandExecutorSQLSelect acquire(final String iKey, final int iSchemaVersion) {
+		final OStatement entry = statements.get(iKey);
+
+		OCommandExecutorSQLSelect executor = null;
+		if (entry != null) {
+			if (entry.schemaVersion != iSchemaVersion)
+				// THE SCHEMA IS CHANGED: THE CLASSES RESOLVED BY THE PARSER COULD BE NOT VALID ANYMORE
+				statements.remove(iKey);
+			else
+				executor = entry.idle.pollFirst();
+		}
+
+		OProfiler.getInstance().updateCounter(executor != null ? PROFILER_HIT : PROFILER_MISS, +1);
+		return executor;
+	}
+
+	/**
+	 * Returns the executor to the cache once the execution is finished.
+	 * 
+	 * @param iSchemaVersion
+	 *          Version of the schema when the statement was parsed
+	 */
+	public synchronized void release(final String iKey, final int iSchemaVersion, final OCommandExecutorSQLSelect iExecutor) {
+		OStatement entry = statements.get(iKey);
+		if (entry == null || entry.schemaVersion != iSchemaVersion) {
+			entry = new OStatement(iSchemaVersion);
+			statements.put(iKey, entry);
+		}
+
+		if (entry.idle.size() < maxIdle)
+			entry.idle.addFirst(iExecutor);
+	}
+
+	public synchronized void clear() {
+		statements.clear();
+	}
+
+	public synchronized int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Returns the key of a statement by trimming it and collapsing the white spaces outside the strings.
+	 */
+	public static String normalize(final String iText) {
+		final String text = iText.trim();
+		final StringBuilder buffer = new StringBuilder(text.length());
+
+		char stringChar = ' ';
+		boolean space = false;
+		for (int i = 0; i < text.length(); ++i) {
+			final char c = text.charAt(i);
+
+			if (stringChar != ' ') {
+				// INSIDE A STRING
+				buffer.append(c);
+				if (c == '\\' && i + 1 < text.length())
+					buffer.append(text.charAt(++i));
+				else if (c == stringChar)
+					stringChar = ' ';
+				continue;
+			}
+
+			if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+
+			if (space) {
+				buffer.append(' ');
+				space = false;
+			}
+
+			if (c == '\'' || c == '"')
+				stringChar = c;
+
+			buffer.append(c);
+		}
+
+		return buffer.toString();
+	}
+}
@@ -84,6 +84,7 @@ public class OSQLFilter extends OCommandToParse {
 						currentPos = newPos;
 						rootCondition = (OSQLFilterCondition) extractConditions(null);
 					} else if (word.toString().equals(OCommandExecutorSQLAbstract.KEYWORD_LIMIT)
+							|| word.toString().equals(OCommandExecutorSQLSelect.KEYWORD_GROUP)
 							|| word.toString().equals(OCommandExecutorSQLSelect.KEYWORD_ORDER)
 							|| word.toString().equals(OCommandExecutorSQLSelect.KEYWORD_SKIP))
 						return;
@@ -286,8 +287,8 @@ public class OSQLFilter extends OCommandToParse {
 
 	protected boolean checkForEnd(final String iWord) {
 		if (iWord != null
-				&& (iWord.equals(OCommandExecutorSQLSelect.KEYWORD_ORDER) || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_LIMIT) || iWord
-						.equals(OCommandExecutorSQLSelect.KEYWORD_SKIP))) {
+				&& (iWord.equals(OCommandExecutorSQLSelect.KEYWORD_GROUP) || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_ORDER)
+						|| iWord.equals(OCommandExecutorSQLSelect.KEYWORD_LIMIT) || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_SKIP))) {
 			currentPos -= iWord.length();
 			return true;
 		}
@@ -554,6 +555,17 @@ public class OSQLFilter extends OCommandToParse {
 		}
 	}
 
+	/**
+	 * Removes the values bound to the parameters. Used before to execute again a filter already parsed.
+	 */
+	public void unbindParameters() {
+		if (parameterItems == null)
+			return;
+
+		for (OSQLFilterItemParameter value : parameterItems)
+			value.reset();
+	}
+
 	public OSQLFilterItemParameter addParameter(final String iName) {
 		final String name;
 		if (iName.charAt(0) == OStringSerializerHelper.PARAMETER_NAMED) {
@@ -48,6 +48,9 @@ import com.orientechnologies.orient.core.serialization.serializer.OStringSeriali
 public abstract class OSQLFilterItemAbstract implements OSQLFilterItem {
 	protected List<OPair<Integer, List<String>>>	operationsChain	= null;
 
+	protected OSQLFilterItemAbstract() {
+	}
+
 	public OSQLFilterItemAbstract(final OCommandToParse iQueryToParse, final String iText) {
 		final List<String> parts = OStringSerializerHelper.smartSplit(iText, '.');
 
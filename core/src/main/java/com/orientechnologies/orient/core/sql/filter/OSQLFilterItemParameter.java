@@ -53,4 +53,11 @@ public class OSQLFilterItemParameter implements OSQLFilterItem {
 	public void setValue(Object value) {
 		this.value = value;
 	}
+
+	/**
+	 * Removes the bound value.
+	 */
+	public void reset() {
+		this.value = NOT_SETTED;
+	}
 }
@@ -45,6 +45,22 @@ public class OSQLFunctionRuntime extends OSQLFilterItemAbstract {
 		super(iQueryToParse, iText);
 	}
 
+	protected OSQLFunctionRuntime() {
+	}
+
+	/**
+	 * Creates a runtime of the same function with the same parameters but with a new instance of the function, so state-full functions
+	 * aggregate the values separately. Used by GROUP BY to aggregate every group.
+	 */
+	public OSQLFunctionRuntime newAggregation() {
+		final OSQLFunctionRuntime copy = new OSQLFunctionRuntime();
+		copy.function = OSQLEngine.getInstance().getFunction(function.getName());
+		copy.configuredParameters = configuredParameters;
+		copy.runtimeParameters = runtimeParameters.clone();
+		copy.operationsChain = operationsChain;
+		return copy;
+	}
+
 	public boolean aggregateResults() {
 		return function.aggregateResults(configuredParameters);
 	}
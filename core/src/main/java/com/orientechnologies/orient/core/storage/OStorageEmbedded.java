@@ -43,6 +43,20 @@ public abstract class OStorageEmbedded extends OStorageAbstract {
 
 	public abstract OCluster getClusterByName(final String iClusterName);
 
+	/**
+	 * Reads multiple records at once. By default reads them one by one: storages able to read them in batch override it.
+	 * 
+	 * @return The record buffers in the same order of the requested ids. An item is null if the record doesn't exist
+	 */
+	public ORawBuffer[] readRecords(final ORecordId[] iRids) {
+		checkOpeness();
+
+		final ORawBuffer[] result = new ORawBuffer[iRids.length];
+		for (int i = 0; i < iRids.length; ++i)
+			result[i] = readRecord(getClusterById(iRids[i].clusterId), iRids[i], true);
+		return result;
+	}
+
 	/**
 	 * Executes the command request and return the result back.
 	 */
@@ -62,6 +76,21 @@ public abstract class OStorageEmbedded extends OStorageAbstract {
 		}
 	}
 
+	/**
+	 * Tells if the transaction commit must be executed by holding the storage lock in exclusive mode. Storages able to isolate the
+	 * commit by themselves return false to avoid blocking the operations against other clusters.
+	 */
+	public boolean isCommitExclusive() {
+		return true;
+	}
+
+	/**
+	 * Waits until the last transaction committed by the current thread has been made durable. It's called by the transaction outside
+	 * the storage lock to let the storage group the synch of concurrent commits. By default does nothing.
+	 */
+	public void waitForCommitSynch() {
+	}
+
 	/**
 	 * Checks if the storage is open. If it's closed an exception is raised.
 	 */
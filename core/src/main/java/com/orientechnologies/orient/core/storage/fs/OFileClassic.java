@@ -225,14 +225,14 @@ public class OFileClassic extends OAbstractFile {
 		return super.checkRegions(iOffset, iLength) + HEADER_SIZE;
 	}
 
-	private ByteBuffer readData(final long iOffset, final int iSize) throws IOException {
+	protected ByteBuffer readData(final long iOffset, final int iSize) throws IOException {
 		ByteBuffer buffer = getBuffer(iSize);
 		channel.read(buffer, iOffset);
 		buffer.rewind();
 		return buffer;
 	}
 
-	private void writeBuffer(final ByteBuffer iBuffer, final long iOffset) throws IOException {
+	protected void writeBuffer(final ByteBuffer iBuffer, final long iOffset) throws IOException {
 		iBuffer.rewind();
 		channel.write(iBuffer, iOffset);
 	}
@@ -241,7 +241,7 @@ public class OFileClassic extends OAbstractFile {
 		return ByteBuffer.allocate(iLenght);
 	}
 
-	private ByteBuffer getWriteBuffer(final int iLenght) {
+	protected ByteBuffer getWriteBuffer(final int iLenght) {
 		setDirty();
 		if (iLenght <= OBinaryProtocol.SIZE_LONG)
 			// RECYCLE WRITE BYTE BUFFER SINCE WRITES ARE SYNCHRONIZED
@@ -68,8 +68,10 @@ public class OFileMMap extends OAbstractFile {
 		if (entry != null) {
 			// MMAP READ
 			try {
-				entry.buffer.position((int) (iOffset - entry.beginOffset));
-				entry.buffer.get(iDestBuffer, 0, iLenght);
+				// THE BLOCK IS SHARED AMONG THREADS: WORK ON A PRIVATE VIEW TO NOT MOVE ITS POSITION
+				final ByteBuffer view = entry.buffer.duplicate();
+				view.position((int) (iOffset - entry.beginOffset));
+				view.get(iDestBuffer, 0, iLenght);
 			} finally {
 				entry.release();
 			}
@@ -267,8 +269,9 @@ public class OFileMMap extends OAbstractFile {
 			if (entry != null) {
 				// MMAP WRITE
 				try {
-					entry.buffer.position((int) (iOffset - entry.beginOffset));
-					entry.buffer.put(iSourceBuffer);
+					final ByteBuffer view = entry.buffer.duplicate();
+					view.position((int) (iOffset - entry.beginOffset));
+					view.put(iSourceBuffer);
 				} finally {
 					entry.release();
 				}
@@ -311,8 +314,20 @@ public class OFileMMap extends OAbstractFile {
 		return headerBuffer.getLong(HEADER_DATA_OFFSET + iPosition);
 	}
 
+	/**
+	 * Removes the mapped blocks beyond the new end of the file.
+	 */
+	@Override
+	public void shrink(final int iSize) throws IOException {
+		super.shrink(iSize);
+		OMMapManager.removeBlocks(this, filledUpTo);
+	}
+
 	@Override
 	public void close() throws IOException {
+		// WRITE AND UNMAP THE BLOCKS BEFORE CLOSING THE CHANNEL: THEY ARE NEVER REUSED IF THE FILE IS OPENED AGAIN
+		OMMapManager.removeFile(this);
+
 		if (headerBuffer != null) {
 			setSoftlyClosed(true);
 			headerBuffer = null;
@@ -345,6 +360,9 @@ public class OFileMMap extends OAbstractFile {
 
 	@Override
 	protected void openChannel(final int iNewSize) throws IOException {
+		// THE BLOCKS MAPPED BEFORE A REOPEN COULD NOT MATCH THE CONTENT OF THE FILE ANYMORE
+		OMMapManager.removeFile(this);
+
 		super.openChannel(iNewSize);
 		headerBuffer = channel.map(mode.equals("r") ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
 	}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.storage.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
+import com.orientechnologies.orient.core.storage.fs.OPageCache.OPage;
+
+/**
+ * OFile implementation that accesses the content through the off-heap {@link OPageCache}. The header is read and written directly
+ * against the channel as {@link OFileClassic} does, while the content is split in pages starting after the header, so the file
+ * format is the same of the other implementations.<br/>
+ * Reads and writes of different threads can run concurrently: the pages are never resized, since the file grows by writing the
+ * pages beyond its end.
+ * 
+ * @author Luca Garulli
+ */
+public class OFilePaged extends OFileClassic {
+	public final static String	NAME				= "paged";
+
+	private final int						pageCacheId	= OPageCache.registerFile();
+	private final ReadWriteLock	channelLock	= new ReentrantReadWriteLock();
+
+	@Override
+	public OFilePaged init(final String iFileName, final String iMode) {
+		super.init(iFileName, iMode);
+		return this;
+	}
+
+	@Override
+	public void read(long iOffset, final byte[] iDestBuffer, final int iLenght) throws IOException {
+		iOffset = checkRegions(iOffset, iLenght);
+
+		final int pageSize = OPageCache.getPageSize();
+		int copied = 0;
+		while (copied < iLenght) {
+			final long position = iOffset + copied - HEADER_SIZE;
+			final int pageOffset = (int) (position % pageSize);
+			final int chunk = Math.min(iLenght - copied, pageSize - pageOffset);
+
+			final OPage page = OPageCache.acquire(this, position / pageSize);
+			page.latch.readLock().lock();
+			try {
+				final ByteBuffer buffer = page.buffer.duplicate();
+				buffer.position(pageOffset);
+				buffer.get(iDestBuffer, copied, chunk);
+			} finally {
+				page.latch.readLock().unlock();
+				page.release();
+			}
+			copied += chunk;
+		}
+	}
+
+	@Override
+	public int readInt(long iOffset) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_INT);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_INT);
+		if (page == null)
+			return readSpanning(iOffset, OBinaryProtocol.SIZE_INT).getInt();
+
+		page.latch.readLock().lock();
+		try {
+			return page.buffer.getInt(pageOffset(iOffset));
+		} finally {
+			page.latch.readLock().unlock();
+			page.release();
+		}
+	}
+
+	@Override
+	public long readLong(long iOffset) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_LONG);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_LONG);
+		if (page == null)
+			return readSpanning(iOffset, OBinaryProtocol.SIZE_LONG).getLong();
+
+		page.latch.readLock().lock();
+		try {
+			return page.buffer.getLong(pageOffset(iOffset));
+		} finally {
+			page.latch.readLock().unlock();
+			page.release();
+		}
+	}
+
+	@Override
+	public short readShort(long iOffset) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_SHORT);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_SHORT);
+		if (page == null)
+			return readSpanning(iOffset, OBinaryProtocol.SIZE_SHORT).getShort();
+
+		page.latch.readLock().lock();
+		try {
+			return page.buffer.getShort(pageOffset(iOffset));
+		} finally {
+			page.latch.readLock().unlock();
+			page.release();
+		}
+	}
+
+	@Override
+	public byte readByte(long iOffset) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_BYTE);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_BYTE);
+		page.latch.readLock().lock();
+		try {
+			return page.buffer.get(pageOffset(iOffset));
+		} finally {
+			page.latch.readLock().unlock();
+			page.release();
+		}
+	}
+
+	@Override
+	public void writeInt(long iOffset, final int iValue) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_INT);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_INT);
+		if (page == null) {
+			writeSpanning(iOffset, ByteBuffer.allocate(OBinaryProtocol.SIZE_INT).putInt(iValue).array());
+			return;
+		}
+
+		page.latch.writeLock().lock();
+		try {
+			page.buffer.putInt(pageOffset(iOffset), iValue);
+			page.setDirty();
+		} finally {
+			page.latch.writeLock().unlock();
+			page.release();
+		}
+		setDirty();
+	}
+
+	@Override
+	public void writeLong(long iOffset, final long iValue) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_LONG);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_LONG);
+		if (page == null) {
+			writeSpanning(iOffset, ByteBuffer.allocate(OBinaryProtocol.SIZE_LONG).putLong(iValue).array());
+			return;
+		}
+
+		page.latch.writeLock().lock();
+		try {
+			page.buffer.putLong(pageOffset(iOffset), iValue);
+			page.setDirty();
+		} finally {
+			page.latch.writeLock().unlock();
+			page.release();
+		}
+		setDirty();
+	}
+
+	@Override
+	public void writeShort(long iOffset, final short iValue) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_SHORT);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_SHORT);
+		if (page == null) {
+			writeSpanning(iOffset, ByteBuffer.allocate(OBinaryProtocol.SIZE_SHORT).putShort(iValue).array());
+			return;
+		}
+
+		page.latch.writeLock().lock();
+		try {
+			page.buffer.putShort(pageOffset(iOffset), iValue);
+			page.setDirty();
+		} finally {
+			page.latch.writeLock().unlock();
+			page.release();
+		}
+		setDirty();
+	}
+
+	@Override
+	public void writeByte(long iOffset, final byte iValue) throws IOException {
+		iOffset = checkRegions(iOffset, OBinaryProtocol.SIZE_BYTE);
+		final OPage page = acquireFor(iOffset, OBinaryProtocol.SIZE_BYTE);
+		page.latch.writeLock().lock();
+		try {
+			page.buffer.put(pageOffset(iOffset), iValue);
+			page.setDirty();
+		} finally {
+			page.latch.writeLock().unlock();
+			page.release();
+		}
+		setDirty();
+	}
+
+	@Override
+	public void write(long iOffset, final byte[] iSourceBuffer) throws IOException {
+		if (iSourceBuffer == null || iSourceBuffer.length == 0)
+			return;
+
+		iOffset = checkRegions(iOffset, iSourceBuffer.length);
+		writeSpanning(iOffset, iSourceBuffer);
+	}
+
+	/**
+	 * Writes the modified pages before synchronizing the file.
+	 */
+	@Override
+	public void synch() throws IOException {
+		if (channel != null)
+			OPageCache.flushFile(this);
+		super.synch();
+	}
+
+	/**
+	 * Changes the size in the header only: the pages beyond the end of the file are written by extending it.
+	 */
+	@Override
+	public void setSize(final int iSize) throws IOException {
+		if (iSize != size) {
+			checkSize(iSize);
+			size = iSize;
+			final ByteBuffer buffer = getWriteBuffer(OBinaryProtocol.SIZE_INT);
+			buffer.putInt(size);
+			writeBuffer(buffer, SIZE_OFFSET);
+			setHeaderDirty();
+		}
+	}
+
+	/**
+	 * Removes the cached pages beyond the new end of the file without writing them, since their content is not valid anymore.
+	 */
+	@Override
+	public void removeTail(final int iSizeToShrink) throws IOException {
+		super.removeTail(iSizeToShrink);
+		invalidateTail();
+	}
+
+	/**
+	 * Removes the cached pages beyond the new end of the file without writing them, since their content is not valid anymore.
+	 */
+	@Override
+	public void shrink(final int iSize) throws IOException {
+		super.shrink(iSize);
+		invalidateTail();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null)
+			OPageCache.flushFile(this);
+		OPageCache.dropFile(this);
+
+		channelLock.writeLock().lock();
+		try {
+			super.close();
+		} finally {
+			channelLock.writeLock().unlock();
+		}
+	}
+
+	int getPageCacheId() {
+		return pageCacheId;
+	}
+
+	/**
+	 * Loads the page content from the file. The part of the page beyond the end of the file is filled with zeros.
+	 */
+	void readPage(final OPage iPage) throws IOException {
+		final ByteBuffer buffer = iPage.buffer;
+		buffer.clear();
+
+		channelLock.readLock().lock();
+		try {
+			if (channel == null)
+				throw new IOException("File " + getName() + " is closed");
+
+			final long position = iPage.getFileOffset();
+			while (buffer.hasRemaining()) {
+				final int read = channel.read(buffer, position + buffer.position());
+				if (read < 0)
+					break;
+			}
+		} finally {
+			channelLock.readLock().unlock();
+		}
+
+		while (buffer.hasRemaining())
+			buffer.put((byte) 0);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the copy of the page content to the file, up to the size of the file stored in the header.
+	 */
+	void writePage(final OPage iPage, final ByteBuffer iContent) throws IOException {
+		final long position = iPage.getFileOffset();
+		final int length = (int) Math.min(OPageCache.getPageSize(), HEADER_SIZE + (long) size - position);
+		if (length <= 0)
+			return;
+
+		final ByteBuffer buffer = iContent.duplicate();
+		buffer.position(0);
+		buffer.limit(length);
+
+		channelLock.readLock().lock();
+		try {
+			if (channel == null)
+				throw new IOException("File " + getName() + " is closed");
+
+			while (buffer.hasRemaining())
+				channel.write(buffer, position + buffer.position());
+		} finally {
+			channelLock.readLock().unlock();
+		}
+		setDirty();
+	}
+
+	/**
+	 * Returns the page containing the requested portion, or null if it spans two pages.
+	 */
+	private OPage acquireFor(final long iFileOffset, final int iLength) throws IOException {
+		final long position = iFileOffset - HEADER_SIZE;
+		final int pageSize = OPageCache.getPageSize();
+		if (position % pageSize + iLength > pageSize)
+			return null;
+		return OPageCache.acquire(this, position / pageSize);
+	}
+
+	private void invalidateTail() {
+		// THE PAGE CONTAINING THE END OF THE FILE IS KEPT
+		final int pageSize = OPageCache.getPageSize();
+		OPageCache.dropPages(this, (filledUpTo + pageSize - 1) / pageSize);
+	}
+
+	private int pageOffset(final long iFileOffset) {
+		return (int) ((iFileOffset - HEADER_SIZE) % OPageCache.getPageSize());
+	}
+
+	private ByteBuffer readSpanning(final long iFileOffset, final int iLength) throws IOException {
+		final byte[] content = new byte[iLength];
+		read(iFileOffset - HEADER_SIZE, content, iLength);
+		return ByteBuffer.wrap(content);
+	}
+
+	private void writeSpanning(final long iFileOffset, final byte[] iContent) throws IOException {
+		final int pageSize = OPageCache.getPageSize();
+		int copied = 0;
+		while (copied < iContent.length) {
+			final long position = iFileOffset + copied - HEADER_SIZE;
+			final int pageOffset = (int) (position % pageSize);
+			final int chunk = Math.min(iContent.length - copied, pageSize - pageOffset);
+
+			final OPage page = OPageCache.acquire(this, position / pageSize);
+			page.latch.writeLock().lock();
+			try {
+				final ByteBuffer buffer = page.buffer.duplicate();
+				buffer.position(pageOffset);
+				buffer.put(iContent, copied, chunk);
+				page.setDirty();
+			} finally {
+				page.latch.writeLock().unlock();
+				page.release();
+			}
+			copied += chunk;
+		}
+		setDirty();
+	}
+}
@@ -17,14 +17,19 @@ package com.orientechnologies.orient.core.storage.fs;
 
 import java.lang.reflect.Method;
 import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.orientechnologies.common.concur.resource.OSharedResourceAbstract;
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.common.profiler.OProfiler;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.memory.OMemoryWatchDog;
 
-public class OMMapBufferEntry extends OSharedResourceAbstract implements Comparable<OMMapBufferEntry> {
+/**
+ * Memory mapped block of a file. The block is shared among the threads: every user pins it by incrementing the reference counter and
+ * releases it when finished. A block can be unmapped only when nobody is using it: the counter is set to -1 and can't be pinned
+ * anymore.
+ */
+public class OMMapBufferEntry implements Comparable<OMMapBufferEntry> {
 	private static final int	FORCE_DELAY;
 	private static final int	FORCE_RETRY;
 
@@ -33,8 +38,11 @@ public class OMMapBufferEntry extends OSharedResourceAbstract implements Compara
 	MappedByteBuffer					buffer;
 	long											beginOffset;
 	int												size;
-	long											counter;
+	// KEY IN THE REGISTRY: THE BLOCK SIZE COULD BE CHANGED AFTER THE MAPPING
+	long											blockIndex;
+	volatile boolean					referenced;
 	volatile boolean					dirty;
+	private final AtomicInteger	pins			= new AtomicInteger();
 
 	static {
 		FORCE_DELAY = OGlobalConfiguration.FILE_MMAP_FORCE_DELAY.getValueAsInteger();
@@ -53,7 +61,6 @@ public class OMMapBufferEntry extends OSharedResourceAbstract implements Compara
 		this.buffer = buffer;
 		this.beginOffset = beginOffset;
 		this.size = size;
-		this.counter = 0;
 		this.dirty = false;
 	}
 
@@ -63,39 +70,37 @@ public class OMMapBufferEntry extends OSharedResourceAbstract implements Compara
 	 * @return true if the buffer has been successfully flushed, otherwise false.
 	 */
 	boolean flush() {
-		if (!dirty)
+		final MappedByteBuffer currentBuffer = buffer;
+		if (!dirty || currentBuffer == null)
 			return true;
 
-		acquireExclusiveLock();
-		try {
-
-			final long timer = OProfiler.getInstance().startChrono();
-
-			// FORCE THE WRITE OF THE BUFFER
-			for (int i = 0; i < FORCE_RETRY; ++i) {
-				try {
-					buffer.force();
-					dirty = false;
-					break;
-				} catch (Exception e) {
-					OLogManager.instance().debug(this,
-							"Cannot write memory buffer to disk. Retrying (" + (i + 1) + "/" + FORCE_RETRY + ")...");
-					OMemoryWatchDog.freeMemory(FORCE_DELAY);
-				}
+		final long timer = OProfiler.getInstance().startChrono();
+
+		// RESET THE FLAG BEFORE FORCING: WRITERS ACQUIRING THE BLOCK IN THE MEANWHILE WILL SET IT AGAIN
+		dirty = false;
+
+		// FORCE THE WRITE OF THE BUFFER
+		boolean forced = false;
+		for (int i = 0; i < FORCE_RETRY; ++i) {
+			try {
+				currentBuffer.force();
+				forced = true;
+				break;
+			} catch (Exception e) {
+				OLogManager.instance().debug(this, "Cannot write memory buffer to disk. Retrying (" + (i + 1) + "/" + FORCE_RETRY + ")...");
+				OMemoryWatchDog.freeMemory(FORCE_DELAY);
 			}
+		}
 
-			if (dirty)
-				OLogManager.instance().debug(this, "Cannot commit memory buffer to disk after %d retries", FORCE_RETRY);
-			else
-				OProfiler.getInstance().updateCounter("OMMapManager.pagesCommitted", 1);
-
-			OProfiler.getInstance().stopChrono("OMMapManager.commitPages", timer);
+		if (!forced) {
+			dirty = true;
+			OLogManager.instance().debug(this, "Cannot commit memory buffer to disk after %d retries", FORCE_RETRY);
+		} else
+			OProfiler.getInstance().updateCounter("OMMapManager.pagesCommitted", 1);
 
-			return !dirty;
+		OProfiler.getInstance().stopChrono("OMMapManager.commitPages", timer);
 
-		} finally {
-			releaseExclusiveLock();
-		}
+		return forced;
 	}
 
 	@Override
@@ -107,35 +112,27 @@ public class OMMapBufferEntry extends OSharedResourceAbstract implements Compara
 	}
 
 	/**
-	 * Force closing of file if it's opened yet.
+	 * Force closing of file if it's opened yet. Must be called only after {@link #disable()} succeeded, since the buffer is unmapped.
 	 */
 	void close() {
-		acquireExclusiveLock();
-		try {
+		if (buffer != null) {
+			if (dirty)
+				buffer.force();
 
-			if (buffer != null) {
-				if (dirty)
-					buffer.force();
-
-				if (sunClass != null) {
-					// USE SUN JVM SPECIAL METHOD TO FREE RESOURCES
-					try {
-						final Method m = sunClass.getMethod("cleaner");
-						final Object cleaner = m.invoke(buffer);
-						cleaner.getClass().getMethod("clean").invoke(cleaner);
-					} catch (Exception e) {
-						OLogManager.instance().error(this, "Error on calling Sun's MMap buffer clean", e);
-					}
+			if (sunClass != null) {
+				// USE SUN JVM SPECIAL METHOD TO FREE RESOURCES
+				try {
+					final Method m = sunClass.getMethod("cleaner");
+					final Object cleaner = m.invoke(buffer);
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				} catch (Exception e) {
+					OLogManager.instance().error(this, "Error on calling Sun's MMap buffer clean", e);
 				}
-
-				buffer = null;
 			}
-			counter = 0;
-			file = null;
 
-		} finally {
-			releaseExclusiveLock();
+			buffer = null;
 		}
+		file = null;
 	}
 
 	public int compareTo(final OMMapBufferEntry iOther) {
@@ -146,6 +143,14 @@ public class OMMapBufferEntry extends OSharedResourceAbstract implements Compara
 		return buffer != null;
 	}
 
+	/**
+	 * Tells if the requested portion is inside the mapped buffer. Must be called by pinning the block.
+	 */
+	boolean covers(final long iBeginOffset, final int iSize) {
+		final MappedByteBuffer currentBuffer = buffer;
+		return currentBuffer != null && iBeginOffset >= beginOffset && iBeginOffset + iSize <= beginOffset + currentBuffer.capacity();
+	}
+
 	boolean isDirty() {
 		return dirty;
 	}
@@ -154,11 +159,29 @@ public class OMMapBufferEntry extends OSharedResourceAbstract implements Compara
 		this.dirty = true;
 	}
 
-	void acquire() {
-		super.acquireExclusiveLock();
+	/**
+	 * Pins the block to use it.
+	 * 
+	 * @return false if the block has been disabled to be unmapped
+	 */
+	boolean acquire() {
+		for (;;) {
+			final int current = pins.get();
+			if (current < 0)
+				return false;
+			if (pins.compareAndSet(current, current + 1))
+				return true;
+		}
 	}
 
 	void release() {
-		super.releaseExclusiveLock();
+		pins.decrementAndGet();
+	}
+
+	/**
+	 * Disables the block if nobody is using it. Once disabled the block can't be pinned anymore and can be closed.
+	 */
+	boolean disable() {
+		return pins.compareAndSet(0, -1);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -16,13 +16,12 @@
 package com.orientechnologies.orient.core.storage.fs;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.orientechnologies.common.io.OIOException;
 import com.orientechnologies.common.log.OLogManager;
@@ -30,6 +29,13 @@ import com.orientechnologies.common.profiler.OProfiler;
 import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 
+/**
+ * Registry of the memory mapped blocks. Files are split in blocks of fixed size ("file.mmap.blockSize") kept in a concurrent map per
+ * file, keyed by the block index, so finding a block costs O(1) without any global lock. Blocks are shared among the threads by
+ * reference counting. When the mapped memory exceeds "file.mmap.maxMemory" the blocks not used since the last round are unmapped
+ * following the CLOCK algorithm: using a block only marks it as referenced. Requests that span two blocks are executed against the
+ * channel.
+ */
 public class OMMapManager {
 	public enum OPERATION_TYPE {
 		READ, WRITE
@@ -43,15 +49,17 @@ public class OMMapManager {
 		NO_OVERLAP_USE_CHANNEL, NO_OVERLAP_FLUSH_AND_USE_CHANNEL, OVERLAP
 	}
 
-	private static final long															MIN_MEMORY				= 50000000;
-	private static OVERLAP_STRATEGY												overlapStrategy;
-	private static ALLOC_STRATEGY													lastStrategy;
-	private static int																		blockSize;
-	private static long																		maxMemory;
-	private static long																		totalMemory;
+	private static final long																								MIN_MEMORY				= 50000000;
+	private static volatile OVERLAP_STRATEGY																overlapStrategy;
+	private static volatile ALLOC_STRATEGY																	lastStrategy;
+	private static volatile int																							blockSize;
+	private static volatile long																						maxMemory;
+	private static final AtomicLong																					totalMemory				= new AtomicLong();
+	private static final AtomicInteger																			totalBlocks				= new AtomicInteger();
 
-	private static List<OMMapBufferEntry>									bufferPoolLRU			= new ArrayList<OMMapBufferEntry>();
-	private static Map<OFileMMap, List<OMMapBufferEntry>>	bufferPoolPerFile	= new HashMap<OFileMMap, List<OMMapBufferEntry>>();
+	private static final ConcurrentHashMap<OFileMMap, ConcurrentHashMap<Long, OMMapBufferEntry>>	bufferPoolPerFile	= new ConcurrentHashMap<OFileMMap, ConcurrentHashMap<Long, OMMapBufferEntry>>();
+	private static final ConcurrentLinkedQueue<OMMapBufferEntry>											clock							= new ConcurrentLinkedQueue<OMMapBufferEntry>();
+	private static final ReentrantLock																				evictionLock			= new ReentrantLock();
 
 	static {
 		blockSize = OGlobalConfiguration.FILE_MMAP_BLOCK_SIZE.getValueAsInteger();
@@ -60,7 +68,7 @@ public class OMMapManager {
 
 		OProfiler.getInstance().registerHookValue("mmap.totalMemory", new OProfilerHookValue() {
 			public Object getValue() {
-				return totalMemory;
+				return totalMemory.get();
 			}
 		});
 
@@ -77,8 +85,8 @@ public class OMMapManager {
 		});
 
 		OProfiler.getInstance().registerHookValue("mmap.blocks", new OProfilerHookValue() {
-			public synchronized Object getValue() {
-				return bufferPoolLRU.size();
+			public Object getValue() {
+				return totalBlocks.get();
 			}
 		});
 
@@ -101,7 +109,7 @@ public class OMMapManager {
 	}
 
 	/**
-	 * Requests a mmap buffer to use.
+	 * Requests a mmap buffer to use. The returned entry is pinned: call {@link OMMapBufferEntry#release()} when finished.
 	 * 
 	 * @param iFile
 	 *          MMap file
@@ -110,198 +118,209 @@ public class OMMapManager {
 	 * @param iSize
 	 *          Portion size requested
 	 * @param iForce
-	 *          Tells if the size is mandatory or can be rounded to the next segment
+	 *          Ignored since blocks have fixed size. Kept for compatibility
 	 * @param iOperationType
 	 *          READ or WRITE
 	 * @param iStrategy
-	 * @return The mmap buffer entry if found, or null if the operation is READ and the buffer pool is full.
+	 * @return The mmap buffer entry if found, or null if the operation must be executed against the channel: the request spans two
+	 *         blocks, or it is a READ and the buffer pool is full.
 	 */
-	public synchronized static OMMapBufferEntry acquire(final OFileMMap iFile, final long iBeginOffset, final int iSize,
-			final boolean iForce, final OPERATION_TYPE iOperationType, final ALLOC_STRATEGY iStrategy) {
+	public static OMMapBufferEntry acquire(final OFileMMap iFile, final long iBeginOffset, final int iSize, final boolean iForce,
+			final OPERATION_TYPE iOperationType, final ALLOC_STRATEGY iStrategy) {
 
 		if (iStrategy == ALLOC_STRATEGY.MMAP_NEVER)
 			return null;
 
 		lastStrategy = iStrategy;
 
-		OMMapBufferEntry entry = searchBetweenLastBlocks(iFile, iBeginOffset, iSize);
-		try {
-			if (entry != null && entry.buffer != null)
-				return entry;
-
-			// SEARCH THE REQUESTED RANGE IN THE CACHED BUFFERS
-			List<OMMapBufferEntry> fileEntries = bufferPoolPerFile.get(iFile);
-			if (fileEntries == null) {
-				fileEntries = new ArrayList<OMMapBufferEntry>();
-				bufferPoolPerFile.put(iFile, fileEntries);
-			}
-
-			int position = searchEntry(fileEntries, iBeginOffset, iSize);
-			if (position > -1) {
-				// FOUND !!!
-				entry = fileEntries.get(position);
-				if (entry != null && entry.buffer != null)
-					return entry;
-			}
-
-			int p = (position + 2) * -1;
-
-			// CHECK IF THERE IS A BUFFER THAT OVERLAPS
-			if (!allocIfOverlaps(iBeginOffset, iSize, fileEntries, p)) {
-				OProfiler.getInstance().updateCounter("OMMapManager.usedChannel", 1);
-				return null;
-			}
+		if (iBeginOffset < 0) {
+			// NOT COVERED BY ANY BLOCK
+			OProfiler.getInstance().updateCounter("OMMapManager.usedChannel", 1);
+			return null;
+		}
 
-			int bufferSize = computeBestEntrySize(iFile, iBeginOffset, iSize, iForce, fileEntries, p);
+		final int currentBlockSize = blockSize;
+		final long blockIndex = iBeginOffset / currentBlockSize;
+		if ((iBeginOffset + iSize - 1) / currentBlockSize != blockIndex) {
+			// THE REQUEST SPANS TWO BLOCKS
+			if (overlapStrategy == OVERLAP_STRATEGY.NO_OVERLAP_FLUSH_AND_USE_CHANNEL)
+				flushRange(iFile, iBeginOffset, iSize, currentBlockSize);
+			OProfiler.getInstance().updateCounter("OMMapManager.usedChannel", 1);
+			return null;
+		}
 
-			if (totalMemory + bufferSize > maxMemory
-					&& (iStrategy == ALLOC_STRATEGY.MMAP_ONLY_AVAIL_POOL || iOperationType == OPERATION_TYPE.READ
-							&& iStrategy == ALLOC_STRATEGY.MMAP_WRITE_ALWAYS_READ_IF_AVAIL_POOL)) {
-				OProfiler.getInstance().updateCounter("OMMapManager.usedChannel", 1);
-				return null;
-			}
+		final ConcurrentHashMap<Long, OMMapBufferEntry> fileEntries = getFileEntries(iFile);
 
-			entry = null;
-			// FREE LESS-USED BUFFERS UNTIL THE FREE-MEMORY IS DOWN THE CONFIGURED MAX LIMIT
-			do {
-				if (totalMemory + bufferSize > maxMemory)
-					freeResources();
-
-				// RECOMPUTE THE POSITION AFTER REMOVING
-				fileEntries = bufferPoolPerFile.get(iFile);
-				position = searchEntry(fileEntries, iBeginOffset, iSize);
-				if (position > -1) {
-					// FOUND: THIS IS PRETTY STRANGE SINCE IT WASN'T FOUND!
-					entry = fileEntries.get(position);
-					if (entry != null && entry.buffer != null)
-						return entry;
-				}
+		for (;;) {
+			OMMapBufferEntry entry = fileEntries.get(blockIndex);
 
-				// LOAD THE PAGE
-				try {
-					entry = mapBuffer(iFile, iBeginOffset, bufferSize);
-				} catch (IllegalArgumentException e) {
-					throw e;
-				} catch (Exception e) {
-					// REDUCE MAX MEMORY TO FORCE EMPTY BUFFERS
-					maxMemory = maxMemory * 90 / 100;
-					OLogManager.instance().warn(OMMapManager.class, "Memory mapping error, try to reduce max memory to %d and retry...", e,
-							maxMemory);
+			if (entry != null) {
+				if (!entry.acquire())
+					// JUST UNMAPPED: RETRY
+					continue;
+
+				if (!entry.covers(iBeginOffset, iSize)) {
+					// THE FILE IS GROWN AFTER THE LAST BLOCK WAS MAPPED OR THE BLOCK SIZE IS CHANGED: REPLACE IT. THE OLD ONE WILL BE
+					// UNMAPPED BY THE CLOCK
+					entry.release();
+					fileEntries.remove(blockIndex, entry);
+					continue;
 				}
-			} while (entry == null && maxMemory > MIN_MEMORY);
 
-			if (entry == null || !entry.isValid())
-				throw new OIOException("You cannot access to the file portion " + iBeginOffset + "-" + iBeginOffset + iSize + " bytes");
-
-			totalMemory += bufferSize;
-			bufferPoolLRU.add(entry);
-
-			p = (position + 2) * -1;
-			if (p < 0)
-				p = 0;
-
-			if (fileEntries == null) {
-				// IN CASE THE CLEAN HAS REMOVED THE LIST
-				fileEntries = new ArrayList<OMMapBufferEntry>();
-				bufferPoolPerFile.put(iFile, fileEntries);
-			}
-
-			fileEntries.add(p, entry);
-
-			if (entry != null && entry.buffer != null)
-				return entry;
-
-		} finally {
-			if (entry != null) {
-				entry.acquire();
+				if (!entry.referenced)
+					// WRITE ONLY IF NEEDED TO AVOID TO INVALIDATE THE CPU CACHES AT EVERY ACCESS
+					entry.referenced = true;
 
 				if (iOperationType == OPERATION_TYPE.WRITE)
 					entry.setDirty();
-			}
-		}
 
-		return null;
-	}
+				OProfiler.getInstance().updateCounter("OMMapManager.reusedPage", 1);
+				return entry;
+			}
 
-	private static void freeResources() {
-		final long memoryThreshold = (long) (maxMemory * 0.75);
+			final long blockBegin = blockIndex * currentBlockSize;
+			final int bufferSize = computeBestEntrySize(iFile, blockBegin, iBeginOffset, iSize, currentBlockSize);
 
-		if (OLogManager.instance().isDebugEnabled())
-			OLogManager.instance().debug(null, "Free mmmap blocks, at least %d MB...", (totalMemory - memoryThreshold) / 1000000);
+			if (totalMemory.get() + bufferSize > maxMemory) {
+				if (iStrategy == ALLOC_STRATEGY.MMAP_ONLY_AVAIL_POOL || iOperationType == OPERATION_TYPE.READ
+						&& iStrategy == ALLOC_STRATEGY.MMAP_WRITE_ALWAYS_READ_IF_AVAIL_POOL) {
+					OProfiler.getInstance().updateCounter("OMMapManager.usedChannel", 1);
+					return null;
+				}
 
-		// SORT AS LRU, FIRST = MOST USED
-		Collections.sort(bufferPoolLRU, new Comparator<OMMapBufferEntry>() {
-			public int compare(final OMMapBufferEntry o1, final OMMapBufferEntry o2) {
-				return (int) (o1.counter - o2.counter);
+				// FREE LESS-USED BUFFERS UNTIL THE FREE-MEMORY IS DOWN THE CONFIGURED MAX LIMIT
+				freeResources();
 			}
-		});
 
-		// REMOVE THE LESS USED ENTRY AND UPDATE THE TOTAL MEMORY
-		for (Iterator<OMMapBufferEntry> it = bufferPoolLRU.iterator(); it.hasNext();) {
-			final OMMapBufferEntry entry = it.next();
-
-			// REMOVE FROM COLLECTIONS
-			if (removeEntry(entry))
-				it.remove();
-
-			if (totalMemory < memoryThreshold)
-				break;
+			// THE FILE ENTRIES ARE THE LOCK STRIPE: ONLY ONE THREAD MAPS THE BLOCKS OF A FILE
+			synchronized (fileEntries) {
+				if (fileEntries.containsKey(blockIndex))
+					// MAPPED BY ANOTHER THREAD IN THE MEANWHILE
+					continue;
+
+				entry = null;
+				do {
+					try {
+						entry = mapBuffer(iFile, blockBegin, bufferSize);
+					} catch (IllegalArgumentException e) {
+						throw e;
+					} catch (Exception e) {
+						// REDUCE MAX MEMORY TO FORCE EMPTY BUFFERS
+						maxMemory = maxMemory * 90 / 100;
+						OLogManager.instance().warn(OMMapManager.class, "Memory mapping error, try to reduce max memory to %d and retry...", e,
+								maxMemory);
+						freeResources();
+					}
+				} while (entry == null && maxMemory > MIN_MEMORY);
+
+				if (entry == null || !entry.isValid() || !entry.covers(iBeginOffset, iSize))
+					throw new OIOException("You cannot access to the file portion " + iBeginOffset + "-" + iBeginOffset + iSize + " bytes");
+
+				totalMemory.addAndGet(bufferSize);
+				totalBlocks.incrementAndGet();
+				entry.blockIndex = blockIndex;
+				entry.referenced = true;
+				// REGISTER IT BEFORE THE CLOCK CAN FIND IT, OTHERWISE IT COULD BE UNMAPPED AS NOT REGISTERED AND REGISTERED AFTER
+				fileEntries.put(blockIndex, entry);
+				clock.offer(entry);
+			}
+			// LOOP TO PIN IT
 		}
 	}
 
-	private static OMMapBufferEntry searchBetweenLastBlocks(final OFileMMap iFile, final long iBeginOffset, final int iSize) {
-		if (!bufferPoolLRU.isEmpty()) {
-			// SEARCH IF IT'S BETWEEN THE LAST 5 BLOCK USED: THIS IS THE COMMON CASE ON MASSIVE INSERTION
-			final int min = Math.max(bufferPoolLRU.size() - 5, -1);
-			for (int i = bufferPoolLRU.size() - 1; i > min; --i) {
-				final OMMapBufferEntry e = bufferPoolLRU.get(i);
-
-				if (e.isValid() && e.file == iFile && iBeginOffset >= e.beginOffset && iBeginOffset + iSize <= e.beginOffset + e.size) {
-					// FOUND: USE IT
-					OProfiler.getInstance().updateCounter("OMMapManager.reusedPageBetweenLast", 1);
-					e.counter++;
-					return e;
+	/**
+	 * Unmaps the blocks not referenced since the last round of the clock until the mapped memory is under the 75% of the maximum.
+	 * Blocks in use are skipped. Only one thread at a time frees the resources.
+	 */
+	private static void freeResources() {
+		evictionLock.lock();
+		try {
+			final long memoryThreshold = (long) (maxMemory * 0.75);
+			if (totalMemory.get() <= memoryThreshold)
+				// ALREADY FREED BY ANOTHER THREAD
+				return;
+
+			if (OLogManager.instance().isDebugEnabled())
+				OLogManager.instance().debug(null, "Free mmmap blocks, at least %d MB...", (totalMemory.get() - memoryThreshold) / 1000000);
+
+			// EVERY BLOCK CAN BE VISITED AT MOST TWICE: THE SECOND TIME IS NOT REFERENCED ANYMORE
+			for (int toVisit = totalBlocks.get() * 2; toVisit > 0 && totalMemory.get() > memoryThreshold; --toVisit) {
+				final OMMapBufferEntry entry = clock.poll();
+				if (entry == null)
+					break;
+
+				if (!entry.isValid())
+					// ALREADY REMOVED
+					continue;
+
+				if (entry.referenced && isRegistered(entry)) {
+					// SECOND CHANCE
+					entry.referenced = false;
+					clock.offer(entry);
+					continue;
 				}
+
+				if (!removeEntry(entry, false))
+					// IN USE
+					clock.offer(entry);
 			}
+		} finally {
+			evictionLock.unlock();
 		}
-		return null;
 	}
 
 	/**
 	 * Flushes away all the buffers of closed files. This frees the memory.
 	 */
-	public synchronized static void flush() {
-		OMMapBufferEntry entry;
-		for (Iterator<OMMapBufferEntry> it = bufferPoolLRU.iterator(); it.hasNext();) {
-			entry = it.next();
-			if (entry.file != null && entry.file.isClosed()) {
-				if (removeEntry(entry))
-					it.remove();
-			}
-		}
+	public static void flush() {
+		for (Map.Entry<OFileMMap, ConcurrentHashMap<Long, OMMapBufferEntry>> file : bufferPoolPerFile.entrySet())
+			if (file.getKey().isClosed())
+				for (OMMapBufferEntry entry : file.getValue().values())
+					removeEntry(entry, true);
 	}
 
 	protected static boolean removeEntry(final OMMapBufferEntry entry) {
+		return removeEntry(entry, true);
+	}
+
+	/**
+	 * Unmaps the block after having written it.
+	 * 
+	 * @param iWait
+	 *          Waits for the threads using the block, otherwise returns false if the block is in use
+	 */
+	private static boolean removeEntry(final OMMapBufferEntry entry, final boolean iWait) {
+		final OFileMMap file = entry.file;
+		if (file == null)
+			// ALREADY REMOVED
+			return true;
+
 		if (!entry.flush())
 			return false;
 
-		entry.acquire();
-		try {
-			// COMMITTED: REMOVE IT
-			final List<OMMapBufferEntry> file = bufferPoolPerFile.get(entry.file);
-			if (file != null) {
-				file.remove(entry);
-				if (file.isEmpty())
-					bufferPoolPerFile.remove(entry.file);
-			}
-			entry.close();
+		while (!entry.disable()) {
+			if (!entry.isValid())
+				// REMOVED BY ANOTHER THREAD
+				return true;
+			if (!iWait)
+				return false;
+			Thread.yield();
+		}
 
-			totalMemory -= entry.size;
-			return true;
+		// COMMITTED: REMOVE IT. THE MAP OF THE FILE IS KEPT UNTIL THE FILE IS REMOVED, SINCE OTHER THREADS COULD BE ADDING BLOCKS TO IT
+		final ConcurrentHashMap<Long, OMMapBufferEntry> fileEntries = bufferPoolPerFile.get(file);
+		if (fileEntries != null)
+			fileEntries.remove(entry.blockIndex, entry);
 
-		} finally {
-			entry.release();
-		}
+		if (iWait)
+			clock.remove(entry);
+
+		final int size = entry.size;
+		entry.close();
+
+		totalMemory.addAndGet(-size);
+		totalBlocks.decrementAndGet();
+		return true;
 	}
 
 	/**
@@ -309,14 +328,27 @@ public class OMMapManager {
 	 * 
 	 * @throws IOException
 	 */
-	public synchronized static void removeFile(final OFile iFile) throws IOException {
-		final List<OMMapBufferEntry> entries = bufferPoolPerFile.remove(iFile);
-		if (entries != null) {
-			for (OMMapBufferEntry entry : entries) {
-				bufferPoolLRU.remove(entry);
-				removeEntry(entry);
-			}
-		}
+	public static void removeFile(final OFile iFile) throws IOException {
+		final ConcurrentHashMap<Long, OMMapBufferEntry> entries = bufferPoolPerFile.remove(iFile);
+		if (entries != null)
+			for (OMMapBufferEntry entry : entries.values())
+				removeEntry(entry, true);
+	}
+
+	/**
+	 * Removes the blocks of the file that end after the offset, waiting for the threads using them. Called when the file is shrunk,
+	 * so the space allocated again is mapped with the current size of the file.
+	 * 
+	 * @param iFile
+	 * @param iOffset
+	 *          Offset of the new end of the file
+	 */
+	public static void removeBlocks(final OFile iFile, final long iOffset) {
+		final ConcurrentHashMap<Long, OMMapBufferEntry> entries = bufferPoolPerFile.get(iFile);
+		if (entries != null)
+			for (OMMapBufferEntry entry : entries.values())
+				if (entry.beginOffset + entry.size > iOffset)
+					removeEntry(entry, true);
 	}
 
 	/**
@@ -325,19 +357,19 @@ public class OMMapManager {
 	 * @param iFile
 	 */
 	public static void flushFile(final OFile iFile) {
-		final List<OMMapBufferEntry> entries = bufferPoolPerFile.get(iFile);
+		final ConcurrentHashMap<Long, OMMapBufferEntry> entries = bufferPoolPerFile.get(iFile);
 		if (entries != null)
-			for (OMMapBufferEntry entry : entries)
+			for (OMMapBufferEntry entry : entries.values())
 				entry.flush();
 	}
 
-	public synchronized static void shutdown() {
-		for (OMMapBufferEntry entry : new ArrayList<OMMapBufferEntry>(bufferPoolLRU))
-			removeEntry(entry);
+	public static void shutdown() {
+		for (ConcurrentHashMap<Long, OMMapBufferEntry> entries : bufferPoolPerFile.values())
+			for (OMMapBufferEntry entry : entries.values())
+				removeEntry(entry, true);
 
-		bufferPoolLRU.clear();
 		bufferPoolPerFile.clear();
-		totalMemory = 0;
+		clock.clear();
 	}
 
 	public static long getMaxMemory() {
@@ -349,7 +381,7 @@ public class OMMapManager {
 	}
 
 	public static long getTotalMemory() {
-		return totalMemory;
+		return totalMemory.get();
 	}
 
 	public static int getBlockSize() {
@@ -372,29 +404,50 @@ public class OMMapManager {
 		OMMapManager.overlapStrategy = overlapStrategy;
 	}
 
-	public static synchronized int getOverlappedBlocks() {
-		int count = 0;
-		for (OFile f : bufferPoolPerFile.keySet()) {
-			count += getOverlappedBlocks(f);
+	/**
+	 * Blocks have fixed size and never overlap.
+	 */
+	public static int getOverlappedBlocks() {
+		return 0;
+	}
+
+	/**
+	 * Blocks have fixed size and never overlap.
+	 */
+	public static int getOverlappedBlocks(final OFile iFile) {
+		return 0;
+	}
+
+	private static ConcurrentHashMap<Long, OMMapBufferEntry> getFileEntries(final OFileMMap iFile) {
+		ConcurrentHashMap<Long, OMMapBufferEntry> fileEntries = bufferPoolPerFile.get(iFile);
+		if (fileEntries == null) {
+			fileEntries = new ConcurrentHashMap<Long, OMMapBufferEntry>();
+			final ConcurrentHashMap<Long, OMMapBufferEntry> previous = bufferPoolPerFile.putIfAbsent(iFile, fileEntries);
+			if (previous != null)
+				fileEntries = previous;
 		}
-		return count;
+		return fileEntries;
 	}
 
-	public static synchronized int getOverlappedBlocks(final OFile iFile) {
-		int count = 0;
+	private static boolean isRegistered(final OMMapBufferEntry iEntry) {
+		final OFileMMap file = iEntry.file;
+		if (file == null)
+			return false;
 
-		final List<OMMapBufferEntry> blocks = bufferPoolPerFile.get(iFile);
-		long lastPos = -1;
-		for (OMMapBufferEntry block : blocks) {
-			if (lastPos > -1 && lastPos > block.beginOffset) {
-				OLogManager.instance().warn(null, "Found overlapped block for file %s at position %d. Previous offset+size was %d", iFile,
-						block.beginOffset, lastPos);
-				count++;
-			}
+		final ConcurrentHashMap<Long, OMMapBufferEntry> fileEntries = bufferPoolPerFile.get(file);
+		return fileEntries != null && fileEntries.get(iEntry.blockIndex) == iEntry;
+	}
 
-			lastPos = block.beginOffset + block.size;
+	private static void flushRange(final OFileMMap iFile, final long iBeginOffset, final int iSize, final int iBlockSize) {
+		final ConcurrentHashMap<Long, OMMapBufferEntry> fileEntries = bufferPoolPerFile.get(iFile);
+		if (fileEntries == null)
+			return;
+
+		for (long i = iBeginOffset / iBlockSize; i <= (iBeginOffset + iSize - 1) / iBlockSize; ++i) {
+			final OMMapBufferEntry entry = fileEntries.get(i);
+			if (entry != null)
+				entry.flush();
 		}
-		return count;
 	}
 
 	private static OMMapBufferEntry mapBuffer(final OFileMMap iFile, final long iBeginOffset, final int iSize) throws IOException {
@@ -407,111 +460,13 @@ public class OMMapManager {
 	}
 
 	/**
-	 * Search for a buffer in the ordered list.
-	 * 
-	 * @param fileEntries
-	 * @param iBeginOffset
-	 * @param iSize
-	 * @return negative number means not found. The position to insert is the (return value +1)*-1. Zero or positive number is the
-	 *         found position.
+	 * Returns the size of the block to map: the block size, or the remaining part of the file if the block is the last one.
 	 */
-	private static int searchEntry(final List<OMMapBufferEntry> fileEntries, final long iBeginOffset, final int iSize) {
-		if (fileEntries == null || fileEntries.size() == 0)
-			return -1;
-
-		int high = fileEntries.size() - 1;
-		if (high < 0)
-			// NOT FOUND
-			return -1;
-
-		int low = 0;
-		int mid = -1;
-
-		// BINARY SEARCH
-		OMMapBufferEntry e;
-
-		while (low <= high) {
-			mid = (low + high) >>> 1;
-			e = fileEntries.get(mid);
-
-			if (iBeginOffset >= e.beginOffset && iBeginOffset + iSize <= e.beginOffset + e.size) {
-				// FOUND: USE IT
-				OProfiler.getInstance().updateCounter("OMMapManager.reusedPage", 1);
-				e.counter++;
-				return mid;
-			}
-
-			if (low == high) {
-				if (iBeginOffset > e.beginOffset)
-					// NEXT POSITION
-					low++;
-
-				// NOT FOUND
-				return (low + 2) * -1;
-			}
-
-			if (iBeginOffset >= e.beginOffset)
-				low = mid + 1;
-			else
-				high = mid;
-		}
-
-		// NOT FOUND
-		return mid;
-	}
-
-	private static boolean allocIfOverlaps(final long iBeginOffset, final int iSize, final List<OMMapBufferEntry> fileEntries,
-			final int p) {
-		if (overlapStrategy == OVERLAP_STRATEGY.OVERLAP)
-			return true;
-
-		boolean overlaps = false;
-		OMMapBufferEntry entry = null;
-		if (p > 0) {
-			// CHECK LOWER OFFSET
-			entry = fileEntries.get(p - 1);
-			overlaps = entry.beginOffset <= iBeginOffset && entry.beginOffset + entry.size >= iBeginOffset;
-		}
-
-		if (!overlaps && p < fileEntries.size() - 1) {
-			// CHECK HIGHER OFFSET
-			entry = fileEntries.get(p);
-			overlaps = iBeginOffset + iSize >= entry.beginOffset;
-		}
-
-		if (overlaps) {
-			// READ NOT IN BUFFER POOL: RETURN NULL TO LET TO THE CALLER TO EXECUTE A DIRECT READ WITHOUT MMAP
-			OProfiler.getInstance().updateCounter("OMMapManager.overlappedPageUsingChannel", 1);
-			if (overlapStrategy == OVERLAP_STRATEGY.NO_OVERLAP_FLUSH_AND_USE_CHANNEL)
-				entry.flush();
-			return false;
-		}
-
-		return true;
-	}
-
-	private static int computeBestEntrySize(final OFileMMap iFile, final long iBeginOffset, final int iSize, final boolean iForce,
-			List<OMMapBufferEntry> fileEntries, int p) {
-		int bufferSize;
-		if (p > -1 && p < fileEntries.size()) {
-			// GET NEXT ENTRY AS SIZE LIMIT
-			bufferSize = (int) (fileEntries.get(p).beginOffset - iBeginOffset);
-			if (bufferSize < iSize)
-				// ROUND TO THE BUFFER SIZE
-				bufferSize = iSize;
-
-			if (bufferSize < blockSize)
-				bufferSize = blockSize;
-		} else {
-			// ROUND TO THE BUFFER SIZE
-			bufferSize = iForce ? iSize : iSize < blockSize ? blockSize : iSize;
-
-			if (iBeginOffset + bufferSize > iFile.getFileSize())
-				// REQUESTED BUFFER IS TOO LARGE: GET AS MAXIMUM AS POSSIBLE
-				bufferSize = (int) (iFile.getFileSize() - iBeginOffset);
-		}
+	private static int computeBestEntrySize(final OFileMMap iFile, final long iBlockBegin, final long iBeginOffset, final int iSize,
+			final int iBlockSize) {
+		int bufferSize = (int) Math.min(iBlockSize, iFile.getFileSize() - iBlockBegin);
 
-		if (bufferSize <= 0)
+		if (iBlockBegin + bufferSize < iBeginOffset + iSize)
 			throw new IllegalArgumentException("Invalid range requested for file " + iFile + ". Requested " + iSize
 					+ " bytes from the address " + iBeginOffset + " while the total file size is " + iFile.getFileSize());
 
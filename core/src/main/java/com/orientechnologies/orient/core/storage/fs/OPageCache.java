@@ -0,0 +1,551 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.storage.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+
+/**
+ * Off-heap page cache shared by all the {@link OFilePaged} instances. The content of the files is split in fixed-size pages kept in
+ * direct ByteBuffers, so the cache takes a fixed amount of memory ("file.pageCache.maxMemory") out of the Java heap.<br/>
+ * <br/>
+ * The page table is a concurrent map: the lookup of a cached page doesn't acquire any lock, it only pins the page to avoid its
+ * eviction while in use. When a page is missing a frame is found by following the CLOCK (second chance) algorithm under the only
+ * lock of the cache, while the page is loaded from the file and the modified victim is written out of it. When all the pages are
+ * pinned the thread waits for the first release. Modified pages are written back to the file by a background thread every
+ * "file.pageCache.flushInterval" ms, on eviction and when the file is synchronized.<br/>
+ * The content of a page is protected by its latch: readers share it, while the writers and the copy of the page before writing it
+ * to the file take it exclusively and shared respectively, so the file never receives a page changed in the middle.
+ * 
+ * @author Luca Garulli
+ */
+public class OPageCache {
+	private static final int												pageSize;
+	private static final int												maxPages;
+	private static final int												flushInterval;
+
+	private static final ConcurrentHashMap<OPageKey, OPage>	pages					= new ConcurrentHashMap<OPageKey, OPage>();
+	private static final AtomicReferenceArray<OPage>				frames;
+	private static final ByteBuffer[]												buffers;
+	private static final Deque<Integer>											freeFrames		= new ArrayDeque<Integer>();
+	private static final ReentrantLock											evictionLock	= new ReentrantLock();
+	private static final Condition													pageReleased	= evictionLock.newCondition();
+	private static final AtomicInteger											waiters				= new AtomicInteger();
+	private static int																			allocatedFrames;
+	private static int																			hand;
+
+	private static final AtomicInteger											fileSerial		= new AtomicInteger();
+	private static final AtomicLong													hits					= new AtomicLong();
+	private static final AtomicLong													misses				= new AtomicLong();
+	private static final AtomicLong													evictions			= new AtomicLong();
+	private static final AtomicLong													writes				= new AtomicLong();
+
+	private static Thread																		writer;
+
+	static final class OPageKey {
+		private final int		fileId;
+		private final long	pageIndex;
+
+		OPageKey(final int iFileId, final long iPageIndex) {
+			fileId = iFileId;
+			pageIndex = iPageIndex;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * fileId + (int) (pageIndex ^ (pageIndex >>> 32));
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof OPageKey))
+				return false;
+			final OPageKey other = (OPageKey) obj;
+			return fileId == other.fileId && pageIndex == other.pageIndex;
+		}
+	}
+
+	static final class OPage {
+		final OPageKey						key;
+		final OFilePaged					file;
+		ByteBuffer								buffer;
+		int												frame;
+
+		// SHARED BY THE READERS, EXCLUSIVE FOR THE WRITERS
+		final ReadWriteLock					latch	= new ReentrantReadWriteLock();
+
+		// -1 = EVICTED
+		private final AtomicInteger	pins	= new AtomicInteger(1);
+		volatile boolean					referenced;
+		volatile boolean					dirty;
+		volatile boolean					loaded;
+
+		private OPage(final OPageKey iKey, final OFilePaged iFile) {
+			key = iKey;
+			file = iFile;
+		}
+
+		long getFileOffset() {
+			return OAbstractFile.HEADER_SIZE + key.pageIndex * pageSize;
+		}
+
+		private boolean pin() {
+			for (;;) {
+				final int current = pins.get();
+				if (current < 0)
+					return false;
+				if (pins.compareAndSet(current, current + 1))
+					return true;
+			}
+		}
+
+		void release() {
+			if (pins.decrementAndGet() == 0 && waiters.get() > 0) {
+				// A THREAD IS WAITING FOR A PAGE TO EVICT OR TO DROP
+				evictionLock.lock();
+				try {
+					pageReleased.signalAll();
+				} finally {
+					evictionLock.unlock();
+				}
+			}
+		}
+
+		/**
+		 * Must be called by holding the exclusive latch.
+		 */
+		void setDirty() {
+			if (!dirty)
+				dirty = true;
+		}
+	}
+
+	static {
+		pageSize = OGlobalConfiguration.FILE_PAGECACHE_PAGE_SIZE.getValueAsInteger();
+		maxPages = (int) Math.max(16, OGlobalConfiguration.FILE_PAGECACHE_MAX_MEMORY.getValueAsLong() / pageSize);
+		flushInterval = OGlobalConfiguration.FILE_PAGECACHE_FLUSH_INTERVAL.getValueAsInteger();
+
+		frames = new AtomicReferenceArray<OPage>(maxPages);
+		buffers = new ByteBuffer[maxPages];
+
+		OProfiler.getInstance().registerHookValue("pageCache.pageSize", new OProfilerHookValue() {
+			public Object getValue() {
+				return pageSize;
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue("pageCache.maxPages", new OProfilerHookValue() {
+			public Object getValue() {
+				return maxPages;
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue("pageCache.pages", new OProfilerHookValue() {
+			public Object getValue() {
+				return pages.size();
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue("pageCache.hits", new OProfilerHookValue() {
+			public Object getValue() {
+				return hits.get();
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue("pageCache.misses", new OProfilerHookValue() {
+			public Object getValue() {
+				return misses.get();
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue("pageCache.evictions", new OProfilerHookValue() {
+			public Object getValue() {
+				return evictions.get();
+			}
+		});
+
+		OProfiler.getInstance().registerHookValue("pageCache.writes", new OProfilerHookValue() {
+			public Object getValue() {
+				return writes.get();
+			}
+		});
+	}
+
+	public static int getPageSize() {
+		return pageSize;
+	}
+
+	static int getMaxPages() {
+		return maxPages;
+	}
+
+	/**
+	 * Returns a new identifier for a file using the cache and starts the writer thread if not running yet.
+	 */
+	static int registerFile() {
+		synchronized (OPageCache.class) {
+			if (writer == null && flushInterval > 0) {
+				writer = new Thread(new Runnable() {
+					public void run() {
+						writeBack();
+					}
+				}, "OrientDB PageCache Writer");
+				writer.setDaemon(true);
+				writer.start();
+			}
+		}
+		return fileSerial.incrementAndGet();
+	}
+
+	/**
+	 * Returns the requested page pinned and loaded. The caller must call {@link OPage#release()} when finished.
+	 */
+	static OPage acquire(final OFilePaged iFile, final long iPageIndex) throws IOException {
+		final OPageKey key = new OPageKey(iFile.getPageCacheId(), iPageIndex);
+
+		for (;;) {
+			final OPage page = pages.get(key);
+			if (page == null) {
+				final OPage loaded = load(iFile, key);
+				if (loaded != null)
+					return loaded;
+				// ANOTHER THREAD IS LOADING THE SAME PAGE: RETRY
+				continue;
+			}
+
+			if (!page.pin()) {
+				// BEING EVICTED: WAIT FOR THE EVICTING THREAD AND RETRY
+				synchronized (page) {
+				}
+				continue;
+			}
+
+			if (!page.loaded) {
+				// WAIT FOR THE LOADING THREAD
+				synchronized (page) {
+				}
+				if (!page.loaded) {
+					page.release();
+					continue;
+				}
+			}
+
+			if (!page.referenced)
+				// WRITE ONLY IF NEEDED TO AVOID TO INVALIDATE THE CPU CACHES AT EVERY HIT
+				page.referenced = true;
+
+			hits.incrementAndGet();
+			return page;
+		}
+	}
+
+	/**
+	 * Writes all the modified pages of the file. Pages being evicted are written by the evicting thread, so waits for it.
+	 */
+	static void flushFile(final OFilePaged iFile) throws IOException {
+		for (int i = 0; i < maxPages; ++i) {
+			final OPage page = frames.get(i);
+			if (page == null || page.file != iFile || !page.dirty)
+				continue;
+
+			if (!page.pin()) {
+				// THE EVICTING THREAD HOLDS THE MONITOR OF THE PAGE WHILE WRITING IT: WAIT AND CHECK THE FRAME AGAIN
+				synchronized (page) {
+				}
+				Thread.yield();
+				--i;
+				continue;
+			}
+
+			try {
+				if (page.loaded)
+					writePage(page);
+			} finally {
+				page.release();
+			}
+		}
+	}
+
+	/**
+	 * Removes all the pages of the file from the cache without writing them. Called on close after {@link #flushFile(OFilePaged)}.
+	 */
+	static void dropFile(final OFilePaged iFile) {
+		dropPages(iFile, 0);
+	}
+
+	/**
+	 * Removes the pages of the file starting from the requested one without writing them. Called when the file is shrunk, since the
+	 * content beyond the end of the file is not valid anymore. Waits for the threads using them.
+	 */
+	static void dropPages(final OFilePaged iFile, final long iFromPageIndex) {
+		for (;;) {
+			OPage evicting = null;
+
+			evictionLock.lock();
+			waiters.incrementAndGet();
+			try {
+				for (int i = 0; i < maxPages; ++i) {
+					final OPage page = frames.get(i);
+					if (page == null || page.file != iFile || page.key.pageIndex < iFromPageIndex)
+						continue;
+
+					while (!page.pins.compareAndSet(0, -1)) {
+						if (page.pins.get() < 0) {
+							evicting = page;
+							break;
+						}
+						// WAIT FOR THE LAST READERS
+						pageReleased.awaitUninterruptibly();
+					}
+
+					if (evicting != null)
+						break;
+
+					pages.remove(page.key, page);
+					frames.set(i, null);
+					freeFrame(i);
+				}
+			} finally {
+				waiters.decrementAndGet();
+				evictionLock.unlock();
+			}
+
+			if (evicting == null)
+				return;
+
+			// WAIT FOR THE EVICTING THREAD AND RETRY
+			synchronized (evicting) {
+			}
+			Thread.yield();
+		}
+	}
+
+	private static OPage load(final OFilePaged iFile, final OPageKey iKey) throws IOException {
+		final OPage page = new OPage(iKey, iFile);
+
+		synchronized (page) {
+			evictionLock.lock();
+			try {
+				if (pages.putIfAbsent(iKey, page) != null)
+					return null;
+			} finally {
+				evictionLock.unlock();
+			}
+
+			assignFrame(page);
+			misses.incrementAndGet();
+
+			try {
+				iFile.readPage(page);
+				page.loaded = true;
+			} catch (IOException e) {
+				evictionLock.lock();
+				try {
+					page.pins.set(-1);
+					pages.remove(iKey, page);
+					frames.set(page.frame, null);
+					freeFrame(page.frame);
+				} finally {
+					evictionLock.unlock();
+				}
+				throw e;
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Assigns a frame to the page. The modified victim is written after the release of the eviction lock by holding its monitor, so
+	 * the threads looking for it wait only for the write of that page.
+	 */
+	private static void assignFrame(final OPage iPage) {
+		for (;;) {
+			boolean locked = true;
+			evictionLock.lock();
+			try {
+				final int frame = findFrame();
+				final OPage victim = frames.get(frame);
+				if (victim == null || !victim.dirty) {
+					if (victim != null)
+						pages.remove(victim.key, victim);
+					iPage.frame = frame;
+					iPage.buffer = buffers[frame];
+					frames.set(frame, iPage);
+					return;
+				}
+
+				// THE MONITOR IS TAKEN BEFORE RELEASING THE LOCK: WHO FINDS THE PAGE EVICTED WAITS FOR THE WRITE
+				synchronized (victim) {
+					evictionLock.unlock();
+					locked = false;
+
+					try {
+						writePage(victim);
+					} catch (IOException e) {
+						// KEEP IT AND TRY WITH ANOTHER PAGE
+						OLogManager.instance().error(OPageCache.class, "Error on writing page %d of file %s", e, victim.key.pageIndex,
+								victim.file);
+						// MAKE IT EVICTABLE AGAIN AND WAKE UP THE WAITING THREADS
+						victim.pins.set(1);
+						victim.release();
+						continue;
+					}
+
+					// THE FRAME IS OWNED BY THIS THREAD UNTIL THE NEW PAGE IS SET
+					pages.remove(victim.key, victim);
+					iPage.frame = frame;
+					iPage.buffer = buffers[frame];
+					frames.set(frame, iPage);
+					return;
+				}
+			} finally {
+				if (locked)
+					evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Finds a free frame, allocating it if the budget is not reached yet or evicting the first page not referenced since the last
+	 * round of the clock. If all the pages are pinned waits for a release. The victim is returned in the frame marked as evicted:
+	 * the caller writes it if modified. Must be called by holding the eviction lock.
+	 */
+	private static int findFrame() {
+		for (;;) {
+			if (!freeFrames.isEmpty())
+				return freeFrames.pop();
+
+			if (allocatedFrames < maxPages) {
+				buffers[allocatedFrames] = ByteBuffer.allocateDirect(pageSize);
+				return allocatedFrames++;
+			}
+
+			int frame = evict();
+			if (frame > -1)
+				return frame;
+
+			// ALL THE PAGES ARE IN USE: REGISTER AS WAITER BEFORE THE LAST ROUND, SO A RELEASE AFTER IT SIGNALS THIS THREAD
+			waiters.incrementAndGet();
+			try {
+				frame = evict();
+				if (frame > -1)
+					return frame;
+
+				pageReleased.awaitUninterruptibly();
+			} finally {
+				waiters.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Follows the clock for two rounds, returning the frame of the first page evicted or -1 if all the pages are pinned.
+	 */
+	private static int evict() {
+		for (int visited = 0; visited < maxPages * 2; ++visited) {
+			final int frame = hand;
+			hand = (hand + 1) % maxPages;
+
+			final OPage victim = frames.get(frame);
+			if (victim == null)
+				// FREE FRAMES ARE ALWAYS IN THE FREE LIST
+				continue;
+
+			if (victim.referenced) {
+				// SECOND CHANCE
+				victim.referenced = false;
+				continue;
+			}
+
+			if (!victim.pins.compareAndSet(0, -1))
+				continue;
+
+			evictions.incrementAndGet();
+			return frame;
+		}
+		return -1;
+	}
+
+	private static void freeFrame(final int iFrame) {
+		freeFrames.push(iFrame);
+		if (waiters.get() > 0)
+			pageReleased.signalAll();
+	}
+
+	private static void writePage(final OPage iPage) throws IOException {
+		final ByteBuffer content = ByteBuffer.allocate(pageSize);
+
+		iPage.latch.readLock().lock();
+		try {
+			// COPY THE PAGE AND RESET THE FLAG WHILE NO CHANGE IS IN PROGRESS: THE NEXT ONES WILL SET IT AGAIN
+			iPage.dirty = false;
+			final ByteBuffer source = iPage.buffer.duplicate();
+			source.clear();
+			content.put(source);
+			content.clear();
+		} finally {
+			iPage.latch.readLock().unlock();
+		}
+
+		try {
+			iPage.file.writePage(iPage, content);
+			writes.incrementAndGet();
+		} catch (IOException e) {
+			iPage.dirty = true;
+			throw e;
+		}
+	}
+
+	private static void writeBack() {
+		while (true) {
+			try {
+				Thread.sleep(flushInterval);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			for (int i = 0; i < maxPages; ++i) {
+				final OPage page = frames.get(i);
+				if (page == null || !page.dirty || !page.pin())
+					continue;
+
+				try {
+					if (page.loaded && page.dirty)
+						writePage(page);
+				} catch (Exception e) {
+					OLogManager.instance().error(OPageCache.class, "Error on writing page %d of file %s", e, page.key.pageIndex, page.file);
+				} finally {
+					page.release();
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,8 @@ import java.io.IOException;
 
 import com.orientechnologies.common.concur.resource.OSharedResourceAbstract;
 import com.orientechnologies.common.io.OIOException;
+import com.orientechnologies.orient.core.compression.OCompression;
+import com.orientechnologies.orient.core.compression.OCompressionFactory;
 import com.orientechnologies.orient.core.config.OStorageClusterConfiguration;
 import com.orientechnologies.orient.core.config.OStorageClusterHoleConfiguration;
 import com.orientechnologies.orient.core.config.OStorageFileConfiguration;
@@ -60,9 +62,11 @@ public class OClusterLocal extends OSharedResourceAbstract implements OCluster {
 	private OStoragePhysicalClusterConfiguration	config;
 	private OStorageLocal													storage;
 	private String																name;
+	private OCompression													compression;
 
 	public void configure(final OStorage iStorage, OStorageClusterConfiguration iConfig) throws IOException {
 		config = (OStoragePhysicalClusterConfiguration) iConfig;
+		compression = OCompressionFactory.instance().getCompression(config.getCompression());
 		init(iStorage, config.getId(), config.getName(), config.getLocation(), config.getDataSegmentId());
 	}
 
@@ -178,6 +182,9 @@ public class OClusterLocal extends OSharedResourceAbstract implements OCluster {
 		case DATASEGMENT:
 			setDataSegmentInternal(stringValue);
 			break;
+		case COMPRESSION:
+			setCompressionInternal(stringValue);
+			break;
 		}
 
 	}
@@ -555,6 +562,28 @@ public class OClusterLocal extends OSharedResourceAbstract implements OCluster {
 
 	}
 
+	/**
+	 * Returns the compression used for the new records of the cluster, or null if they are stored uncompressed.
+	 */
+	public OCompression getCompression() {
+		return compression;
+	}
+
+	private void setCompressionInternal(final String iName) {
+		acquireExclusiveLock();
+		try {
+
+			// CHECK THE NAME BEFORE TO CHANGE THE CONFIGURATION. EXISTENT RECORDS REMAIN AS THEY ARE UNTIL THE NEXT UPDATE
+			compression = OCompressionFactory.instance().getCompression(iName);
+			config.setCompression(compression != null ? compression.getName() : null);
+
+			storage.getConfiguration().update();
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
 	protected void updateBoundsAfterInsertion(final long iPosition) throws IOException {
 		if (iPosition < beginOffsetData || beginOffsetData == -1) {
 			// UPDATE END OF DATA
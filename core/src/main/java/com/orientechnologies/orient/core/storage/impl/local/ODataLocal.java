@@ -17,6 +17,8 @@ package com.orientechnologies.orient.core.storage.impl.local;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import com.orientechnologies.common.io.OFileUtils;
@@ -25,6 +27,7 @@ import com.orientechnologies.common.profiler.OProfiler;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageDataConfiguration;
 import com.orientechnologies.orient.core.config.OStorageDataHoleConfiguration;
+import com.orientechnologies.orient.core.exception.ODatabaseException;
 import com.orientechnologies.orient.core.exception.OStorageException;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
@@ -51,7 +54,10 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 	protected final ODataLocalHole	holeSegment;
 	protected int										defragMaxHoleDistance;
 	protected int										defragStrategy;
+	protected boolean								defragInBackground;
 	protected long									defStartSize;
+	protected int										batchReadMaxGap;
+	protected int										batchReadMaxSize;
 
 	private final String						PROFILER_HOLE_FIND_CLOSER;
 	private final String						PROFILER_UPDATE_REUSED_ALL;
@@ -59,6 +65,12 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 	private final String						PROFILER_UPDATE_NOT_REUSED;
 	private final String						PROFILER_MOVE_RECORD;
 	private final String						PROFILER_HOLE_HANDLE;
+	private final String						PROFILER_BATCH_READ;
+	private final String						PROFILER_BATCH_READ_RECORDS;
+	private final String						PROFILER_BATCH_READ_READS;
+	private final String						PROFILER_DEFRAG;
+	private final String						PROFILER_DEFRAG_MOVED;
+	private final String						PROFILER_DEFRAG_TRUNCATED;
 
 	public ODataLocal(final OStorageLocal iStorage, final OStorageDataConfiguration iConfig, final int iId) throws IOException {
 		super(iStorage, iConfig, DEF_EXTENSION, 0);
@@ -71,6 +83,9 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 		defStartSize = OFileUtils.getSizeAsNumber(iConfig.fileStartSize);
 		defragMaxHoleDistance = OGlobalConfiguration.FILE_DEFRAG_HOLE_MAX_DISTANCE.getValueAsInteger();
 		defragStrategy = OGlobalConfiguration.FILE_DEFRAG_STRATEGY.getValueAsInteger();
+		defragInBackground = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND.getValueAsBoolean();
+		batchReadMaxGap = OGlobalConfiguration.STORAGE_BATCH_READ_MAX_GAP.getValueAsInteger();
+		batchReadMaxSize = OGlobalConfiguration.STORAGE_BATCH_READ_MAX_SIZE.getValueAsInteger();
 
 		PROFILER_HOLE_HANDLE = "storage." + storage.getName() + ".data.handleHole";
 		PROFILER_HOLE_FIND_CLOSER = "storage." + storage.getName() + ".data.findClosestHole";
@@ -78,6 +93,12 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 		PROFILER_UPDATE_REUSED_PARTIAL = "storage." + storage.getName() + ".data.update.reusedPartial";
 		PROFILER_UPDATE_NOT_REUSED = "storage." + storage.getName() + ".data.update.notReused";
 		PROFILER_MOVE_RECORD = "storage." + storage.getName() + ".data.move";
+		PROFILER_BATCH_READ = "storage." + storage.getName() + ".data.batchRead";
+		PROFILER_BATCH_READ_RECORDS = "storage." + storage.getName() + ".data.batchRead.records";
+		PROFILER_BATCH_READ_READS = "storage." + storage.getName() + ".data.batchRead.reads";
+		PROFILER_DEFRAG = "storage." + storage.getName() + ".data.defrag";
+		PROFILER_DEFRAG_MOVED = "storage." + storage.getName() + ".data.defrag.moved";
+		PROFILER_DEFRAG_TRUNCATED = "storage." + storage.getName() + ".data.defrag.truncated";
 	}
 
 	@Override
@@ -204,6 +225,121 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 		}
 	}
 
+	/**
+	 * Returns the record content from file only if the chunk still belongs to the record received as parameter. Since the defrag
+	 * moves records while their clusters are not locked, the position read from the cluster could be changed in the meanwhile.
+	 * 
+	 * @return The record content or null if the chunk is a hole or it belongs to another record
+	 * @throws IOException
+	 */
+	public byte[] getRecord(final long iPosition, final ORecordId iRid) throws IOException {
+		if (iPosition == -1)
+			return null;
+
+		acquireSharedLock();
+		try {
+
+			final long[] pos = getRelativePositionIfValid(iPosition);
+			if (pos == null)
+				// THE FILE HAS BEEN TRUNCATED BY THE DEFRAG
+				return null;
+
+			final OFile file = files[(int) pos[0]];
+
+			if (pos[1] + RECORD_FIX_SIZE > file.getFilledUpTo())
+				return null;
+
+			if (file.readShort(pos[1] + OBinaryProtocol.SIZE_INT) != iRid.clusterId
+					|| file.readLong(pos[1] + OBinaryProtocol.SIZE_INT + OBinaryProtocol.SIZE_SHORT) != iRid.clusterPosition)
+				// MOVED
+				return null;
+
+			return getRecord(iPosition);
+
+		} finally {
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Returns the content of multiple records at once. The positions are sorted by file offset and records close each other are read
+	 * with a single read: two records are joined if the distance between their positions is not bigger than
+	 * "storage.batchRead.maxGap" bytes and the joined read doesn't exceed "storage.batchRead.maxSize" bytes. The content of the last
+	 * record of every read is completed with a second read if needed.
+	 * 
+	 * @param iPositions
+	 *          Data segment positions. -1 means no content
+	 * @param iRids
+	 *          Record ids the chunks must belong to
+	 * @return The record contents in the same order of the positions. An item is null if the chunk is a hole, it belongs to another
+	 *         record or it can't be read safely: in this case the caller should read it with {@link #getRecord(long, ORecordId)}
+	 * @throws IOException
+	 */
+	public byte[][] getRecords(final long[] iPositions, final ORecordId[] iRids) throws IOException {
+		final byte[][] result = new byte[iPositions.length][];
+
+		// SORT THE POSITIONS BY OFFSET
+		final Integer[] order = new Integer[iPositions.length];
+		int validPositions = 0;
+		for (int i = 0; i < iPositions.length; ++i)
+			if (iPositions[i] > -1)
+				order[validPositions++] = i;
+
+		if (validPositions == 0)
+			return result;
+
+		Arrays.sort(order, 0, validPositions, new Comparator<Integer>() {
+			public int compare(final Integer o1, final Integer o2) {
+				final long diff = iPositions[o1] - iPositions[o2];
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+
+		final long timer = OProfiler.getInstance().startChrono();
+
+		acquireSharedLock();
+		try {
+
+			// SKIP THE POSITIONS OUT OF THE FILES TRUNCATED BY THE DEFRAG
+			int inside = 0;
+			for (int i = 0; i < validPositions; ++i)
+				if (getRelativePositionIfValid(iPositions[order[i]]) != null)
+					order[inside++] = order[i];
+			validPositions = inside;
+
+			int groupBegin = 0;
+			while (groupBegin < validPositions) {
+				// JOIN THE NEXT POSITIONS WHILE CLOSE ENOUGH AND IN THE SAME FILE
+				final long[] beginPos = getRelativePosition(iPositions[order[groupBegin]]);
+				int groupEnd = groupBegin + 1;
+				while (groupEnd < validPositions) {
+					final long distance = iPositions[order[groupEnd]] - iPositions[order[groupEnd - 1]];
+					if (distance > batchReadMaxGap)
+						break;
+
+					final long[] pos = getRelativePosition(iPositions[order[groupEnd]]);
+					if (pos[0] != beginPos[0] || pos[1] + RECORD_FIX_SIZE - beginPos[1] > batchReadMaxSize)
+						break;
+
+					groupEnd++;
+				}
+
+				readRecords(iPositions, iRids, order, groupBegin, groupEnd, beginPos, result);
+				OProfiler.getInstance().updateCounter(PROFILER_BATCH_READ_RECORDS, groupEnd - groupBegin);
+				OProfiler.getInstance().updateCounter(PROFILER_BATCH_READ_READS, 1);
+
+				groupBegin = groupEnd;
+			}
+
+			return result;
+
+		} finally {
+			releaseSharedLock();
+
+			OProfiler.getInstance().stopChrono(PROFILER_BATCH_READ, timer);
+		}
+	}
+
 	/**
 	 * Returns the record size.
 	 * 
@@ -350,6 +486,18 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 		return holes;
 	}
 
+	/**
+	 * Locks the segment in exclusive mode. Since the defrag moves the records of any cluster, the storage holds this lock while it
+	 * changes a record together with its position in the cluster.
+	 */
+	public void lock() {
+		acquireExclusiveLock();
+	}
+
+	public void unlock() {
+		releaseExclusiveLock();
+	}
+
 	public int getId() {
 		return id;
 	}
@@ -406,6 +554,10 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 				holeSize += closestHole.size;
 				holeSegment.updateHole(closestHole, holePositionOffset, holeSize);
 
+			} else if (defragInBackground) {
+				// THE RECORDS WILL BE MOVED BY THE BACKGROUND DEFRAG: CREATE A NEW ONE
+				holeSegment.createHole(iRecordOffset, holeSize);
+
 			} else {
 				// QUITE CLOSE, AUTO-DEFRAG!
 				long closestHoleOffset;
@@ -501,6 +653,103 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 		}
 	}
 
+	/**
+	 * Returns the percentage of the data segment occupied by holes.
+	 */
+	public int getFragmentation() {
+		acquireSharedLock();
+		try {
+
+			final long filled = getFilledUpTo();
+			return filled > 0 ? (int) (holeSegment.getHolesSize() * 100 / filled) : 0;
+
+		} finally {
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Executes a step of the background defrag. The records that follow the first hole of the segment are moved to its begin, so the
+	 * hole slides forward and is joined with the next one. When the hole reaches the end of the file, the file is truncated. The
+	 * segment is locked only for the step, so concurrent writes wait at most the time to move iMaxBytes bytes. The clusters are
+	 * updated with the new positions of the records moved.
+	 * 
+	 * @param iMaxBytes
+	 *          Maximum bytes of records to move
+	 * @return false if there are no holes to remove, otherwise true
+	 * @throws IOException
+	 */
+	public boolean defrag(final int iMaxBytes) throws IOException {
+		acquireExclusiveLock();
+		try {
+
+			final ODataHoleInfo hole = holeSegment.getFirstHole();
+			if (hole == null)
+				return false;
+
+			final long timer = OProfiler.getInstance().startChrono();
+
+			final long[] pos = getRelativePosition(hole.dataOffset);
+			final OFile file = files[(int) pos[0]];
+			final long fileEnd = getAbsolutePosition(new long[] { pos[0], file.getFilledUpTo() });
+
+			final ODataHoleInfo nextHole = holeSegment.getNextHole(hole);
+			final long moveUpTo = nextHole != null && nextHole.dataOffset < fileEnd ? nextHole.dataOffset : fileEnd;
+
+			final int holeSize = hole.size;
+			long moveFrom = hole.dataOffset + holeSize;
+			long moveTo = hole.dataOffset;
+			int moved = 0;
+
+			while (moveFrom < moveUpTo && moved < iMaxBytes) {
+				final int sizeMoved = moveRecord(moveFrom, moveTo);
+
+				if (sizeMoved < 0)
+					throw new IllegalStateException("Cannot move record at position " + moveFrom + ": found hole not tracked");
+
+				moveFrom += sizeMoved;
+				moveTo += sizeMoved;
+				moved += sizeMoved;
+			}
+
+			if (moveFrom > moveUpTo)
+				throw new IllegalStateException("Corrupted holes: found offset " + moveFrom + " instead of " + moveUpTo
+						+ " while moving the hole " + hole);
+
+			OProfiler.getInstance().updateCounter(PROFILER_DEFRAG_MOVED, moved);
+
+			if (moveFrom == fileEnd) {
+				// THE HOLE IS AT THE END OF THE FILE: TRUNCATE IT
+				holeSegment.deleteHole(hole.holeOffset);
+				file.removeTail(holeSize);
+
+				OProfiler.getInstance().updateCounter(PROFILER_DEFRAG_TRUNCATED, holeSize);
+				OProfiler.getInstance().stopChrono(PROFILER_DEFRAG, timer);
+				return true;
+			}
+
+			int newHoleSize = holeSize;
+			if (moveFrom == moveUpTo) {
+				// JOIN THE NEXT HOLE
+				newHoleSize += nextHole.size;
+				holeSegment.deleteHole(nextHole.holeOffset);
+			}
+
+			if (moveTo != hole.dataOffset || newHoleSize != holeSize)
+				holeSegment.updateHole(hole, moveTo, newHoleSize);
+
+			// WRITE NEGATIVE RECORD SIZE TO MARK AS DELETED
+			final long[] holePos = getRelativePosition(moveTo);
+			files[(int) holePos[0]].writeInt(holePos[1], newHoleSize * -1);
+
+			OProfiler.getInstance().stopChrono(PROFILER_DEFRAG, timer);
+			return true;
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
 	private ODataHoleInfo getCloserHole(final long iRecordOffset, final int iRecordSize, final OFile file, final long[] pos) {
 		if (holeSegment.getHoles() == 0)
 			return null;
@@ -582,6 +831,71 @@ public class ODataLocal extends OMultiFileSegment implements ODataSegment {
 		file.write(iFilePosition[1] + RECORD_FIX_SIZE, iContent);
 	}
 
+	/**
+	 * Reads a group of records with one read from the first position to the header of the last one. The content of the last record
+	 * is read separately if it exceeds the buffer.
+	 */
+	private void readRecords(final long[] iPositions, final ORecordId[] iRids, final Integer[] iOrder, final int iBegin,
+			final int iEnd, final long[] iBeginPos, final byte[][] iResult) throws IOException {
+		final OFile file = files[(int) iBeginPos[0]];
+		final long filledUpTo = file.getFilledUpTo();
+
+		final long[] lastPos = getRelativePosition(iPositions[iOrder[iEnd - 1]]);
+		final long bufferEnd = Math.min(lastPos[1] + RECORD_FIX_SIZE, filledUpTo);
+		if (bufferEnd <= iBeginPos[1])
+			return;
+
+		final byte[] buffer = new byte[(int) (bufferEnd - iBeginPos[1])];
+		file.read(iBeginPos[1], buffer, buffer.length);
+
+		for (int i = iBegin; i < iEnd; ++i) {
+			final int index = iOrder[i];
+			final int offset = (int) (getRelativePosition(iPositions[index])[1] - iBeginPos[1]);
+			if (offset + RECORD_FIX_SIZE > buffer.length)
+				// OUT OF THE FILE
+				continue;
+
+			final int recordSize = OBinaryProtocol.bytes2int(buffer, offset);
+			if (recordSize <= 0)
+				// RECORD DELETED
+				continue;
+
+			final ORecordId rid = iRids[index];
+			if (OBinaryProtocol.bytes2short(buffer, offset + OBinaryProtocol.SIZE_INT) != rid.clusterId
+					|| OBinaryProtocol.bytes2long(buffer, offset + OBinaryProtocol.SIZE_INT + OBinaryProtocol.SIZE_SHORT) != rid.clusterPosition)
+				// MOVED
+				continue;
+
+			final long contentBegin = iBeginPos[1] + offset + RECORD_FIX_SIZE;
+			if (contentBegin + recordSize > filledUpTo)
+				// DIRTY RECORD: LET THE CALLER READ IT AGAIN TO GET THE ERROR
+				continue;
+
+			final byte[] content = new byte[recordSize];
+			if (offset + RECORD_FIX_SIZE + recordSize <= buffer.length)
+				System.arraycopy(buffer, offset + RECORD_FIX_SIZE, content, 0, recordSize);
+			else if (i == iEnd - 1)
+				// LAST RECORD: READ THE CONTENT
+				file.read(contentBegin, content, recordSize);
+			else
+				// THE RECORD OVERLAPS THE NEXT ONE: CORRUPTED
+				continue;
+
+			iResult[index] = content;
+		}
+	}
+
+	/**
+	 * Returns the relative position or null if it's out of the files. Positions read before the defrag truncated a file could be out.
+	 */
+	private long[] getRelativePositionIfValid(final long iPosition) {
+		try {
+			return getRelativePosition(iPosition);
+		} catch (ODatabaseException e) {
+			return null;
+		}
+	}
+
 	private long[] getFreeSpace(final int recordSize) throws IOException {
 		// GET THE POSITION TO RECYCLE FOLLOWING THE CONFIGURED STRATEGY IF ANY
 		final long position = holeSegment.popFirstAvailableHole(recordSize);
@@ -42,6 +42,7 @@ public class ODataLocalHole extends OSingleFileSegment {
 	private static final int																		DEF_START_SIZE			= 262144;
 	private static final int																		RECORD_SIZE					= 12;
 	private int																									maxHoleSize					= -1;
+	private long																								holesSize						= 0;
 
 	private final List<Integer>																	freeHoles						= new ArrayList<Integer>();
 	private final ODataHoleInfo																	cursor							= new ODataHoleInfo();
@@ -117,6 +118,7 @@ public class ODataLocalHole extends OSingleFileSegment {
 
 		availableHolesBySize.put(hole, hole);
 		availableHolesByPosition.put(hole, hole);
+		holesSize += iRecordSize;
 
 		if (maxHoleSize < iRecordSize)
 			maxHoleSize = iRecordSize;
@@ -243,8 +245,10 @@ public class ODataLocalHole extends OSingleFileSegment {
 
 		if (offsetChanged)
 			iHole.dataOffset = iNewDataOffset;
-		if (sizeChanged)
+		if (sizeChanged) {
+			holesSize += iNewRecordSize - iHole.size;
 			iHole.size = iNewRecordSize;
+		}
 
 		if (offsetChanged)
 			availableHolesByPosition.put(iHole, iHole);
@@ -273,6 +277,7 @@ public class ODataLocalHole extends OSingleFileSegment {
 		final ODataHoleInfo hole = availableHolesList.get(iHolePosition);
 		availableHolesBySize.remove(hole);
 		availableHolesByPosition.remove(hole);
+		holesSize -= hole.size;
 
 		hole.dataOffset = -1;
 		freeHoles.add(iHolePosition);
@@ -286,6 +291,34 @@ public class ODataLocalHole extends OSingleFileSegment {
 		return (file.getFilledUpTo() / RECORD_SIZE);
 	}
 
+	/**
+	 * Returns the total size in bytes of the holes.
+	 */
+	public long getHolesSize() {
+		return holesSize;
+	}
+
+	/**
+	 * Returns the hole with the lowest position in the data segment.
+	 * 
+	 * @return The hole found or null if there are no holes
+	 */
+	public ODataHoleInfo getFirstHole() {
+		if (availableHolesByPosition.isEmpty())
+			return null;
+		return availableHolesByPosition.firstKey();
+	}
+
+	/**
+	 * Returns the hole that follows the hole received as parameter in the data segment.
+	 * 
+	 * @return The hole found or null if the hole received is the last one
+	 */
+	public ODataHoleInfo getNextHole(final ODataHoleInfo iHole) {
+		cursor.dataOffset = iHole.dataOffset;
+		return availableHolesByPosition.higherKey(cursor);
+	}
+
 	private void loadHolesInMemory() throws IOException {
 		final int holes = getHoles();
 
@@ -302,6 +335,7 @@ public class ODataLocalHole extends OSingleFileSegment {
 			else {
 				availableHolesBySize.put(hole, hole);
 				availableHolesByPosition.put(hole, hole);
+				holesSize += recordSize;
 
 				if (maxHoleSize < recordSize)
 					maxHoleSize = recordSize;
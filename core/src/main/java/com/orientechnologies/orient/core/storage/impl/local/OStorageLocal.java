@@ -25,8 +25,13 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.orientechnologies.common.concur.lock.OLockException;
 import com.orientechnologies.common.concur.lock.OLockManager.LOCK;
+import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExternal;
 import com.orientechnologies.common.exception.OException;
 import com.orientechnologies.common.io.OFileUtils;
 import com.orientechnologies.common.log.OLogManager;
@@ -36,11 +41,14 @@ import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
 import com.orientechnologies.common.util.OArrays;
 import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.command.OCommandOutputListener;
+import com.orientechnologies.orient.core.compression.OCompression;
+import com.orientechnologies.orient.core.compression.OCompressionFactory;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageClusterConfiguration;
 import com.orientechnologies.orient.core.config.OStorageConfiguration;
 import com.orientechnologies.orient.core.config.OStorageDataConfiguration;
 import com.orientechnologies.orient.core.config.OStoragePhysicalClusterConfiguration;
+import com.orientechnologies.orient.core.db.record.ORecordOperation;
 import com.orientechnologies.orient.core.engine.local.OEngineLocal;
 import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
 import com.orientechnologies.orient.core.exception.OConfigurationException;
@@ -49,6 +57,7 @@ import com.orientechnologies.orient.core.exception.OStorageException;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.memory.OMemoryWatchDog;
+import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
 import com.orientechnologies.orient.core.storage.OCluster;
 import com.orientechnologies.orient.core.storage.OClusterPositionIterator;
 import com.orientechnologies.orient.core.storage.OPhysicalPosition;
@@ -68,6 +77,12 @@ public class OStorageLocal extends OStorageEmbedded {
 	private ODataLocal[]									dataSegments				= new ODataLocal[0];
 
 	private final OStorageLocalTxExecuter	txManager;
+	private final OStorageLocalGroupCommit	groupCommit;
+	private final ThreadLocal<Long>				groupCommitId				= new ThreadLocal<Long>();
+	private OStorageLocalDefrag						defrag;
+	private final OSharedResourceAdaptiveExternal	commitLock			= new OSharedResourceAdaptiveExternal(
+																																OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean(), 0,
+																																true);
 	private String												storagePath;
 	private final OStorageVariableParser	variableParser;
 	private int														defaultClusterId		= -1;
@@ -75,8 +90,21 @@ public class OStorageLocal extends OStorageEmbedded {
 	private static String[]								ALL_FILE_EXTENSIONS	= { "ocf", ".och", ".ocl", ".oda", ".odh", ".otx" };
 	private final String									PROFILER_CREATE_RECORD;
 	private final String									PROFILER_READ_RECORD;
+	private final String									PROFILER_READ_RECORDS;
 	private final String									PROFILER_UPDATE_RECORD;
 	private final String									PROFILER_DELETE_RECORD;
+	private final String									PROFILER_COMMIT;
+	private final String									PROFILER_COMMIT_SYNCH;
+	private final String									PROFILER_COMPRESS;
+	private final String									PROFILER_UNCOMPRESS;
+
+	// FLAG OF THE RECORD TYPE STORED IN THE CLUSTER WHEN THE CONTENT IS COMPRESSED
+	private static final byte							RECORD_COMPRESSED						= (byte) 0x80;
+	// COMPRESSED CONTENT: COMPRESSION ID (1 BYTE) + UNCOMPRESSED LENGTH (4 BYTES) + COMPRESSED BYTES
+	private static final int							COMPRESSION_HEADER					= OBinaryProtocol.SIZE_BYTE + OBinaryProtocol.SIZE_INT;
+	private final int											compressionMinSize;
+	private final AtomicLong							compressionIn								= new AtomicLong();
+	private final AtomicLong							compressionOut							= new AtomicLong();
 
 	public OStorageLocal(final String iName, final String iFilePath, final String iMode) throws IOException {
 		super(iName, iFilePath, iMode);
@@ -97,12 +125,21 @@ public class OStorageLocal extends OStorageEmbedded {
 
 		PROFILER_CREATE_RECORD = "storage." + name + ".createRecord";
 		PROFILER_READ_RECORD = "storage." + name + ".readRecord";
+		PROFILER_READ_RECORDS = "storage." + name + ".readRecords";
 		PROFILER_UPDATE_RECORD = "storage." + name + ".updateRecord";
 		PROFILER_DELETE_RECORD = "storage." + name + ".deleteRecord";
+		PROFILER_COMMIT = "storage." + name + ".commit";
+		PROFILER_COMMIT_SYNCH = "storage." + name + ".commitSynch";
+		PROFILER_COMPRESS = "storage." + name + ".compress";
+		PROFILER_UNCOMPRESS = "storage." + name + ".uncompress";
+
+		compressionMinSize = OGlobalConfiguration.STORAGE_COMPRESSION_MIN_SIZE.getValueAsInteger();
 
 		DELETE_MAX_RETRIES = OGlobalConfiguration.FILE_MMAP_FORCE_RETRY.getValueAsInteger();
 		DELETE_WAIT_TIME = OGlobalConfiguration.FILE_MMAP_FORCE_DELAY.getValueAsInteger();
 
+		groupCommit = OGlobalConfiguration.TX_COMMIT_GROUP.getValueAsBoolean() ? new OStorageLocalGroupCommit(this) : null;
+
 		installProfilerHooks();
 	}
 
@@ -134,6 +171,7 @@ public class OStorageLocal extends OStorageEmbedded {
 			clusters[pos].open();
 
 			configuration.load();
+			level2Cache.configure(configuration);
 
 			pos = createClusterFromConfig(new OStoragePhysicalClusterConfiguration(configuration, clusters.length, 0,
 					OStorage.CLUSTER_INDEX_NAME));
@@ -199,6 +237,8 @@ public class OStorageLocal extends OStorageEmbedded {
 
 			txManager.open();
 
+			startDefrag();
+
 		} catch (Exception e) {
 			close(true);
 			throw new OStorageException("Cannot open local storage '" + url + "' with mode=" + mode, e);
@@ -241,9 +281,13 @@ public class OStorageLocal extends OStorageEmbedded {
 			// ADD THE DEFAULT CLUSTER
 			defaultClusterId = addCluster(OStorage.CLUSTER_TYPE.PHYSICAL.toString(), OStorage.CLUSTER_DEFAULT_NAME, null, null);
 
+			// THE LOG FIRST: IN WRITE-AHEAD LOG MODE ALSO THE CONFIGURATION RECORD IS LOGGED
+			txManager.create();
+
 			configuration.create();
 
-			txManager.create();
+			startDefrag();
+
 		} catch (OStorageException e) {
 			close();
 			throw e;
@@ -279,6 +323,19 @@ public class OStorageLocal extends OStorageEmbedded {
 			if (!checkForClose(iForce))
 				return;
 
+			if (groupCommit != null)
+				// SYNCH THE PENDING TRANSACTIONS BEFORE TO CLOSE THE FILES
+				groupCommit.flush();
+
+			if (txManager.getTxSegment().isWriteAheadLog())
+				// NOTHING TO REDO AT THE NEXT OPEN
+				checkpoint();
+
+			if (defrag != null) {
+				defrag.cancel();
+				defrag = null;
+			}
+
 			status = STATUS.CLOSING;
 
 			saveVersion();
@@ -901,6 +958,16 @@ public class OStorageLocal extends OStorageEmbedded {
 		if (txManager.isCommitting()) {
 			ppos = txManager.createRecord(txManager.getCurrentTransaction().getId(), dataSegment, cluster, iRid, iContent, iRecordType);
 			iRid.clusterPosition = ppos.clusterPosition;
+		} else if (txManager.getTxSegment().isWriteAheadLog()) {
+			final int txId = beginNonTxChange(null);
+			boolean done = false;
+			try {
+				ppos = txManager.createRecord(txId, dataSegment, cluster, iRid, iContent, iRecordType);
+				done = true;
+			} finally {
+				endNonTxChange(txId, null, done);
+			}
+			iRid.clusterPosition = ppos.clusterPosition;
 		} else {
 			ppos = createRecord(dataSegment, cluster, iContent, iRecordType, iRid);
 			if (OGlobalConfiguration.NON_TX_RECORD_UPDATE_SYNCH.getValueAsBoolean())
@@ -924,7 +991,17 @@ public class OStorageLocal extends OStorageEmbedded {
 
 		if (txManager.isCommitting())
 			return txManager.updateRecord(txManager.getCurrentTransaction().getId(), cluster, iRid, iContent, iVersion, iRecordType);
-		else {
+		else if (txManager.getTxSegment().isWriteAheadLog()) {
+			final int txId = beginNonTxChange(iRid);
+			boolean done = false;
+			try {
+				final int version = txManager.updateRecord(txId, cluster, iRid, iContent, iVersion, iRecordType);
+				done = true;
+				return version;
+			} finally {
+				endNonTxChange(txId, iRid, done);
+			}
+		} else {
 			final OPhysicalPosition ppos = updateRecord(cluster, iRid, iContent, iVersion, iRecordType);
 
 			if (ppos != null && OGlobalConfiguration.NON_TX_RECORD_UPDATE_SYNCH.getValueAsBoolean())
@@ -944,7 +1021,17 @@ public class OStorageLocal extends OStorageEmbedded {
 
 		if (txManager.isCommitting())
 			return txManager.deleteRecord(txManager.getCurrentTransaction().getId(), cluster, iRid.clusterPosition, iVersion);
-		else {
+		else if (txManager.getTxSegment().isWriteAheadLog()) {
+			final int txId = beginNonTxChange(iRid);
+			boolean done = false;
+			try {
+				final boolean deleted = txManager.deleteRecord(txId, cluster, iRid.clusterPosition, iVersion);
+				done = true;
+				return deleted;
+			} finally {
+				endNonTxChange(txId, iRid, done);
+			}
+		} else {
 			final OPhysicalPosition ppos = deleteRecord(cluster, iRid, iVersion);
 			if (ppos != null && OGlobalConfiguration.NON_TX_RECORD_UPDATE_SYNCH.getValueAsBoolean())
 				synchRecordUpdate(cluster, ppos);
@@ -1014,27 +1101,78 @@ public class OStorageLocal extends OStorageEmbedded {
 		return null;
 	}
 
+	/**
+	 * Commits the transaction. The storage lock is acquired in shared mode, so readers and writers of clusters not involved in the
+	 * transaction are not blocked. Also the commit lock is acquired in shared mode, so transactions against different records are
+	 * committed concurrently: each one appends its own entries to the TX log and the records involved are locked exclusively until the
+	 * end of the commit to avoid other threads read them in the middle of the transaction. The commit lock is acquired in exclusive
+	 * mode only to empty the whole TX log, by the group synch and by the checkpoint.
+	 */
 	public void commit(final OTransaction iTx) {
-		lock.acquireExclusiveLock();
+		final long timer = OProfiler.getInstance().startChrono();
+		final boolean writeAheadLog = txManager.getTxSegment().isWriteAheadLog();
+
+		lock.acquireSharedLock();
 		try {
 
+			commitLock.acquireSharedLock();
 			try {
-				txManager.clearLogEntries(iTx);
-				txManager.commitAllPendingRecords(iTx);
 
-				incrementVersion();
-				if (OGlobalConfiguration.TX_COMMIT_SYNCH.getValueAsBoolean())
-					synch();
+				final List<ORID> lockedRecords = new ArrayList<ORID>();
+				try {
+					lockRecords(iTx, lockedRecords);
+					commitLocked(iTx, writeAheadLog);
+				} finally {
+					unlockRecords(lockedRecords);
+				}
 
-			} catch (RuntimeException e) {
-				// WE NEED TO CALL ROLLBACK HERE, IN THE LOCK
-				rollback(iTx);
-				throw e;
-			} catch (IOException e) {
-				// WE NEED TO CALL ROLLBACK HERE, IN THE LOCK
-				rollback(iTx);
-				throw new OException(e);
 			} finally {
+				commitLock.releaseSharedLock();
+			}
+
+			if (writeAheadLog)
+				checkpointIfNeeded();
+
+		} finally {
+			lock.releaseSharedLock();
+
+			OProfiler.getInstance().stopChrono(PROFILER_COMMIT, timer);
+		}
+	}
+
+	/**
+	 * Commits the transaction. Must be called by holding the commit lock and the locks of the records involved.
+	 */
+	private void commitLocked(final OTransaction iTx, final boolean iWriteAheadLog) {
+		try {
+			if (groupCommit == null && !iWriteAheadLog)
+				txManager.clearLogEntries(iTx);
+
+			txManager.commitAllPendingRecords(iTx);
+
+			if (iWriteAheadLog)
+				txManager.commitLogEntries(iTx);
+
+			incrementVersion();
+			if (groupCommit != null)
+				// THE SYNCH WILL BE EXECUTED ONCE FOR ALL THE TRANSACTIONS OF THE GROUP, SEE waitForCommitSynch()
+				groupCommitId.set(groupCommit.registerCommit());
+			else if (iWriteAheadLog)
+				// THE CHECKPOINT, IF NEEDED, IS EXECUTED AFTER THE COMMIT BY HOLDING THE COMMIT LOCK IN EXCLUSIVE MODE
+				txManager.getTxSegment().synch();
+			else if (OGlobalConfiguration.TX_COMMIT_SYNCH.getValueAsBoolean())
+				synch();
+
+		} catch (RuntimeException e) {
+			// WE NEED TO CALL ROLLBACK HERE, IN THE LOCK
+			rollback(iTx);
+			throw e;
+		} catch (IOException e) {
+			// WE NEED TO CALL ROLLBACK HERE, IN THE LOCK
+			rollback(iTx);
+			throw new OException(e);
+		} finally {
+			if (groupCommit == null && !iWriteAheadLog)
 				try {
 					txManager.clearLogEntries(iTx);
 				} catch (Exception e) {
@@ -1042,9 +1180,118 @@ public class OStorageLocal extends OStorageEmbedded {
 					// IF WE THROW EXCEPTION, A ROLLBACK WILL BE DONE AT DB LEVEL BUT NOT AT STORAGE LEVEL
 					OLogManager.instance().error(this, "Clear tx log entries failed", e);
 				}
+		}
+	}
+
+	/**
+	 * Starts a change made out of transactions while the TX log is a write-ahead log. The change is logged as a transaction of one
+	 * entry, otherwise at recovery time the redo of the transactions committed before could overwrite it: for example deleting again
+	 * the record created in the hole left by a transactional delete. The record, if already existent, is locked until the end of the
+	 * change, since the log entry contains its image before the change.
+	 * 
+	 * @return The id to log the change with
+	 */
+	private int beginNonTxChange(final ORID iRid) {
+		boolean locked = false;
+		lock.acquireSharedLock();
+		try {
+			commitLock.acquireSharedLock();
+			try {
+				if (iRid != null)
+					lockManager.acquireLock(Thread.currentThread(), iRid, LOCK.EXCLUSIVE);
+				locked = true;
+			} finally {
+				if (!locked)
+					commitLock.releaseSharedLock();
 			}
 		} finally {
-			lock.releaseExclusiveLock();
+			if (!locked)
+				lock.releaseSharedLock();
+		}
+		return txManager.getTxSegment().nextNonTxId();
+	}
+
+	/**
+	 * Ends a change made out of transactions by logging its commit, or by undoing it if it failed.
+	 */
+	private void endNonTxChange(final int iTxId, final ORID iRid, final boolean iDone) {
+		try {
+			if (iDone)
+				txManager.getTxSegment().addCommit(iTxId);
+			else
+				txManager.getTxSegment().rollback(iTxId);
+		} catch (IOException e) {
+			throw new OStorageException("Error on logging the end of the change #" + iTxId + " made out of transactions", e);
+		} finally {
+			if (iRid != null)
+				lockManager.releaseLock(Thread.currentThread(), iRid, LOCK.EXCLUSIVE);
+			commitLock.releaseSharedLock();
+			lock.releaseSharedLock();
+		}
+
+		if (iDone)
+			checkpointIfNeeded();
+	}
+
+	/**
+	 * Executes the checkpoint if the write-ahead log is big or old enough. With the group commit the checkpoint is executed by the
+	 * group synch.
+	 */
+	private void checkpointIfNeeded() {
+		if (groupCommit == null && txManager.getTxSegment().isCheckpointNeeded())
+			callInCommitLock(new Callable<Void>() {
+				public Void call() throws Exception {
+					if (txManager.getTxSegment().isCheckpointNeeded())
+						checkpoint();
+					return null;
+				}
+			});
+	}
+
+	private void startDefrag() {
+		if (OGlobalConfiguration.FILE_DEFRAG_BACKGROUND.getValueAsBoolean())
+			defrag = new OStorageLocalDefrag(this).schedule();
+	}
+
+	/**
+	 * Executes the callable with no commits in progress.
+	 */
+	public <V> V callInCommitLock(final Callable<V> iCallable) {
+		lock.acquireSharedLock();
+		commitLock.acquireExclusiveLock();
+		try {
+			return iCallable.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new OException("Error on nested call in commit lock", e);
+		} finally {
+			commitLock.releaseExclusiveLock();
+			lock.releaseSharedLock();
+		}
+	}
+
+	@Override
+	public boolean isCommitExclusive() {
+		return false;
+	}
+
+	@Override
+	public void waitForCommitSynch() {
+		if (groupCommit == null)
+			return;
+
+		final Long commitId = groupCommitId.get();
+		if (commitId == null)
+			return;
+
+		groupCommitId.remove();
+
+		final long timer = OProfiler.getInstance().startChrono();
+		try {
+			groupCommit.waitForSynch(commitId);
+		} finally {
+			OProfiler.getInstance().stopChrono(PROFILER_COMMIT_SYNCH, timer);
 		}
 	}
 
@@ -1059,12 +1306,45 @@ public class OStorageLocal extends OStorageEmbedded {
 		}
 	}
 
+	/**
+	 * Makes durable the transactions committed so far. With the write-ahead log only the TX log is synched, and a checkpoint is
+	 * executed only when needed. Otherwise the entire storage is synched and the TX log is emptied. Must be called by holding the
+	 * commit lock in exclusive mode.
+	 */
+	protected void synchCommitted() throws IOException {
+		final OTxSegment txSegment = txManager.getTxSegment();
+
+		if (txSegment.isWriteAheadLog()) {
+			txSegment.synch();
+
+			if (txSegment.isCheckpointNeeded())
+				checkpoint();
+		} else {
+			synch();
+			txSegment.truncate();
+		}
+	}
+
+	/**
+	 * Synchs clusters and data segments and then empties the TX log, since its entries are not needed anymore to recover the
+	 * storage. Must be called by holding the commit lock in exclusive mode or the exclusive lock.
+	 */
+	protected void checkpoint() throws IOException {
+		final long timer = OProfiler.getInstance().startChrono();
+		try {
+			synch();
+			txManager.getTxSegment().checkpoint();
+		} finally {
+			OProfiler.getInstance().stopChrono("storage." + name + ".checkpoint", timer);
+		}
+	}
+
 	public void synch() {
 		checkOpeness();
 
 		final long timer = OProfiler.getInstance().startChrono();
 
-		lock.acquireExclusiveLock();
+		lock.acquireSharedLock();
 		try {
 			saveVersion();
 
@@ -1083,7 +1363,7 @@ public class OStorageLocal extends OStorageEmbedded {
 			throw new OStorageException("Error on synch storage '" + name + "'", e);
 
 		} finally {
-			lock.releaseExclusiveLock();
+			lock.releaseSharedLock();
 
 			OProfiler.getInstance().stopChrono("storage." + name + ".synch", timer);
 		}
@@ -1094,7 +1374,7 @@ public class OStorageLocal extends OStorageEmbedded {
 
 		final long timer = OProfiler.getInstance().startChrono();
 
-		lock.acquireExclusiveLock();
+		lock.acquireSharedLock();
 		try {
 			saveVersion();
 
@@ -1110,7 +1390,7 @@ public class OStorageLocal extends OStorageEmbedded {
 			throw new OStorageException("Error on synch storage '" + name + "'", e);
 
 		} finally {
-			lock.releaseExclusiveLock();
+			lock.releaseSharedLock();
 
 			OProfiler.getInstance().stopChrono("storage." + name + "record.synch", timer);
 		}
@@ -1399,22 +1679,27 @@ public class OStorageLocal extends OStorageEmbedded {
 
 		final long timer = OProfiler.getInstance().startChrono();
 
+		final byte[] compressed = compressRecord(iClusterSegment, iContent);
+
 		lock.acquireSharedLock();
 		try {
-			final OPhysicalPosition ppos = new OPhysicalPosition(-1, -1, iRecordType);
-
-			iClusterSegment.addPhysicalPosition(ppos);
-
-			iRid.clusterPosition = ppos.clusterPosition;
+			final OPhysicalPosition ppos = allocateRecord(iDataSegment, iClusterSegment,
+					compressed != null ? (byte) (iRecordType | RECORD_COMPRESSED) : iRecordType, iRid);
 
-			ppos.dataSegmentId = iDataSegment.getId();
-			ppos.dataSegmentPos = iDataSegment.addRecord(iRid, iContent);
+			iDataSegment.lock();
+			try {
+				ppos.dataSegmentPos = iDataSegment.addRecord(iRid, compressed != null ? compressed : iContent);
 
-			// UPDATE THE POSITION IN CLUSTER WITH THE POSITION OF RECORD IN DATA
-			iClusterSegment.updateDataSegmentPosition(ppos.clusterPosition, ppos.dataSegmentId, ppos.dataSegmentPos);
+				// UPDATE THE POSITION IN CLUSTER WITH THE POSITION OF RECORD IN DATA
+				iClusterSegment.updateDataSegmentPosition(ppos.clusterPosition, ppos.dataSegmentId, ppos.dataSegmentPos);
+			} finally {
+				iDataSegment.unlock();
+			}
 
 			incrementVersion();
 
+			ppos.recordType = iRecordType;
+
 			return ppos;
 		} catch (IOException e) {
 
@@ -1427,6 +1712,20 @@ public class OStorageLocal extends OStorageEmbedded {
 		}
 	}
 
+	/**
+	 * Reserves the position of a new record in the cluster without storing its content: the entry points to no chunk until the
+	 * content is stored by updateRecord(). Used by the transactions to log the creation before to write the record.
+	 */
+	protected OPhysicalPosition allocateRecord(final ODataLocal iDataSegment, final OCluster iClusterSegment, final byte iRecordType,
+			final ORecordId iRid) throws IOException {
+		final OPhysicalPosition ppos = new OPhysicalPosition(iDataSegment.getId(), -1, iRecordType);
+
+		iClusterSegment.addPhysicalPosition(ppos);
+
+		iRid.clusterPosition = ppos.clusterPosition;
+		return ppos;
+	}
+
 	@Override
 	protected ORawBuffer readRecord(final OCluster iClusterSegment, final ORecordId iRid, boolean iAtomicLock) {
 		if (iRid.clusterPosition < 0)
@@ -1462,8 +1761,12 @@ public class OStorageLocal extends OStorageEmbedded {
 					// DELETED
 					return null;
 
-				final ODataLocal data = getDataSegmentById(ppos.dataSegmentId);
-				return new ORawBuffer(data.getRecord(ppos.dataSegmentPos), ppos.recordVersion, ppos.recordType);
+				final byte[] content = readRecordContent(iClusterSegment, iRid, ppos);
+				if (!checkForRecordValidity(ppos))
+					// DELETED IN THE MEANWHILE
+					return null;
+
+				return new ORawBuffer(uncompressRecord(ppos.recordType, content), ppos.recordVersion, getRecordType(ppos.recordType));
 
 			} finally {
 				lockManager.releaseLock(Thread.currentThread(), iRid, LOCK.SHARED);
@@ -1482,6 +1785,106 @@ public class OStorageLocal extends OStorageEmbedded {
 		}
 	}
 
+	/**
+	 * Reads multiple records at once. The contents are read from the data segments in batch sorting them by position and joining the
+	 * reads of close records. To avoid deadlocks against the transactions locking the same records in a different order, the records
+	 * already locked by other threads, and the records that can't be read in batch, are read one by one at the end.
+	 */
+	@Override
+	public ORawBuffer[] readRecords(final ORecordId[] iRids) {
+		checkOpeness();
+
+		final long timer = OProfiler.getInstance().startChrono();
+
+		final ORawBuffer[] result = new ORawBuffer[iRids.length];
+		final boolean[] read = new boolean[iRids.length];
+
+		lock.acquireSharedLock();
+		try {
+
+			final boolean[] locked = new boolean[iRids.length];
+			try {
+				final OPhysicalPosition[] ppos = new OPhysicalPosition[iRids.length];
+				final Map<Integer, List<Integer>> segmentRecords = new LinkedHashMap<Integer, List<Integer>>();
+
+				for (int i = 0; i < iRids.length; ++i) {
+					final ORecordId rid = iRids[i];
+					if (rid.clusterPosition < 0)
+						continue;
+
+					try {
+						lockManager.acquireLock(Thread.currentThread(), rid, LOCK.SHARED, 1);
+						locked[i] = true;
+					} catch (OLockException e) {
+						// LOCKED BY ANOTHER THREAD: READ IT LATER
+						continue;
+					}
+
+					final OCluster cluster = getClusterById(rid.clusterId);
+					if (rid.clusterPosition > cluster.getLastEntryPosition())
+						continue;
+
+					ppos[i] = cluster.getPhysicalPosition(new OPhysicalPosition(rid.clusterPosition));
+					if (ppos[i] == null || !checkForRecordValidity(ppos[i])) {
+						// DELETED
+						read[i] = true;
+						continue;
+					}
+
+					if (ppos[i].dataSegmentPos < 0)
+						// NO CONTENT
+						continue;
+
+					List<Integer> records = segmentRecords.get(ppos[i].dataSegmentId);
+					if (records == null) {
+						records = new ArrayList<Integer>();
+						segmentRecords.put(ppos[i].dataSegmentId, records);
+					}
+					records.add(i);
+				}
+
+				for (Map.Entry<Integer, List<Integer>> entry : segmentRecords.entrySet()) {
+					final List<Integer> records = entry.getValue();
+					final long[] positions = new long[records.size()];
+					final ORecordId[] rids = new ORecordId[records.size()];
+					for (int k = 0; k < positions.length; ++k) {
+						positions[k] = ppos[records.get(k)].dataSegmentPos;
+						rids[k] = iRids[records.get(k)];
+					}
+
+					final byte[][] contents = getDataSegmentById(entry.getKey()).getRecords(positions, rids);
+
+					for (int k = 0; k < contents.length; ++k)
+						if (contents[k] != null) {
+							final int i = records.get(k);
+							result[i] = new ORawBuffer(uncompressRecord(ppos[i].recordType, contents[k]), ppos[i].recordVersion,
+									getRecordType(ppos[i].recordType));
+							read[i] = true;
+						}
+				}
+
+			} catch (IOException e) {
+				OLogManager.instance().error(this, "Error on reading records in batch in storage '" + name + "', reading them one by one", e);
+			} finally {
+				for (int i = 0; i < iRids.length; ++i)
+					if (locked[i])
+						lockManager.releaseLock(Thread.currentThread(), iRids[i], LOCK.SHARED);
+			}
+
+			// READ THE REMAINING RECORDS ONE BY ONE
+			for (int i = 0; i < iRids.length; ++i)
+				if (!read[i] && iRids[i].clusterPosition > -1)
+					result[i] = readRecord(getClusterById(iRids[i].clusterId), iRids[i], false);
+
+			return result;
+
+		} finally {
+			lock.releaseSharedLock();
+
+			OProfiler.getInstance().stopChrono(PROFILER_READ_RECORDS, timer);
+		}
+	}
+
 	protected OPhysicalPosition updateRecord(final OCluster iClusterSegment, final ORecordId iRid, final byte[] iContent,
 			final int iVersion, final byte iRecordType) {
 		if (iClusterSegment == null)
@@ -1489,6 +1892,10 @@ public class OStorageLocal extends OStorageEmbedded {
 
 		final long timer = OProfiler.getInstance().startChrono();
 
+		final byte[] compressed = compressRecord(iClusterSegment, iContent);
+		final byte[] content = compressed != null ? compressed : iContent;
+		final byte recordType = compressed != null ? (byte) (iRecordType | RECORD_COMPRESSED) : iRecordType;
+
 		lock.acquireSharedLock();
 
 		try {
@@ -1499,59 +1906,71 @@ public class OStorageLocal extends OStorageEmbedded {
 					// DELETED
 					return null;
 
-				// VERSION CONTROL CHECK
-				switch (iVersion) {
-				// DOCUMENT UPDATE, NO VERSION CONTROL
-				case -1:
-					++ppos.recordVersion;
-					iClusterSegment.updateVersion(iRid.clusterPosition, ppos.recordVersion);
-					break;
-
-				// DOCUMENT UPDATE, NO VERSION CONTROL, NO VERSION UPDATE
-				case -2:
-					break;
-
-				default:
-					// MVCC CONTROL AND RECORD UPDATE OR WRONG VERSION VALUE
-					if (iVersion > -1) {
-						// MVCC TRANSACTION: CHECK IF VERSION IS THE SAME
-						if (iVersion != ppos.recordVersion)
-							throw new OConcurrentModificationException(
-									"Cannot update record "
-											+ iRid
-											+ " in storage '"
-											+ name
-											+ "' because the version is not the latest. Probably you are updating an old record or it has been modified by another user (db=v"
-											+ ppos.recordVersion + " your=v" + iVersion + ")", iRid, ppos.recordVersion, iVersion);
+				final ODataLocal data = getDataSegmentById(ppos.dataSegmentId);
+
+				// LOCK THE DATA SEGMENT AND READ AGAIN THE POSITION: A CONCURRENT DEFRAG COULD HAVE MOVED THE RECORD IN THE MEANWHILE
+				data.lock();
+				try {
+					iClusterSegment.getPhysicalPosition(ppos);
+
+					// VERSION CONTROL CHECK
+					switch (iVersion) {
+					// DOCUMENT UPDATE, NO VERSION CONTROL
+					case -1:
 						++ppos.recordVersion;
 						iClusterSegment.updateVersion(iRid.clusterPosition, ppos.recordVersion);
-					} else {
-						// DOCUMENT ROLLBACKED
-						ppos.recordVersion = iVersion - Integer.MIN_VALUE;
-						iClusterSegment.updateVersion(iRid.clusterPosition, ppos.recordVersion);
+						break;
+
+					// DOCUMENT UPDATE, NO VERSION CONTROL, NO VERSION UPDATE
+					case -2:
+						break;
+
+					default:
+						// MVCC CONTROL AND RECORD UPDATE OR WRONG VERSION VALUE
+						if (iVersion > -1) {
+							// MVCC TRANSACTION: CHECK IF VERSION IS THE SAME
+							if (iVersion != ppos.recordVersion)
+								throw new OConcurrentModificationException(
+										"Cannot update record "
+												+ iRid
+												+ " in storage '"
+												+ name
+												+ "' because the version is not the latest. Probably you are updating an old record or it has been modified by another user (db=v"
+												+ ppos.recordVersion + " your=v" + iVersion + ")", iRid, ppos.recordVersion, iVersion);
+							++ppos.recordVersion;
+							iClusterSegment.updateVersion(iRid.clusterPosition, ppos.recordVersion);
+						} else {
+							// DOCUMENT ROLLBACKED
+							ppos.recordVersion = iVersion - Integer.MIN_VALUE;
+							iClusterSegment.updateVersion(iRid.clusterPosition, ppos.recordVersion);
+						}
+
 					}
 
-				}
+					if (ppos.recordType != recordType)
+						iClusterSegment.updateRecordType(iRid.clusterPosition, recordType);
 
-				if (ppos.recordType != iRecordType)
-					iClusterSegment.updateRecordType(iRid.clusterPosition, iRecordType);
+					final long newDataSegmentOffset;
+					if (ppos.dataSegmentPos == -1)
+						// WAS EMPTY FIRST TIME, CREATE IT NOW
+						newDataSegmentOffset = data.addRecord(iRid, content);
+					else
+						// UPDATE IT
+						newDataSegmentOffset = data.setRecord(ppos.dataSegmentPos, iRid, content);
 
-				final long newDataSegmentOffset;
-				if (ppos.dataSegmentPos == -1)
-					// WAS EMPTY FIRST TIME, CREATE IT NOW
-					newDataSegmentOffset = getDataSegmentById(ppos.dataSegmentId).addRecord(iRid, iContent);
-				else
-					// UPDATE IT
-					newDataSegmentOffset = getDataSegmentById(ppos.dataSegmentId).setRecord(ppos.dataSegmentPos, iRid, iContent);
+					if (newDataSegmentOffset != ppos.dataSegmentPos)
+						// UPDATE DATA SEGMENT OFFSET WITH THE NEW PHYSICAL POSITION
+						iClusterSegment.updateDataSegmentPosition(ppos.clusterPosition, ppos.dataSegmentId, newDataSegmentOffset);
 
-				if (newDataSegmentOffset != ppos.dataSegmentPos)
-					// UPDATE DATA SEGMENT OFFSET WITH THE NEW PHYSICAL POSITION
-					iClusterSegment.updateDataSegmentPosition(ppos.clusterPosition, ppos.dataSegmentId, newDataSegmentOffset);
+					incrementVersion();
 
-				incrementVersion();
+					ppos.dataSegmentPos = newDataSegmentOffset;
+					ppos.recordType = iRecordType;
+					return ppos;
 
-				ppos.dataSegmentPos = newDataSegmentOffset;
-				return ppos;
+				} finally {
+					data.unlock();
+				}
 
 			} finally {
 				lockManager.releaseLock(Thread.currentThread(), iRid, LOCK.EXCLUSIVE);
@@ -1572,7 +1991,7 @@ public class OStorageLocal extends OStorageEmbedded {
 	protected OPhysicalPosition deleteRecord(final OCluster iClusterSegment, final ORecordId iRid, final int iVersion) {
 		final long timer = OProfiler.getInstance().startChrono();
 
-		lock.acquireExclusiveLock();
+		lock.acquireSharedLock();
 		try {
 
 			lockManager.acquireLock(Thread.currentThread(), iRid, LOCK.EXCLUSIVE);
@@ -1594,10 +2013,20 @@ public class OStorageLocal extends OStorageEmbedded {
 									+ "' because the version is not the latest. Probably you are deleting an old record or it has been modified by another user (db=v"
 									+ ppos.recordVersion + " your=v" + iVersion + ")", iRid, ppos.recordVersion, iVersion);
 
-				if (ppos.dataSegmentPos > -1)
-					getDataSegmentById(ppos.dataSegmentId).deleteRecord(ppos.dataSegmentPos);
+				final ODataLocal data = getDataSegmentById(ppos.dataSegmentId);
 
-				iClusterSegment.removePhysicalPosition(iRid.clusterPosition);
+				// LOCK THE DATA SEGMENT AND READ AGAIN THE POSITION: A CONCURRENT DEFRAG COULD HAVE MOVED THE RECORD IN THE MEANWHILE
+				data.lock();
+				try {
+					iClusterSegment.getPhysicalPosition(ppos);
+
+					if (ppos.dataSegmentPos > -1)
+						data.deleteRecord(ppos.dataSegmentPos);
+
+					iClusterSegment.removePhysicalPosition(iRid.clusterPosition);
+				} finally {
+					data.unlock();
+				}
 
 				incrementVersion();
 
@@ -1611,7 +2040,7 @@ public class OStorageLocal extends OStorageEmbedded {
 			OLogManager.instance().error(this, "Error on deleting record " + iRid + "( cluster: " + iClusterSegment + ")", e);
 
 		} finally {
-			lock.releaseExclusiveLock();
+			lock.releaseSharedLock();
 
 			OProfiler.getInstance().stopChrono(PROFILER_DELETE_RECORD, timer);
 		}
@@ -1619,20 +2048,109 @@ public class OStorageLocal extends OStorageEmbedded {
 		return null;
 	}
 
+	/**
+	 * Reads the record content from the data segment. The defrag of a data segment moves the records of any cluster, so if the chunk
+	 * doesn't belong to the record anymore its position is read again from the cluster. If the position doesn't change the record is
+	 * read again by holding the lock of the data segment, so nobody can move it in the meanwhile.
+	 */
+	private byte[] readRecordContent(final OCluster iClusterSegment, final ORecordId iRid, final OPhysicalPosition iPPos)
+			throws IOException {
+		long lastPosition = -1;
+		while (iPPos.dataSegmentPos > -1) {
+			final ODataLocal data = getDataSegmentById(iPPos.dataSegmentId);
+
+			final byte[] content = data.getRecord(iPPos.dataSegmentPos, iRid);
+			if (content != null)
+				return content;
+
+			if (iPPos.dataSegmentPos == lastPosition)
+				return readRecordContentLocked(iClusterSegment, iRid, iPPos, data);
+
+			lastPosition = iPPos.dataSegmentPos;
+			iClusterSegment.getPhysicalPosition(iPPos);
+
+			if (!checkForRecordValidity(iPPos))
+				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the record content by holding the lock of the data segment. Never returns the content of another record: if the chunk
+	 * still doesn't belong to the record the storage is corrupted.
+	 */
+	private byte[] readRecordContentLocked(final OCluster iClusterSegment, final ORecordId iRid, final OPhysicalPosition iPPos,
+			final ODataLocal iData) throws IOException {
+		iData.lock();
+		try {
+			iClusterSegment.getPhysicalPosition(iPPos);
+
+			if (!checkForRecordValidity(iPPos) || iPPos.dataSegmentPos < 0)
+				return null;
+
+			if (iPPos.dataSegmentId != iData.getId())
+				// MOVED TO ANOTHER DATA SEGMENT: READ IT FROM THERE
+				return readRecordContent(iClusterSegment, iRid, iPPos);
+
+			final byte[] content = iData.getRecord(iPPos.dataSegmentPos, iRid);
+			if (content == null && iData.getRecord(iPPos.dataSegmentPos) != null)
+				throw new OStorageException("Cannot read record " + iRid + " in storage '" + name + "': the chunk at position "
+						+ iPPos.dataSegmentPos + " of data segment " + iData.getId() + " belongs to another record");
+
+			return content;
+
+		} finally {
+			iData.unlock();
+		}
+	}
+
+	/**
+	 * Locks exclusively all the records already existent involved in the transaction. The records are locked in RID order, so two
+	 * transactions sharing some records never wait for each other in a cycle. The locked records are added to iLocked as soon as they
+	 * are locked, so the caller can release them also in case of error.
+	 */
+	private void lockRecords(final OTransaction iTx, final List<ORID> iLocked) {
+		final Set<ORID> rids = new TreeSet<ORID>();
+		// BEFORE THE COMMIT THE ENTRIES ARE STILL IN THE CURRENT ONES
+		collectRecordsToLock(iTx.getCurrentRecordEntries(), rids);
+		collectRecordsToLock(iTx.getAllRecordEntries(), rids);
+
+		for (ORID rid : rids) {
+			lockManager.acquireLock(Thread.currentThread(), rid, LOCK.EXCLUSIVE);
+			iLocked.add(rid);
+		}
+	}
+
+	private void collectRecordsToLock(final Iterable<? extends ORecordOperation> iEntries, final Set<ORID> iRids) {
+		for (ORecordOperation txEntry : iEntries) {
+			if (txEntry.type == ORecordOperation.LOADED)
+				continue;
+
+			final ORID rid = txEntry.record.getIdentity();
+			if (rid.isValid() && !rid.isNew())
+				iRids.add(rid.copy());
+		}
+	}
+
+	private void unlockRecords(final List<ORID> iLocked) {
+		for (ORID rid : iLocked)
+			lockManager.releaseLock(Thread.currentThread(), rid, LOCK.EXCLUSIVE);
+	}
+
 	/***
 	 * Save the version number to disk
 	 * 
 	 * @throws IOException
 	 */
 	private void saveVersion() throws IOException {
-		lock.acquireExclusiveLock();
+		lock.acquireSharedLock();
 		try {
 
 			if (dataSegments.length > 0)
 				dataSegments[0].saveVersion(version.get());
 
 		} finally {
-			lock.releaseExclusiveLock();
+			lock.releaseSharedLock();
 		}
 	}
 
@@ -1655,6 +2173,65 @@ public class OStorageLocal extends OStorageEmbedded {
 		}
 	}
 
+	/**
+	 * Compresses the record content if the cluster has a compression configured.
+	 * 
+	 * @return The content to store prefixed by the compression header, or null if the record must be stored as is because the
+	 *         cluster doesn't compress or the compressed content wouldn't be smaller
+	 */
+	private byte[] compressRecord(final OCluster iClusterSegment, final byte[] iContent) {
+		if (!(iClusterSegment instanceof OClusterLocal) || iContent == null || iContent.length < compressionMinSize)
+			return null;
+
+		final OCompression compression = ((OClusterLocal) iClusterSegment).getCompression();
+		if (compression == null)
+			return null;
+
+		final long timer = OProfiler.getInstance().startChrono();
+		try {
+			final byte[] compressed = compression.compress(iContent, 0, iContent.length);
+			if (compressed == null || compressed.length + COMPRESSION_HEADER >= iContent.length)
+				return null;
+
+			final byte[] result = new byte[COMPRESSION_HEADER + compressed.length];
+			result[0] = compression.getId();
+			OBinaryProtocol.int2bytes(iContent.length, result, OBinaryProtocol.SIZE_BYTE);
+			System.arraycopy(compressed, 0, result, COMPRESSION_HEADER, compressed.length);
+
+			compressionIn.addAndGet(iContent.length);
+			compressionOut.addAndGet(result.length);
+			return result;
+
+		} finally {
+			OProfiler.getInstance().stopChrono(PROFILER_COMPRESS, timer);
+		}
+	}
+
+	/**
+	 * Uncompresses the record content if the record type stored in the cluster has the compressed flag. The compression is read from
+	 * the content, so the records remain readable after the compression of the cluster is changed.
+	 */
+	private byte[] uncompressRecord(final byte iRecordType, final byte[] iContent) {
+		if ((iRecordType & RECORD_COMPRESSED) == 0 || iContent == null)
+			return iContent;
+
+		final long timer = OProfiler.getInstance().startChrono();
+		try {
+			final OCompression compression = OCompressionFactory.instance().getCompression(iContent[0]);
+			final int length = OBinaryProtocol.bytes2int(iContent, OBinaryProtocol.SIZE_BYTE);
+			return compression.uncompress(iContent, COMPRESSION_HEADER, iContent.length - COMPRESSION_HEADER, length);
+		} finally {
+			OProfiler.getInstance().stopChrono(PROFILER_UNCOMPRESS, timer);
+		}
+	}
+
+	/**
+	 * Returns the record type without the compressed flag.
+	 */
+	private static byte getRecordType(final byte iStoredRecordType) {
+		return (byte) (iStoredRecordType & ~RECORD_COMPRESSED);
+	}
+
 	private void installProfilerHooks() {
 		OProfiler.getInstance().registerHookValue("storage." + name + ".data.holes", new OProfilerHookValue() {
 			public Object getValue() {
@@ -1666,6 +2243,13 @@ public class OStorageLocal extends OStorageEmbedded {
 				return getHoleSize();
 			}
 		});
+		OProfiler.getInstance().registerHookValue("storage." + name + ".compression.ratio", new OProfilerHookValue() {
+			public Object getValue() {
+				// PERCENTAGE OF THE SPACE TAKEN BY THE COMPRESSED RECORDS AGAINST THEIR ORIGINAL SIZE
+				final long in = compressionIn.get();
+				return in > 0 ? compressionOut.get() * 100 / in : 100;
+			}
+		});
 	}
 
 	private void formatMessage(final boolean iVerbose, final OCommandOutputListener iListener, final String iMessage,
@@ -0,0 +1,123 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+
+/**
+ * Defrags the data segments of a local storage in background. When the holes of a data segment exceed
+ * "file.defrag.background.threshold" percent of its size, the records are moved to fill the holes in small steps, every one holding
+ * the locks for the time to move "file.defrag.background.maxMove" bytes, until the holes are under the half of the threshold. Every
+ * run lasts at most "file.defrag.background.maxTime" ms. Steps are executed under the commit lock, so the records are never moved
+ * while a transaction is committing.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OStorageLocalDefrag extends TimerTask {
+	private final OStorageLocal	storage;
+	private final int						threshold;
+	private final int						maxMove;
+	private final int						maxTime;
+	private final Set<Integer>	defragging	= new HashSet<Integer>();
+	private final Set<Integer>	failed			= new HashSet<Integer>();
+
+	public OStorageLocalDefrag(final OStorageLocal iStorage) {
+		storage = iStorage;
+		threshold = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_THRESHOLD.getValueAsInteger();
+		maxMove = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_MAX_MOVE.getValueAsInteger();
+		maxTime = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_MAX_TIME.getValueAsInteger();
+	}
+
+	/**
+	 * Schedules the defrag against the storage.
+	 */
+	public OStorageLocalDefrag schedule() {
+		final int interval = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_INTERVAL.getValueAsInteger();
+		Orient.getTimer().schedule(this, interval, interval);
+		return this;
+	}
+
+	@Override
+	public void run() {
+		if (storage.isClosed())
+			return;
+
+		final long deadline = System.currentTimeMillis() + maxTime;
+
+		for (ODataLocal data : storage.getDataSegments()) {
+			if (data == null || failed.contains(data.getId()))
+				continue;
+
+			try {
+				while (System.currentTimeMillis() < deadline && needsDefrag(data))
+					if (!defragStep(data))
+						break;
+
+			} catch (Exception e) {
+				// DON'T RETRY UNTIL THE STORAGE IS REOPENED
+				failed.add(data.getId());
+				OLogManager.instance().error(this,
+						"Error on background defrag of data segment '" + data.getName() + "' of storage '" + storage.getName() + "'", e);
+			}
+
+			if (System.currentTimeMillis() >= deadline)
+				break;
+		}
+	}
+
+	/**
+	 * Tells if the data segment must be defragged. Once started, the defrag continues until the holes are under the half of the
+	 * threshold to avoid to move records for small gains.
+	 */
+	private boolean needsDefrag(final ODataLocal iData) {
+		final int fragmentation = iData.getFragmentation();
+
+		if (defragging.contains(iData.getId())) {
+			if (fragmentation > threshold / 2)
+				return true;
+			defragging.remove(iData.getId());
+			return false;
+		}
+
+		if (fragmentation > threshold) {
+			defragging.add(iData.getId());
+			return true;
+		}
+		return false;
+	}
+
+	private boolean defragStep(final ODataLocal iData) {
+		if (storage.isClosed())
+			return false;
+
+		return storage.callInCommitLock(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				if (storage.isClosed())
+					// CLOSED IN THE MEANWHILE
+					return false;
+				return iData.defrag(maxMove);
+			}
+		});
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.exception.OStorageException;
+
+/**
+ * Groups the synch of concurrent transaction commits. Every transaction applies its changes under the storage commit lock as
+ * usual, but instead of synching all the clusters and data segments by itself it registers against this object and waits. The first
+ * waiting transaction becomes the leader: it waits up to "tx.commit.group.window" ms (or until "tx.commit.group.maxSize"
+ * transactions are pending) and then synchs the storage once for all of them. Only after the synch the TX log is truncated, so until
+ * then the pending transactions remain recoverable. If the TX log is a write-ahead log, only the log is synched for the group.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OStorageLocalGroupCommit {
+	private final OStorageLocal	storage;
+	private final int						window;
+	private final int						maxSize;
+	private final String				PROFILER_SYNCH;
+	private final String				PROFILER_SIZE;
+
+	private long								committed	= 0;
+	private long								synched		= 0;
+	private boolean							synching	= false;
+
+	public OStorageLocalGroupCommit(final OStorageLocal iStorage) {
+		storage = iStorage;
+		window = OGlobalConfiguration.TX_COMMIT_GROUP_WINDOW.getValueAsInteger();
+		maxSize = OGlobalConfiguration.TX_COMMIT_GROUP_MAX_SIZE.getValueAsInteger();
+
+		PROFILER_SYNCH = "storage." + storage.getName() + ".txGroupCommit.synch";
+		PROFILER_SIZE = "storage." + storage.getName() + ".txGroupCommit.size";
+	}
+
+	/**
+	 * Registers a transaction just committed. Must be called by holding the storage commit lock.
+	 *
+	 * @return The commit id to pass to {@link #waitForSynch(long)}
+	 */
+	public synchronized long registerCommit() {
+		++committed;
+
+		if (committed - synched >= maxSize)
+			// WAKE UP THE LEADER
+			notifyAll();
+
+		return committed;
+	}
+
+	/**
+	 * Waits until the commit has been synched on disk. If no other thread is synching, the current thread becomes the leader of the
+	 * group and executes the synch by itself.
+	 */
+	public void waitForSynch(final long iCommitId) {
+		synchronized (this) {
+			while (synched < iCommitId) {
+				if (!synching) {
+					// BECOME THE LEADER
+					synching = true;
+					break;
+				}
+
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new OStorageException("Interrupted while waiting for the group commit of storage '" + storage.getName() + "'", e);
+				}
+			}
+
+			if (synched >= iCommitId)
+				return;
+
+			waitForGroup();
+		}
+
+		synchGroup();
+	}
+
+	/**
+	 * Synchs all the registered transactions not synched yet. Used when the storage is closing: the caller holds the exclusive lock of
+	 * the storage, so no commits can happen and the current leader, if any, is waiting for the lock.
+	 */
+	public void flush() throws IOException {
+		final long last;
+		synchronized (this) {
+			if (synched >= committed)
+				return;
+			last = committed;
+		}
+
+		storage.synchCommitted();
+
+		synchronized (this) {
+			OProfiler.getInstance().updateStat(PROFILER_SIZE, last - synched);
+			synched = last;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for other transactions to join the group. Must be called by holding the monitor.
+	 */
+	private void waitForGroup() {
+		if (window <= 0)
+			return;
+
+		final long deadline = System.currentTimeMillis() + window;
+		long remaining = window;
+		while (remaining > 0 && committed - synched < maxSize) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+	}
+
+	private void synchGroup() {
+		final long timer = OProfiler.getInstance().startChrono();
+
+		long lastSynched = -1;
+		try {
+			lastSynched = storage.callInCommitLock(new Callable<Long>() {
+				public Long call() throws Exception {
+					// NO COMMITS CAN HAPPEN WHILE THE COMMIT LOCK IS HELD: ALL THE LOG ENTRIES BELONG TO REGISTERED TRANSACTIONS
+					final long last;
+					synchronized (OStorageLocalGroupCommit.this) {
+						if (synched >= committed)
+							// ALREADY SYNCHED BY flush()
+							return synched;
+						last = committed;
+					}
+
+					storage.synchCommitted();
+					return last;
+				}
+			});
+
+		} finally {
+			synchronized (this) {
+				if (lastSynched > synched) {
+					OProfiler.getInstance().updateStat(PROFILER_SIZE, lastSynched - synched);
+					synched = lastSynched;
+				}
+				synching = false;
+				notifyAll();
+			}
+
+			OProfiler.getInstance().stopChrono(PROFILER_SYNCH, timer);
+		}
+	}
+}
@@ -38,7 +38,8 @@ import com.orientechnologies.orient.core.tx.OTxListener;
 public class OStorageLocalTxExecuter {
 	private final OStorageLocal	storage;
 	private final OTxSegment		txSegment;
-	private OTransaction				currentTransaction;
+	// TRANSACTION COMMITTED BY THE CURRENT THREAD: MORE TRANSACTIONS CAN BE COMMITTED CONCURRENTLY
+	private final ThreadLocal<OTransaction>	currentTransaction	= new ThreadLocal<OTransaction>();
 
 	public OStorageLocalTxExecuter(final OStorageLocal iStorage, final OStorageTxConfiguration iConfig) throws IOException {
 		storage = iStorage;
@@ -64,11 +65,19 @@ public class OStorageLocalTxExecuter {
 			final ORecordId iRid, final byte[] iContent, final byte iRecordType) {
 		iRid.clusterPosition = -1;
 
+		if (iContent == null)
+			throw new IllegalArgumentException("Record is null");
+
 		try {
-			final OPhysicalPosition ppos = storage.createRecord(iDataSegment, iClusterSegment, iContent, iRecordType, iRid);
+			// RESERVE THE POSITION IN THE CLUSTER, THEN SAVE INTO THE LOG THE CREATION AND ONLY AT THE END STORE THE CONTENT. IF TX FAILS
+			// BEFORE THE LOG IS WRITTEN AN EMPTY ENTRY IS LEFT IN THE CLUSTER
+			final OPhysicalPosition ppos = storage.allocateRecord(iDataSegment, iClusterSegment, iRecordType, iRid);
+
+			txSegment.addLog(OTxSegment.OPERATION_CREATE, iTxId, iRid.clusterId, iRid.clusterPosition, iRecordType, 0, null,
+					ppos.recordVersion, iContent);
 
-			// SAVE INTO THE LOG THE POSITION OF THE RECORD JUST CREATED. IF TX FAILS AT THIS POINT A GHOST RECORD IS CREATED UNTIL DEFRAG
-			txSegment.addLog(OTxSegment.OPERATION_CREATE, iTxId, iRid.clusterId, iRid.clusterPosition, iRecordType, 0, null);
+			// NO VERSION CONTROL, NO VERSION UPDATE: THE VERSION HAS BEEN ASSIGNED BY THE CLUSTER
+			storage.updateRecord(iClusterSegment, iRid, iContent, -2, iRecordType);
 
 			return ppos;
 		} catch (IOException e) {
@@ -96,10 +105,16 @@ public class OStorageLocalTxExecuter {
 		try {
 			// READ CURRENT RECORD CONTENT
 			final ORawBuffer buffer = storage.readRecord(iClusterSegment, iRid, false);
+			if (buffer == null)
+				// DELETED
+				return -1;
+
+			// VERSION AFTER THE UPDATE, SEE OStorageLocal.updateRecord()
+			final int newVersion = iVersion == -2 ? buffer.version : iVersion < -2 ? iVersion - Integer.MIN_VALUE : buffer.version + 1;
 
 			// SAVE INTO THE LOG THE POSITION OF THE OLD RECORD JUST DELETED. IF TX FAILS AT THIS POINT AS ABOVE
 			txSegment.addLog(OTxSegment.OPERATION_UPDATE, iTxId, iRid.clusterId, iRid.clusterPosition, iRecordType, buffer.version,
-					buffer.buffer);
+					buffer.buffer, newVersion, iContent);
 
 			final OPhysicalPosition ppos = storage.updateRecord(iClusterSegment, iRid, iContent, iVersion, iRecordType);
 			if (ppos != null)
@@ -121,6 +136,9 @@ public class OStorageLocalTxExecuter {
 
 			// READ CURRENT RECORD CONTENT
 			final ORawBuffer buffer = storage.readRecord(iClusterSegment, rid, false);
+			if (buffer == null)
+				// ALREADY DELETED
+				return false;
 
 			// SAVE INTO THE LOG THE OLD RECORD
 			txSegment.addLog(OTxSegment.OPERATION_DELETE, iTxId, iClusterSegment.getId(), iPosition, buffer.recordType, buffer.version,
@@ -141,7 +159,7 @@ public class OStorageLocalTxExecuter {
 	}
 
 	public void commitAllPendingRecords(final OTransaction iTx) throws IOException {
-		currentTransaction = iTx;
+		currentTransaction.set(iTx);
 		try {
 			// COPY ALL THE ENTRIES IN SEPARATE COLLECTION SINCE DURING THE COMMIT PHASE SOME NEW ENTRIES COULD BE CREATED AND
 			// CONCURRENT-EXCEPTION MAY OCCURS
@@ -163,10 +181,18 @@ public class OStorageLocalTxExecuter {
 			// UPDATE THE CACHE ONLY IF THE ITERATOR ALLOWS IT
 			OTransactionAbstract.updateCacheFromEntries(storage, iTx, iTx.getAllRecordEntries(), true);
 		} finally {
-			currentTransaction = null;
+			currentTransaction.remove();
 		}
 	}
 
+	/**
+	 * Marks the transaction as committed in the log. Used only when the log is a write-ahead log: since the log is not emptied at
+	 * every commit, on restart this entry tells the transactions to redo from the ones to undo.
+	 */
+	public void commitLogEntries(final OTransaction iTx) throws IOException {
+		txSegment.addCommit(iTx.getId());
+	}
+
 	public void clearLogEntries(final OTransaction iTx) throws IOException {
 		// CLEAR ALL TEMPORARY RECORDS
 		txSegment.clearLogEntries(iTx.getId());
@@ -292,11 +318,18 @@ public class OStorageLocalTxExecuter {
 			((OTxListener) txEntry.getRecord()).onEvent(txEntry, OTxListener.EVENT.AFTER_COMMIT);
 	}
 
+	/**
+	 * Returns true if the current thread is committing a transaction. Since the storage lock is shared during the commit, other threads
+	 * can work against the storage in the meanwhile.
+	 */
 	public boolean isCommitting() {
-		return currentTransaction != null;
+		return currentTransaction.get() != null;
 	}
 
+	/**
+	 * Returns the transaction committed by the current thread, if any.
+	 */
 	public OTransaction getCurrentTransaction() {
-		return currentTransaction;
+		return currentTransaction.get();
 	}
 }
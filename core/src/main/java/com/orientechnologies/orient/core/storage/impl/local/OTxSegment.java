@@ -16,14 +16,21 @@
 package com.orientechnologies.orient.core.storage.impl.local;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageTxConfiguration;
+import com.orientechnologies.orient.core.exception.OStorageException;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
+import com.orientechnologies.orient.core.storage.OCluster;
 import com.orientechnologies.orient.core.storage.OPhysicalPosition;
 import com.orientechnologies.orient.core.tx.OTransaction;
 
@@ -31,20 +38,51 @@ import com.orientechnologies.orient.core.tx.OTransaction;
  * Handles the records that wait to be committed. This class is not synchronized because the caller is responsible of it.<br/>
  * Uses the classic IO API and NOT the MMAP to avoid the buffer is not buffered by OS.<br/>
  * <br/>
- * Record structure:<br/>
+ * The entries have two formats, the one used by the file is stored in its header and is changed only when the file is empty, after
+ * the recovery, so a log written with the other format is always read correctly.<br/>
+ * <br/>
+ * Record structure of the legacy format, used if "tx.log.wal" is false:<br/>
  * <code>
  * +-----------------------------------------------------------------------------------------+--------------------+<br/>
- * | .................... FIXED SIZE AREA = 24 bytes ....................................... | VARIABLE SIZE AREA |<br/>
+ * | .................... FIXED SIZE AREA = 25 bytes ....................................... | VARIABLE SIZE AREA |<br/>
  * +--------+--------+---------+------------+----------------+--------+--------+-------------+--------------------+<br/>
  * | STATUS | OPERAT | TX ID . | CLUSTER ID | CLUSTER OFFSET | TYPE . |VERSION | RECORD SIZE | RECORD CONTENT ... |<br/>
  * | 1 byte | 1 byte | 4 bytes | 2 bytes .. | 8 bytes ...... | 1 byte |4 bytes | 4 bytes ... | ? bytes .......... |<br/>
  * +--------+--------|---------+------------+----------------+--------+--------+-------------+--------------------+<br/>
  * > 25 bytes
  * </code><br/>
+ * Record structure of the write-ahead log format, used if "tx.log.wal" is true:<br/>
+ * <code>
+ * +-------------------------------------------------------------------------------------------------------------------------------+--------------------------------------+<br/>
+ * | .................................................. FIXED SIZE AREA = 41 bytes .................................................. | VARIABLE SIZE AREA ................. |<br/>
+ * +--------+--------+---------+---------+------------+----------------+--------+---------+--------------+-------------+-----------+----------------+---------------------+<br/>
+ * | STATUS | OPERAT | LSN ... | TX ID . | CLUSTER ID | CLUSTER OFFSET | TYPE . | VERSION | REDO VERSION | RECORD SIZE | REDO SIZE | RECORD CONTENT | REDO CONTENT ...... |<br/>
+ * | 1 byte | 1 byte | 8 bytes | 4 bytes | 2 bytes .. | 8 bytes ...... | 1 byte | 4 bytes | 4 bytes .... | 4 bytes ... | 4 bytes . | ? bytes ...... | ? bytes ........... |<br/>
+ * +--------+--------+---------+---------+------------+----------------+--------+---------+--------------+-------------+-----------+----------------+---------------------+<br/>
+ * > 41 bytes
+ * </code><br/>
+ * Every entry has a Log Sequence Number (LSN), a number that always grows. The RECORD CONTENT and VERSION
+ * are the image of the record before the change, used to undo it, while REDO CONTENT and REDO VERSION are the image after the
+ * change.<br/>
+ * <br/>
+ * The entries are written before the change they describe: the CREATE entry is written after the position in the cluster has been
+ * reserved and before the content is stored.<br/>
+ * <br/>
  * At commit time all the changes are written in the TX log file with status = STATUS_COMMITTING. Once all records have been
  * written, then the status of all the records is changed in STATUS_FREE. If a transactions has at least a STATUS_FREE means that
  * has been successfully committed. This is the reason why on startup all the pending transactions will be recovered, but those with
- * at least one record with status = STATUS_FREE.
+ * at least one record with status = STATUS_FREE.<br/>
+ * <br/>
+ * If "tx.log.wal" is true the segment works as write-ahead log: at the end of the transaction an OPERATION_COMMIT entry is appended
+ * and only the log is synched, so clusters and data segments are written without synch. The log is emptied only at checkpoint,
+ * after the storage has been synched. On startup the committed transactions are redone in LSN order, then the uncommitted ones are
+ * undone in reverse order.<br/>
+ * <br/>
+ * Since clusters and data segments could have been written only partially before a crash, the recovery never reads the chunks of
+ * the records it restores: the image in the log is stored in a new chunk and the whole cluster entry is written again.<br/>
+ * <br/>
+ * In write-ahead log mode also the changes made out of transactions are logged, each one as a transaction of one entry with a
+ * negative id: the redo of a committed transaction must not overwrite the changes made after it.
  */
 public class OTxSegment extends OSingleFileSegment {
 	public static final byte	STATUS_FREE						= 0;
@@ -53,17 +91,50 @@ public class OTxSegment extends OSingleFileSegment {
 	public static final byte	OPERATION_CREATE			= 0;
 	public static final byte	OPERATION_DELETE			= 1;
 	public static final byte	OPERATION_UPDATE			= 2;
+	public static final byte	OPERATION_COMMIT			= 3;
+	public static final byte	OPERATION_CHECKPOINT	= 4;
+
+	public static final long	FORMAT_LEGACY					= 0;
+	public static final long	FORMAT_WAL						= 1;
 
 	private static final int	DEF_START_SIZE				= 262144;
 
-	private static final int	OFFSET_TX_ID					= 2;
-	private static final int	OFFSET_RECORD_SIZE		= 21;
-	private static final int	OFFSET_RECORD_CONTENT	= 25;
+	// POSITION OF THE FORMAT IN THE FILE HEADER
+	private static final int	HEADER_FORMAT					= 0;
+
+	private static final int	OFFSET_OPERATION			= 1;
+
+	// OFFSETS OF THE LEGACY FORMAT
+	private static final int	LEGACY_TX_ID					= 2;
+	private static final int	LEGACY_RECORD_SIZE		= 21;
+	private static final int	LEGACY_RECORD_CONTENT	= 25;
+
+	// OFFSETS OF THE WRITE-AHEAD LOG FORMAT
+	private static final int	WAL_LSN								= 2;
+	private static final int	WAL_TX_ID							= 10;
+	private static final int	WAL_RECORD_SIZE				= 33;
+	private static final int	WAL_REDO_SIZE					= 37;
+	private static final int	WAL_RECORD_CONTENT		= 41;
+
 	private final boolean			synchEnabled;
+	private final boolean			writeAheadLog;
+	private final long				checkpointInterval;
+	private final int					checkpointSize;
+
+	private long							format								= FORMAT_LEGACY;
+	private long							lsn										= 0;
+	private long							lastCheckpoint				= System.currentTimeMillis();
+	private final AtomicInteger	nonTxSerial						= new AtomicInteger();
+
+	// OFFSETS OF THE ENTRIES OF THE TRANSACTIONS NOT CLEARED YET, TO CLEAR THEM WHILE OTHER TRANSACTIONS ARE COMMITTING
+	private final Map<Integer, List<Long>>	pendingEntries				= new HashMap<Integer, List<Long>>();
 
 	public OTxSegment(final OStorageLocal iStorage, final OStorageTxConfiguration iConfig) throws IOException {
 		super(iStorage, iConfig, OGlobalConfiguration.TX_LOG_TYPE.getValueAsString());
 		synchEnabled = OGlobalConfiguration.TX_LOG_SYNCH.getValueAsBoolean();
+		writeAheadLog = OGlobalConfiguration.TX_LOG_WAL.getValueAsBoolean();
+		checkpointInterval = OGlobalConfiguration.TX_LOG_CHECKPOINT_INTERVAL.getValueAsLong();
+		checkpointSize = OGlobalConfiguration.TX_LOG_CHECKPOINT_SIZE.getValueAsInteger();
 	}
 
 	/**
@@ -77,9 +148,21 @@ public class OTxSegment extends OSingleFileSegment {
 			// IGNORE IF IT'S SOFTLY CLOSED
 			super.open();
 
+			// READ THE ENTRIES WITH THE FORMAT THEY HAVE BEEN WRITTEN, THE FILES CREATED BEFORE THE FORMAT WAS STORED HAVE 0 = LEGACY
+			format = file.readHeaderLong(HEADER_FORMAT);
+			if (format != FORMAT_LEGACY && format != FORMAT_WAL)
+				throw new OStorageException("Unsupported format " + format + " of the transaction log " + file);
+
 			// CHECK FOR PENDING TRANSACTION ENTRIES TO RECOVER
 			recoverTransactions();
 
+			// THE FILE IS EMPTY NOW: SWITCH TO THE FORMAT OF THE CURRENT MODE
+			setFormat(writeAheadLog ? FORMAT_WAL : FORMAT_LEGACY);
+
+			if (writeAheadLog)
+				// KEEP THE LSN SEQUENCE ACROSS RESTARTS
+				addCheckpoint();
+
 			return true;
 
 		} finally {
@@ -90,252 +173,594 @@ public class OTxSegment extends OSingleFileSegment {
 	@Override
 	public void create(final int iStartSize) throws IOException {
 		super.create(iStartSize > -1 ? iStartSize : DEF_START_SIZE);
+		setFormat(writeAheadLog ? FORMAT_WAL : FORMAT_LEGACY);
 	}
 
 	/**
-	 * Appends a log entry
+	 * Appends a log entry with the image of the record before the change.
 	 */
-	public void addLog(final byte iOperation, final int iTxId, final int iClusterId, final long iClusterOffset,
+	public long addLog(final byte iOperation, final int iTxId, final int iClusterId, final long iClusterOffset,
 			final byte iRecordType, final int iRecordVersion, final byte[] iRecordContent) throws IOException {
+		return addLog(iOperation, iTxId, iClusterId, iClusterOffset, iRecordType, iRecordVersion, iRecordContent, -1, null);
+	}
 
-		final int contentSize = iRecordContent != null ? iRecordContent.length : 0;
-
+	/**
+	 * Appends a log entry with the images of the record before and after the change.
+	 * 
+	 * @return The LSN of the entry
+	 */
+	public long addLog(final byte iOperation, final int iTxId, final int iClusterId, final long iClusterOffset,
+			final byte iRecordType, final int iRecordVersion, final byte[] iRecordContent, final int iRedoVersion,
+			final byte[] iRedoContent) throws IOException {
 		acquireExclusiveLock();
 		try {
-			final int size = OFFSET_RECORD_CONTENT + contentSize;
-
-			int offset = file.allocateSpace(size);
+			final long entryLsn = writeEntry(STATUS_COMMITTING, iOperation, iTxId, iClusterId, iClusterOffset, iRecordType,
+					iRecordVersion, iRecordContent, iRedoVersion, iRedoContent);
 
-			file.writeByte(offset, STATUS_COMMITTING);
-			offset += OBinaryProtocol.SIZE_BYTE;
-
-			file.writeByte(offset, iOperation);
-			offset += OBinaryProtocol.SIZE_BYTE;
+			if (synchEnabled)
+				file.synch();
 
-			file.writeInt(offset, iTxId);
-			offset += OBinaryProtocol.SIZE_INT;
+			return entryLsn;
 
-			file.writeShort(offset, (short) iClusterId);
-			offset += OBinaryProtocol.SIZE_SHORT;
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
 
-			file.writeLong(offset, iClusterOffset);
-			offset += OBinaryProtocol.SIZE_LONG;
+	/**
+	 * Appends the entry that marks the transaction as committed. Used only in write-ahead log mode.
+	 * 
+	 * @return The LSN of the entry
+	 */
+	public long addCommit(final int iTxId) throws IOException {
+		return addLog(OPERATION_COMMIT, iTxId, -1, -1, (byte) 0, -1, null);
+	}
 
-			file.writeByte(offset, iRecordType);
-			offset += OBinaryProtocol.SIZE_BYTE;
+	/**
+	 * Synchs the log file to the disk.
+	 */
+	public void synch() throws IOException {
+		acquireExclusiveLock();
+		try {
+			file.synch();
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
 
-			file.writeInt(offset, iRecordVersion);
-			offset += OBinaryProtocol.SIZE_INT;
+	/**
+	 * Empties the log. Must be called only after all the clusters and data segments have been synched, since the log entries are not
+	 * needed anymore to recover them.
+	 */
+	public void checkpoint() throws IOException {
+		acquireExclusiveLock();
+		try {
+			pendingEntries.clear();
+			file.shrink(0);
+			nonTxSerial.set(0);
+			addCheckpoint();
+			file.synch();
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
 
-			file.writeInt(offset, contentSize);
-			offset += OBinaryProtocol.SIZE_INT;
+	/**
+	 * Tells if the log is big or old enough to need a checkpoint. Always false if the log is not used as write-ahead log, because in
+	 * this case it's emptied at every commit.
+	 */
+	public boolean isCheckpointNeeded() {
+		return writeAheadLog
+				&& (file.getFilledUpTo() >= checkpointSize || System.currentTimeMillis() - lastCheckpoint >= checkpointInterval);
+	}
 
-			file.write(offset, iRecordContent);
-			offset += contentSize;
+	public boolean isWriteAheadLog() {
+		return writeAheadLog;
+	}
 
-			if (synchEnabled)
-				file.synch();
+	/**
+	 * Returns the format of the entries in the file: FORMAT_LEGACY or FORMAT_WAL.
+	 */
+	public long getFormat() {
+		return format;
+	}
 
-		} finally {
-			releaseExclusiveLock();
-		}
+	/**
+	 * Returns the last LSN assigned.
+	 */
+	public long getLSN() {
+		return lsn;
 	}
 
 	/**
-	 * Clears the entire file.
+	 * Clears the entries of the transaction. If no other transaction has entries in the log the entire file is emptied, otherwise the
+	 * entries are only marked with STATUS_FREE, so they are not recovered, and the file is emptied by the last transaction.
 	 * 
-	 * @param iReqId
-	 *          The id of requester
 	 * @param iTxId
 	 *          The id of transaction
 	 * 
 	 * @throws IOException
 	 */
 	public void clearLogEntries(final int iTxId) throws IOException {
-		truncate();
+		acquireExclusiveLock();
+		try {
+			final List<Long> entries = pendingEntries.remove(iTxId);
+
+			if (pendingEntries.isEmpty())
+				truncate();
+			else if (entries != null)
+				for (Long offset : entries)
+					file.writeByte(offset, STATUS_FREE);
+
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
+
+	@Override
+	public void truncate() throws IOException {
+		acquireExclusiveLock();
+		try {
+			pendingEntries.clear();
+			super.truncate();
+		} finally {
+			releaseExclusiveLock();
+		}
 	}
 
 	public void rollback(final OTransaction iTx) throws IOException {
-		recoverTransaction(iTx.getId());
+		rollback(iTx.getId());
 	}
 
-	private void recoverTransactions() throws IOException {
-		if (file.getFilledUpTo() == 0)
-			return;
+	/**
+	 * Undoes the changes logged with the id, used also for the changes made out of transactions.
+	 */
+	public void rollback(final int iTxId) throws IOException {
+		acquireExclusiveLock();
+		try {
+			recoverTransaction(iTxId);
+		} finally {
+			releaseExclusiveLock();
+		}
+	}
 
-		OLogManager.instance().debug(this, "Started the recovering of pending transactions after a hard shutdown. Scanning...");
+	/**
+	 * Returns the id to log a change made out of transactions with. The ids are negative to not clash with the ids of the transactions
+	 * and -1 is left to the checkpoint entries. They restart at every checkpoint, that must be executed with no changes in progress.
+	 */
+	public int nextNonTxId() {
+		return -2 - nonTxSerial.getAndIncrement();
+	}
 
-		int recoveredTxs = 0;
-		int recoveredRecords = 0;
-		int recs;
+	/**
+	 * Stores the format in the header and synchs it before any entry is written with it. Must be called with the file empty.
+	 */
+	private void setFormat(final long iFormat) throws IOException {
+		if (file.readHeaderLong(HEADER_FORMAT) != iFormat) {
+			file.writeHeaderLong(HEADER_FORMAT, iFormat);
+			file.synch();
+		}
+		format = iFormat;
+	}
 
-		final Set<Integer> txToRecover = scanForTransactionsToRecover();
-		for (Integer txId : txToRecover) {
-			recs = recoverTransaction(txId);
+	private void addCheckpoint() throws IOException {
+		writeEntry(STATUS_FREE, OPERATION_CHECKPOINT, -1, -1, -1, (byte) 0, -1, null, -1, null);
+		lastCheckpoint = System.currentTimeMillis();
+	}
 
-			if (recs > 0) {
-				recoveredTxs++;
-				recoveredRecords += recs;
-			}
+	/**
+	 * Writes the entry with only one write operation at the end of the file. Must be called by holding the exclusive lock.
+	 */
+	private long writeEntry(final byte iStatus, final byte iOperation, final int iTxId, final int iClusterId,
+			final long iClusterOffset, final byte iRecordType, final int iRecordVersion, final byte[] iRecordContent,
+			final int iRedoVersion, final byte[] iRedoContent) throws IOException {
+		final boolean wal = format == FORMAT_WAL;
+		final int contentSize = iRecordContent != null ? iRecordContent.length : 0;
+		final int redoSize = wal && iRedoContent != null ? iRedoContent.length : 0;
+
+		final byte[] entry = new byte[getRecordContentOffset() + contentSize + redoSize];
+		final long entryLsn = ++lsn;
+
+		int offset = 0;
+		entry[offset] = iStatus;
+		offset += OBinaryProtocol.SIZE_BYTE;
+
+		entry[offset] = iOperation;
+		offset += OBinaryProtocol.SIZE_BYTE;
+
+		if (wal) {
+			OBinaryProtocol.long2bytes(entryLsn, entry, offset);
+			offset += OBinaryProtocol.SIZE_LONG;
 		}
 
-		// EMPTY THE FILE
-		file.shrink(0);
+		OBinaryProtocol.int2bytes(iTxId, entry, offset);
+		offset += OBinaryProtocol.SIZE_INT;
 
-		if (recoveredRecords > 0) {
-			OLogManager.instance().warn(this, "Recovering successfully completed:");
-			OLogManager.instance().warn(this, "- Recovered Tx.....: " + recoveredTxs);
-			OLogManager.instance().warn(this, "- Recovered Records: " + recoveredRecords);
-		} else
-			OLogManager.instance().debug(this, "Recovering successfully completed: no pending tx records found.");
+		OBinaryProtocol.short2bytes((short) iClusterId, entry, offset);
+		offset += OBinaryProtocol.SIZE_SHORT;
+
+		OBinaryProtocol.long2bytes(iClusterOffset, entry, offset);
+		offset += OBinaryProtocol.SIZE_LONG;
+
+		entry[offset] = iRecordType;
+		offset += OBinaryProtocol.SIZE_BYTE;
+
+		OBinaryProtocol.int2bytes(iRecordVersion, entry, offset);
+		offset += OBinaryProtocol.SIZE_INT;
+
+		if (wal) {
+			OBinaryProtocol.int2bytes(iRedoVersion, entry, offset);
+			offset += OBinaryProtocol.SIZE_INT;
+		}
+
+		OBinaryProtocol.int2bytes(contentSize, entry, offset);
+		offset += OBinaryProtocol.SIZE_INT;
+
+		if (wal) {
+			OBinaryProtocol.int2bytes(redoSize, entry, offset);
+			offset += OBinaryProtocol.SIZE_INT;
+		}
 
+		if (contentSize > 0) {
+			System.arraycopy(iRecordContent, 0, entry, offset, contentSize);
+			offset += contentSize;
+		}
+
+		if (redoSize > 0)
+			System.arraycopy(iRedoContent, 0, entry, offset, redoSize);
+
+		final long entryOffset = file.allocateSpace(entry.length);
+		file.write(entryOffset, entry);
+
+		if (!writeAheadLog && iTxId > -1) {
+			List<Long> entries = pendingEntries.get(iTxId);
+			if (entries == null) {
+				entries = new ArrayList<Long>();
+				pendingEntries.put(iTxId, entries);
+			}
+			entries.add(entryOffset);
+		}
+
+		return entryLsn;
 	}
 
-	/**
-	 * Scans the segment and returns the set of transactions ids to recover.
-	 */
-	private Set<Integer> scanForTransactionsToRecover() throws IOException {
-		// SCAN ALL THE FILE SEARCHING FOR THE TRANSACTIONS TO RECOVER
-		final Set<Integer> txToRecover = new HashSet<Integer>();
+	private void recoverTransactions() throws IOException {
+		if (file.getFilledUpTo() == 0)
+			return;
 
+		OLogManager.instance().debug(this, "Started the recovering of pending transactions after a hard shutdown. Scanning...");
+
+		// SCAN ALL THE FILE SEARCHING FOR THE TRANSACTIONS TO RECOVER
+		final List<Long> entries = new ArrayList<Long>();
+		final Set<Integer> txToUndo = new HashSet<Integer>();
+		final Set<Integer> txToRedo = new HashSet<Integer>();
 		final Set<Integer> txToNotRecover = new HashSet<Integer>();
 
-		// BROWSE ALL THE ENTRIES
 		for (long offset = 0; eof(offset); offset = nextEntry(offset)) {
-			// READ STATUS
 			final byte status = file.readByte(offset);
+			final byte operation = file.readByte(offset + OFFSET_OPERATION);
+			final int txId = file.readInt(offset + getTxIdOffset());
 
-			// READ TX-ID
-			final int txId = file.readInt(offset + OFFSET_TX_ID);
+			if (format == FORMAT_WAL)
+				lsn = Math.max(lsn, file.readLong(offset + WAL_LSN));
 
-			switch (status) {
-			case STATUS_FREE:
-				// NOT RECOVER IT SINCE IF FIND AT LEAST ONE "FREE" STATUS MEANS THAT ALL THE LOGS WAS COMMITTED BUT THE USER DIDN'T
-				// RECEIVED THE ACK
-				txToNotRecover.add(txId);
+			switch (operation) {
+			case OPERATION_CHECKPOINT:
 				break;
 
-			case STATUS_COMMITTING:
-				// TO RECOVER UNLESS THE REQ/TX IS IN THE MAP txToNotRecover
-				txToRecover.add(txId);
+			case OPERATION_COMMIT:
+				// THE TRANSACTION WAS COMMITTED BUT THE CHANGES COULD BE NOT SYNCHED YET: REDO IT
+				txToRedo.add(txId);
 				break;
+
+			default:
+				entries.add(offset);
+
+				if (status == STATUS_FREE)
+					// NOT RECOVER IT SINCE IF FIND AT LEAST ONE "FREE" STATUS MEANS THAT ALL THE LOGS WAS COMMITTED BUT THE USER DIDN'T
+					// RECEIVED THE ACK
+					txToNotRecover.add(txId);
+				else
+					txToUndo.add(txId);
 			}
 		}
 
-		if (txToNotRecover.size() > 0)
-			// FILTER THE TX MAP TO RECOVER BY REMOVING THE TX WITH AT LEAST ONE "FREE" STATUS
-			txToRecover.removeAll(txToNotRecover);
+		txToUndo.removeAll(txToRedo);
+		txToUndo.removeAll(txToNotRecover);
+		txToRedo.removeAll(txToNotRecover);
+
+		final OPhysicalPosition ppos = new OPhysicalPosition();
+
+		// REDO THE COMMITTED TRANSACTIONS IN THE SAME ORDER THEY HAVE BEEN LOGGED
+		int redoneRecords = 0;
+		for (Long offset : entries)
+			if (txToRedo.contains(file.readInt(offset + getTxIdOffset()))) {
+				recoverEntry(offset, true, true, ppos);
+				redoneRecords++;
+			}
+
+		// UNDO THE UNCOMMITTED TRANSACTIONS IN REVERSE ORDER: WITH GROUP COMMIT MORE TRANSACTIONS COULD HAVE CHANGED THE SAME RECORDS
+		int recoveredRecords = 0;
+		for (int i = entries.size() - 1; i > -1; --i)
+			if (txToUndo.contains(file.readInt(entries.get(i) + getTxIdOffset()))) {
+				recoverEntry(entries.get(i), false, true, ppos);
+				recoveredRecords++;
+			}
+
+		if (redoneRecords + recoveredRecords > 0)
+			// MAKE THE RECOVERED CHANGES DURABLE BEFORE TO DISCARD THE LOG
+			storage.synch();
+
+		// EMPTY THE FILE
+		file.shrink(0);
+
+		if (redoneRecords + recoveredRecords > 0) {
+			OLogManager.instance().warn(this, "Recovering successfully completed:");
+			OLogManager.instance().warn(this, "- Redone Tx........: " + txToRedo.size());
+			OLogManager.instance().warn(this, "- Redone Records...: " + redoneRecords);
+			OLogManager.instance().warn(this, "- Recovered Tx.....: " + txToUndo.size());
+			OLogManager.instance().warn(this, "- Recovered Records: " + recoveredRecords);
+		} else
+			OLogManager.instance().debug(this, "Recovering successfully completed: no pending tx records found.");
 
-		return txToRecover;
 	}
 
 	/**
-	 * Recover a transaction.
+	 * Recover a transaction by undoing its changes in reverse order.
 	 * 
-	 * @param iReqId
 	 * @param iTxId
 	 * @return Number of records recovered
 	 * 
 	 * @throws IOException
 	 */
 	private int recoverTransaction(final int iTxId) throws IOException {
-		final OPhysicalPosition ppos = new OPhysicalPosition();
-
-		int recordsRecovered = 0;
-		final ORecordId rid = new ORecordId();
+		final List<Long> entries = new ArrayList<Long>();
 
 		// BROWSE ALL THE ENTRIES
-		for (long beginEntry = 0; eof(beginEntry); beginEntry = nextEntry(beginEntry)) {
-			long offset = beginEntry;
-
+		for (long offset = 0; eof(offset); offset = nextEntry(offset)) {
 			final byte status = file.readByte(offset);
-			offset += OBinaryProtocol.SIZE_BYTE;
+			final byte operation = file.readByte(offset + OFFSET_OPERATION);
 
-			if (status != STATUS_FREE) {
+			if (status != STATUS_FREE && operation != OPERATION_COMMIT && file.readInt(offset + getTxIdOffset()) == iTxId)
 				// DIRTY TX LOG ENTRY
-				final byte operation = file.readByte(offset);
-				offset += OBinaryProtocol.SIZE_BYTE;
+				entries.add(offset);
+		}
 
-				final int txId = file.readInt(offset);
+		final OPhysicalPosition ppos = new OPhysicalPosition();
+		for (int i = entries.size() - 1; i > -1; --i) {
+			recoverEntry(entries.get(i), false, false, ppos);
 
-				if (txId == iTxId) {
-					// TX ID FOUND
-					offset += OBinaryProtocol.SIZE_INT;
+			// CLEAR THE ENTRY BY WRITING '0'
+			file.writeByte(entries.get(i), STATUS_FREE);
+		}
 
-					rid.clusterId = file.readShort(offset);
-					offset += OBinaryProtocol.SIZE_SHORT;
+		return entries.size();
+	}
 
-					rid.clusterPosition = file.readLong(offset);
-					offset += OBinaryProtocol.SIZE_LONG;
+	/**
+	 * Reads the log entry and undoes or redoes it.
+	 * 
+	 * @param iAfterCrash
+	 *          true if the entry is recovered at open, when the chunks of the records could have been written only partially
+	 */
+	private void recoverEntry(final long iOffset, final boolean iRedo, final boolean iAfterCrash, final OPhysicalPosition ppos)
+			throws IOException {
+		final boolean wal = format == FORMAT_WAL;
+		long offset = iOffset;
 
-					final byte recordType = file.readByte(offset);
-					offset += OBinaryProtocol.SIZE_BYTE;
+		final byte status = file.readByte(offset);
+		offset += OBinaryProtocol.SIZE_BYTE;
 
-					final int recordVersion = file.readInt(offset);
-					offset += OBinaryProtocol.SIZE_INT;
+		final byte operation = file.readByte(offset);
+		offset += OBinaryProtocol.SIZE_BYTE;
 
-					final int recordSize = file.readInt(offset);
-					offset += OBinaryProtocol.SIZE_INT;
+		final long entryLsn;
+		if (wal) {
+			entryLsn = file.readLong(offset);
+			offset += OBinaryProtocol.SIZE_LONG;
+		} else
+			entryLsn = -1;
 
-					final byte[] buffer;
-					if (recordSize > 0) {
-						buffer = new byte[recordSize];
-						file.read(offset, buffer, recordSize);
-						offset += recordSize;
-					} else
-						buffer = null;
+		final int txId = file.readInt(offset);
+		offset += OBinaryProtocol.SIZE_INT;
 
-					recoverTransactionEntry(status, operation, txId, rid, recordType, recordVersion, buffer, ppos);
-					recordsRecovered++;
+		final ORecordId rid = new ORecordId();
+		rid.clusterId = file.readShort(offset);
+		offset += OBinaryProtocol.SIZE_SHORT;
 
-					// CLEAR THE ENTRY BY WRITING '0'
-					file.writeByte(beginEntry, STATUS_FREE);
-				}
-			}
+		rid.clusterPosition = file.readLong(offset);
+		offset += OBinaryProtocol.SIZE_LONG;
+
+		final byte recordType = file.readByte(offset);
+		offset += OBinaryProtocol.SIZE_BYTE;
+
+		final int recordVersion = file.readInt(offset);
+		offset += OBinaryProtocol.SIZE_INT;
+
+		final int redoVersion;
+		if (wal) {
+			redoVersion = file.readInt(offset);
+			offset += OBinaryProtocol.SIZE_INT;
+		} else
+			redoVersion = -1;
+
+		final int recordSize = file.readInt(offset);
+		offset += OBinaryProtocol.SIZE_INT;
+
+		final int redoSize;
+		if (wal) {
+			redoSize = file.readInt(offset);
+			offset += OBinaryProtocol.SIZE_INT;
+		} else
+			redoSize = 0;
+
+		if (iRedo) {
+			offset += recordSize;
+
+			final byte[] buffer;
+			if (redoSize > 0) {
+				buffer = new byte[redoSize];
+				file.read(offset, buffer, redoSize);
+			} else
+				buffer = null;
+
+			redoTransactionEntry(entryLsn, operation, txId, rid, recordType, redoVersion, buffer, ppos);
+		} else {
+			final byte[] buffer;
+			if (recordSize > 0) {
+				buffer = new byte[recordSize];
+				file.read(offset, buffer, recordSize);
+			} else
+				buffer = null;
+
+			recoverTransactionEntry(status, operation, txId, rid, recordType, recordVersion, buffer, iAfterCrash, ppos);
 		}
-		return recordsRecovered;
 	}
 
 	private void recoverTransactionEntry(final byte iStatus, final byte iOperation, final int iTxId, final ORecordId iRid,
-			final byte iRecordType, final int iRecordVersion, final byte[] iRecordContent, final OPhysicalPosition ppos)
-			throws IOException {
+			final byte iRecordType, final int iRecordVersion, final byte[] iRecordContent, final boolean iAfterCrash,
+			final OPhysicalPosition ppos) throws IOException {
 
-		final OClusterLocal cluster = (OClusterLocal) storage.getClusterById(iRid.clusterId);
+		final OCluster cluster = storage.getClusterById(iRid.clusterId);
 
 		if (!(cluster instanceof OClusterLocal))
 			return;
 
+		final OClusterLocal localCluster = (OClusterLocal) cluster;
+
 		OLogManager.instance().debug(this, "Recovering tx <%d>. Operation <%d> was in status <%d> on record %s size=%d...", iTxId,
 				iOperation, iStatus, iRid, iRecordContent != null ? iRecordContent.length : 0);
 
 		switch (iOperation) {
 		case OPERATION_CREATE:
-			// JUST DELETE THE RECORD
-			storage.deleteRecord(iRid, -1, 0, null);
+			// JUST DELETE THE RECORD: NOT THROUGH THE PUBLIC API, THAT WOULD LOG THE DELETE
+			storage.deleteRecord(localCluster, iRid, -1);
 			break;
 
 		case OPERATION_UPDATE:
 			// REPLACE WITH THE OLD ONE
-			storage.updateRecord(cluster, iRid, iRecordContent, Integer.MIN_VALUE + iRecordVersion, iRecordType);
+			if (iAfterCrash)
+				restoreRecord(localCluster, iRid, iRecordContent, iRecordVersion, iRecordType, ppos);
+			else
+				storage.updateRecord(localCluster, iRid, iRecordContent, Integer.MIN_VALUE + iRecordVersion, iRecordType);
 			break;
 
 		case OPERATION_DELETE:
 			// REMOVE THE HOLE
-			cluster.removeHole(iRid.clusterPosition);
-			cluster.updateBoundsAfterInsertion(iRid.clusterPosition);
+			localCluster.removeHole(iRid.clusterPosition);
+			localCluster.updateBoundsAfterInsertion(iRid.clusterPosition);
+
+			// RESTORE OLD CONTENT IN A NEW CHUNK: THE OLD ONE IS A HOLE NOW AND COULD HAVE BEEN REUSED
+			restoreRecord(localCluster, iRid, iRecordContent, iRecordVersion, iRecordType, ppos);
+			break;
+		}
+	}
+
+	/**
+	 * Applies again the change of a committed transaction. Redo doesn't depend on the content of the chunks, that could have been
+	 * written only partially: the content and the version after the change are written in a new chunk and in the cluster entry.
+	 */
+	private void redoTransactionEntry(final long iLsn, final byte iOperation, final int iTxId, final ORecordId iRid,
+			final byte iRecordType, final int iRedoVersion, final byte[] iRedoContent, final OPhysicalPosition ppos)
+			throws IOException {
+
+		final OCluster cluster = storage.getClusterById(iRid.clusterId);
 
-			// RESTORE OLD CONTENT
-			storage.updateRecord(cluster, iRid, iRecordContent, Integer.MIN_VALUE + iRecordVersion, iRecordType);
+		if (!(cluster instanceof OClusterLocal))
+			return;
+
+		final OClusterLocal localCluster = (OClusterLocal) cluster;
+
+		OLogManager.instance().debug(this, "Redoing tx <%d>. Operation <%d> with LSN <%d> on record %s size=%d...", iTxId,
+				iOperation, iLsn, iRid, iRedoContent != null ? iRedoContent.length : 0);
+
+		if (iRid.clusterPosition > localCluster.getLastEntryPosition()) {
+			OLogManager.instance().warn(this, "Cannot redo the operation <%d> of tx <%d> on record %s: position is outside the cluster",
+					iOperation, iTxId, iRid);
+			return;
+		}
+
+		ppos.clusterPosition = iRid.clusterPosition;
+		localCluster.getPhysicalPosition(ppos);
+		final boolean exists = storage.checkForRecordValidity(ppos);
+
+		switch (iOperation) {
+		case OPERATION_CREATE:
+			if (!exists) {
+				// THE CREATION WAS LOST: RESTORE THE CLUSTER ENTRY
+				localCluster.removeHole(iRid.clusterPosition);
+				localCluster.updateBoundsAfterInsertion(iRid.clusterPosition);
+			}
+			restoreRecord(localCluster, iRid, iRedoContent, iRedoVersion, iRecordType, ppos);
+			break;
+
+		case OPERATION_UPDATE:
+			if (exists)
+				// WRITE THE NEW CONTENT
+				restoreRecord(localCluster, iRid, iRedoContent, iRedoVersion, iRecordType, ppos);
+			break;
+
+		case OPERATION_DELETE:
+			if (exists)
+				storage.deleteRecord(localCluster, iRid, -1);
 			break;
 		}
 	}
 
+	/**
+	 * Writes the image of the record in a new chunk of the data segment and the whole cluster entry, without reading the chunk
+	 * currently used by the record. The old chunk is released only if its header still belongs to the record, otherwise its space is
+	 * lost, and never if the new chunk took its place.
+	 */
+	private void restoreRecord(final OClusterLocal iCluster, final ORecordId iRid, final byte[] iContent, final int iVersion,
+			final byte iRecordType, final OPhysicalPosition ppos) throws IOException {
+		ppos.clusterPosition = iRid.clusterPosition;
+		iCluster.getPhysicalPosition(ppos);
+
+		final int oldDataSegmentId = ppos.dataSegmentId;
+		final long oldDataSegmentPos = ppos.dataSegmentPos;
+
+		// DETACH THE RECORD FROM THE OLD CHUNK AND MARK IT AS VALID: THE UPDATE STORES THE CONTENT IN A NEW CHUNK
+		ppos.dataSegmentId = iCluster.getDataSegmentId();
+		ppos.dataSegmentPos = -1;
+		ppos.recordType = iRecordType;
+		ppos.recordVersion = iVersion;
+		iCluster.setPhysicalPosition(ppos);
+
+		final OPhysicalPosition restored = storage.updateRecord(iCluster, iRid, iContent, Integer.MIN_VALUE + iVersion, iRecordType);
+
+		// THE NEW CHUNK COULD HAVE REUSED THE SPACE OF THE OLD ONE IF IT WAS A HOLE
+		if (oldDataSegmentPos > -1
+				&& (restored == null || restored.dataSegmentId != oldDataSegmentId || restored.dataSegmentPos != oldDataSegmentPos))
+			try {
+				final ODataLocal data = storage.getDataSegmentById(oldDataSegmentId);
+				if (data.getRecord(oldDataSegmentPos, iRid) != null)
+					data.deleteRecord(oldDataSegmentPos);
+			} catch (Exception e) {
+				OLogManager.instance().warn(this, "Cannot release the old chunk %d:%d of record %s, its space will be not reused",
+						oldDataSegmentId, oldDataSegmentPos, iRid);
+			}
+	}
+
+	private int getTxIdOffset() {
+		return format == FORMAT_WAL ? WAL_TX_ID : LEGACY_TX_ID;
+	}
+
+	private int getRecordContentOffset() {
+		return format == FORMAT_WAL ? WAL_RECORD_CONTENT : LEGACY_RECORD_CONTENT;
+	}
+
 	private boolean eof(final long iOffset) {
 		return iOffset < file.getFilledUpTo();
 	}
 
 	private long nextEntry(final long iOffset) throws IOException {
-		final int recordSize = file.readInt(iOffset + OFFSET_RECORD_SIZE);
-		return iOffset + OFFSET_RECORD_CONTENT + recordSize;
+		if (format == FORMAT_WAL) {
+			final int recordSize = file.readInt(iOffset + WAL_RECORD_SIZE);
+			final int redoSize = file.readInt(iOffset + WAL_REDO_SIZE);
+			return iOffset + WAL_RECORD_CONTENT + recordSize + redoSize;
+		}
+
+		return iOffset + LEGACY_RECORD_CONTENT + file.readInt(iOffset + LEGACY_RECORD_SIZE);
 	}
 }
@@ -16,11 +16,13 @@
 package com.orientechnologies.orient.core.tx;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExternal;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabaseComplex.OPERATION_MODE;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecordTx;
@@ -28,7 +30,6 @@ import com.orientechnologies.orient.core.db.record.ORecordOperation;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.index.OIndex;
-import com.orientechnologies.orient.core.index.OIndexMVRBTreeAbstract;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.storage.OStorageEmbedded;
@@ -53,20 +54,25 @@ public class OTransactionOptimistic extends OTransactionRealAbstract {
 		if (!(database.getStorage() instanceof OStorageEmbedded))
 			database.getStorage().commit(this);
 		else {
-			database.getStorage().callInLock(new Callable<Void>() {
+			final OStorageEmbedded storage = (OStorageEmbedded) database.getStorage();
+
+			storage.callInLock(new Callable<Void>() {
 
 				public Void call() throws Exception {
 					final List<String> involvedIndexes = getInvolvedIndexes();
+					if (involvedIndexes != null)
+						// LOCK THE INDEXES ALWAYS IN THE SAME ORDER TO AVOID DEADLOCKS BETWEEN CONCURRENT COMMITS
+						Collections.sort(involvedIndexes);
 
 					// LOCK INVOLVED INDEXES
-					List<OIndexMVRBTreeAbstract<?>> lockedIndexes = null;
+					List<OSharedResourceAdaptiveExternal> lockedIndexes = null;
 					try {
 						if (involvedIndexes != null)
 							for (String indexName : involvedIndexes) {
-								final OIndexMVRBTreeAbstract<?> index = (OIndexMVRBTreeAbstract<?>) database.getMetadata().getIndexManager()
-										.getIndexInternal(indexName);
+								final OSharedResourceAdaptiveExternal index = (OSharedResourceAdaptiveExternal) database.getMetadata()
+										.getIndexManager().getIndexInternal(indexName);
 								if (lockedIndexes == null)
-									lockedIndexes = new ArrayList<OIndexMVRBTreeAbstract<?>>();
+									lockedIndexes = new ArrayList<OSharedResourceAdaptiveExternal>();
 
 								index.acquireExclusiveLock();
 								lockedIndexes.add(index);
@@ -88,14 +94,16 @@ public class OTransactionOptimistic extends OTransactionRealAbstract {
 						// RELEASE INDEX LOCKS IF ANY
 						if (lockedIndexes != null)
 							// DON'T USE GENERICS TO AVOID OpenJDK CRASH :-(
-							for (OIndexMVRBTreeAbstract<?> index : lockedIndexes) {
+							for (OSharedResourceAdaptiveExternal index : lockedIndexes) {
 								index.releaseExclusiveLock();
 							}
 					}
 				}
 
-			}, true);
+			}, storage.isCommitExclusive());
 
+			// WAIT FOR THE SYNCH OUTSIDE THE LOCK TO LET CONCURRENT COMMITS BE GROUPED
+			storage.waitForCommitSynch();
 		}
 	}
 
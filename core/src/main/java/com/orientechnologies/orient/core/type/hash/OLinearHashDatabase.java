@@ -0,0 +1,573 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.type.hash;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.exception.ORecordNotFoundException;
+import com.orientechnologies.orient.core.exception.OSerializationException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ORecordBytes;
+import com.orientechnologies.orient.core.serialization.OMemoryStream;
+import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializerFactory;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerFactory;
+
+/**
+ * Persistent hash map based on linear hashing. The entries are distributed in buckets stored as records, while the header record
+ * keeps the identities of all the buckets. When the entries exceed "index.hash.bucketSize" per bucket on average, one bucket is
+ * split at every insertion, so the table grows a bucket at the time and is never rehashed all together. When they fall under half
+ * of it the last bucket is merged back at every removal, down to the initial buckets. Buckets are loaded on first access and the
+ * changes are saved every "mvrbtree.lazyUpdates" updates like the MVRB-Tree.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OLinearHashDatabase<K, V> implements Iterable<Entry<K, V>> {
+	public final static byte						CURRENT_PROTOCOL_VERSION	= 0;
+	private static final int						INITIAL_BUCKETS						= 16;
+
+	private final String								clusterName;
+	private final ORecordBytes					record;
+	private final OMemoryStream					stream										= new OMemoryStream();
+	private final List<OBucket>					buckets										= new ArrayList<OBucket>();
+	private final List<ORecordBytes>		mergedBuckets							= new ArrayList<ORecordBytes>();
+	private OBinarySerializer<K>				keySerializer;
+	private OStreamSerializer						valueSerializer;
+	private int													initialBuckets						= INITIAL_BUCKETS;
+	private int													level;
+	private int													next;
+	private int													size;
+	private boolean											dirty;
+	private boolean											temporaryIdentities;
+
+	private int													bucketSize;
+	private int													maxUpdatesBeforeSave;
+	private int													updates;
+	private boolean											transactionRunning;
+
+	private class OBucket {
+		private final ORecordBytes	record;
+		private Map<K, V>						entries;
+		private boolean							dirty;
+
+		private OBucket(final ORecordBytes iRecord) {
+			record = iRecord;
+		}
+	}
+
+	public OLinearHashDatabase(final ODatabaseRecord iDatabase, final ORID iRID) {
+		clusterName = iDatabase.getClusterNameById(iRID.getClusterId());
+		record = new ORecordBytes(new ORecordId(iRID.getClusterId(), iRID.getClusterPosition()));
+		config();
+	}
+
+	public OLinearHashDatabase(final String iClusterName, final OBinarySerializer<K> iKeySerializer,
+			final OStreamSerializer iValueSerializer) {
+		clusterName = iClusterName;
+		record = new ORecordBytes();
+		keySerializer = iKeySerializer;
+		valueSerializer = iValueSerializer;
+		config();
+		reset();
+	}
+
+	public void load() {
+		record.reload();
+		fromStream(record.toStream());
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(final Object iKey) {
+		return getBucket(iKey).entries.containsKey(iKey);
+	}
+
+	public V get(final Object iKey) {
+		return getBucket(iKey).entries.get(iKey);
+	}
+
+	public V put(final K iKey, final V iValue) {
+		final OBucket bucket = getBucket(iKey);
+
+		final V previous = bucket.entries.put(iKey, iValue);
+		bucket.dirty = true;
+
+		if (previous == null) {
+			size++;
+			dirty = true;
+
+			if (size > bucketSize * buckets.size())
+				// GROW BY ONE BUCKET
+				split();
+		}
+
+		commitChanges();
+		return previous;
+	}
+
+	public V remove(final Object iKey) {
+		final OBucket bucket = getBucket(iKey);
+
+		final V previous = bucket.entries.remove(iKey);
+		if (previous != null) {
+			bucket.dirty = true;
+			size--;
+			dirty = true;
+
+			if (buckets.size() > initialBuckets && size < bucketSize * buckets.size() / 2)
+				// SHRINK BY ONE BUCKET
+				merge();
+
+			commitChanges();
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes all the entries deleting the buckets.
+	 */
+	public void clear() {
+		deleteBuckets();
+		reset();
+		lazySave();
+	}
+
+	/**
+	 * Deletes the buckets and the header record.
+	 */
+	public void delete() {
+		deleteBuckets();
+		buckets.clear();
+		if (record.getIdentity().isValid())
+			record.delete();
+	}
+
+	/**
+	 * Frees the buckets in memory and reloads the header. This is called on transaction rollback.
+	 */
+	public void unload() {
+		if (!record.getIdentity().isValid())
+			return;
+
+		buckets.clear();
+		mergedBuckets.clear();
+		updates = 0;
+		load();
+	}
+
+	/**
+	 * Frees the buckets in memory after having saved the pending changes.
+	 * 
+	 * @return The number of buckets freed
+	 */
+	public int optimize() {
+		lazySave();
+
+		int freed = 0;
+		for (OBucket bucket : buckets)
+			if (bucket.entries != null && bucket.record.getIdentity().isValid()) {
+				bucket.entries = null;
+				freed++;
+			}
+		return freed;
+	}
+
+	public int commitChanges() {
+		return commitChanges(false);
+	}
+
+	public int commitChanges(final boolean iForce) {
+		if (transactionRunning || maxUpdatesBeforeSave == 0 || (maxUpdatesBeforeSave > 0 && ++updates >= maxUpdatesBeforeSave)
+				|| iForce) {
+			updates = 0;
+			return lazySave();
+		}
+		return 0;
+	}
+
+	/**
+	 * Saves the changed buckets and then the header, if changed.
+	 * 
+	 * @return The number of buckets saved
+	 */
+	public int lazySave() {
+		final long timer = OProfiler.getInstance().startChrono();
+		try {
+
+			int saved = 0;
+			for (OBucket bucket : buckets)
+				if (bucket.dirty) {
+					final boolean isNew = !bucket.record.getIdentity().isValid();
+
+					bucket.record.setDirty();
+					bucket.record.fromStream(bucketToStream(bucket));
+					bucket.record.save(clusterName);
+					bucket.dirty = false;
+
+					if (isNew)
+						// THE HEADER POINTS TO THE NEW BUCKET
+						dirty = true;
+					if (bucket.record.getIdentity().isTemporary())
+						temporaryIdentities = true;
+					saved++;
+				}
+
+			if (dirty) {
+				record.setDirty();
+				record.fromStream(toStream());
+				record.save(clusterName);
+				dirty = false;
+			}
+
+			// THE HEADER DOESN'T POINT TO THE MERGED BUCKETS ANYMORE
+			for (ORecordBytes merged : mergedBuckets)
+				merged.delete();
+			mergedBuckets.clear();
+
+			return saved;
+
+		} finally {
+			OProfiler.getInstance().stopChrono("OLinearHashDatabase.lazySave", timer);
+		}
+	}
+
+	/**
+	 * Change the transaction running mode.
+	 * 
+	 * @param iTxRunning
+	 *          true if a transaction is running, otherwise false
+	 */
+	public void setRunningTransaction(final boolean iTxRunning) {
+		transactionRunning = iTxRunning;
+
+		if (iTxRunning) {
+			// ASSURE ALL PENDING CHANGES ARE COMMITTED BEFORE TO START A TX
+			updates = 0;
+			lazySave();
+		}
+	}
+
+	public void onAfterTxCommit() {
+		if (!temporaryIdentities)
+			return;
+
+		// SAVE THE HEADER AGAIN WITH THE FINAL RECORD-IDS OF THE BUCKETS CREATED IN TX
+		temporaryIdentities = false;
+		dirty = true;
+		lazySave();
+	}
+
+	public Iterator<Entry<K, V>> iterator() {
+		return new Iterator<Entry<K, V>>() {
+			private int									bucket	= -1;
+			private Iterator<Entry<K, V>>	entries;
+
+			public boolean hasNext() {
+				while (entries == null || !entries.hasNext()) {
+					if (++bucket >= buckets.size())
+						return false;
+					entries = loadBucket(bucket).entries.entrySet().iterator();
+				}
+				return true;
+			}
+
+			public Entry<K, V> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return entries.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		};
+	}
+
+	public Iterable<K> keys() {
+		return new Iterable<K>() {
+			public Iterator<K> iterator() {
+				final Iterator<Entry<K, V>> entries = OLinearHashDatabase.this.iterator();
+				return new Iterator<K>() {
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					public K next() {
+						return entries.next().getKey();
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException("remove");
+					}
+				};
+			}
+		};
+	}
+
+	public int getBuckets() {
+		return buckets.size();
+	}
+
+	public int getBucketsInMemory() {
+		int total = 0;
+		for (OBucket bucket : buckets)
+			if (bucket.entries != null)
+				total++;
+		return total;
+	}
+
+	public ORecord<?> getRecord() {
+		return record;
+	}
+
+	@Override
+	public String toString() {
+		return "hash index " + record.getIdentity() + " (" + buckets.size() + " buckets)";
+	}
+
+	protected void config() {
+		bucketSize = OGlobalConfiguration.INDEX_HASH_BUCKET_SIZE.getValueAsInteger();
+		maxUpdatesBeforeSave = OGlobalConfiguration.MVRBTREE_LAZY_UPDATES.getValueAsInteger();
+	}
+
+	/**
+	 * Returns the bucket of the key loading it if needed. The buckets below the split pointer have been already split in the current
+	 * round, so they use the hash function of the next level.
+	 */
+	private OBucket getBucket(final Object iKey) {
+		final int hash = hash(iKey);
+		final int mask = (initialBuckets << level) - 1;
+
+		int index = hash & mask;
+		if (index < next)
+			index = hash & ((mask << 1) | 1);
+
+		return loadBucket(index);
+	}
+
+	private OBucket loadBucket(final int iIndex) {
+		final OBucket bucket = buckets.get(iIndex);
+		if (bucket.entries == null) {
+			bucket.entries = new HashMap<K, V>();
+			if (bucket.record.getIdentity().isValid()) {
+				bucket.record.reload();
+				bucketFromStream(bucket, bucket.record.toStream());
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * Splits the bucket under the split pointer moving half of its entries in a new bucket at the end of the table.
+	 */
+	private void split() {
+		final OBucket source = loadBucket(next);
+
+		final OBucket target = new OBucket(new ORecordBytes());
+		target.entries = new HashMap<K, V>();
+		target.dirty = true;
+		buckets.add(target);
+
+		final int mask = ((initialBuckets << level) << 1) - 1;
+		for (Iterator<Entry<K, V>> it = source.entries.entrySet().iterator(); it.hasNext();) {
+			final Entry<K, V> entry = it.next();
+			if ((hash(entry.getKey()) & mask) != next) {
+				target.entries.put(entry.getKey(), entry.getValue());
+				it.remove();
+			}
+		}
+		source.dirty = true;
+
+		if (++next == initialBuckets << level) {
+			// ROUND COMPLETED: THE TABLE HAS DOUBLED
+			level++;
+			next = 0;
+		}
+		dirty = true;
+
+		OProfiler.getInstance().updateCounter("OLinearHashDatabase.split", +1);
+	}
+
+	/**
+	 * Merges the last bucket in the one it was split from, moving the split pointer back. The record of the bucket is deleted after
+	 * the header has been saved.
+	 */
+	private void merge() {
+		if (next == 0) {
+			// BACK TO THE PREVIOUS ROUND
+			level--;
+			next = initialBuckets << level;
+		}
+		next--;
+
+		final OBucket source = loadBucket(buckets.size() - 1);
+		final OBucket target = loadBucket(next);
+		target.entries.putAll(source.entries);
+		target.dirty = true;
+
+		buckets.remove(buckets.size() - 1);
+		if (source.record.getIdentity().isValid())
+			mergedBuckets.add(source.record);
+		dirty = true;
+
+		OProfiler.getInstance().updateCounter("OLinearHashDatabase.merge", +1);
+	}
+
+	/**
+	 * Hashes the serialized key, so the position of the keys doesn't depend by the hashCode() implementation of the JVM.
+	 */
+	private int hash(final Object iKey) {
+		final byte[] buffer = serializeKey(iKey);
+
+		// FNV-1a
+		int hash = 0x811c9dc5;
+		for (byte b : buffer) {
+			hash ^= b & 0xff;
+			hash *= 0x01000193;
+		}
+		return hash & 0x7fffffff;
+	}
+
+	@SuppressWarnings("unchecked")
+	private byte[] serializeKey(final Object iKey) {
+		final byte[] buffer = new byte[keySerializer.getObjectSize((K) iKey)];
+		keySerializer.serialize((K) iKey, buffer, 0);
+		return buffer;
+	}
+
+	private void deleteBuckets() {
+		for (OBucket bucket : buckets)
+			deleteBucket(bucket.record);
+
+		for (ORecordBytes merged : mergedBuckets)
+			deleteBucket(merged);
+		mergedBuckets.clear();
+	}
+
+	private static void deleteBucket(final ORecordBytes iRecord) {
+		if (iRecord.getIdentity().isValid())
+			try {
+				iRecord.delete();
+			} catch (ORecordNotFoundException e) {
+			}
+	}
+
+	private void reset() {
+		buckets.clear();
+		for (int i = 0; i < initialBuckets; ++i) {
+			final OBucket bucket = new OBucket(new ORecordBytes());
+			bucket.entries = new HashMap<K, V>();
+			buckets.add(bucket);
+		}
+		level = 0;
+		next = 0;
+		size = 0;
+		dirty = true;
+	}
+
+	private byte[] toStream() {
+		stream.jump(0);
+		stream.set(CURRENT_PROTOCOL_VERSION);
+		stream.set(keySerializer.getId());
+		stream.set(valueSerializer.getName());
+		stream.set(initialBuckets);
+		stream.set(level);
+		stream.set(next);
+		stream.set(size);
+		stream.set(buckets.size());
+		for (OBucket bucket : buckets)
+			stream.setAsFixed(bucket.record.getIdentity().isValid() ? bucket.record.getIdentity().toStream()
+					: ORecordId.EMPTY_RECORD_ID_STREAM);
+		return stream.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void fromStream(final byte[] iStream) {
+		try {
+			stream.setSource(iStream);
+			stream.getAsByte();
+
+			keySerializer = OBinarySerializerFactory.INSTANCE.getObjectSerializer(stream.getAsByte());
+			valueSerializer = OStreamSerializerFactory.get(stream.getAsString());
+			initialBuckets = stream.getAsInteger();
+			level = stream.getAsInteger();
+			next = stream.getAsInteger();
+			size = stream.getAsInteger();
+
+			final int total = stream.getAsInteger();
+			buckets.clear();
+			for (int i = 0; i < total; ++i) {
+				final ORecordId rid = new ORecordId();
+				rid.fromStream(stream.getAsByteArrayFixed(ORecordId.PERSISTENT_SIZE));
+
+				final OBucket bucket = new OBucket(rid.isValid() ? new ORecordBytes(rid) : new ORecordBytes());
+				if (!rid.isValid())
+					bucket.entries = new HashMap<K, V>();
+				buckets.add(bucket);
+			}
+		} catch (Exception e) {
+			OLogManager.instance().error(this, "Error on unmarshalling OLinearHashDatabase object from record: %s", e,
+					OSerializationException.class, record.getIdentity());
+		}
+	}
+
+	private byte[] bucketToStream(final OBucket iBucket) {
+		try {
+			stream.jump(0);
+			stream.set(iBucket.entries.size());
+			for (Entry<K, V> entry : iBucket.entries.entrySet()) {
+				stream.set(serializeKey(entry.getKey()));
+				stream.set(valueSerializer.toStream(entry.getValue()));
+			}
+			return stream.toByteArray();
+
+		} catch (IOException e) {
+			throw new OSerializationException("Error on marshalling the bucket " + iBucket.record.getIdentity() + " of " + this, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void bucketFromStream(final OBucket iBucket, final byte[] iStream) {
+		try {
+			stream.setSource(iStream);
+			final int total = stream.getAsInteger();
+			for (int i = 0; i < total; ++i) {
+				final K key = keySerializer.deserialize(stream.getAsByteArray(), 0);
+				iBucket.entries.put(key, (V) valueSerializer.fromStream(stream.getAsByteArray()));
+			}
+
+		} catch (IOException e) {
+			throw new OSerializationException("Error on unmarshalling the bucket " + iBucket.record.getIdentity() + " of " + this, e);
+		}
+	}
+}
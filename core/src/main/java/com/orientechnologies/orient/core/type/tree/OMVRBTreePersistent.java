@@ -495,6 +495,19 @@ public abstract class OMVRBTreePersistent<K, V> extends OMVRBTree<K, V> {
 		}
 	}
 
+	@Override
+	public void putAllSorted(final Iterator<? extends Entry<K, V>> iEntries, final int iSize) {
+		final long timer = OProfiler.getInstance().startChrono();
+
+		try {
+			super.putAllSorted(iEntries, iSize);
+			commitChanges();
+
+		} finally {
+			OProfiler.getInstance().stopChrono("OMVRBTreePersistent.putAllSorted", timer);
+		}
+	}
+
 	@Override
 	public V remove(final Object key) {
 		optimize();
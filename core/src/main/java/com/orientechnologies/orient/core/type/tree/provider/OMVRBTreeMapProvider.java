@@ -176,6 +176,10 @@ public class OMVRBTreeMapProvider<K, V> extends OMVRBTreeProviderAbstract<K, V>
 		return this;
 	}
 
+	public OBinarySerializer<K> getKeySerializer() {
+		return keySerializer;
+	}
+
 	public OBinarySerializer<K> createRelatedSerializer(final OStreamSerializer streamKeySerializer) {
 		if (streamKeySerializer instanceof OBinarySerializer)
 			return (OBinarySerializer<K>) streamKeySerializer;
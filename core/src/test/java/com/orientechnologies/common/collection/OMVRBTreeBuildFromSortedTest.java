@@ -0,0 +1,80 @@
+package com.orientechnologies.common.collection;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Runs the tests of the tree on a tree built bottom-up by putAllSorted(): the pages [1-4], [5-8] and [9], where [5-8] is the root.
+ */
+@Test
+public class OMVRBTreeBuildFromSortedTest extends OMVRBTreeNonCompositeTest {
+
+	@BeforeMethod
+	@Override
+	public void beforeMethod() throws Exception {
+		tree = new OMVRBTreeMemory<Double, Double>(4, 0.5f);
+		tree.putAllSorted(createEntries(9).iterator(), 9);
+	}
+
+	public void testPagesAreFull() {
+		assertEquals(tree.size(), 9);
+		assertEquals(tree.getRoot().getSize(), 4);
+		assertEquals(tree.getRoot().getFirstKey(), 5.0);
+		assertEquals(tree.getRoot().getLeft().getSize(), 4);
+		assertEquals(tree.getRoot().getRight().getSize(), 1);
+		assertEquals(tree.getRoot().getColor(), OMVRBTree.BLACK);
+	}
+
+	public void testPutAndRemoveAfterBuild() {
+		tree.put(4.5, 4.5);
+		tree.put(0.5, 0.5);
+		tree.put(12.0, 12.0);
+		assertEquals(tree.remove(5.0), 5.0);
+
+		final List<Double> keys = new ArrayList<Double>(tree.keySet());
+		assertEquals(keys.size(), 11);
+		assertEquals(keys.get(0), 0.5);
+		assertEquals(keys.get(5), 4.5);
+		assertEquals(keys.get(6), 6.0);
+		assertEquals(keys.get(10), 12.0);
+	}
+
+	public void testBuildManyPages() {
+		tree = new OMVRBTreeMemory<Double, Double>(4, 0.5f);
+		tree.putAllSorted(createEntries(1000).iterator(), 1000);
+
+		assertEquals(tree.size(), 1000);
+		for (double i = 1; i <= 1000; i++) {
+			assertEquals(tree.get(i), i);
+			assertEquals(tree.getCeilingEntry(i - 0.5, OMVRBTree.PartialSearchMode.NONE).getKey(), i);
+		}
+		assertNull(tree.get(1001.0));
+		assertEquals(new ArrayList<Double>(tree.keySet()).size(), 1000);
+	}
+
+	public void testBuildEmpty() {
+		tree = new OMVRBTreeMemory<Double, Double>(4, 0.5f);
+		tree.putAllSorted(createEntries(0).iterator(), 0);
+		assertEquals(tree.size(), 0);
+		assertNull(tree.getRoot());
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testBuildOnlyEmptyTrees() {
+		tree.putAllSorted(createEntries(9).iterator(), 9);
+	}
+
+	protected static List<Map.Entry<Double, Double>> createEntries(final int iSize) {
+		final List<Map.Entry<Double, Double>> entries = new ArrayList<Map.Entry<Double, Double>>();
+		for (double i = 1; i <= iSize; i++)
+			entries.add(new OSimpleImmutableEntry<Double, Double>(i, i));
+		return entries;
+	}
+}
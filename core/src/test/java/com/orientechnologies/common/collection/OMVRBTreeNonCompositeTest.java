@@ -188,6 +188,25 @@ public class OMVRBTreeNonCompositeTest {
 		assertNull(entry);
 	}
 
+	/**
+	 * The keys searched after the last key of a page are found as the first key of the next page.
+	 */
+	@Test
+	public void testCeilingAndHigherEntryAcrossPages() {
+		// THE 9 KEYS DON'T FIT IN ONE PAGE
+		assertTrue(tree.getRoot().getSize() < tree.size());
+
+		for (double i = 1; i < 10; i++) {
+			assertEquals(tree.getCeilingEntry(i - 0.5, OMVRBTree.PartialSearchMode.NONE).getKey(), i);
+			assertEquals(tree.getHigherEntry(i - 0.5).getKey(), i);
+			if (i < 9)
+				assertEquals(tree.getHigherEntry(i).getKey(), i + 1);
+		}
+
+		assertNull(tree.getCeilingEntry(9.5, OMVRBTree.PartialSearchMode.NONE));
+		assertNull(tree.getHigherEntry(9.0));
+	}
+
 	@Test
 	public void testLowerEntryNullResult() {
 		OMVRBTreeEntry<Double, Double> entry = tree.getLowerEntry(0.0);
@@ -4,6 +4,7 @@ import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ORecordBytes;
 import org.testng.annotations.Test;
 
 import java.util.Collection;
@@ -169,6 +170,61 @@ public class ODefaultCacheTest {
 		assertEquals(sut.size(), sut.limit(), "Cache doesn't meet limit requirements");
 	}
 
+	public void keepsMemoryUnderSpecifiedLimit() {
+		// Given an enabled unbounded cache with limited memory
+		ODefaultCache sut = new ODefaultCache(-1);
+		sut.enable();
+		sut.setMemoryLimit(10000);
+
+		// When stored records taking more memory than the limit
+		for (int i = 0; i < 100; i++)
+			sut.put(cleanRecord(1, i));
+
+		// Then memory taken should stay under the limit
+		// And the most recently stored records should be kept
+		assertTrue(sut.memory() <= sut.memoryLimit(), "Cache doesn't meet memory limit requirements");
+		assertTrue(sut.size() > 0 && sut.size() < 10);
+		assertNotNull(sut.get(new ORecordId(1, 99)));
+		assertNull(sut.get(new ORecordId(1, 0)));
+
+		// And removing all the records frees all the memory
+		for (ORID id : sut.keys())
+			sut.remove(id);
+		assertEquals(sut.memory(), 0);
+	}
+
+	public void keepsDirtyAndPinnedRecordsWhenMemoryLimitIsExceeded() {
+		// Given an enabled unbounded cache with limited memory
+		// And a dirty record and a pinned record stored first
+		ODefaultCache sut = new ODefaultCache(-1);
+		sut.enable();
+		sut.setMemoryLimit(10000);
+
+		ORecordInternal<?> dirty = (ORecordInternal<?>) new ORecordBytes(new byte[1000]).setIdentity(1, 0);
+		sut.put(dirty);
+		ORecordInternal<?> pinned = cleanRecord(1, 1);
+		pinned.pin();
+		sut.put(pinned);
+
+		// When stored records taking more memory than the limit
+		for (int i = 2; i < 100; i++)
+			sut.put(cleanRecord(1, i));
+
+		// Then the eldest clean records are removed
+		// But the dirty and the pinned records are kept
+		assertTrue(sut.memory() <= sut.memoryLimit(), "Cache doesn't meet memory limit requirements");
+		assertSame(sut.get(new ORecordId(1, 0)), dirty);
+		assertSame(sut.get(new ORecordId(1, 1)), pinned);
+		assertNull(sut.get(new ORecordId(1, 2)));
+		assertNotNull(sut.get(new ORecordId(1, 99)));
+	}
+
+	private ORecordInternal<?> cleanRecord(final int clusterId, final long clusterPosition) {
+		ORecordInternal<?> record = (ORecordInternal<?>) new ORecordBytes(new byte[1000]).setIdentity(clusterId, clusterPosition);
+		record.unsetDirty();
+		return record;
+	}
+
 	private ODefaultCache newCache() {
 		return new ODefaultCache(5);
 	}
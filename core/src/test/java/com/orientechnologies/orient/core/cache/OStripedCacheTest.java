@@ -0,0 +1,210 @@
+package com.orientechnologies.orient.core.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ORecordBytes;
+
+@Test
+public class OStripedCacheTest {
+	private static final int	LIMIT	= 1000;
+
+	public void doesNothingWhileDisabled() {
+		// Given cache created but not enabled
+		OStripedCache sut = new OStripedCache(LIMIT);
+
+		// When any operation called on it
+		ORecordId id = new ORecordId(1, 1);
+		sut.put(new ODocument(id));
+
+		// Then it has no effect on cache's state
+		assertFalse(sut.isEnabled());
+		assertNull(sut.get(id));
+		assertNull(sut.remove(id));
+		assertEquals(sut.size(), 0);
+	}
+
+	public void storesRecordsUsingTheirIdentity() {
+		// Given an enabled cache
+		OStripedCache sut = enabledCache();
+
+		// When new record put into
+		ORecordId id = new ORecordId(1, 1);
+		ODocument record = new ODocument(id);
+		sut.put(record);
+
+		// Then it can be retrieved later by it's id
+		assertEquals(sut.get(id), record);
+	}
+
+	public void storesRecordsOnlyOnceForEveryIdentity() {
+		// Given an enabled cache
+		OStripedCache sut = enabledCache();
+
+		// When some records with same identity put in several times
+		ODocument first = new ODocument(new ORecordId(1, 1));
+		ODocument last = new ODocument(new ORecordId(1, 1));
+		assertNull(sut.put(first));
+		assertEquals(sut.put(last), first);
+
+		// Then cache ends up storing only the last one
+		assertEquals(sut.size(), 1);
+		assertEquals(sut.get(new ORecordId(1, 1)), last);
+	}
+
+	public void removesOnlyOnce() {
+		// Given an enabled cache with records in it
+		OStripedCache sut = enabledCache();
+		ORecordId id = new ORecordId(1, 1);
+		ODocument record = new ODocument(id);
+		sut.put(record);
+
+		// When removing the record twice
+		// Then only the first remove returns it
+		assertEquals(sut.remove(id), record);
+		assertNull(sut.remove(id));
+		assertEquals(sut.size(), 0);
+	}
+
+	public void providesAccessToAllKeysInCache() {
+		// Given enabled non-empty cache
+		OStripedCache sut = enabledCache();
+		for (int i = 0; i < 10; ++i)
+			sut.put(new ODocument(new ORecordId(1, i)));
+
+		// When asked for keys
+		Collection<ORID> keys = sut.keys();
+
+		// Then keys count should be same as size of cache
+		// And records available for keys
+		assertEquals(keys.size(), sut.size());
+		for (ORID key : keys)
+			assertNotNull(sut.get(key));
+
+		// And nothing remains after clear
+		sut.clear();
+		assertEquals(sut.size(), 0);
+		assertTrue(sut.keys().isEmpty());
+	}
+
+	public void evictsRecordsOverTheLimit() {
+		// Given an enabled cache
+		OStripedCache sut = enabledCache();
+
+		// When stored many more distinct records than the limit
+		for (int i = 0; i < LIMIT * 10; ++i)
+			sut.put(new ODocument(new ORecordId(1, i)));
+
+		// Then the size stays around the limit, since every segment is bounded separately
+		assertTrue(sut.size() <= LIMIT + Runtime.getRuntime().availableProcessors() * 8, "Cache size " + sut.size() + " is over the limit");
+		assertTrue(sut.size() >= LIMIT / 2, "Cache size " + sut.size() + " is too small");
+		assertEquals(sut.getEvictions(), LIMIT * 10 - sut.size());
+	}
+
+	public void keepsRecentlyUsedRecords() {
+		// Given a full cache
+		OStripedCache sut = enabledCache();
+		for (int i = 0; i < LIMIT; ++i)
+			sut.put(new ODocument(new ORecordId(1, i)));
+
+		// When a record is accessed and then other records are stored
+		ORecordId used = new ORecordId(1, 0);
+		assertNotNull(sut.get(used));
+		for (int i = LIMIT; i < LIMIT + LIMIT / 2; ++i)
+			sut.put(new ODocument(new ORecordId(1, i)));
+
+		// Then the accessed record is still in cache
+		assertNotNull(sut.get(used));
+	}
+
+	public void keepsMemoryAroundTheLimit() {
+		// Given an enabled unbounded cache with limited memory
+		OStripedCache sut = new OStripedCache(-1);
+		sut.enable();
+		final long memoryLimit = 1000000;
+		sut.setMemoryLimit(memoryLimit);
+
+		// When stored records taking much more memory than the limit
+		for (int i = 0; i < 10000; ++i)
+			sut.put(cleanRecord(new ORecordBytes(new byte[1000]), i));
+
+		// Then the memory stays around the limit, since every segment is bounded separately
+		assertTrue(sut.memory() <= memoryLimit + Runtime.getRuntime().availableProcessors() * 8 * 1200, "Cache memory " + sut.memory()
+				+ " is over the limit");
+		assertTrue(sut.size() < 10000);
+
+		// And lowering the limit evicts the records immediately
+		sut.setMemoryLimit(memoryLimit / 2);
+		assertTrue(sut.memory() <= memoryLimit / 2 + Runtime.getRuntime().availableProcessors() * 8 * 1200);
+
+		// And clear frees all the memory
+		sut.clear();
+		assertEquals(sut.memory(), 0);
+	}
+
+	public void keepsDirtyAndPinnedRecords() {
+		// Given a full cache with dirty and pinned records
+		OStripedCache sut = enabledCache();
+		for (int i = 0; i < LIMIT; ++i) {
+			if (i % 2 == 0)
+				sut.put((ORecordInternal<?>) new ORecordBytes(new byte[10]).setIdentity(1, i));
+			else
+				sut.put((ORecordInternal<?>) cleanRecord(new ORecordBytes(new byte[10]), i).pin());
+		}
+
+		// When stored many more clean records than the limit
+		for (int i = LIMIT; i < LIMIT * 10; ++i)
+			sut.put(new ODocument(new ORecordId(1, i)));
+
+		// Then none of the dirty and pinned records has been evicted
+		for (int i = 0; i < LIMIT; ++i)
+			assertNotNull(sut.get(new ORecordId(1, i)), "Record " + i + " has been evicted");
+
+		// And the clean ones have been evicted in their place
+		assertEquals(sut.getEvictions(), LIMIT * 10 - sut.size());
+		assertTrue(sut.size() < LIMIT * 2, "Cache size " + sut.size() + " is over the limit");
+	}
+
+	public void stopsSweepingWhenOnlyDirtyRecordsAreLeft() {
+		// Given a cache with limited memory full of dirty records
+		OStripedCache sut = new OStripedCache(-1);
+		sut.enable();
+		sut.setMemoryLimit(100000);
+		for (int i = 0; i < 1000; ++i)
+			sut.put((ORecordInternal<?>) new ORecordBytes(new byte[1000]).setIdentity(1, i));
+
+		// Then they all stay in cache over the limit
+		assertEquals(sut.size(), 1000);
+		assertEquals(sut.getEvictions(), 0);
+
+		// And once saved they are evicted by the next sweep
+		for (ORID key : sut.keys())
+			sut.get(key).unsetDirty();
+		sut.setMemoryLimit(50000);
+		assertTrue(sut.size() < 1000);
+		assertTrue(sut.memory() <= 50000 + Runtime.getRuntime().availableProcessors() * 8 * 1200);
+	}
+
+	private ORecordInternal<?> cleanRecord(ORecordBytes record, int position) {
+		record.setIdentity(1, position);
+		record.unsetDirty();
+		return record;
+	}
+
+	private OStripedCache enabledCache() {
+		OStripedCache cache = new OStripedCache(LIMIT);
+		cache.enable();
+		return cache;
+	}
+}
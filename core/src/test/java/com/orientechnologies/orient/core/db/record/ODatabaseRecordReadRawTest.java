@@ -0,0 +1,172 @@
+package com.orientechnologies.orient.core.db.record;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerEntry;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.hook.ODocumentHookAbstract;
+import com.orientechnologies.orient.core.hook.ORecordHook;
+import com.orientechnologies.orient.core.hook.ORecordHookAbstract;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
+
+@Test
+public class ODatabaseRecordReadRawTest {
+	private boolean							oldStorageOpen;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+	private ORecordId						rid;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/readRawTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		db.getMetadata().getSchema().createClass("Item");
+		final ODocument doc = new ODocument(db, "Item").field("name", "item").field("tags", Arrays.asList("a", "b"));
+		doc.save();
+		doc.field("name", "updated").save();
+		rid = (ORecordId) doc.getIdentity().copy();
+
+		reopen();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		db.drop();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+	}
+
+	public void readsTheStoredContent() {
+		final ORawBuffer buffer = getUnderlying().readRaw(rid, false);
+		Assert.assertNotNull(buffer);
+
+		final ODocument doc = db.load(rid);
+		Assert.assertEquals(buffer.version, doc.getVersion());
+		Assert.assertEquals(buffer.version, 1);
+		Assert.assertEquals(buffer.recordType, ODocument.RECORD_TYPE);
+		Assert.assertEquals(new ODocument(db).fromStream(buffer.buffer).field("name"), "updated");
+	}
+
+	public void recordOfTheTransactionIsLoaded() {
+		db.begin();
+		db.<ODocument> load(rid).field("name", "tx").save();
+		Assert.assertNull(getUnderlying().readRaw(rid, false));
+		db.rollback();
+
+		Assert.assertNotNull(getUnderlying().readRaw(rid, false));
+	}
+
+	public void hooksOnReadingDisableTheRawRead() {
+		// THE HOOKS REGISTERED BY THE DATABASE DON'T ACT ON READING
+		Assert.assertNotNull(getUnderlying().readRaw(rid, false));
+
+		final ORecordHook hook = new ORecordHookAbstract() {
+			@Override
+			public void onRecordAfterRead(final ORecord<?> iRecord) {
+			}
+		};
+		db.registerHook(hook);
+		Assert.assertNull(getUnderlying().readRaw(rid, false));
+		db.unregisterHook(hook);
+		Assert.assertNotNull(getUnderlying().readRaw(rid, false));
+
+		final ORecordHook documentHook = new ODocumentHookAbstract() {
+			@Override
+			public void onRecordBeforeRead(final ODocument iDocument) {
+			}
+		};
+		db.registerHook(documentHook);
+		Assert.assertNull(getUnderlying().readRaw(rid, false));
+		db.unregisterHook(documentHook);
+
+		final ORecordHook updateHook = new ODocumentHookAbstract() {
+			@Override
+			public boolean onRecordBeforeUpdate(final ODocument iDocument) {
+				return false;
+			}
+		};
+		db.registerHook(updateHook);
+		Assert.assertNotNull(getUnderlying().readRaw(rid, false));
+		db.unregisterHook(updateHook);
+	}
+
+	/**
+	 * The content of a record in the level-1 cache could be newer than the stored one.
+	 */
+	public void recordInCacheIsReadFromCache() {
+		final ODocument doc = db.load(rid);
+		doc.field("name", "changed");
+
+		final ORawBuffer buffer = getUnderlying().readRaw(rid, false);
+		Assert.assertEquals(new ODocument(db).fromStream(buffer.buffer).field("name"), "changed");
+
+		final ORawBuffer stored = getUnderlying().readRaw(rid, true);
+		Assert.assertEquals(new ODocument(db).fromStream(stored.buffer).field("name"), "updated");
+	}
+
+	/**
+	 * A document read by a query and not changed keeps the serialized content it has been loaded from.
+	 */
+	public void unchangedDocumentKeepsTheSource() {
+		final byte[] stored = getUnderlying().readRaw(rid, true).buffer;
+
+		final boolean recording = OProfiler.getInstance().isRecording();
+		if (!recording)
+			OProfiler.getInstance().startRecording();
+		try {
+			final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where name = 'updated'"));
+			Assert.assertEquals(result.size(), 1);
+			Assert.assertEquals(result.get(0).field("tags"), Arrays.asList("a", "b"));
+
+			// NOT SERIALIZED AGAIN
+			final long serializations = getSerializations();
+			Assert.assertTrue(Arrays.equals(result.get(0).toStream(), stored));
+			Assert.assertEquals(getSerializations(), serializations);
+
+			result.get(0).field("name", "other");
+			Assert.assertFalse(Arrays.equals(result.get(0).toStream(), stored));
+			Assert.assertEquals(getSerializations(), serializations + 1);
+		} finally {
+			if (!recording)
+				OProfiler.getInstance().stopRecording();
+		}
+	}
+
+	private long getSerializations() {
+		final OProfilerEntry chrono = OProfiler.getInstance().getChrono("ORecordSerializerStringAbstract.toStream");
+		return chrono != null ? chrono.items : 0;
+	}
+
+	private ODatabaseRecordTx getUnderlying() {
+		return (ODatabaseRecordTx) db.getUnderlying();
+	}
+
+	private void reopen() {
+		db.close();
+		db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+	}
+}
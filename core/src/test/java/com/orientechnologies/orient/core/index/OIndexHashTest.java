@@ -0,0 +1,171 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OIndexHashTest {
+	private boolean							oldStorageOpen;
+	private int									oldBucketSize;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldBucketSize = OGlobalConfiguration.INDEX_HASH_BUCKET_SIZE.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		// SMALL BUCKETS: THE TABLE GROWS AND SHRINKS WITH FEW ENTRIES
+		OGlobalConfiguration.INDEX_HASH_BUCKET_SIZE.setValue(4);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/hashIndexTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		final OClass item = db.getMetadata().getSchema().createClass("Item");
+		item.createProperty("id", OType.INTEGER).createIndex(OClass.INDEX_TYPE.UNIQUE_HASH);
+		item.createProperty("group", OType.STRING).createIndex(OClass.INDEX_TYPE.NOTUNIQUE_HASH);
+		db.getMetadata().getSchema().save();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		// CLOSE IT BEFORE TO DROP IT TO FLUSH THE INDEXES
+		db.close();
+		new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin").drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.INDEX_HASH_BUCKET_SIZE.setValue(oldBucketSize);
+	}
+
+	public void getPutRemove() {
+		final List<ODocument> docs = createItems(10);
+
+		final OIndex<?> ids = getIndex("Item.id");
+		Assert.assertEquals(ids.getSize(), 10);
+		Assert.assertEquals(((OIdentifiable) ids.get(3)).getIdentity(), docs.get(3).getIdentity());
+		Assert.assertNull(ids.get(10));
+
+		final OIndex<?> groups = getIndex("Item.group");
+		Assert.assertEquals(((Collection<?>) groups.get("g1")).size(), 5);
+
+		docs.get(3).delete();
+		Assert.assertNull(ids.get(3));
+		Assert.assertEquals(((Collection<?>) groups.get("g1")).size(), 4);
+	}
+
+	@Test(expectedExceptions = OIndexException.class)
+	public void duplicatedKeyRejected() {
+		createItems(2);
+		new ODocument(db, "Item").field("id", 1).save();
+	}
+
+	/**
+	 * The table grows by splitting the buckets and shrinks by merging them when the entries are removed: the entries must be found
+	 * in any case, also after having reopened the database.
+	 */
+	public void bucketsSplitAndMerged() {
+		final List<ODocument> docs = createItems(400);
+
+		final OIndexHashAbstract<?> index = (OIndexHashAbstract<?>) getIndex("Item.id").getInternal();
+		final int grown = index.map.getBuckets();
+		Assert.assertTrue(grown >= 100, "buckets: " + grown);
+
+		for (int i = 0; i < docs.size(); ++i)
+			if (i % 20 != 0)
+				docs.get(i).delete();
+
+		final int shrunk = index.map.getBuckets();
+		Assert.assertTrue(shrunk < grown / 4, "buckets: " + shrunk);
+		checkItems(400, 20);
+
+		db.close();
+		db.open("admin", "admin");
+
+		Assert.assertEquals(((OIndexHashAbstract<?>) getIndex("Item.id").getInternal()).map.getBuckets(), shrunk);
+		checkItems(400, 20);
+
+		// GROWS AGAIN
+		for (int i = 400; i < 600; ++i)
+			new ODocument(db, "Item").field("id", i).field("group", "g" + i % 2).save();
+		checkItems(400, 20);
+		for (int i = 400; i < 600; ++i)
+			Assert.assertNotNull(getIndex("Item.id").get(i));
+	}
+
+	public void equalityQueriesUseTheIndex() {
+		createItems(50);
+
+		List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where id = 7"));
+		Assert.assertEquals(result.size(), 1);
+		Assert.assertEquals(result.get(0).field("id"), 7);
+
+		result = db.query(new OSQLSynchQuery<ODocument>("select from Item where id in [3, 5, 70]"));
+		Assert.assertEquals(result.size(), 2);
+
+		result = db.query(new OSQLSynchQuery<ODocument>("select from index:Item.id where key = 9"));
+		Assert.assertEquals(result.size(), 1);
+	}
+
+	/**
+	 * The keys of a hash index are not ordered: a range of keys is searched by scanning the class, not by the index.
+	 */
+	public void rangeQueriesScanTheClass() {
+		createItems(50);
+
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where id > 44"));
+		Assert.assertEquals(result.size(), 5);
+	}
+
+	@Test(expectedExceptions = OCommandExecutionException.class, expectedExceptionsMessageRegExp = ".*range of keys.*")
+	public void rangeOfKeysOnTheIndexRejected() {
+		createItems(10);
+		db.query(new OSQLSynchQuery<ODocument>("select from index:Item.id where key > 5"));
+	}
+
+	private List<ODocument> createItems(final int iTotal) {
+		final List<ODocument> result = new ArrayList<ODocument>();
+		for (int i = 0; i < iTotal; ++i)
+			result.add(new ODocument(db, "Item").field("id", i).field("group", "g" + i % 2).save());
+		return result;
+	}
+
+	/**
+	 * Checks that only the items every iStep are indexed.
+	 */
+	private void checkItems(final int iTotal, final int iStep) {
+		final OIndex<?> index = getIndex("Item.id");
+		for (int i = 0; i < iTotal; ++i)
+			if (i % iStep == 0)
+				Assert.assertNotNull(index.get(i), "key " + i);
+			else
+				Assert.assertNull(index.get(i), "key " + i);
+	}
+
+	private OIndex<?> getIndex(final String iName) {
+		return db.getMetadata().getIndexManager().getIndex(iName);
+	}
+}
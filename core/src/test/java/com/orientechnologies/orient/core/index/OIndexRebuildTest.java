@@ -0,0 +1,178 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.collection.OMVRBTreeEntry;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * The indexes rebuilt bottom-up from the sorted keys must contain the same entries of the indexes filled by the insertions.
+ */
+@Test
+public class OIndexRebuildTest {
+	private static final int	RECORDS	= 500;
+
+	private boolean						oldStorageOpen;
+	private int								oldPageSize;
+	private int								oldSortBuffer;
+	private String						dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldPageSize = OGlobalConfiguration.MVRBTREE_NODE_PAGE_SIZE.getValueAsInteger();
+		oldSortBuffer = OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		// SMALL PAGES: THE TREES HAVE MANY PAGES
+		OGlobalConfiguration.MVRBTREE_NODE_PAGE_SIZE.setValue(16);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/indexRebuildTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		final OClass item = db.getMetadata().getSchema().createClass("Item");
+		item.createProperty("id", OType.INTEGER).createIndex(OClass.INDEX_TYPE.UNIQUE);
+		item.createProperty("group", OType.STRING).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+		item.createProperty("code", OType.STRING).createIndex(OClass.INDEX_TYPE.DICTIONARY);
+		item.createProperty("tags", OType.EMBEDDEDLIST, OType.STRING).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+		db.getMetadata().getSchema().save();
+
+		// INSERTED OUT OF KEY ORDER
+		for (int i = 0; i < RECORDS; ++i) {
+			final int id = (i * 7) % RECORDS;
+			new ODocument(db, "Item").field("id", id).field("group", "g" + id % 10).field("code", "c" + id / 2)
+					.field("tags", Arrays.asList("t" + id % 3, "t" + (id % 3 + 1))).save();
+		}
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		// CLOSE IT BEFORE TO DROP IT TO FLUSH THE INDEXES
+		db.close();
+		new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin").drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.MVRBTREE_NODE_PAGE_SIZE.setValue(oldPageSize);
+		OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.setValue(oldSortBuffer);
+	}
+
+	public void rebuildKeepsTheEntries() {
+		checkRebuild();
+	}
+
+	/**
+	 * With a sort buffer smaller than the keys, the sorted runs are spilled to temporary files and merged.
+	 */
+	public void rebuildSpillingTheSortedKeys() {
+		OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.setValue(7);
+		checkRebuild();
+	}
+
+	public void rebuildFillsThePages() {
+		final OIndexMVRBTreeAbstract<?> index = (OIndexMVRBTreeAbstract<?>) getIndex("Item.id").getInternal();
+		index.rebuild();
+
+		// 500 KEYS IN 32 PAGES OF 16 KEYS: ALL FULL BUT THE LAST ONE
+		Assert.assertEquals(index.map.size(), RECORDS);
+		Assert.assertEquals(index.map.getRoot().getSize(), 16);
+
+		OMVRBTreeEntry<?, ?> first = index.map.getRoot();
+		while (first.getLeft() != null)
+			first = first.getLeft();
+		Assert.assertEquals(first.getSize(), 16);
+
+		OMVRBTreeEntry<?, ?> last = index.map.getRoot();
+		while (last.getRight() != null)
+			last = last.getRight();
+		Assert.assertEquals(last.getSize(), RECORDS % 16);
+	}
+
+	public void insertionsAfterRebuild() {
+		getIndex("Item.id").rebuild();
+		getIndex("Item.group").rebuild();
+
+		for (int i = RECORDS; i < RECORDS + 100; ++i)
+			new ODocument(db, "Item").field("id", i).field("group", "g" + i % 10).save();
+
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where id between 450 and 549"));
+		Assert.assertEquals(result.size(), 100);
+		Assert.assertEquals(((Collection<?>) getIndex("Item.group").get("g3")).size(), (RECORDS + 100) / 10);
+	}
+
+	@Test(expectedExceptions = OIndexException.class)
+	public void duplicatedKeysOnUniqueRebuild() {
+		new ODocument(db, "Item").field("group", "g0").save();
+
+		// THE KEYS OF THE RECORDS ARE NOT UNIQUE ANYMORE
+		final OClass item = db.getMetadata().getSchema().getClass("Item");
+		item.createProperty("unique", OType.STRING);
+		for (ODocument doc : db.browseClass("Item"))
+			doc.field("unique", doc.field("group")).save();
+
+		item.getProperty("unique").createIndex(OClass.INDEX_TYPE.UNIQUE);
+	}
+
+	private void checkRebuild() {
+		final OIndex<?> ids = getIndex("Item.id");
+		final OIndex<?> groups = getIndex("Item.group");
+		final OIndex<?> codes = getIndex("Item.code");
+		final OIndex<?> tags = getIndex("Item.tags");
+
+		final List<Object> idValues = new ArrayList<Object>();
+		for (int i = 0; i < RECORDS; ++i)
+			idValues.add(((OIdentifiable) ids.get(i)).getIdentity().copy());
+		final Object code7 = ((OIdentifiable) codes.get("c7")).getIdentity().copy();
+
+		Assert.assertEquals(ids.rebuild(), RECORDS);
+		Assert.assertEquals(groups.rebuild(), RECORDS);
+		Assert.assertEquals(codes.rebuild(), RECORDS);
+		Assert.assertEquals(tags.rebuild(), RECORDS);
+
+		Assert.assertEquals(ids.getSize(), RECORDS);
+		for (int i = 0; i < RECORDS; ++i)
+			Assert.assertEquals(((OIdentifiable) ids.get(i)).getIdentity(), idValues.get(i));
+		Assert.assertNull(ids.get(RECORDS));
+
+		Assert.assertEquals(groups.getSize(), 10);
+		for (int i = 0; i < 10; ++i)
+			Assert.assertEquals(((Collection<?>) groups.get("g" + i)).size(), RECORDS / 10);
+
+		// THE LAST PUT WINS
+		Assert.assertEquals(codes.getSize(), RECORDS / 2);
+		Assert.assertEquals(((OIdentifiable) codes.get("c7")).getIdentity(), code7);
+
+		Assert.assertEquals(tags.getSize(), 4);
+		// t1 IS THE TAG OF THE IDS WITH REMAINDER 0 AND 1
+		Assert.assertEquals(((Collection<?>) tags.get("t1")).size(), (RECORDS + 2) / 3 + (RECORDS + 1) / 3);
+
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where id between 100 and 199"));
+		Assert.assertEquals(result.size(), 100);
+	}
+
+	private OIndex<?> getIndex(final String iName) {
+		return db.getMetadata().getIndexManager().getIndex(iName);
+	}
+}
@@ -0,0 +1,132 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class OIndexStatisticsTest {
+	private boolean							oldStorageOpen;
+	private int									oldStep;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldStep = OGlobalConfiguration.QUERY_PLANNER_STATISTICS_STEP.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/indexStatisticsTest";
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		if (db != null) {
+			db.close();
+			new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin").drop();
+			db = null;
+		}
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.QUERY_PLANNER_STATISTICS_STEP.setValue(oldStep);
+	}
+
+	/**
+	 * The statistics computed in steps are the same computed in one pass.
+	 */
+	public void stepsGiveTheSameEstimates() {
+		final TreeMap<Object, List<Integer>> entries = new TreeMap<Object, List<Integer>>();
+		for (int i = 0; i < 1000; ++i)
+			// KEY 0 IS THE MOST COMMON
+			entries.put(i, Collections.nCopies(i == 0 ? 500 : 1 + i % 5, i));
+
+		final OIndexStatistics onePass = new OIndexStatistics(entries.entrySet().iterator(), entries.size(), 32);
+
+		final OIndexStatistics steps = new OIndexStatistics(entries.size(), 32);
+		for (Iterator<Entry<Object, List<Integer>>> it = entries.entrySet().iterator(); it.hasNext();) {
+			final Entry<Object, List<Integer>> entry = it.next();
+			steps.add(entry.getKey(), entry.getValue());
+		}
+		steps.complete();
+
+		Assert.assertEquals(steps.getKeys(), onePass.getKeys());
+		Assert.assertEquals(steps.getValues(), onePass.getValues());
+		Assert.assertEquals(steps.estimateEquals(0), 500);
+		for (int key : new int[] { 1, 333, 999, 1000 })
+			Assert.assertEquals(steps.estimateEquals(key), onePass.estimateEquals(key));
+		Assert.assertEquals(steps.estimateRange(100, 200), onePass.estimateRange(100, 200));
+		Assert.assertEquals(steps.estimateRange(null, 10), onePass.estimateRange(null, 10));
+	}
+
+	/**
+	 * The index is browsed in steps smaller than its pages: every entry is counted once.
+	 */
+	public void indexBrowsedInSteps() {
+		OGlobalConfiguration.QUERY_PLANNER_STATISTICS_STEP.setValue(7);
+		final OIndexMVRBTreeAbstract<?> index = createIndex(2000);
+
+		final OIndexStatistics statistics = index.getStatistics();
+		Assert.assertEquals(statistics.getKeys(), 500);
+		Assert.assertEquals(statistics.getValues(), 2000);
+		Assert.assertEquals(statistics.estimateEquals(250), 4);
+
+		// NOT COMPUTED AGAIN WITHOUT CHANGES
+		Assert.assertSame(index.getStatistics(), statistics);
+	}
+
+	/**
+	 * The statistics are computed again once enough entries changed.
+	 */
+	public void statisticsRefreshedAfterChanges() {
+		final OIndexMVRBTreeAbstract<?> index = createIndex(1000);
+		final OIndexStatistics first = index.getStatistics();
+		Assert.assertEquals(first.getValues(), 1000);
+
+		for (int i = 0; i < 200; ++i)
+			new ODocument(db, "Item").field("value", 1000 + i).save();
+
+		final OIndexStatistics second = index.getStatistics();
+		Assert.assertNotSame(second, first);
+		Assert.assertEquals(second.getKeys(), 700);
+		Assert.assertEquals(second.getValues(), 1200);
+	}
+
+	private OIndexMVRBTreeAbstract<?> createIndex(final int iRecords) {
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		final OClass item = db.getMetadata().getSchema().createClass("Item");
+		item.createProperty("value", OType.INTEGER).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+
+		final List<Integer> values = new ArrayList<Integer>();
+		for (int i = 0; i < iRecords; ++i)
+			values.add(i % 500);
+		Collections.shuffle(values);
+		for (int value : values)
+			new ODocument(db, "Item").field("value", value).save();
+
+		return (OIndexMVRBTreeAbstract<?>) db.getMetadata().getIndexManager().getIndex("Item.value").getInternal();
+	}
+}
@@ -0,0 +1,213 @@
+package com.orientechnologies.orient.core.serialization.serializer.record.binary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerSchemaAware2CSV;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class ORecordSerializerBinaryTest {
+	private boolean							oldStorageOpen;
+	private boolean							oldLazyFields;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldLazyFields = OGlobalConfiguration.DB_DOCUMENT_LAZY_FIELDS.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/binarySerializerTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		db.getMetadata().getSchema().createClass("Item");
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		db.drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.DB_DOCUMENT_LAZY_FIELDS.setValue(oldLazyFields);
+	}
+
+	public void roundTripOfAllTheTypes() {
+		final ODocument doc = createItem(1);
+
+		final byte[] content = ORecordSerializerBinary.INSTANCE.toStream(doc, false);
+		Assert.assertTrue(ORecordSerializerBinary.isBinary(content));
+
+		final ODocument read = (ODocument) ORecordSerializerBinary.INSTANCE.fromStream(content, new ODocument(db));
+		checkItem(read, 1, doc);
+	}
+
+	/**
+	 * Both the serializers read the content written by the other one.
+	 */
+	public void binaryAndCsvReadEachOther() {
+		final ODocument doc = createItem(2);
+
+		final byte[] binary = ORecordSerializerBinary.INSTANCE.toStream(doc, false);
+		checkItem((ODocument) ORecordSerializerSchemaAware2CSV.INSTANCE.fromStream(binary, new ODocument(db)), 2, doc);
+
+		final byte[] csv = ORecordSerializerSchemaAware2CSV.INSTANCE.toStream(doc, false);
+		Assert.assertFalse(ORecordSerializerBinary.isBinary(csv));
+		checkItem((ODocument) ORecordSerializerBinary.INSTANCE.fromStream(csv, new ODocument(db)), 2, doc);
+	}
+
+	/**
+	 * Records written in CSV before the change of the format are read with the ones written in binary after, and become binary once
+	 * updated.
+	 */
+	public void databaseWithMixedFormats() {
+		final List<ORID> rids = new ArrayList<ORID>();
+		for (int i = 0; i < 10; ++i)
+			rids.add(createItem(i).save().getIdentity().copy());
+
+		db.command(new OCommandSQL("alter database recordformat binary")).execute();
+		for (int i = 10; i < 20; ++i)
+			rids.add(createItem(i).save().getIdentity().copy());
+
+		reopen();
+		db.<ODocument> load(rids.get(3)).field("name", "updated").save();
+
+		reopen();
+		for (int i = 0; i < 20; ++i) {
+			final ODocument doc = db.load(rids.get(i));
+			Assert.assertEquals(ORecordSerializerBinary.isBinary(doc.toStream()), i >= 10 || i == 3, "record " + i);
+			Assert.assertEquals(doc.field("id"), i);
+			Assert.assertEquals(doc.field("name"), i == 3 ? "updated" : "item" + i);
+		}
+
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where id between 5 and 14"));
+		Assert.assertEquals(result.size(), 10);
+
+		// BACK TO CSV
+		db.command(new OCommandSQL("alter database recordformat null")).execute();
+		db.<ODocument> load(rids.get(15)).field("name", "csv").save();
+
+		reopen();
+		final ODocument doc = db.load(rids.get(15));
+		Assert.assertFalse(ORecordSerializerBinary.isBinary(doc.toStream()));
+		Assert.assertEquals(doc.field("name"), "csv");
+	}
+
+	/**
+	 * Only the accessed fields of a binary document are deserialized, the others are copied as they are on save.
+	 */
+	public void lazyFields() {
+		db.command(new OCommandSQL("alter database recordformat binary")).execute();
+		final ODocument item = createItem(5);
+		final ORID rid = item.save().getIdentity().copy();
+
+		reopen();
+		ODocument doc = db.load(rid);
+		Assert.assertEquals(doc.field("name"), "item5");
+		Assert.assertNotNull(doc.getLazySource());
+		Assert.assertTrue(doc.getLoadedFieldNames().contains("name"));
+		Assert.assertFalse(doc.getLoadedFieldNames().contains("tags"));
+		Assert.assertTrue(doc.containsField("tags"));
+
+		doc.field("id", 50).save();
+
+		reopen();
+		doc = db.load(rid);
+		Assert.assertEquals(doc.field("id"), 50);
+		item.field("id", 50);
+		checkItem(doc, 50, item);
+
+		// ALL THE FIELDS ARE IN MEMORY, IN THE SERIALIZED ORDER
+		Assert.assertEquals(Arrays.asList(doc.fieldNames()), Arrays.asList(item.fieldNames()));
+		Assert.assertNull(doc.getLazySource());
+	}
+
+	public void lazyFieldsDisabled() {
+		OGlobalConfiguration.DB_DOCUMENT_LAZY_FIELDS.setValue(false);
+
+		db.command(new OCommandSQL("alter database recordformat binary")).execute();
+		final ORID rid = createItem(6).save().getIdentity().copy();
+
+		reopen();
+		final ODocument doc = db.load(rid);
+		Assert.assertEquals(doc.field("name"), "item6");
+		Assert.assertNull(doc.getLazySource());
+		Assert.assertTrue(doc.getLoadedFieldNames().contains("tags"));
+	}
+
+	private ODocument createItem(final int iId) {
+		final ODocument owner = new ODocument(db).field("name", "owner" + iId);
+		owner.save();
+
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("color", "red");
+		attributes.put("weight", 12);
+
+		final ODocument doc = new ODocument(db, "Item");
+		doc.field("id", iId);
+		doc.field("name", "item" + iId);
+		doc.field("price", 12.5d);
+		doc.field("rate", 0.5f);
+		doc.field("stock", 10000000000L);
+		doc.field("small", (short) 7);
+		doc.field("available", true);
+		doc.field("created", new Date(1000000000000L));
+		doc.field("data", new byte[] { 1, 2, 3, 0, -1 });
+		doc.field("owner", owner);
+		doc.field("tags", Arrays.asList("a", "b", "c"));
+		doc.field("attributes", attributes);
+		doc.field("detail", new ODocument().field("text", "embedded"));
+		doc.field("missing", (Object) null);
+		return doc;
+	}
+
+	private void checkItem(final ODocument iRead, final int iId, final ODocument iExpected) {
+		Assert.assertEquals(iRead.getClassName(), "Item");
+		Assert.assertEquals(iRead.field("id"), iId);
+		Assert.assertEquals(iRead.field("name"), iExpected.field("name"));
+		Assert.assertEquals(iRead.field("price"), 12.5d);
+		Assert.assertEquals(iRead.field("rate"), 0.5f);
+		Assert.assertEquals(iRead.field("stock"), 10000000000L);
+		Assert.assertEquals(((Number) iRead.field("small")).shortValue(), (short) 7);
+		Assert.assertEquals(iRead.field("available"), Boolean.TRUE);
+		Assert.assertEquals(iRead.field("created"), new Date(1000000000000L));
+		Assert.assertTrue(Arrays.equals((byte[]) iRead.field("data"), new byte[] { 1, 2, 3, 0, -1 }));
+		Assert.assertEquals(((OIdentifiable) iRead.field("owner")).getIdentity(), ((OIdentifiable) iExpected.field("owner")).getIdentity());
+		Assert.assertEquals(new ArrayList<Object>((List<?>) iRead.field("tags")), Arrays.asList("a", "b", "c"));
+		Assert.assertEquals(((Map<?, ?>) iRead.field("attributes")).get("color"), "red");
+		Assert.assertEquals(((Number) ((Map<?, ?>) iRead.field("attributes")).get("weight")).intValue(), 12);
+		Assert.assertEquals(((ODocument) iRead.field("detail")).field("text"), "embedded");
+		Assert.assertTrue(iRead.containsField("missing"));
+		Assert.assertNull(iRead.field("missing"));
+	}
+
+	private void reopen() {
+		db.close();
+		db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+	}
+}
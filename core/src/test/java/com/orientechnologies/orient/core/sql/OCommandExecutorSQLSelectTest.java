@@ -0,0 +1,83 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OCommandExecutorSQLSelectTest {
+	private boolean							oldStorageOpen;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/selectTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		final OClass person = db.getMetadata().getSchema().createClass("P");
+		person.createProperty("name", OType.STRING);
+		person.createProperty("city", OType.STRING).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+		person.createProperty("town", OType.STRING);
+
+		// 5 CITIES, 4 PEOPLE EACH, CREATED IN REVERSE ORDER OF NAME
+		for (int i = 19; i >= 0; --i)
+			new ODocument(db, "P").field("name", "n" + (char) ('a' + i)).field("city", "c" + (i % 5)).field("town", "c" + (i % 5))
+					.save();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		// CLOSE IT BEFORE TO DROP IT TO FLUSH THE INDEXES
+		db.close();
+		new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin").drop();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+	}
+
+	/**
+	 * The records found by the index must be ordered and limited as the ones found by a scan.
+	 */
+	public void orderByWithLimitOnIndexedSearch() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select name from P where city = 'c3' order by name limit 2"));
+		Assert.assertEquals(result.size(), 2);
+		Assert.assertEquals(result.get(0).field("name"), "nd");
+		Assert.assertEquals(result.get(1).field("name"), "ni");
+	}
+
+	public void orderByWithLimitOnScan() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select name from P where town = 'c3' order by name limit 2"));
+		Assert.assertEquals(result.size(), 2);
+		Assert.assertEquals(result.get(0).field("name"), "nd");
+		Assert.assertEquals(result.get(1).field("name"), "ni");
+	}
+
+	public void orderByDescWithSkipAndLimitOnIndexedSearch() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select from P where city = 'c3' order by name desc skip 1 limit 2"));
+		Assert.assertEquals(result.size(), 2);
+		Assert.assertEquals(result.get(0).field("name"), "nn");
+		Assert.assertEquals(result.get(1).field("name"), "ni");
+	}
+}
@@ -0,0 +1,91 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OSQLExplainTest {
+	private boolean							oldStorageOpen;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/explainTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		final OClass city = db.getMetadata().getSchema().createClass("City");
+		city.createProperty("name", OType.STRING).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+		final OClass person = db.getMetadata().getSchema().createClass("Person");
+		person.createProperty("name", OType.STRING).createIndex(OClass.INDEX_TYPE.UNIQUE);
+		person.createProperty("city", OType.LINK, city).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+		db.getMetadata().getSchema().save();
+
+		final ODocument rome = new ODocument(db, "City").field("name", "Rome").save();
+		final ODocument paris = new ODocument(db, "City").field("name", "Paris").save();
+		for (int i = 0; i < 10; ++i)
+			new ODocument(db, "Person").field("name", "p" + i).field("city", i % 2 == 0 ? rome : paris).save();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		// CLOSE IT BEFORE TO DROP IT TO FLUSH THE INDEXES
+		db.close();
+		new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin").drop();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+	}
+
+	public void explainDescribesTheIndex() {
+		final ODocument result = db.command(new OCommandSQL("explain select from Person where name = 'p3'")).execute();
+		Assert.assertEquals(result.field("plan"), "INDEX Person.name [name] =");
+	}
+
+	/**
+	 * The indexes of a chain of fields have no name to describe.
+	 */
+	public void explainDescribesTheIndexOfAChain() {
+		final ODocument result = db.command(new OCommandSQL("explain select from Person where city.name = 'Rome'")).execute();
+		Assert.assertTrue(((String) result.field("plan")).startsWith("INDEX CHAIN "), (String) result.field("plan"));
+	}
+
+	public void profileDescribesThePlan() {
+		final ODocument result = db.command(new OCommandSQL("profile select from Person where city.name = 'Rome'")).execute();
+		Assert.assertTrue(((String) result.field("plan")).startsWith("INDEX CHAIN "), (String) result.field("plan"));
+		Assert.assertEquals(((Number) result.field("resultRecords")).intValue(), 5);
+	}
+
+	/**
+	 * The other executions don't describe the plan.
+	 */
+	public void executionDoesNotDescribeThePlan() {
+		final OCommandExecutorSQLSelect select = new OCommandExecutorSQLSelect();
+		select.parse(new OSQLSynchQuery<ODocument>("select from Person where city.name = 'Rome'"));
+		final Object result = select.execute(null);
+
+		Assert.assertEquals(((Collection<?>) result).size(), 5);
+		Assert.assertNull(select.getPlan());
+	}
+}
@@ -0,0 +1,147 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OSQLGroupByTest {
+	private static final int	CITIES	= 5;
+	private static final int	RECORDS	= 50;
+
+	private boolean						oldStorageOpen;
+	private int								oldMaxGroups;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldMaxGroups = OGlobalConfiguration.QUERY_GROUPBY_MAX_GROUPS.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		String dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/groupByTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		db.getMetadata().getSchema().createClass("Sale");
+		for (int i = 0; i < RECORDS; ++i)
+			new ODocument(db, "Sale").field("city", "c" + (i % CITIES)).field("kind", i % 2 == 0 ? "even" : "odd").field("amount", i)
+					.save();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		db.drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.QUERY_GROUPBY_MAX_GROUPS.setValue(oldMaxGroups);
+	}
+
+	public void aggregatesByGroup() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select city, count(*), sum(amount), min(amount), max(amount) from Sale group by city order by city"));
+		checkAggregates(result);
+	}
+
+	/**
+	 * With room for less groups than the ones found, the records of the other groups are written to the temporary file and
+	 * aggregated by further passes: the result must be the same.
+	 */
+	public void aggregatesTheGroupsSpilledToDisk() {
+		OGlobalConfiguration.QUERY_GROUPBY_MAX_GROUPS.setValue(2);
+
+		final boolean recording = OProfiler.getInstance().isRecording();
+		if (!recording)
+			OProfiler.getInstance().startRecording();
+		try {
+			final long spilled = Math.max(0, OProfiler.getInstance().getCounter("Query.groupBy.spilledRecords"));
+
+			final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+					"select city, count(*), sum(amount), min(amount), max(amount) from Sale group by city order by city"));
+			checkAggregates(result);
+
+			// THE FIRST PASS KEEPS 2 GROUPS, THE SECOND 2 MORE, THE THIRD THE LAST ONE
+			Assert.assertEquals(OProfiler.getInstance().getCounter("Query.groupBy.spilledRecords") - spilled, RECORDS / CITIES * 3
+					+ RECORDS / CITIES);
+		} finally {
+			if (!recording)
+				OProfiler.getInstance().stopRecording();
+		}
+	}
+
+	public void groupsByMoreFields() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select city, kind, count(*) from Sale group by city, kind order by city asc, kind asc"));
+		Assert.assertEquals(result.size(), CITIES * 2);
+		for (int i = 0; i < result.size(); ++i) {
+			final ODocument doc = result.get(i);
+			Assert.assertEquals(doc.field("city"), "c" + i / 2);
+			Assert.assertEquals(doc.field("kind"), i % 2 == 0 ? "even" : "odd");
+			Assert.assertEquals(((Number) doc.field("count")).intValue(), RECORDS / CITIES / 2);
+		}
+	}
+
+	public void skipAndLimitApplyToTheGroups() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select city, max(amount) from Sale group by city order by city desc skip 1 limit 2"));
+		Assert.assertEquals(result.size(), 2);
+		Assert.assertEquals(result.get(0).field("city"), "c3");
+		Assert.assertEquals(((Number) result.get(0).field("max")).intValue(), RECORDS - CITIES + 3);
+		Assert.assertEquals(result.get(1).field("city"), "c2");
+		Assert.assertEquals(((Number) result.get(1).field("max")).intValue(), RECORDS - CITIES + 2);
+	}
+
+	public void groupsFilteredByTheCondition() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select city, count(*) from Sale where kind = 'even' and amount < 20 group by city order by city"));
+		Assert.assertEquals(result.size(), CITIES);
+		for (ODocument doc : result)
+			Assert.assertEquals(((Number) doc.field("count")).intValue(), 2);
+	}
+
+	/**
+	 * Without projections the first record of every group is returned.
+	 */
+	public void firstRecordOfEveryGroupWithoutProjections() {
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Sale group by city order by city"));
+		Assert.assertEquals(result.size(), CITIES);
+		for (int i = 0; i < CITIES; ++i) {
+			Assert.assertEquals(result.get(i).field("city"), "c" + i);
+			Assert.assertEquals(result.get(i).field("amount"), i);
+		}
+	}
+
+	private void checkAggregates(final List<ODocument> iResult) {
+		Assert.assertEquals(iResult.size(), CITIES);
+		for (int c = 0; c < CITIES; ++c) {
+			final ODocument doc = iResult.get(c);
+			Assert.assertEquals(doc.field("city"), "c" + c);
+
+			int sum = 0;
+			for (int i = c; i < RECORDS; i += CITIES)
+				sum += i;
+
+			Assert.assertEquals(((Number) doc.field("count")).intValue(), RECORDS / CITIES);
+			Assert.assertEquals(((Number) doc.field("sum")).intValue(), sum);
+			Assert.assertEquals(((Number) doc.field("min")).intValue(), c);
+			Assert.assertEquals(((Number) doc.field("max")).intValue(), RECORDS - CITIES + c);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * Checks the indexes chosen for the conditions in AND and OR through the profiler counters.
+ */
+@Test
+public class OSQLIndexPlanTest {
+	private static final String[]	COUNTERS	= { "Query.indexUsage", "Query.compositeIndexUsage", "Query.compositeIndexUsage.2",
+			"Query.indexUnion", "Query.indexIntersection"	};
+
+	private boolean								oldStorageOpen;
+	private int										oldMinRecords;
+	private String								dbPath;
+	private ODatabaseDocumentTx		db;
+	private boolean								oldRecording;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldMinRecords = OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/indexPlanTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		final OClass item = db.getMetadata().getSchema().createClass("Item");
+		item.createProperty("a", OType.INTEGER);
+		item.createProperty("b", OType.INTEGER);
+		item.createProperty("c", OType.INTEGER).createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+		item.createProperty("d", OType.INTEGER);
+		item.createIndex("itemAB", OClass.INDEX_TYPE.NOTUNIQUE, "a", "b");
+
+		for (int i = 0; i < 100; ++i)
+			new ODocument(db, "Item").field("a", i / 10).field("b", i % 10).field("c", i % 7).field("d", i % 3).save();
+
+		oldRecording = OProfiler.getInstance().isRecording();
+		if (!oldRecording)
+			OProfiler.getInstance().startRecording();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		if (!oldRecording)
+			OProfiler.getInstance().stopRecording();
+
+		// CLOSE IT BEFORE TO DROP IT TO FLUSH THE INDEXES
+		db.close();
+		new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin").drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.setValue(oldMinRecords);
+	}
+
+	/**
+	 * The union of two lookups of the same composite index updates its counters once.
+	 */
+	public void orOfCompositeIndexesCountedOnce() {
+		OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.setValue(1);
+
+		final long[] old = getCounters();
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select from Item where ( a = 1 and b = 2 ) or ( a = 3 and b = 4 )"));
+		Assert.assertEquals(result.size(), 2);
+		checkCounters(old, 1, 1, 1, 1, 0);
+	}
+
+	/**
+	 * The records of a condition in OR solved by the indexes only in part would be lost: the clusters are scanned.
+	 */
+	public void orWithConditionNotIndexedEntirelyIsScanned() {
+		OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.setValue(1);
+
+		final long[] old = getCounters();
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(
+				"select from Item where ( a = 1 and b = 2 ) or ( c = 1 and d = 2 )"));
+		// c = 1 AND d = 2: i = 8, 29, 50, 71, 92
+		Assert.assertEquals(result.size(), 6);
+		checkCounters(old, 0, 0, 0, 0, 0);
+	}
+
+	public void orWithConditionNotIndexedIsScanned() {
+		OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.setValue(1);
+
+		final long[] old = getCounters();
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where c = 1 or d = 2"));
+		// 15 RECORDS WITH c = 1, 33 WITH d = 2, 5 WITH BOTH
+		Assert.assertEquals(result.size(), 43);
+		checkCounters(old, 0, 0, 0, 0, 0);
+	}
+
+	public void andOfIndexedConditionsIntersected() {
+		OGlobalConfiguration.QUERY_PLANNER_MIN_RECORDS.setValue(1);
+
+		final long[] old = getCounters();
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where a = 1 and c = 3"));
+		// i = 10, 17
+		Assert.assertEquals(result.size(), 2);
+		checkCounters(old, 1, 1, 1, 0, 1);
+	}
+
+	/**
+	 * Without statistics one index is used and the conditions in OR are not solved by the indexes.
+	 */
+	public void smallClassesUseOneIndex() {
+		long[] old = getCounters();
+		List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Item where a = 1 and c = 3"));
+		Assert.assertEquals(result.size(), 2);
+		checkCounters(old, 1, 1, 1, 0, 0);
+
+		old = getCounters();
+		result = db.query(new OSQLSynchQuery<ODocument>("select from Item where ( a = 1 and b = 2 ) or ( a = 3 and b = 4 )"));
+		Assert.assertEquals(result.size(), 2);
+		checkCounters(old, 0, 0, 0, 0, 0);
+	}
+
+	private static long[] getCounters() {
+		final long[] result = new long[COUNTERS.length];
+		for (int i = 0; i < COUNTERS.length; ++i)
+			result[i] = Math.max(0, OProfiler.getInstance().getCounter(COUNTERS[i]));
+		return result;
+	}
+
+	private static void checkCounters(final long[] iOld, final long... iIncrements) {
+		for (int i = 0; i < COUNTERS.length; ++i)
+			Assert.assertEquals(Math.max(0, OProfiler.getInstance().getCounter(COUNTERS[i])) - iOld[i], iIncrements[i], COUNTERS[i]);
+	}
+}
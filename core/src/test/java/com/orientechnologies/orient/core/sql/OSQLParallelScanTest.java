@@ -0,0 +1,157 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.command.OCommandResultListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLAsynchQuery;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * The results of the parallel scans are compared with the ones of the sequential scans of the same queries.
+ */
+@Test
+public class OSQLParallelScanTest {
+	private static final int	RECORDS	= 300;
+
+	private boolean						oldStorageOpen;
+	private boolean						oldEnabled;
+	private int								oldThreads;
+	private int								oldChunkSize;
+	private int								oldMinRecords;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldEnabled = OGlobalConfiguration.QUERY_PARALLEL_ENABLED.getValueAsBoolean();
+		oldThreads = OGlobalConfiguration.QUERY_PARALLEL_THREADS.getValueAsInteger();
+		oldChunkSize = OGlobalConfiguration.QUERY_PARALLEL_CHUNK_SIZE.getValueAsInteger();
+		oldMinRecords = OGlobalConfiguration.QUERY_PARALLEL_MIN_RECORDS.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		// SMALL CHUNKS: EVERY CLUSTER IS SPLIT IN MANY TASKS
+		OGlobalConfiguration.QUERY_PARALLEL_THREADS.setValue(4);
+		OGlobalConfiguration.QUERY_PARALLEL_CHUNK_SIZE.setValue(7);
+		OGlobalConfiguration.QUERY_PARALLEL_MIN_RECORDS.setValue(10);
+
+		String dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/parallelScanTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		// THE SCAN OF THE SUPER CLASS SPANS THE CLUSTERS OF THE SUB CLASSES
+		final OClass item = db.getMetadata().getSchema().createClass("Item");
+		db.getMetadata().getSchema().createClass("Book", item);
+		db.getMetadata().getSchema().createClass("Disc", item);
+
+		for (int i = 0; i < RECORDS; ++i) {
+			final ODocument doc = new ODocument(db, i % 3 == 0 ? "Item" : i % 3 == 1 ? "Book" : "Disc").field("id", i).field("name",
+					"item" + i);
+			if (i % 10 == 0)
+				doc.field("discount", true);
+			doc.save();
+		}
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		db.drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.QUERY_PARALLEL_ENABLED.setValue(oldEnabled);
+		OGlobalConfiguration.QUERY_PARALLEL_THREADS.setValue(oldThreads);
+		OGlobalConfiguration.QUERY_PARALLEL_CHUNK_SIZE.setValue(oldChunkSize);
+		OGlobalConfiguration.QUERY_PARALLEL_MIN_RECORDS.setValue(oldMinRecords);
+	}
+
+	public void sameRecordsInTheSameOrder() {
+		checkSameResult("select from Item where id > 17 and name like 'item1%'", true);
+		checkSameResult("select from Item where discount = true", true);
+		checkSameResult("select from Item", true);
+		checkSameResult("select from Book where id between 100 and 200", true);
+	}
+
+	public void limitStopsTheScan() {
+		checkSameResult("select from Item where id > 50 limit 5", true);
+		checkSameResult("select from Item limit 1", true);
+	}
+
+	/**
+	 * The records reach the listener of an asynchronous query in the order of the sequential scan.
+	 */
+	public void listenerReceivesTheRecordsInOrder() {
+		final String text = "select from Item where id < 250";
+
+		OGlobalConfiguration.QUERY_PARALLEL_ENABLED.setValue(false);
+		final List<Object> expected = executeAsynch(text);
+		OGlobalConfiguration.QUERY_PARALLEL_ENABLED.setValue(true);
+		final List<Object> parallel = executeAsynch(text);
+
+		Assert.assertEquals(parallel.size(), 250);
+		Assert.assertEquals(parallel, expected);
+	}
+
+	/**
+	 * Conditions that need the database, like the ones following the links, are executed by a sequential scan.
+	 */
+	public void conditionsWithLinksAreNotScannedInParallel() {
+		checkSameResult("select from Item where @class = 'Book' and id < 30", true);
+		checkSameResult("select from Item where owner.name = 'nobody'", false);
+	}
+
+	private void checkSameResult(final String iText, final boolean iParallel) {
+		OGlobalConfiguration.QUERY_PARALLEL_ENABLED.setValue(false);
+		final List<ODocument> expected = db.query(new OSQLSynchQuery<ODocument>(iText));
+
+		OGlobalConfiguration.QUERY_PARALLEL_ENABLED.setValue(true);
+		final boolean recording = OProfiler.getInstance().isRecording();
+		if (!recording)
+			OProfiler.getInstance().startRecording();
+		try {
+			final long scans = Math.max(0, OProfiler.getInstance().getCounter("Query.parallelScan"));
+			final List<ODocument> parallel = db.query(new OSQLSynchQuery<ODocument>(iText));
+			Assert.assertEquals(OProfiler.getInstance().getCounter("Query.parallelScan") - scans > 0, iParallel, iText);
+
+			Assert.assertEquals(getIdentities(parallel), getIdentities(expected), iText);
+		} finally {
+			if (!recording)
+				OProfiler.getInstance().stopRecording();
+		}
+	}
+
+	private List<Object> executeAsynch(final String iText) {
+		final List<Object> result = new ArrayList<Object>();
+		db.query(new OSQLAsynchQuery<ODocument>(iText, new OCommandResultListener() {
+			public boolean result(final Object iRecord) {
+				result.add(((OIdentifiable) iRecord).getIdentity().copy());
+				return true;
+			}
+		}));
+		return result;
+	}
+
+	private List<Object> getIdentities(final List<ODocument> iRecords) {
+		final List<Object> result = new ArrayList<Object>();
+		for (ODocument doc : iRecords)
+			result.add(doc.getIdentity().copy());
+		return result;
+	}
+}
@@ -0,0 +1,178 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OSQLStatementCacheTest {
+	private static final int	RECORDS	= 10;
+
+	private boolean						oldStorageOpen;
+	private String						dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/statementCacheTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+
+		db.getMetadata().getSchema().createClass("Account");
+		for (int i = 0; i < RECORDS; ++i)
+			new ODocument(db, "Account").field("id", i).field("name", "account" + i).save();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		ODatabaseRecordThreadLocal.INSTANCE.set(db);
+		db.drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+	}
+
+	public void statementsAreNormalized() {
+		Assert.assertEquals(OSQLStatementCache.normalize("  select  from\n Account\twhere name = 'a  b' "),
+				"select from Account where name = 'a  b'");
+		Assert.assertEquals(OSQLStatementCache.normalize("select from Account where name = \"a \\\"  b\""),
+				"select from Account where name = \"a \\\"  b\"");
+	}
+
+	/**
+	 * The same statement is executed with different parameters: the cached executor must bind the new ones.
+	 */
+	public void parametersAreRebound() {
+		final long hits = getCounter("hit");
+
+		for (int i = 0; i < RECORDS; ++i) {
+			final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Account where id = ?"), i);
+			Assert.assertEquals(result.size(), 1);
+			Assert.assertEquals(result.get(0).field("name"), "account" + i);
+		}
+
+		for (int i = 0; i < RECORDS; ++i) {
+			final Map<String, Object> params = new HashMap<String, Object>();
+			params.put("name", "account" + i);
+			final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>("select from Account where name = :name"), params);
+			Assert.assertEquals(result.size(), 1);
+			Assert.assertEquals(result.get(0).field("id"), i);
+		}
+
+		Assert.assertEquals(getCounter("hit") - hits, 2 * (RECORDS - 1));
+	}
+
+	public void limitAndSkipOfTheRequestAreApplied() {
+		final String text = "select from Account where id < ? order by id";
+		Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>(text), RECORDS).size(), RECORDS);
+		Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>(text, 3), RECORDS).size(), 3);
+		Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>(text), 5).size(), 5);
+	}
+
+	/**
+	 * Every execution has its own context: the variables set in the context of an execution are not seen by the next one.
+	 */
+	public void contextIsNotSharedBetweenExecutions() {
+		final OCommandSQL first = new OCommandSQL("select from Account where id = ?");
+		db.command(first).execute(1);
+		first.getContext().setVariable("leaked", true);
+
+		final OCommandSQL second = new OCommandSQL("select from Account where id = ?");
+		db.command(second).execute(2);
+
+		Assert.assertNotSame(second.getContext(), first.getContext());
+		Assert.assertNull(second.getContext().getVariable("leaked"));
+		Assert.assertEquals(first.getContext().getVariable("leaked"), true);
+	}
+
+	/**
+	 * The class is resolved at parse time: after the schema is changed the statement is parsed again.
+	 */
+	public void statementsAreDiscardedWhenTheSchemaChanges() {
+		final String text = "select from Account where name = ?";
+		Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>(text), "account1").size(), 1);
+		Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>(text), "account2").size(), 1);
+
+		db.getMetadata().getSchema().dropClass("Account");
+		db.getMetadata().getSchema().createClass("Account").createProperty("name", OType.STRING);
+		new ODocument(db, "Account").field("name", "new").save();
+
+		final long misses = getCounter("miss");
+		Assert.assertEquals(db.query(new OSQLSynchQuery<ODocument>(text), "account1").size(), 0);
+		Assert.assertEquals(getCounter("miss") - misses, 1);
+
+		final List<ODocument> result = db.query(new OSQLSynchQuery<ODocument>(text), "new");
+		Assert.assertEquals(result.size(), 1);
+		Assert.assertEquals(result.get(0).field("name"), "new");
+	}
+
+	/**
+	 * Threads execute the same statement with different parameters: every execution must get the records of its parameters.
+	 */
+	public void concurrentExecutions() throws Exception {
+		final AtomicInteger errors = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		for (int t = 0; t < 8; ++t) {
+			final int offset = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					final ODatabaseDocumentTx threadDb = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+					try {
+						for (int i = 0; i < 200; ++i) {
+							final int id = (i + offset) % RECORDS;
+							final List<ODocument> result = threadDb.query(new OSQLSynchQuery<ODocument>(
+									"select from Account where id = ? and name = ?"), id, "account" + id);
+							if (result.size() != 1 || !result.get(0).field("id").equals(id))
+								errors.incrementAndGet();
+						}
+					} catch (Throwable e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					} finally {
+						threadDb.close();
+					}
+				}
+			});
+		}
+
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+
+		Assert.assertEquals(errors.get(), 0);
+	}
+
+	private long getCounter(final String iName) {
+		if (!OProfiler.getInstance().isRecording())
+			OProfiler.getInstance().startRecording();
+		return Math.max(0, OProfiler.getInstance().getCounter("db." + db.getStorage().getName() + ".statementCache." + iName));
+	}
+}
@@ -0,0 +1,161 @@
+package com.orientechnologies.orient.core.storage.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+
+@Test
+public class OMMapManagerTest {
+	private static final int	BLOCK_SIZE	= 4096;
+
+	private int								oldBlockSize;
+	private long							oldMaxMemory;
+	private String						path;
+	private OFileMMap					file;
+
+	@BeforeMethod
+	public void beforeMethod() throws Exception {
+		oldBlockSize = OMMapManager.getBlockSize();
+		oldMaxMemory = OMMapManager.getMaxMemory();
+		OGlobalConfiguration.FILE_MMAP_BLOCK_SIZE.setValue(BLOCK_SIZE);
+
+		String dir = System.getProperty("java.io.tmpdir");
+		if (!dir.endsWith(File.separator))
+			dir += "/";
+		new File(dir + "orientdb").mkdirs();
+		path = dir + "orientdb/mmapManagerTest.omm";
+		new File(path).delete();
+
+		file = new OFileMMap().init(path, "rw");
+	}
+
+	@AfterMethod
+	public void afterMethod() throws Exception {
+		file.delete();
+		OGlobalConfiguration.FILE_MMAP_BLOCK_SIZE.setValue(oldBlockSize);
+		OMMapManager.setMaxMemory(oldMaxMemory);
+	}
+
+	/**
+	 * The last block is mapped when the file is smaller than a block: after the growth the offsets beyond the old size must be read
+	 * from a new block.
+	 */
+	public void lastBlockIsRemappedWhenTheFileGrows() throws Exception {
+		file.create(BLOCK_SIZE / 4);
+		file.allocateSpace(BLOCK_SIZE / 4);
+		file.writeShort(BLOCK_SIZE / 4 - 2, (short) 1);
+		Assert.assertEquals(file.readShort(BLOCK_SIZE / 4 - 2), 1);
+
+		file.allocateSpace(BLOCK_SIZE / 2);
+		file.writeShort(BLOCK_SIZE / 2, (short) 2);
+		Assert.assertEquals(file.readShort(BLOCK_SIZE / 4 - 2), 1);
+		Assert.assertEquals(file.readShort(BLOCK_SIZE / 2), 2);
+	}
+
+	/**
+	 * Blocks mapped with another block size are not used for the offsets they don't cover.
+	 */
+	public void blocksAreRemappedWhenTheBlockSizeChanges() throws Exception {
+		file.create(BLOCK_SIZE * 4);
+		file.allocateSpace(BLOCK_SIZE * 4);
+		for (int i = 0; i < 4; ++i)
+			file.writeInt(i * BLOCK_SIZE + 4, i);
+
+		OGlobalConfiguration.FILE_MMAP_BLOCK_SIZE.setValue(BLOCK_SIZE * 2);
+		for (int i = 0; i < 4; ++i)
+			Assert.assertEquals(file.readInt(i * BLOCK_SIZE + 4), i);
+	}
+
+	/**
+	 * The blocks are unmapped on close: the content changed while the file was closed is read after the reopen.
+	 */
+	public void blocksAreDroppedOnCloseAndReopen() throws Exception {
+		file.create(BLOCK_SIZE * 2);
+		file.allocateSpace(BLOCK_SIZE * 2);
+		file.writeLong(BLOCK_SIZE + 8, 10);
+		final long memory = OMMapManager.getTotalMemory();
+		file.close();
+		Assert.assertTrue(OMMapManager.getTotalMemory() < memory);
+
+		final OFileClassic classic = new OFileClassic().init(path, "rw");
+		classic.open();
+		try {
+			Assert.assertEquals(classic.readLong(BLOCK_SIZE + 8), 10);
+			classic.writeLong(BLOCK_SIZE + 8, 20);
+		} finally {
+			classic.close();
+		}
+
+		file.open();
+		Assert.assertEquals(file.readLong(BLOCK_SIZE + 8), 20);
+	}
+
+	public void blocksAreDroppedOnShrink() throws Exception {
+		file.create(BLOCK_SIZE * 4);
+		file.allocateSpace(BLOCK_SIZE * 4);
+		for (int i = 0; i < 4; ++i)
+			file.writeInt(i * BLOCK_SIZE, i);
+
+		final long memory = OMMapManager.getTotalMemory();
+		file.shrink(BLOCK_SIZE);
+		Assert.assertEquals(OMMapManager.getTotalMemory(), memory - BLOCK_SIZE * 3);
+		Assert.assertEquals(file.readInt(0), 0);
+
+		file.allocateSpace(BLOCK_SIZE);
+		Assert.assertEquals(file.readInt(BLOCK_SIZE), 1);
+	}
+
+	/**
+	 * Threads write and read their own slots on more blocks than the memory allows: the blocks are unmapped while the other threads
+	 * pin them, and no change must be lost.
+	 */
+	public void concurrentPinAndEviction() throws Exception {
+		final int blocks = 64;
+		final int threads = 4;
+		OMMapManager.setMaxMemory(BLOCK_SIZE * 8);
+
+		file.create(BLOCK_SIZE * blocks);
+		file.allocateSpace(BLOCK_SIZE * blocks);
+
+		final AtomicInteger errors = new AtomicInteger();
+		final List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; ++t) {
+			final int slot = t * 8;
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int round = 0; round < 20; ++round) {
+							for (int i = 0; i < blocks; ++i)
+								file.writeLong(i * BLOCK_SIZE + slot, round * blocks + i);
+							for (int i = 0; i < blocks; ++i)
+								if (file.readLong(i * BLOCK_SIZE + slot) != round * blocks + i)
+									errors.incrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		for (Thread t : workers)
+			t.start();
+		for (Thread t : workers)
+			t.join();
+
+		Assert.assertEquals(errors.get(), 0);
+		for (int t = 0; t < threads; ++t)
+			for (int i = 0; i < blocks; ++i)
+				Assert.assertEquals(file.readLong(i * BLOCK_SIZE + t * 8), 19l * blocks + i);
+	}
+}
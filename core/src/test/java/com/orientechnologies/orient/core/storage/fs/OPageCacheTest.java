@@ -0,0 +1,191 @@
+package com.orientechnologies.orient.core.storage.fs;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.storage.fs.OPageCache.OPage;
+
+/**
+ * The cache is configured with few small pages, so every test goes through the eviction.
+ */
+@Test
+public class OPageCacheTest {
+	private String			path;
+	private OFilePaged	file;
+	private int					pageSize;
+	private int					maxPages;
+
+	@BeforeClass
+	public void beforeClass() {
+		// READ AT THE FIRST USE OF THE CACHE
+		OGlobalConfiguration.FILE_PAGECACHE_PAGE_SIZE.setValue(4096);
+		OGlobalConfiguration.FILE_PAGECACHE_MAX_MEMORY.setValue(16 * 4096l);
+		OGlobalConfiguration.FILE_PAGECACHE_FLUSH_INTERVAL.setValue(0);
+
+		pageSize = OPageCache.getPageSize();
+		maxPages = OPageCache.getMaxPages();
+	}
+
+	@BeforeMethod
+	public void beforeMethod() throws Exception {
+		String dir = System.getProperty("java.io.tmpdir");
+		if (!dir.endsWith(File.separator))
+			dir += "/";
+		new File(dir + "orientdb").mkdirs();
+		path = dir + "orientdb/pageCacheTest.opc";
+		new File(path).delete();
+
+		file = create(maxPages * 4);
+	}
+
+	@AfterMethod
+	public void afterMethod() throws Exception {
+		file.delete();
+	}
+
+	public void modifiedPagesAreWrittenOnEviction() throws Exception {
+		final int pages = maxPages * 4;
+		for (int i = 0; i < pages; ++i)
+			file.writeInt(i * pageSize + 8, i);
+
+		for (int i = 0; i < pages; ++i)
+			Assert.assertEquals(file.readInt(i * pageSize + 8), i);
+
+		file.close();
+
+		final OFileClassic classic = new OFileClassic().init(path, "rw");
+		classic.open();
+		try {
+			for (int i = 0; i < pages; ++i)
+				Assert.assertEquals(classic.readInt(i * pageSize + 8), i);
+		} finally {
+			classic.close();
+		}
+	}
+
+	/**
+	 * When all the pages are pinned the thread loading a page must wait for a release instead of spinning.
+	 */
+	public void loadWaitsForReleaseWhenAllPagesArePinned() throws Exception {
+		final List<OPage> pinned = new ArrayList<OPage>();
+		for (int i = 0; i < maxPages; ++i)
+			pinned.add(OPageCache.acquire(file, i));
+
+		final AtomicInteger value = new AtomicInteger(-1);
+		final Thread loader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					value.set(file.readInt(maxPages * pageSize));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		try {
+			loader.start();
+
+			for (int i = 0; i < 100 && loader.getState() != Thread.State.WAITING; ++i)
+				Thread.sleep(10);
+			Assert.assertEquals(loader.getState(), Thread.State.WAITING);
+		} finally {
+			for (OPage page : pinned)
+				page.release();
+		}
+
+		loader.join(5000);
+		Assert.assertFalse(loader.isAlive());
+		Assert.assertEquals(value.get(), 0);
+	}
+
+	/**
+	 * Threads write and read their own slots on more pages than the cache can keep: no change must be lost while the pages are
+	 * evicted and written.
+	 */
+	public void concurrentAccessDuringEviction() throws Exception {
+		final int threads = 4;
+		final int pages = maxPages * 4;
+		final AtomicInteger errors = new AtomicInteger();
+
+		final List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; ++t) {
+			final int slot = t * 8;
+			workers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int round = 0; round < 20; ++round) {
+							for (int i = 0; i < pages; ++i)
+								file.writeLong(i * pageSize + slot, round * pages + i);
+							for (int i = 0; i < pages; ++i)
+								if (file.readLong(i * pageSize + slot) != round * pages + i)
+									errors.incrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		for (Thread t : workers)
+			t.start();
+		for (Thread t : workers)
+			t.join();
+
+		Assert.assertEquals(errors.get(), 0);
+
+		file.synch();
+		final RandomAccessFile raw = new RandomAccessFile(path, "r");
+		try {
+			for (int t = 0; t < threads; ++t)
+				for (int i = 0; i < pages; ++i) {
+					raw.seek(OAbstractFile.HEADER_SIZE + i * pageSize + t * 8);
+					Assert.assertEquals(raw.readLong(), 19l * pages + i);
+				}
+		} finally {
+			raw.close();
+		}
+	}
+
+	/**
+	 * The pages beyond the end of a shrunk file are dropped without writing them.
+	 */
+	public void shrinkDropsPagesBeyondTheEnd() throws Exception {
+		file.synch();
+		file.writeInt(3 * pageSize, 1234);
+		file.shrink(pageSize);
+		file.synch();
+
+		final RandomAccessFile raw = new RandomAccessFile(path, "r");
+		try {
+			raw.seek(OAbstractFile.HEADER_SIZE + 3 * pageSize);
+			Assert.assertEquals(raw.readInt(), 0);
+		} finally {
+			raw.close();
+		}
+
+		Assert.assertEquals(file.allocateSpace(pageSize), pageSize);
+		Assert.assertEquals(file.allocateSpace(2 * pageSize), 2 * pageSize);
+		Assert.assertEquals(file.readInt(3 * pageSize), 0);
+	}
+
+	private OFilePaged create(final int iPages) throws Exception {
+		final OFilePaged f = new OFilePaged().init(path, "rw");
+		f.create(iPages * pageSize);
+		f.allocateSpace(iPages * pageSize);
+		return f;
+	}
+}
@@ -0,0 +1,185 @@
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.OCommandSQL;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+
+@Test
+public class OClusterLocalCompressionTest {
+	private static final int	RECORDS	= 20;
+
+	private boolean						oldStorageOpen;
+	private int								oldReadAhead;
+	private String						dbPath;
+	private ODatabaseDocumentTx	db;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldReadAhead = OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.setValue(RECORDS);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/compressionTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+		// READ THE CONTENT FROM THE STORAGE
+		db.getLevel2Cache().setEnable(false);
+		db.getMetadata().getSchema().createClass("Account");
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		if (db.isClosed())
+			db.open("admin", "admin");
+		db.drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.setValue(oldReadAhead);
+	}
+
+	public void compressedRecordsAreSmallerAndReadBack() throws Exception {
+		db.command(new OCommandSQL("alter cluster account compression deflate")).execute();
+
+		final List<ORID> rids = createRecords("compressed");
+		for (ORID rid : rids) {
+			final OPhysicalPosition ppos = getPhysicalPosition(rid);
+			Assert.assertTrue(isCompressed(ppos));
+			Assert.assertTrue(getStoredSize(ppos) < description("compressed", 0).length());
+		}
+
+		checkRecords(rids, "compressed");
+	}
+
+	/**
+	 * The records written while the compression was on stay compressed after it's turned off, and must be read as before.
+	 */
+	public void compressedRecordsAreReadAfterCompressionIsTurnedOff() throws Exception {
+		db.command(new OCommandSQL("alter cluster account compression deflate")).execute();
+		final List<ORID> compressed = createRecords("compressed");
+
+		db.command(new OCommandSQL("alter cluster account compression none")).execute();
+		Assert.assertNull(((OClusterLocal) ((OStorageLocal) db.getStorage()).getClusterById(compressed.get(0).getClusterId()))
+				.getCompression());
+
+		final List<ORID> plain = createRecords("plain");
+		for (ORID rid : compressed)
+			Assert.assertTrue(isCompressed(getPhysicalPosition(rid)));
+		for (ORID rid : plain)
+			Assert.assertFalse(isCompressed(getPhysicalPosition(rid)));
+
+		// AN UPDATE STORES THE RECORD UNCOMPRESSED
+		final ODocument updated = db.load(compressed.get(0));
+		updated.field("description", description("updated", 0));
+		updated.save();
+		Assert.assertFalse(isCompressed(getPhysicalPosition(compressed.get(0))));
+
+		checkRecords(compressed.subList(1, RECORDS), "compressed");
+		checkRecords(plain, "plain");
+
+		// AFTER THE REOPEN THE SETTING AND THE RECORDS ARE THE SAME
+		db.close();
+		db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		db.getLevel2Cache().setEnable(false);
+		Assert.assertNull(((OClusterLocal) ((OStorageLocal) db.getStorage()).getClusterById(compressed.get(0).getClusterId()))
+				.getCompression());
+		Assert.assertEquals(((ODocument) db.load(compressed.get(0))).field("description"), description("updated", 0));
+		checkRecords(compressed.subList(1, RECORDS), "compressed");
+		checkRecords(plain, "plain");
+	}
+
+	/**
+	 * The cluster scan reads the records in batch: compressed and plain records are mixed in the same batch.
+	 */
+	public void scanReadsCompressedAndPlainRecords() throws Exception {
+		db.command(new OCommandSQL("alter cluster account compression deflate")).execute();
+		createRecords("compressed");
+		db.command(new OCommandSQL("alter cluster account compression none")).execute();
+		createRecords("plain");
+
+		db.getLevel1Cache().invalidate();
+		int compressed = 0;
+		int plain = 0;
+		for (ODocument doc : db.browseClass("Account")) {
+			final String prefix = doc.field("prefix");
+			Assert.assertEquals(doc.field("description"), description(prefix, (Integer) doc.field("id")));
+			if (prefix.equals("compressed"))
+				compressed++;
+			else
+				plain++;
+		}
+		Assert.assertEquals(compressed, RECORDS);
+		Assert.assertEquals(plain, RECORDS);
+	}
+
+	public void smallRecordsAreNotCompressed() throws Exception {
+		db.command(new OCommandSQL("alter cluster account compression deflate")).execute();
+
+		final ODocument doc = new ODocument(db, "Account").field("description", "short");
+		doc.save();
+		Assert.assertFalse(isCompressed(getPhysicalPosition(doc.getIdentity())));
+
+		db.getLevel1Cache().invalidate();
+		Assert.assertEquals(((ODocument) db.load(doc.getIdentity())).field("description"), "short");
+	}
+
+	private List<ORID> createRecords(final String iPrefix) {
+		final List<ORID> rids = new ArrayList<ORID>();
+		for (int i = 0; i < RECORDS; ++i) {
+			final ODocument doc = new ODocument(db, "Account").field("prefix", iPrefix).field("id", i)
+					.field("description", description(iPrefix, i));
+			doc.save();
+			rids.add(doc.getIdentity().copy());
+		}
+		return rids;
+	}
+
+	private void checkRecords(final List<ORID> iRids, final String iPrefix) {
+		db.getLevel1Cache().invalidate();
+		for (ORID rid : iRids) {
+			final ODocument doc = db.load(rid);
+			Assert.assertEquals(doc.field("description"), description(iPrefix, (Integer) doc.field("id")));
+		}
+	}
+
+	private String description(final String iPrefix, final int iId) {
+		final StringBuilder buffer = new StringBuilder();
+		for (int i = 0; i < 20; ++i)
+			buffer.append(iPrefix).append(" record number ").append(iId).append(", ");
+		return buffer.toString();
+	}
+
+	private OPhysicalPosition getPhysicalPosition(final ORID iRid) throws Exception {
+		final ORecordId rid = (ORecordId) iRid;
+		return ((OStorageLocal) db.getStorage()).getClusterById(rid.clusterId).getPhysicalPosition(
+				new OPhysicalPosition(rid.clusterPosition));
+	}
+
+	private boolean isCompressed(final OPhysicalPosition iPosition) {
+		return (iPosition.recordType & 0x80) != 0;
+	}
+
+	private int getStoredSize(final OPhysicalPosition iPosition) throws Exception {
+		return ((OStorageLocal) db.getStorage()).getDataSegmentById(iPosition.dataSegmentId).getRecordSize(iPosition.dataSegmentPos);
+	}
+}
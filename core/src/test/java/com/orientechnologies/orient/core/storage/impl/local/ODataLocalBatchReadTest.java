@@ -0,0 +1,209 @@
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.File;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.iterator.ORecordIteratorCluster;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+
+@Test
+public class ODataLocalBatchReadTest {
+	private static final int		RECORDS	= 10;
+
+	private boolean							oldStorageOpen;
+	private int									oldReadAhead;
+	private String							dbPath;
+	private ODatabaseDocumentTx	db;
+	private ORecordId[]					rids;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldReadAhead = OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.setValue(RECORDS);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/batchReadTest";
+
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+		db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+		// THE LEVEL-2 CACHE IS SHARED: THE CHANGES OF OTHER DATABASES WOULD BE READ FROM IT
+		db.getLevel2Cache().setEnable(false);
+		db.getMetadata().getSchema().createClass("Account");
+
+		rids = new ORecordId[RECORDS];
+		for (int i = 0; i < RECORDS; ++i) {
+			final ODocument doc = new ODocument(db, "Account").field("name", "account" + i);
+			doc.save();
+			rids[i] = (ORecordId) doc.getIdentity().copy();
+		}
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		ODatabaseRecordThreadLocal.INSTANCE.set(db);
+		db.drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.STORAGE_READ_AHEAD_RECORDS.setValue(oldReadAhead);
+	}
+
+	public void closeRecordsAreReadAtOnce() throws Exception {
+		final ODataLocal data = getDataSegment();
+		data.batchReadMaxGap = 4096;
+		data.batchReadMaxSize = 1048576;
+
+		final long[] positions = getPositions();
+		final byte[][] contents = readCountingReads(data, positions, rids, 1);
+		for (int i = 0; i < RECORDS; ++i)
+			Assert.assertEquals(contents[i], data.getRecord(positions[i]));
+	}
+
+	public void positionsAreSortedBeforeGrouping() throws Exception {
+		final ODataLocal data = getDataSegment();
+		data.batchReadMaxGap = 4096;
+		data.batchReadMaxSize = 1048576;
+
+		final long[] positions = getPositions();
+		final long[] reversedPositions = new long[RECORDS];
+		final ORecordId[] reversedRids = new ORecordId[RECORDS];
+		for (int i = 0; i < RECORDS; ++i) {
+			reversedPositions[i] = positions[RECORDS - 1 - i];
+			reversedRids[i] = rids[RECORDS - 1 - i];
+		}
+
+		final byte[][] contents = readCountingReads(data, reversedPositions, reversedRids, 1);
+		for (int i = 0; i < RECORDS; ++i)
+			Assert.assertEquals(contents[i], data.getRecord(reversedPositions[i]));
+	}
+
+	public void gapLimitSplitsTheReads() throws Exception {
+		final ODataLocal data = getDataSegment();
+		data.batchReadMaxGap = 0;
+		data.batchReadMaxSize = 1048576;
+
+		final long[] positions = getPositions();
+		final byte[][] contents = readCountingReads(data, positions, rids, RECORDS);
+		for (int i = 0; i < RECORDS; ++i)
+			Assert.assertEquals(contents[i], data.getRecord(positions[i]));
+	}
+
+	public void sizeLimitSplitsTheReads() throws Exception {
+		final ODataLocal data = getDataSegment();
+		final long[] positions = getPositions();
+		data.batchReadMaxGap = 4096;
+		// THE FIRST TWO HEADERS ONLY
+		data.batchReadMaxSize = (int) (positions[1] - positions[0]) + ODataLocal.RECORD_FIX_SIZE;
+
+		final byte[][] contents = readCountingReads(data, positions, rids, RECORDS / 2);
+		for (int i = 0; i < RECORDS; ++i)
+			Assert.assertEquals(contents[i], data.getRecord(positions[i]));
+	}
+
+	/**
+	 * Chunks deleted, moved or owned by another record are not returned: the caller reads them one by one. The defrag of the hole
+	 * left by the deleted record can move the following records too.
+	 */
+	public void deletedAndMovedChunksAreNotReturned() throws Exception {
+		final ODataLocal data = getDataSegment();
+		final long[] positions = getPositions();
+
+		db.load(rids[2]).delete();
+
+		final ODocument moved = db.load(rids[5]);
+		moved.field("name", "a name much longer than the original one to move the record in a new chunk");
+		moved.save();
+
+		final ORecordId[] wrongRids = rids.clone();
+		wrongRids[7] = rids[8];
+
+		final byte[][] contents = data.getRecords(positions, wrongRids);
+		Assert.assertNull(contents[2]);
+		Assert.assertNull(contents[5]);
+		Assert.assertNull(contents[7]);
+		for (int i = 0; i < RECORDS; ++i)
+			if (i != 2 && i != 7) {
+				final long position = getPosition(rids[i]);
+				if (position == positions[i])
+					Assert.assertEquals(contents[i], data.getRecord(position));
+				else
+					Assert.assertNull(contents[i]);
+			}
+	}
+
+	/**
+	 * The records read in advance by a cluster scan must not hide the changes committed by another database on the same storage.
+	 */
+	public void readAheadSeesChangesOfOtherDatabases() {
+		// A NEW DATABASE: THE RECORDS ARE NOT IN ITS LEVEL-1 CACHE
+		final ODatabaseDocumentTx reader = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			final ORecordIteratorCluster<ODocument> it = reader.browseCluster(reader.getClusterNameById(rids[0].clusterId));
+			ODatabaseRecordThreadLocal.INSTANCE.set(reader);
+			Assert.assertEquals(it.next().field("name"), "account0");
+
+			ODatabaseRecordThreadLocal.INSTANCE.set(db);
+			final ODocument doc = db.load(rids[5]);
+			doc.field("name", "changed");
+			doc.save();
+
+			ODatabaseRecordThreadLocal.INSTANCE.set(reader);
+			for (int i = 1; i < RECORDS; ++i)
+				Assert.assertEquals(it.next().field("name"), i == 5 ? "changed" : "account" + i);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private byte[][] readCountingReads(final ODataLocal iData, final long[] iPositions, final ORecordId[] iRids,
+			final int iExpectedReads) throws Exception {
+		final String counter = "storage." + db.getStorage().getName() + ".data.batchRead.reads";
+		final boolean recording = OProfiler.getInstance().isRecording();
+		if (!recording)
+			OProfiler.getInstance().startRecording();
+		try {
+			final long before = Math.max(0, OProfiler.getInstance().getCounter(counter));
+			final byte[][] contents = iData.getRecords(iPositions, iRids);
+			Assert.assertEquals(OProfiler.getInstance().getCounter(counter) - before, iExpectedReads);
+			return contents;
+		} finally {
+			if (!recording)
+				OProfiler.getInstance().stopRecording();
+		}
+	}
+
+	private ODataLocal getDataSegment() throws Exception {
+		final OStorageLocal storage = (OStorageLocal) db.getStorage();
+		final OPhysicalPosition ppos = storage.getClusterById(rids[0].clusterId).getPhysicalPosition(
+				new OPhysicalPosition(rids[0].clusterPosition));
+		return storage.getDataSegmentById(ppos.dataSegmentId);
+	}
+
+	private long[] getPositions() throws Exception {
+		final long[] positions = new long[RECORDS];
+		for (int i = 0; i < RECORDS; ++i)
+			positions[i] = getPosition(rids[i]);
+		return positions;
+	}
+
+	private long getPosition(final ORecordId iRid) throws Exception {
+		final OStorageLocal storage = (OStorageLocal) db.getStorage();
+		return storage.getClusterById(iRid.clusterId).getPhysicalPosition(new OPhysicalPosition(iRid.clusterPosition)).dataSegmentPos;
+	}
+}
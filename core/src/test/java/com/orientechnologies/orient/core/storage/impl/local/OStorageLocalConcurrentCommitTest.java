@@ -0,0 +1,132 @@
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class OStorageLocalConcurrentCommitTest {
+	private static final int	THREADS				= 8;
+	private static final int	INCREMENTS		= 50;
+
+	private boolean						oldStorageOpen;
+	private String						dbPath;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/concurrentCommitTest";
+		delTree(new File(dbPath));
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+		db.getMetadata().getSchema().createClass("Counter");
+		db.getMetadata().getSchema().createClass("Item");
+		db.close();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+	}
+
+	/**
+	 * Transactions committed concurrently update the same counter and create other records. The conflicting updates are retried, so
+	 * no increment must be lost and the TX log must be empty at the end.
+	 */
+	public void concurrentCommitsOnSharedRecords() throws Exception {
+		ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		final ODocument counter = new ODocument(db, "Counter").field("value", 0);
+		counter.save();
+		final ORID counterRid = counter.getIdentity().copy();
+
+		final AtomicInteger errors = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		for (int t = 0; t < THREADS; ++t) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					final ODatabaseDocumentTx threadDb = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+					try {
+						for (int i = 0; i < INCREMENTS; ++i) {
+							while (true) {
+								threadDb.begin();
+								try {
+									final ODocument doc = threadDb.load(counterRid, null, true);
+									doc.field("value", (Integer) doc.field("value") + 1);
+									doc.save();
+									new ODocument(threadDb, "Item").field("value", i).save();
+									threadDb.commit();
+									break;
+								} catch (OConcurrentModificationException e) {
+									threadDb.rollback();
+								}
+							}
+						}
+					} catch (Throwable e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					} finally {
+						threadDb.close();
+					}
+				}
+			});
+		}
+
+		try {
+			for (Thread t : threads)
+				t.start();
+			for (Thread t : threads)
+				t.join();
+
+			Assert.assertEquals(errors.get(), 0);
+			Assert.assertEquals(((OStorageLocal) db.getStorage()).getTxManager().getTxSegment().getFilledUpTo(), 0);
+		} finally {
+			db.close();
+		}
+
+		db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			final ODocument doc = db.load(counterRid, null, true);
+			Assert.assertEquals(doc.field("value"), THREADS * INCREMENTS);
+			Assert.assertEquals(db.countClass("Item"), THREADS * INCREMENTS);
+		} finally {
+			db.close();
+		}
+	}
+
+	private boolean delTree(final File directory) {
+		if (directory.exists()) {
+			final File[] files = directory.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory())
+					delTree(files[i]);
+				else
+					files[i].delete();
+			}
+		}
+		return directory.delete();
+	}
+}
@@ -0,0 +1,194 @@
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+
+@Test
+public class OStorageLocalDefragTest {
+	private static final int	RECORDS	= 100;
+
+	private boolean						oldStorageOpen;
+	private boolean						oldBackground;
+	private int								oldInterval;
+	private int								oldThreshold;
+	private int								oldMaxMove;
+	private String						dbPath;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldBackground = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND.getValueAsBoolean();
+		oldInterval = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_INTERVAL.getValueAsInteger();
+		oldThreshold = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_THRESHOLD.getValueAsInteger();
+		oldMaxMove = OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_MAX_MOVE.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND.setValue(true);
+		// SMALL STEPS: A RECORD AT A TIME
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_MAX_MOVE.setValue(1);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/defragTest";
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND.setValue(oldBackground);
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_INTERVAL.setValue(oldInterval);
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_THRESHOLD.setValue(oldThreshold);
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_MAX_MOVE.setValue(oldMaxMove);
+	}
+
+	/**
+	 * The deletes don't move the records: the holes are removed by the defrag steps, that update the positions in the clusters and
+	 * truncate the file.
+	 */
+	public void deletesLeaveHolesRemovedByTheDefrag() throws Exception {
+		// NO BACKGROUND RUN DURING THE TEST
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_INTERVAL.setValue(3600000);
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).create();
+		try {
+			final List<ORID> rids = createRecords(db);
+			final ODataLocal data = getDataSegment(db, rids.get(0));
+			final long filledBefore = data.getFilledUpTo();
+
+			final long[] positions = new long[RECORDS];
+			for (int i = 0; i < RECORDS; ++i)
+				positions[i] = getPosition(db, rids.get(i));
+
+			for (int i = 0; i < RECORDS; i += 2)
+				db.load(rids.get(i)).delete();
+
+			// NOTHING MOVED ON THE DELETES
+			for (int i = 1; i < RECORDS; i += 2)
+				Assert.assertEquals(getPosition(db, rids.get(i)), positions[i]);
+			Assert.assertTrue(data.getFragmentation() > 0);
+			Assert.assertEquals(data.getFilledUpTo(), filledBefore);
+
+			int steps = 0;
+			while (data.defrag(1))
+				steps++;
+			Assert.assertTrue(steps > 1);
+
+			Assert.assertEquals(data.holeSegment.getHolesSize(), 0);
+			Assert.assertEquals(data.getFragmentation(), 0);
+			Assert.assertTrue(data.getFilledUpTo() < filledBefore);
+
+			db.getLevel1Cache().invalidate();
+			db.getLevel2Cache().clear();
+			checkRecords(db, rids, 1);
+		} finally {
+			db.close();
+		}
+
+		// THE HOLES AND THE POSITIONS ARE STILL RIGHT AFTER THE REOPEN
+		final ODatabaseDocumentTx reopened = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			Assert.assertEquals(reopened.countClass("Account"), RECORDS / 2);
+			checkRecords(reopened, createdRids(reopened), 1);
+		} finally {
+			reopened.close();
+		}
+	}
+
+	/**
+	 * The scheduled defrag runs while the records are updated: it stops under the half of the threshold and no content is lost.
+	 */
+	public void scheduledDefragDuringUpdates() throws Exception {
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_INTERVAL.setValue(10);
+		OGlobalConfiguration.FILE_DEFRAG_BACKGROUND_THRESHOLD.setValue(10);
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).create();
+		try {
+			final List<ORID> rids = createRecords(db);
+			final ODataLocal data = getDataSegment(db, rids.get(0));
+
+			for (int round = 0; round < 5; ++round)
+				for (int i = 0; i < RECORDS; ++i) {
+					final ODocument doc = db.load(rids.get(i));
+					// GROW AND SHRINK THE RECORDS: THEY ARE MOVED AND LEAVE HOLES
+					doc.field("name", round % 2 == 0 ? "a longer name for the record " + i + " at round " + round : "r" + i);
+					doc.save();
+				}
+
+			for (int i = 0; i < 200 && data.getFragmentation() > 5; ++i)
+				Thread.sleep(10);
+			Assert.assertTrue(data.getFragmentation() <= 5);
+
+			db.getLevel1Cache().invalidate();
+			db.getLevel2Cache().clear();
+			for (int i = 0; i < RECORDS; ++i)
+				Assert.assertEquals(((ODocument) db.load(rids.get(i))).field("name"), "a longer name for the record " + i + " at round 4");
+		} finally {
+			db.close();
+		}
+	}
+
+	private List<ORID> createRecords(final ODatabaseDocumentTx iDatabase) {
+		iDatabase.getMetadata().getSchema().createClass("Account");
+
+		final List<ORID> rids = new ArrayList<ORID>();
+		for (int i = 0; i < RECORDS; ++i) {
+			final ODocument doc = new ODocument(iDatabase, "Account").field("name", "account" + i).field("id", i);
+			doc.save();
+			rids.add(doc.getIdentity().copy());
+		}
+		return rids;
+	}
+
+	private List<ORID> createdRids(final ODatabaseDocumentTx iDatabase) {
+		final List<ORID> rids = new ArrayList<ORID>();
+		for (ODocument doc : iDatabase.browseClass("Account")) {
+			// KEEP THE ORDER OF CREATION, SKIPPING THE DELETED ONES
+			while (rids.size() < (Integer) doc.field("id"))
+				rids.add(null);
+			rids.add(doc.getIdentity().copy());
+		}
+		return rids;
+	}
+
+	private void checkRecords(final ODatabaseDocumentTx iDatabase, final List<ORID> iRids, final int iFrom) {
+		for (int i = iFrom; i < RECORDS; i += 2) {
+			final ODocument doc = iDatabase.load(iRids.get(i));
+			Assert.assertEquals(doc.field("name"), "account" + i);
+			Assert.assertEquals(doc.field("id"), i);
+		}
+	}
+
+	private ODataLocal getDataSegment(final ODatabaseDocumentTx iDatabase, final ORID iRid) throws Exception {
+		final OStorageLocal storage = (OStorageLocal) iDatabase.getStorage();
+		final OPhysicalPosition ppos = storage.getClusterById(iRid.getClusterId()).getPhysicalPosition(
+				new OPhysicalPosition(iRid.getClusterPosition()));
+		return storage.getDataSegmentById(ppos.dataSegmentId);
+	}
+
+	private long getPosition(final ODatabaseDocumentTx iDatabase, final ORID iRid) throws Exception {
+		final ORecordId rid = (ORecordId) iRid;
+		return ((OStorageLocal) iDatabase.getStorage()).getClusterById(rid.clusterId)
+				.getPhysicalPosition(new OPhysicalPosition(rid.clusterPosition)).dataSegmentPos;
+	}
+}
@@ -0,0 +1,165 @@
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class OStorageLocalGroupCommitTest {
+	private static final int	THREADS							= 8;
+	private static final int	TX_PER_THREAD				= 50;
+
+	private boolean						oldStorageOpen;
+	private boolean						oldGroupCommit;
+	private String						dbPath;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldGroupCommit = OGlobalConfiguration.TX_COMMIT_GROUP.getValueAsBoolean();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		OGlobalConfiguration.TX_COMMIT_GROUP.setValue(true);
+
+		dbPath = System.getProperty("java.io.tmpdir");
+		if (!dbPath.endsWith(File.separator))
+			dbPath += "/";
+		dbPath += "orientdb/groupCommitTest";
+		delTree(new File(dbPath));
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+		db.getMetadata().getSchema().createClass("Account");
+		db.close();
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.TX_COMMIT_GROUP.setValue(oldGroupCommit);
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		if (db.exists())
+			db.open("admin", "admin").drop();
+	}
+
+	public void concurrentCommits() throws Exception {
+		final AtomicInteger errors = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		for (int t = 0; t < THREADS; ++t) {
+			final int threadId = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+					try {
+						for (int i = 0; i < TX_PER_THREAD; ++i) {
+							db.begin();
+							new ODocument(db, "Account").field("thread", threadId).field("tx", i).save();
+							new ODocument(db, "Account").field("thread", threadId).field("tx", i).save();
+							db.commit();
+						}
+					} catch (Throwable e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					} finally {
+						db.close();
+					}
+				}
+			});
+		}
+
+		// KEEP THE STORAGE OPEN WHILE THE THREADS COMMIT AND CHECK THE LOG ONCE ALL THE COMMITS ARE ACKNOWLEDGED
+		ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			for (Thread t : threads)
+				t.start();
+			for (Thread t : threads)
+				t.join();
+
+			Assert.assertEquals(errors.get(), 0);
+
+			// EVERY COMMIT RETURNED ONLY AFTER THE SYNCH OF ITS GROUP, WHICH EMPTIES THE LOG
+			final OStorageLocal storage = (OStorageLocal) db.getStorage();
+			Assert.assertEquals(storage.getTxManager().getTxSegment().getFilledUpTo(), 0);
+		} finally {
+			db.close();
+		}
+
+		db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			Assert.assertEquals(db.countClass("Account"), THREADS * TX_PER_THREAD * 2);
+
+			final int[] perThread = new int[THREADS];
+			for (ODocument doc : db.browseClass("Account"))
+				perThread[(Integer) doc.field("thread")]++;
+
+			for (int count : perThread)
+				Assert.assertEquals(count, TX_PER_THREAD * 2);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Simulates a crash after two transactions changed the same record but before their group was synched: the log still contains
+	 * both of them. At the next open both must be undone, the last one first, so the record goes back to the original content.
+	 */
+	public void recoveryUndoesPendingTransactionsInReverseOrder() throws Exception {
+		ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		final ORecordId rid;
+		try {
+			final ODocument doc = new ODocument(db, "Account").field("name", "original");
+			doc.save();
+			rid = (ORecordId) doc.getIdentity().copy();
+
+			final OStorageLocal storage = (OStorageLocal) db.getStorage();
+			final OStorageLocalTxExecuter txManager = storage.getTxManager();
+			final OClusterLocal cluster = (OClusterLocal) storage.getClusterById(rid.clusterId);
+
+			// TWO COMMITTED BUT NOT SYNCHED TRANSACTIONS: THEIR LOG ENTRIES ARE STILL THERE
+			txManager.updateRecord(1000, cluster, rid, new ODocument(db, "Account").field("name", "first").toStream(), -1,
+					ODocument.RECORD_TYPE);
+			txManager.updateRecord(1001, cluster, rid, new ODocument(db, "Account").field("name", "second").toStream(), -1,
+					ODocument.RECORD_TYPE);
+
+			Assert.assertTrue(txManager.getTxSegment().getFilledUpTo() > 0);
+		} finally {
+			// THE LOG IS NOT CLEARED ON CLOSE: THE NEXT OPEN FINDS IT AS AFTER A CRASH
+			db.close();
+		}
+
+		db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			final ODocument doc = db.load(rid);
+			Assert.assertEquals(doc.field("name"), "original");
+			Assert.assertEquals(((OStorageLocal) db.getStorage()).getTxManager().getTxSegment().getFilledUpTo(), 0);
+		} finally {
+			db.close();
+		}
+	}
+
+	private boolean delTree(final File directory) {
+		if (directory.exists()) {
+			final File[] files = directory.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory())
+					delTree(files[i]);
+				else
+					files[i].delete();
+			}
+		}
+		return directory.delete();
+	}
+}
@@ -0,0 +1,350 @@
+package com.orientechnologies.orient.core.storage.impl.local;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.OPhysicalPosition;
+
+/**
+ * Simulates a crash by copying the files of an open database: the copy is opened as the database would be at the restart.
+ */
+@Test
+public class OTxSegmentRecoveryTest {
+	private boolean	oldStorageOpen;
+	private boolean	oldWal;
+	private long		oldCheckpointInterval;
+	private int			oldCheckpointSize;
+	private String	dbPath;
+	private String	crashPath;
+
+	@BeforeMethod
+	public void beforeMethod() {
+		oldStorageOpen = OGlobalConfiguration.STORAGE_KEEP_OPEN.getValueAsBoolean();
+		oldWal = OGlobalConfiguration.TX_LOG_WAL.getValueAsBoolean();
+		oldCheckpointInterval = OGlobalConfiguration.TX_LOG_CHECKPOINT_INTERVAL.getValueAsLong();
+		oldCheckpointSize = OGlobalConfiguration.TX_LOG_CHECKPOINT_SIZE.getValueAsInteger();
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(false);
+		// NO CHECKPOINT DURING THE TESTS: THE LOG KEEPS ALL THE ENTRIES
+		OGlobalConfiguration.TX_LOG_CHECKPOINT_INTERVAL.setValue(3600000l);
+		OGlobalConfiguration.TX_LOG_CHECKPOINT_SIZE.setValue(64 * 1024 * 1024);
+
+		String path = System.getProperty("java.io.tmpdir");
+		if (!path.endsWith(File.separator))
+			path += "/";
+		dbPath = path + "orientdb/txRecoveryTest";
+		crashPath = path + "orientdb/txRecoveryTestCrash";
+		delTree(new File(dbPath));
+		delTree(new File(crashPath));
+	}
+
+	@AfterMethod
+	public void afterMethod() {
+		OGlobalConfiguration.STORAGE_KEEP_OPEN.setValue(oldStorageOpen);
+		OGlobalConfiguration.TX_LOG_WAL.setValue(oldWal);
+		OGlobalConfiguration.TX_LOG_CHECKPOINT_INTERVAL.setValue(oldCheckpointInterval);
+		OGlobalConfiguration.TX_LOG_CHECKPOINT_SIZE.setValue(oldCheckpointSize);
+
+		for (String path : new String[] { dbPath, crashPath }) {
+			final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + path);
+			if (db.exists())
+				db.open("admin", "admin").drop();
+		}
+	}
+
+	/**
+	 * The chunk of a committed update is torn by the crash: the redo must store the content logged without reading the chunk, whose
+	 * size is not valid anymore, otherwise the records after it could be overwritten.
+	 */
+	public void walRedoesCommittedUpdateOverTornChunk() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		final ORecordId rid = createDatabase("original");
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			final OStorageLocal storage = (OStorageLocal) db.getStorage();
+			Assert.assertEquals(storage.getTxManager().getTxSegment().getFormat(), OTxSegment.FORMAT_WAL);
+
+			for (int i = 0; i < 10; ++i)
+				new ODocument(db, "Account").field("name", "next" + i).save();
+
+			// SAME SIZE: THE CONTENT IS UPDATED IN THE SAME CHUNK
+			db.begin();
+			final ODocument doc = db.load(rid);
+			doc.field("name", "modified");
+			doc.save();
+			db.commit();
+
+			// OVERWRITE THE HEADER OF THE CHUNK AS A PARTIAL WRITE WOULD DO
+			final OPhysicalPosition ppos = storage.getClusterById(rid.clusterId).getPhysicalPosition(
+					new OPhysicalPosition(rid.clusterPosition));
+			final byte[] garbage = new byte[ODataLocal.RECORD_FIX_SIZE];
+			Arrays.fill(garbage, (byte) 0x7f);
+			final ODataLocal data = storage.getDataSegmentById(ppos.dataSegmentId);
+			data.files[(int) data.getRelativePosition(ppos.dataSegmentPos)[0]].write(
+					data.getRelativePosition(ppos.dataSegmentPos)[1], garbage);
+
+			crash(db);
+		} finally {
+			db.close();
+		}
+
+		final ODatabaseDocumentTx crashed = new ODatabaseDocumentTx("local:" + crashPath).open("admin", "admin");
+		try {
+			Assert.assertEquals(((ODocument) crashed.load(rid)).field("name"), "modified");
+
+			// THE DATA SEGMENT IS STILL CONSISTENT: NEW RECORDS DON'T OVERWRITE THE EXISTENT ONES
+			for (int i = 0; i < 10; ++i)
+				new ODocument(crashed, "Account").field("name", "new" + i).save();
+
+			int next = 0;
+			int added = 0;
+			for (ODocument d : crashed.browseClass("Account")) {
+				final String name = d.field("name");
+				if (name.startsWith("next"))
+					next++;
+				else if (name.startsWith("new"))
+					added++;
+				else
+					Assert.assertEquals(name, "modified");
+			}
+			Assert.assertEquals(next, 10);
+			Assert.assertEquals(added, 10);
+		} finally {
+			crashed.close();
+		}
+	}
+
+	/**
+	 * The creation is logged before the content is stored, so the record created by a transaction not committed is removed.
+	 */
+	public void walUndoesUncommittedCreation() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		createDatabase("original");
+
+		final ORecordId rid = new ORecordId();
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			final OStorageLocal storage = (OStorageLocal) db.getStorage();
+			final OClusterLocal cluster = (OClusterLocal) storage.getClusterById(db.getClusterIdByName("Account"));
+			rid.clusterId = cluster.getId();
+
+			storage.getTxManager().createRecord(1000, storage.getDataSegmentById(cluster.getDataSegmentId()), cluster, rid,
+					new ODocument(db, "Account").field("name", "uncommitted").toStream(), ODocument.RECORD_TYPE);
+			Assert.assertEquals(db.countClass("Account"), 2);
+
+			crash(db);
+		} finally {
+			db.close();
+		}
+
+		final ODatabaseDocumentTx crashed = new ODatabaseDocumentTx("local:" + crashPath).open("admin", "admin");
+		try {
+			Assert.assertEquals(crashed.countClass("Account"), 1);
+			Assert.assertNull(crashed.load(rid));
+		} finally {
+			crashed.close();
+		}
+	}
+
+	/**
+	 * A record is created out of transactions in the hole left by a transactional delete: the redo of the delete must not remove it.
+	 */
+	public void walKeepsNonTxCreationInTheHoleOfTxDelete() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		final ORecordId rid = createDatabase("original");
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			db.begin();
+			((ODocument) db.load(rid)).delete();
+			db.commit();
+
+			final ODocument created = new ODocument(db, "Account").field("name", "created");
+			created.save();
+			Assert.assertEquals(created.getIdentity(), rid);
+
+			crash(db);
+		} finally {
+			db.close();
+		}
+
+		final ODatabaseDocumentTx crashed = new ODatabaseDocumentTx("local:" + crashPath).open("admin", "admin");
+		try {
+			Assert.assertEquals(((ODocument) crashed.load(rid)).field("name"), "created");
+			Assert.assertEquals(crashed.countClass("Account"), 1);
+		} finally {
+			crashed.close();
+		}
+	}
+
+	/**
+	 * A record is updated out of transactions after a transactional update: the redo must not restore the content of the transaction.
+	 */
+	public void walKeepsNonTxUpdateAfterTxUpdate() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		final ORecordId rid = createDatabase("original");
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			db.begin();
+			final ODocument doc = db.load(rid);
+			doc.field("name", "transactional");
+			doc.save();
+			db.commit();
+
+			doc.field("name", "non transactional");
+			doc.save();
+
+			crash(db);
+		} finally {
+			db.close();
+		}
+
+		final ODatabaseDocumentTx crashed = new ODatabaseDocumentTx("local:" + crashPath).open("admin", "admin");
+		try {
+			final ODocument doc = crashed.load(rid);
+			Assert.assertEquals(doc.field("name"), "non transactional");
+			Assert.assertEquals(doc.getVersion(), 2);
+		} finally {
+			crashed.close();
+		}
+	}
+
+	/**
+	 * A change made out of transactions that fails is undone in the log too: it's not redone at restart.
+	 */
+	public void walDoesNotRedoFailedNonTxUpdate() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		final ORecordId rid = createDatabase("original");
+
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			try {
+				// WRONG VERSION
+				db.getStorage().updateRecord(rid, new ODocument(db, "Account").field("name", "failed").toStream(), 10,
+						ODocument.RECORD_TYPE, 0, null);
+				Assert.fail();
+			} catch (OConcurrentModificationException e) {
+			}
+
+			crash(db);
+		} finally {
+			db.close();
+		}
+
+		checkRecovered(rid, OTxSegment.FORMAT_WAL);
+	}
+
+	/**
+	 * A log written in legacy format is still read after the write-ahead log has been enabled.
+	 */
+	public void legacyLogIsRecoveredWithWal() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(false);
+		final ORecordId rid = createDatabase("original");
+		writeUncommittedUpdate(rid, OTxSegment.FORMAT_LEGACY);
+
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		checkRecovered(rid, OTxSegment.FORMAT_WAL);
+	}
+
+	/**
+	 * A log written in write-ahead log format is still read after the write-ahead log has been disabled.
+	 */
+	public void walLogIsRecoveredWithoutWal() throws Exception {
+		OGlobalConfiguration.TX_LOG_WAL.setValue(true);
+		final ORecordId rid = createDatabase("original");
+		writeUncommittedUpdate(rid, OTxSegment.FORMAT_WAL);
+
+		OGlobalConfiguration.TX_LOG_WAL.setValue(false);
+		checkRecovered(rid, OTxSegment.FORMAT_LEGACY);
+	}
+
+	private ORecordId createDatabase(final String iName) {
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath);
+		db.create();
+		try {
+			db.getMetadata().getSchema().createClass("Account");
+			final ODocument doc = new ODocument(db, "Account").field("name", iName);
+			doc.save();
+			return (ORecordId) doc.getIdentity().copy();
+		} finally {
+			db.close();
+		}
+	}
+
+	private void writeUncommittedUpdate(final ORecordId iRid, final long iFormat) throws Exception {
+		final ODatabaseDocumentTx db = new ODatabaseDocumentTx("local:" + dbPath).open("admin", "admin");
+		try {
+			final OStorageLocal storage = (OStorageLocal) db.getStorage();
+			final OStorageLocalTxExecuter txManager = storage.getTxManager();
+			Assert.assertEquals(txManager.getTxSegment().getFormat(), iFormat);
+
+			txManager.updateRecord(1000, storage.getClusterById(iRid.clusterId), iRid, new ODocument(db, "Account").field("name",
+					"uncommitted").toStream(), -1, ODocument.RECORD_TYPE);
+
+			crash(db);
+		} finally {
+			db.close();
+		}
+	}
+
+	private void checkRecovered(final ORecordId iRid, final long iFormat) {
+		final ODatabaseDocumentTx crashed = new ODatabaseDocumentTx("local:" + crashPath).open("admin", "admin");
+		try {
+			Assert.assertEquals(((ODocument) crashed.load(iRid)).field("name"), "original");
+
+			final OTxSegment txSegment = ((OStorageLocal) crashed.getStorage()).getTxManager().getTxSegment();
+			Assert.assertEquals(txSegment.getFormat(), iFormat);
+		} finally {
+			crashed.close();
+		}
+	}
+
+	/**
+	 * Copies the files of the open database after the log has been synched, as they would be found after a crash.
+	 */
+	private void crash(final ODatabaseDocumentTx iDatabase) throws IOException {
+		((OStorageLocal) iDatabase.getStorage()).getTxManager().getTxSegment().synch();
+
+		final File target = new File(crashPath);
+		target.mkdirs();
+		for (File f : new File(dbPath).listFiles()) {
+			final FileInputStream in = new FileInputStream(f);
+			final FileOutputStream out = new FileOutputStream(new File(target, f.getName()));
+			try {
+				final byte[] buffer = new byte[8192];
+				for (int read; (read = in.read(buffer)) > -1;)
+					out.write(buffer, 0, read);
+			} finally {
+				in.close();
+				out.close();
+			}
+		}
+	}
+
+	private boolean delTree(final File directory) {
+		if (directory.exists()) {
+			final File[] files = directory.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory())
+					delTree(files[i]);
+				else
+					files[i].delete();
+			}
+		}
+		return directory.delete();
+	}
+}
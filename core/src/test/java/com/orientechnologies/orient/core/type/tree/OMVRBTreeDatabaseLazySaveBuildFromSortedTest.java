@@ -0,0 +1,87 @@
+package com.orientechnologies.orient.core.type.tree;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.collection.OMVRBTreeNonCompositeTest;
+import com.orientechnologies.common.collection.OSimpleImmutableEntry;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OSimpleKeySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerLiteral;
+import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeProviderAbstract;
+
+/**
+ * Runs the tests of the tree on a persistent tree built bottom-up by putAllSorted(), saved and unloaded.
+ */
+@Test
+public class OMVRBTreeDatabaseLazySaveBuildFromSortedTest extends OMVRBTreeNonCompositeTest {
+	private ODatabaseDocumentTx	database;
+	private int									oldPageSize;
+	private int									oldEntryPoints;
+
+	@BeforeClass
+	public void beforeClass() {
+		database = new ODatabaseDocumentTx("memory:mvrbtreebuildtest").create();
+		database.addCluster("indextestclsuter", OStorage.CLUSTER_TYPE.MEMORY);
+	}
+
+	@BeforeMethod
+	@Override
+	public void beforeMethod() throws Exception {
+		oldPageSize = OGlobalConfiguration.MVRBTREE_NODE_PAGE_SIZE.getValueAsInteger();
+		OGlobalConfiguration.MVRBTREE_NODE_PAGE_SIZE.setValue(4);
+
+		oldEntryPoints = OGlobalConfiguration.MVRBTREE_ENTRYPOINTS.getValueAsInteger();
+		OGlobalConfiguration.MVRBTREE_ENTRYPOINTS.setValue(1);
+
+		tree = createTree(9);
+	}
+
+	@AfterClass
+	public void afterClass() {
+		database.drop();
+
+		OGlobalConfiguration.MVRBTREE_NODE_PAGE_SIZE.setValue(oldPageSize);
+		OGlobalConfiguration.MVRBTREE_ENTRYPOINTS.setValue(oldEntryPoints);
+	}
+
+	public void testLoadBuiltTree() {
+		tree = createTree(1000);
+
+		final ORID rid = ((OMVRBTreeProviderAbstract<?, ?>) ((OMVRBTreeDatabaseLazySave<Double, Double>) tree).getProvider())
+				.getRecord().getIdentity();
+		final OMVRBTreeDatabaseLazySave<Double, Double> loaded = new OMVRBTreeDatabaseLazySave<Double, Double>(database, rid);
+		loaded.load();
+
+		assertEquals(loaded.size(), 1000);
+		for (double i = 1; i <= 1000; i++)
+			assertEquals(loaded.get(i), i);
+		assertEquals(new ArrayList<Double>(loaded.keySet()).size(), 1000);
+	}
+
+	private OMVRBTreeDatabaseLazySave<Double, Double> createTree(final int iSize) {
+		final OMVRBTreeDatabaseLazySave<Double, Double> result = new OMVRBTreeDatabaseLazySave<Double, Double>("indextestclsuter",
+				new OSimpleKeySerializer(OType.DOUBLE), OStreamSerializerLiteral.INSTANCE, 1);
+
+		final List<Map.Entry<Double, Double>> entries = new ArrayList<Map.Entry<Double, Double>>();
+		for (double i = 1; i <= iSize; i++)
+			entries.add(new OSimpleImmutableEntry<Double, Double>(i, i));
+		result.putAllSorted(entries.iterator(), iSize);
+
+		result.save();
+		result.optimize(true);
+		return result;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking and buffered InputStream on top of a non-blocking socket channel. When no data is available the calling thread waits on a
+ * private selector, so the channel can stay registered to a shared selector while it's idle.<br/>
+ * The bytes read after markRequest() are kept until the next mark. If a stall timeout is set and the rest of the request doesn't
+ * arrive in time the read fails and the stream is marked as stalled: resetRequest() rewinds it to the mark to read the request again
+ * when the rest arrives.
+ * 
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ * 
+ */
+public class OSocketChannelInputStream extends InputStream {
+	private static final ThreadLocal<Selector>	SELECTORS	= new ThreadLocal<Selector>();
+
+	private final SocketChannel									channel;
+	private final int														timeout;
+	private final int														bufferSize;
+	private final byte[]												single		= new byte[1];
+	private ByteBuffer													buffer;
+	private int																	mark			= -1;
+	private int																	stallTimeout;
+	private boolean															stalled;
+
+	public OSocketChannelInputStream(final SocketChannel iChannel, final int iTimeout, final int iBufferSize) {
+		channel = iChannel;
+		timeout = iTimeout;
+		bufferSize = iBufferSize;
+
+		buffer = ByteBuffer.allocate(iBufferSize);
+		buffer.flip();
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(final byte[] iBuffer, final int iOffset, final int iLength) throws IOException {
+		if (iLength == 0)
+			return 0;
+
+		if (!buffer.hasRemaining() && fill(true) == -1)
+			return -1;
+
+		final int read = Math.min(iLength, buffer.remaining());
+		buffer.get(iBuffer, iOffset, read);
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (!buffer.hasRemaining() && !stalled)
+			// TAKE WHAT'S ALREADY ARRIVED WITHOUT WAITING
+			fill(false);
+
+		return buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Keeps the bytes read from now to read them again with resetRequest().
+	 * 
+	 * @param iStallTimeout
+	 *          Timeout in ms to wait for the next bytes before failing the read and marking the stream as stalled. 0 to wait up to the
+	 *          socket timeout
+	 */
+	public void markRequest(final int iStallTimeout) {
+		mark = buffer.position();
+		stallTimeout = iStallTimeout;
+		stalled = false;
+	}
+
+	/**
+	 * Stops keeping the bytes read and waits for the next ones up to the socket timeout.
+	 */
+	public void unmarkRequest() {
+		mark = -1;
+		stallTimeout = 0;
+	}
+
+	/**
+	 * Rewinds the stream to the last mark after a stall.
+	 */
+	public void resetRequest() {
+		buffer.position(mark);
+		stalled = false;
+	}
+
+	public boolean isStalled() {
+		return stalled;
+	}
+
+	/**
+	 * Reads from the channel once the buffer has been consumed.
+	 * 
+	 * @param iWait
+	 *          true to wait for the data, otherwise takes only the data already arrived
+	 * @return the bytes read, or -1 on end of stream
+	 */
+	private int fill(final boolean iWait) throws IOException {
+		if (stalled)
+			throw new SocketTimeoutException("The request has not been received in time");
+
+		// MOVE THE BYTES TO KEEP TO THE BEGINNING OF THE BUFFER
+		final int from = mark > -1 ? mark : buffer.limit();
+		final int kept = buffer.limit() - from;
+		buffer.position(from);
+
+		if (kept == buffer.capacity() || buffer.capacity() > bufferSize && kept < bufferSize) {
+			// ENLARGE THE BUFFER FOR A REQUEST THAT DOESN'T FIT, OR SHRINK IT ONCE THE REQUEST IS OVER
+			final ByteBuffer newBuffer = ByteBuffer.allocate(kept < bufferSize ? bufferSize : buffer.capacity() * 2);
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		} else
+			buffer.compact();
+
+		if (mark > -1)
+			mark = 0;
+
+		int read;
+		try {
+			while ((read = channel.read(buffer)) == 0 && iWait)
+				if (stallTimeout > 0)
+					try {
+						waitFor(channel, SelectionKey.OP_READ, stallTimeout);
+					} catch (SocketTimeoutException e) {
+						stalled = true;
+						throw e;
+					}
+				else
+					waitFor(channel, SelectionKey.OP_READ, timeout);
+
+		} finally {
+			buffer.flip();
+			buffer.position(kept);
+		}
+
+		return read;
+	}
+
+	/**
+	 * Waits until the channel is ready for the requested operation using a selector owned by the current thread.
+	 *
+	 * @throws SocketTimeoutException
+	 *           if the channel is not ready after iTimeout ms
+	 */
+	static void waitFor(final SocketChannel iChannel, final int iOperation, final int iTimeout) throws IOException {
+		Selector selector = SELECTORS.get();
+		if (selector == null) {
+			selector = Selector.open();
+			SELECTORS.set(selector);
+		}
+
+		final SelectionKey key = iChannel.register(selector, iOperation);
+		try {
+			final long deadline = System.currentTimeMillis() + iTimeout;
+			while (selector.select(iTimeout) == 0)
+				if (iTimeout > 0 && System.currentTimeMillis() >= deadline)
+					throw new SocketTimeoutException("Timeout on waiting for the channel " + iChannel.socket().getRemoteSocketAddress());
+
+			selector.selectedKeys().clear();
+
+		} finally {
+			key.cancel();
+			// DEREGISTER THE CHANNEL NOW TO REUSE THE SELECTOR THE NEXT TIME
+			selector.selectNow();
+		}
+	}
+}
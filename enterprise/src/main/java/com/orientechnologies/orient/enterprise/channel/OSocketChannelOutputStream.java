@@ -0,0 +1,60 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking OutputStream on top of a non-blocking socket channel. When the socket buffer is full the calling thread waits on a private
+ * selector until the channel is writable again.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OSocketChannelOutputStream extends OutputStream {
+	private final SocketChannel	channel;
+	private final int						timeout;
+	private final byte[]				single	= new byte[1];
+
+	public OSocketChannelOutputStream(final SocketChannel iChannel, final int iTimeout) {
+		channel = iChannel;
+		timeout = iTimeout;
+	}
+
+	@Override
+	public void write(final int iByte) throws IOException {
+		single[0] = (byte) iByte;
+		write(single, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] iBuffer, final int iOffset, final int iLength) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(iBuffer, iOffset, iLength);
+
+		while (buffer.hasRemaining())
+			if (channel.write(buffer) == 0)
+				OSocketChannelInputStream.waitFor(channel, SelectionKey.OP_WRITE, timeout);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
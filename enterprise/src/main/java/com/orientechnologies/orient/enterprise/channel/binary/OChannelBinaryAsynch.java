@@ -17,6 +17,11 @@ package com.orientechnologies.orient.enterprise.channel.binary;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,8 +44,10 @@ public class OChannelBinaryAsynch extends OChannelBinary {
 	private byte								currentStatus;
 	private int									currentSessionId;
 	private final int						maxUnreadResponses;
+	private final Map<Integer, LinkedList<OChannelBinaryAsynchResponse<?>>>	asynchResponses	= new HashMap<Integer, LinkedList<OChannelBinaryAsynchResponse<?>>>();
 
 	private static final int		MAX_LENGTH_DEBUG	= 100;
+	private static final int		ASYNCH_LOCK_POLL	= 10;
 
 	public OChannelBinaryAsynch(final Socket iSocket, final OContextConfiguration iConfig) throws IOException {
 		super(iSocket, iConfig);
@@ -77,23 +84,12 @@ public class OChannelBinaryAsynch extends OChannelBinary {
 			else if (!lockRead.tryLock(iTimeout, TimeUnit.MILLISECONDS))
 				throw new OTimeoutException("Cannot acquire read lock against channel: " + this);
 
-			if (!channelRead) {
-				channelRead = true;
+			readHeader();
 
-				try {
-					currentStatus = readByte();
-					currentSessionId = readInt();
-
-					if (debug)
-						OLogManager.instance().debug(this, "%s - Read response: %d-%d", socket.getRemoteSocketAddress(), (int) currentStatus,
-								currentSessionId);
-
-				} catch (IOException e) {
-					// UNLOCK THE RESOURCE AND PROPAGATES THE EXCEPTION
-					lockRead.unlock();
-					channelRead = false;
-					throw e;
-				}
+			if (handleAsynchResponse()) {
+				// RESPONSE OF A PIPELINED REQUEST SENT BEFORE: READ THE NEXT ONE
+				lockRead.unlock();
+				continue;
 			}
 
 			if (currentSessionId == iRequesterId)
@@ -128,10 +124,11 @@ public class OChannelBinaryAsynch extends OChannelBinary {
 								+ dirtyBuffer + (i > dirtyBuffer.length() ? "..." : "") + "]", OIOException.class);
 			}
 
-			lockRead.unlock();
-
 			// WAIT 1 SECOND AND RETRY
 			synchronized (this) {
+				// RELEASE THE CHANNEL INSIDE THE MONITOR TO NOT MISS THE NOTIFY OF THE OWNER OF THE RESPONSE
+				lockRead.unlock();
+
 				try {
 					final long start = System.currentTimeMillis();
 					wait(1000);
@@ -150,6 +147,66 @@ public class OChannelBinaryAsynch extends OChannelBinary {
 		handleStatus(currentStatus, currentSessionId);
 	}
 
+	/**
+	 * Registers the pending response of the request just written by the session. Must be called holding the write lock before
+	 * releasing it, so the pending responses are kept in the same order of the requests on the wire.
+	 */
+	public void registerAsynchResponse(final int iSessionId, final OChannelBinaryAsynchResponse<?> iResponse) {
+		synchronized (asynchResponses) {
+			LinkedList<OChannelBinaryAsynchResponse<?>> responses = asynchResponses.get(iSessionId);
+			if (responses == null) {
+				responses = new LinkedList<OChannelBinaryAsynchResponse<?>>();
+				asynchResponses.put(iSessionId, responses);
+			}
+			responses.add(iResponse);
+		}
+	}
+
+	/**
+	 * Reads the responses from the channel until the pending response has been handled.
+	 * 
+	 * @param iTimeout
+	 *          Maximum time to wait in ms, 0 means forever
+	 */
+	public void waitAsynchResponse(final OChannelBinaryAsynchResponse<?> iResponse, final long iTimeout) throws IOException,
+			InterruptedException {
+		final long startClock = System.currentTimeMillis();
+
+		while (!iResponse.isDone()) {
+			if (iTimeout > 0 && System.currentTimeMillis() - startClock > iTimeout)
+				throw new OTimeoutException("Timeout on reading the response from the server of the channel " + this);
+
+			// THE LOCK COULD BE HELD BY A THREAD BLOCKED ON READING AFTER IT HANDLED THIS RESPONSE: CHECK IT PERIODICALLY
+			if (!lockRead.tryLock(ASYNCH_LOCK_POLL, TimeUnit.MILLISECONDS))
+				continue;
+
+			if (iResponse.isDone()) {
+				lockRead.unlock();
+				break;
+			}
+
+			if (iTimeout > 0 && !channelRead && in.available() == 0) {
+				// NOTHING RECEIVED YET: DON'T BLOCK ON THE SOCKET BEYOND THE TIMEOUT
+				lockRead.unlock();
+				Thread.sleep(ASYNCH_LOCK_POLL);
+				continue;
+			}
+
+			readHeader();
+
+			if (handleAsynchResponse()) {
+				lockRead.unlock();
+				continue;
+			}
+
+			// RESPONSE OF A SYNCHRONOUS REQUESTER: WAIT FOR IT TO BE CONSUMED
+			synchronized (this) {
+				lockRead.unlock();
+				wait(100);
+			}
+		}
+	}
+
 	public void endResponse() {
 		channelRead = false;
 		lockRead.unlock();
@@ -170,6 +227,16 @@ public class OChannelBinaryAsynch extends OChannelBinary {
 
 	@Override
 	public void close() {
+		// FAIL THE PENDING RESPONSES: THEY WILL NEVER ARRIVE
+		final List<OChannelBinaryAsynchResponse<?>> pending = new ArrayList<OChannelBinaryAsynchResponse<?>>();
+		synchronized (asynchResponses) {
+			for (LinkedList<OChannelBinaryAsynchResponse<?>> responses : asynchResponses.values())
+				pending.addAll(responses);
+			asynchResponses.clear();
+		}
+		for (OChannelBinaryAsynchResponse<?> response : pending)
+			response.fail(new ONetworkProtocolException("Channel " + this + " closed before receiving the response"));
+
 		synchronized (this) {
 			notifyAll();
 		}
@@ -177,6 +244,64 @@ public class OChannelBinaryAsynch extends OChannelBinary {
 		super.close();
 	}
 
+	/**
+	 * Reads the header of the next response if not yet read. Must be called holding the read lock: in case of error the lock is
+	 * released.
+	 */
+	private void readHeader() throws IOException {
+		if (channelRead)
+			return;
+
+		channelRead = true;
+
+		try {
+			currentStatus = readByte();
+			currentSessionId = readInt();
+
+			if (debug)
+				OLogManager.instance().debug(this, "%s - Read response: %d-%d", socket.getRemoteSocketAddress(), (int) currentStatus,
+						currentSessionId);
+
+		} catch (IOException e) {
+			// UNLOCK THE RESOURCE AND PROPAGATES THE EXCEPTION
+			lockRead.unlock();
+			channelRead = false;
+			throw e;
+		}
+	}
+
+	/**
+	 * Handles the current response if it belongs to a pending request. Since the server answers in order, the response of a session
+	 * with pending requests is always the one of the first pending request. Must be called holding the read lock.
+	 * 
+	 * @return true if the response has been handled, otherwise false
+	 */
+	private boolean handleAsynchResponse() {
+		final OChannelBinaryAsynchResponse<?> response;
+		synchronized (asynchResponses) {
+			final LinkedList<OChannelBinaryAsynchResponse<?>> responses = asynchResponses.get(currentSessionId);
+			if (responses == null)
+				return false;
+
+			response = responses.removeFirst();
+			if (responses.isEmpty())
+				asynchResponses.remove(currentSessionId);
+		}
+
+		final boolean read = response.handle(currentStatus, currentSessionId);
+		channelRead = false;
+
+		if (!read)
+			// PART OF THE RESPONSE IS STILL ON THE CHANNEL: THE NEXT RESPONSES WOULD BE READ FROM THE WRONG POSITION
+			close();
+
+		// WAKE UP THE THREADS WAITING FOR THIS RESPONSE TO BE CONSUMED
+		synchronized (this) {
+			notifyAll();
+		}
+		return true;
+	}
+
 	@Override
 	public void clearInput() throws IOException {
 		lockRead.lock();
@@ -0,0 +1,135 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.enterprise.channel.binary;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.orientechnologies.common.concur.OTimeoutException;
+
+/**
+ * Pending response of a request sent without waiting for the answer. The server answers the requests of a channel in the same order
+ * they are received, so the responses are matched to the pending requests of the same session in order of registration. The
+ * response is read by the first thread that finds it on the channel: the owner calling get() or any other thread waiting for its
+ * own response.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public abstract class OChannelBinaryAsynchResponse<T> implements Future<T> {
+	protected final OChannelBinaryAsynch	channel;
+	private volatile boolean							done;
+	private T															result;
+	private Throwable											error;
+
+	public OChannelBinaryAsynchResponse(final OChannelBinaryAsynch iChannel) {
+		channel = iChannel;
+	}
+
+	/**
+	 * Reads the content of the response after the header.
+	 */
+	protected abstract T readResponse(OChannelBinaryAsynch iChannel) throws IOException;
+
+	/**
+	 * Called once the response has been read. The default implementation does nothing.
+	 */
+	protected void onCompletion(final T iResult, final Throwable iError) {
+	}
+
+	public boolean cancel(final boolean iMayInterruptIfRunning) {
+		// THE RESPONSE MUST BE READ ANYWAY TO KEEP THE CHANNEL CONSISTENT
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public T get() throws InterruptedException, ExecutionException {
+		try {
+			channel.waitAsynchResponse(this, 0);
+		} catch (IOException e) {
+			throw new ExecutionException(e);
+		}
+		return getResult();
+	}
+
+	public T get(final long iTimeout, final TimeUnit iUnit) throws InterruptedException, ExecutionException, TimeoutException {
+		try {
+			channel.waitAsynchResponse(this, Math.max(1, iUnit.toMillis(iTimeout)));
+		} catch (OTimeoutException e) {
+			throw new TimeoutException(e.getMessage());
+		} catch (IOException e) {
+			throw new ExecutionException(e);
+		}
+
+		if (!done)
+			throw new TimeoutException("Timeout on waiting for the response of the channel " + channel);
+
+		return getResult();
+	}
+
+	/**
+	 * Reads the response. Called by the channel holding the read lock once the header has been read.
+	 * 
+	 * @return false if the response has not been read completely because of an I/O error, so the channel is out of sync
+	 */
+	boolean handle(final byte iStatus, final int iSessionId) {
+		boolean read = true;
+		try {
+			channel.handleStatus(iStatus, iSessionId);
+			result = readResponse(channel);
+		} catch (IOException e) {
+			error = e;
+			read = false;
+		} catch (Throwable t) {
+			error = t;
+		}
+		complete();
+		return read;
+	}
+
+	/**
+	 * Completes the response with an error without reading anything from the channel.
+	 */
+	void fail(final Throwable iError) {
+		error = iError;
+		complete();
+	}
+
+	private void complete() {
+		done = true;
+		try {
+			onCompletion(result, error);
+		} catch (Throwable t) {
+			// IGNORE ERRORS OF THE CALLBACK: THE READING THREAD COULD BELONG TO ANOTHER REQUESTER
+		}
+	}
+
+	private T getResult() throws ExecutionException {
+		if (error != null)
+			throw new ExecutionException(error);
+		return result;
+	}
+}
@@ -38,16 +38,71 @@ import java.io.IOException;
 import java.net.Socket;
 
 import com.orientechnologies.orient.core.config.OContextConfiguration;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.enterprise.channel.OSocketChannelInputStream;
+import com.orientechnologies.orient.enterprise.channel.OSocketChannelOutputStream;
 
 public class OChannelBinaryServer extends OChannelBinary {
+	private OSocketChannelInputStream	channelInStream;
+	private int												stallTimeout;
+	private int												requestOutSize;
 
 	public OChannelBinaryServer(final Socket iSocket, final OContextConfiguration iConfig) throws IOException {
 		super(iSocket, iConfig);
 
-		inStream = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
-		outStream = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
+		if (socket.getChannel() != null && !socket.getChannel().isBlocking()) {
+			// NON-BLOCKING CHANNEL SERVED BY A SELECTOR: BLOCK ONLY THE THREAD THAT'S EXECUTING THE REQUEST
+			final int timeout = iConfig.getValueAsInteger(OGlobalConfiguration.NETWORK_SOCKET_TIMEOUT);
+			stallTimeout = iConfig.getValueAsInteger(OGlobalConfiguration.NETWORK_BINARY_NIO_READ_TIMEOUT);
+			channelInStream = new OSocketChannelInputStream(socket.getChannel(), timeout, socketBufferSize);
+			inStream = channelInStream;
+			outStream = new BufferedOutputStream(new OSocketChannelOutputStream(socket.getChannel(), timeout), socketBufferSize);
+		} else {
+			inStream = new BufferedInputStream(socket.getInputStream(), socketBufferSize);
+			outStream = new BufferedOutputStream(socket.getOutputStream(), socketBufferSize);
+		}
 
 		out = new DataOutputStream(outStream);
 		in = new DataInputStream(inStream);
 	}
+
+	/**
+	 * Keeps the bytes of the request read from now to read them again if the rest of the request is late. Only for the channels served
+	 * by a selector, otherwise does nothing.
+	 */
+	public void markRequest() {
+		if (channelInStream != null) {
+			channelInStream.markRequest(stallTimeout);
+			requestOutSize = out.size();
+		}
+	}
+
+	/**
+	 * Tells if the last read failed because the rest of the request has not been received in time.
+	 */
+	public boolean isRequestStalled() {
+		return channelInStream != null && channelInStream.isStalled();
+	}
+
+	/**
+	 * Rewinds the stalled request to the last mark to read it again when the rest arrives.
+	 * 
+	 * @return false if part of the response has been already written, so the request can't be executed again
+	 */
+	public boolean resetRequest() {
+		if (out.size() != requestOutSize)
+			return false;
+
+		channelInStream.resetRequest();
+		return true;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		super.flush();
+
+		if (channelInStream != null)
+			// THE REQUEST CAN'T BE EXECUTED AGAIN ONCE THE RESPONSE IS SENT: WAIT FOR THE NEXT BYTES UP TO THE SOCKET TIMEOUT
+			channelInStream.unmarkRequest();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,324 @@
+package com.orientechnologies.orient.enterprise.channel.binary;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OContextConfiguration;
+
+/**
+ * The requests are answered by a fake server in the order of the script: in order for the same session, but in any order across the
+ * sessions, as the pipelined requests of many sessions of the same channel are.
+ */
+@Test
+public class OChannelBinaryAsynchTest {
+	private ScriptedServer				server;
+	private OChannelBinaryClient	channel;
+
+	@AfterMethod
+	public void afterMethod() throws Exception {
+		if (channel != null)
+			channel.close();
+		if (server != null)
+			server.close();
+	}
+
+	public void responsesOfManySessionsOutOfOrder() throws Exception {
+		// THE LAST SESSION IS ANSWERED FIRST
+		connect(4, 5, 2, 3, 0, 1);
+
+		final List<Integer> callbacks = new ArrayList<Integer>();
+		final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 6; ++i)
+			futures.add(sendAsynch(i / 2, i, callbacks));
+
+		for (int i = 0; i < 6; ++i)
+			Assert.assertEquals(futures.get(i).get(5, TimeUnit.SECONDS).intValue(), i * 10);
+
+		// THE RESPONSES HAVE BEEN HANDLED IN THE ORDER THEY HAVE BEEN RECEIVED
+		synchronized (callbacks) {
+			Assert.assertEquals(callbacks.toString(), "[40, 50, 20, 30, 0, 10]");
+		}
+	}
+
+	/**
+	 * A synchronous requester reads the responses of the pipelined requests received before its own.
+	 */
+	public void synchronousRequesterHandlesTheAsynchResponses() throws Exception {
+		connect(0, 1, 2);
+
+		final Future<Integer> first = sendAsynch(1, 1, null);
+		sendSynch(2, 2);
+		final Future<Integer> second = sendAsynch(1, 3, null);
+
+		channel.beginResponse(2);
+		try {
+			Assert.assertEquals(channel.readInt(), 20);
+		} finally {
+			channel.endResponse();
+		}
+
+		Assert.assertTrue(first.isDone());
+		Assert.assertEquals(first.get().intValue(), 10);
+
+		Assert.assertFalse(second.isDone());
+		Assert.assertEquals(second.get(5, TimeUnit.SECONDS).intValue(), 30);
+	}
+
+	/**
+	 * The owner of a pending response finds the response of a synchronous requester: it waits for that response to be consumed
+	 * before reading its own.
+	 */
+	public void asynchOwnerWaitsForTheSynchResponse() throws Exception {
+		connect(1, 0);
+
+		final Future<Integer> asynch = sendAsynch(1, 1, null);
+		sendSynch(2, 2);
+
+		final Thread owner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					asynch.get(5, TimeUnit.SECONDS);
+				} catch (Exception e) {
+				}
+			}
+		};
+		owner.start();
+
+		// LET THE OWNER READ THE HEADER OF THE SYNCHRONOUS RESPONSE
+		Thread.sleep(200);
+		Assert.assertFalse(asynch.isDone());
+
+		channel.beginResponse(2, 5000);
+		try {
+			Assert.assertEquals(channel.readInt(), 20);
+		} finally {
+			channel.endResponse();
+		}
+
+		owner.join(5000);
+		Assert.assertTrue(asynch.isDone());
+		Assert.assertEquals(asynch.get().intValue(), 10);
+	}
+
+	public void errorFailsOnlyItsResponse() throws Exception {
+		// NEGATIVE VALUES ARE ANSWERED WITH AN ERROR
+		connect(0, 1, 2);
+
+		final Future<Integer> first = sendAsynch(1, 1, null);
+		final Future<Integer> failed = sendAsynch(1, -1, null);
+		final Future<Integer> last = sendAsynch(1, 3, null);
+
+		Assert.assertEquals(last.get(5, TimeUnit.SECONDS).intValue(), 30);
+		Assert.assertEquals(first.get().intValue(), 10);
+		try {
+			failed.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+			Assert.assertEquals(e.getCause().getMessage(), "wrong value -1");
+		}
+	}
+
+	/**
+	 * A response not read completely leaves the channel out of sync: it's closed and the next pending responses fail instead of
+	 * reading the wrong data.
+	 */
+	public void brokenResponseClosesTheChannel() throws Exception {
+		connect(0, 1);
+
+		final OChannelBinaryAsynchResponse<Integer> broken = new OChannelBinaryAsynchResponse<Integer>(channel) {
+			@Override
+			protected Integer readResponse(final OChannelBinaryAsynch iChannel) throws IOException {
+				iChannel.readByte();
+				throw new IOException("broken response");
+			}
+		};
+		channel.beginRequest();
+		try {
+			channel.writeInt(1);
+			channel.writeInt(1);
+			channel.registerAsynchResponse(1, broken);
+		} finally {
+			channel.endRequest();
+		}
+		final Future<Integer> next = sendAsynch(1, 2, null);
+
+		try {
+			broken.get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals(e.getCause().getMessage(), "broken response");
+		}
+		checkClosed(next);
+	}
+
+	public void timeoutOnWaitingForTheResponse() throws Exception {
+		// THE SERVER NEVER ANSWERS
+		connect();
+
+		final Future<Integer> asynch = sendAsynch(1, 1, null);
+		try {
+			asynch.get(100, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+		}
+		Assert.assertFalse(asynch.isDone());
+	}
+
+	public void closeFailsThePendingResponses() throws Exception {
+		connect();
+
+		final Future<Integer> first = sendAsynch(1, 1, null);
+		final Future<Integer> second = sendAsynch(2, 2, null);
+
+		channel.close();
+		channel = null;
+
+		checkClosed(first);
+		checkClosed(second);
+	}
+
+	private void checkClosed(final Future<Integer> iFuture) throws InterruptedException {
+		Assert.assertTrue(iFuture.isDone());
+		try {
+			iFuture.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof ONetworkProtocolException);
+		}
+	}
+
+	/**
+	 * Starts the server and connects to it.
+	 *
+	 * @param iOrder
+	 *          Indexes of the requests in the order they are answered. The server reads all of them before answering
+	 */
+	private void connect(final int... iOrder) throws IOException {
+		server = new ScriptedServer(iOrder);
+		server.start();
+		channel = new OChannelBinaryClient("localhost", server.getPort(), new OContextConfiguration(),
+				OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION);
+	}
+
+	private Future<Integer> sendAsynch(final int iSessionId, final int iValue, final List<Integer> iCallbacks) throws IOException {
+		final OChannelBinaryAsynchResponse<Integer> response = new OChannelBinaryAsynchResponse<Integer>(channel) {
+			@Override
+			protected Integer readResponse(final OChannelBinaryAsynch iChannel) throws IOException {
+				return iChannel.readInt();
+			}
+
+			@Override
+			protected void onCompletion(final Integer iResult, final Throwable iError) {
+				if (iCallbacks != null)
+					synchronized (iCallbacks) {
+						iCallbacks.add(iResult);
+					}
+			}
+		};
+
+		channel.beginRequest();
+		try {
+			channel.writeInt(iSessionId);
+			channel.writeInt(iValue);
+			channel.registerAsynchResponse(iSessionId, response);
+		} finally {
+			channel.endRequest();
+		}
+		return response;
+	}
+
+	private void sendSynch(final int iSessionId, final int iValue) throws IOException {
+		channel.beginRequest();
+		try {
+			channel.writeInt(iSessionId);
+			channel.writeInt(iValue);
+		} finally {
+			channel.endRequest();
+		}
+	}
+
+	/**
+	 * Reads the requests made by session and value, then answers them in the order of the script with the value multiplied by 10.
+	 */
+	private static class ScriptedServer extends Thread {
+		private final ServerSocket	serverSocket;
+		private final int[]					order;
+		private Socket							socket;
+
+		public ScriptedServer(final int[] iOrder) throws IOException {
+			serverSocket = new ServerSocket(0);
+			order = iOrder;
+			setDaemon(true);
+		}
+
+		public int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		public void close() throws IOException {
+			serverSocket.close();
+			if (socket != null)
+				socket.close();
+		}
+
+		@Override
+		public void run() {
+			try {
+				socket = serverSocket.accept();
+				final DataInputStream in = new DataInputStream(socket.getInputStream());
+				final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+				out.writeShort(OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION);
+				out.flush();
+
+				final int[][] requests = new int[order.length][];
+				for (int i = 0; i < order.length; ++i)
+					requests[i] = new int[] { in.readInt(), in.readInt() };
+
+				for (int i : order) {
+					final int sessionId = requests[i][0];
+					final int value = requests[i][1];
+
+					if (value < 0) {
+						out.writeByte(OChannelBinaryProtocol.RESPONSE_STATUS_ERROR);
+						out.writeInt(sessionId);
+						out.writeByte(1);
+						writeString(out, IllegalArgumentException.class.getName());
+						writeString(out, "wrong value " + value);
+						out.writeByte(0);
+					} else {
+						out.writeByte(OChannelBinaryProtocol.RESPONSE_STATUS_OK);
+						out.writeInt(sessionId);
+						out.writeInt(value * 10);
+					}
+					out.flush();
+				}
+
+				// KEEP THE CONNECTION OPEN UNTIL THE CLIENT CLOSES IT
+				in.read();
+			} catch (IOException e) {
+			}
+		}
+
+		private void writeString(final DataOutputStream iOut, final String iText) throws IOException {
+			final byte[] bytes = iText.getBytes();
+			iOut.writeInt(bytes.length);
+			iOut.write(bytes);
+		}
+	}
+}
@@ -81,7 +81,7 @@ public class OClusterNetworkProtocol extends OBinaryNetworkProtocolAbstract impl
 		// SEND PROTOCOL VERSION
 		channel.writeShort((short) OClusterProtocol.CURRENT_PROTOCOL_VERSION);
 		channel.flush();
-		start();
+		startServing();
 	}
 
 	@Override
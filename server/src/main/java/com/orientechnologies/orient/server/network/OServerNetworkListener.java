@@ -23,6 +23,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.orient.core.Orient;
@@ -33,6 +34,7 @@ import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.config.OServerCommandConfiguration;
 import com.orientechnologies.orient.server.config.OServerParameterConfiguration;
 import com.orientechnologies.orient.server.network.protocol.ONetworkProtocol;
+import com.orientechnologies.orient.server.network.protocol.binary.OBinaryNetworkProtocolAbstract;
 import com.orientechnologies.orient.server.network.protocol.http.command.OServerCommand;
 
 public class OServerNetworkListener extends Thread {
@@ -44,6 +46,7 @@ public class OServerNetworkListener extends Thread {
 	private int																socketBufferSize;
 	private OContextConfiguration							configuration;
 	private OServer														server;
+	private OServerNetworkSelector						selector;
 
 	@SuppressWarnings("unchecked")
 	public OServerNetworkListener(final OServer iServer, final String iHostName, final String iHostPortRange,
@@ -51,12 +54,22 @@ public class OServerNetworkListener extends Thread {
 			final OServerParameterConfiguration[] iParameters, final OServerCommandConfiguration[] iCommands) {
 		super(Orient.getThreadGroup(), "OrientDB " + iProtocol.getSimpleName() + " listen at " + iHostName + ":" + iHostPortRange);
 		server = iServer;
-
-		listen(iHostName, iHostPortRange, iProtocolName);
 		protocolType = iProtocol;
 
 		readParameters(iServer.getContextConfiguration(), iParameters);
 
+		if (configuration.getValueAsBoolean(OGlobalConfiguration.NETWORK_BINARY_NIO)
+				&& OBinaryNetworkProtocolAbstract.class.isAssignableFrom(iProtocol))
+			// SERVE THE CONNECTIONS BY A SELECTOR AND A POOL OF WORKERS INSTEAD OF A THREAD PER CONNECTION
+			try {
+				selector = new OServerNetworkSelector(iHostName + ":" + iHostPortRange,
+						configuration.getValueAsInteger(OGlobalConfiguration.NETWORK_BINARY_NIO_WORKERS));
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot create the selector for listener " + iHostName + ":" + iHostPortRange, e);
+			}
+
+		listen(iHostName, iHostPortRange, iProtocolName);
+
 		if (iCommands != null) {
 			// CREATE COMMANDS
 			commands = new OServerCommand[iCommands.length];
@@ -76,6 +89,8 @@ public class OServerNetworkListener extends Thread {
 
 	public void shutdown() {
 		this.active = false;
+		if (selector != null)
+			selector.shutdown();
 		if (serverSocket != null)
 			try {
 				serverSocket.close();
@@ -95,7 +110,12 @@ public class OServerNetworkListener extends Thread {
 		for (int port : ports) {
 			inboundAddr = new InetSocketAddress(iHostName, port);
 			try {
-				serverSocket = new java.net.ServerSocket(port, 0, InetAddress.getByName(iHostName));
+				if (selector != null) {
+					// THE ACCEPTED SOCKETS MUST HAVE A CHANNEL TO BE REGISTERED TO THE SELECTOR
+					serverSocket = ServerSocketChannel.open().socket();
+					serverSocket.bind(new InetSocketAddress(InetAddress.getByName(iHostName), port), 0);
+				} else
+					serverSocket = new java.net.ServerSocket(port, 0, InetAddress.getByName(iHostName));
 
 				if (serverSocket.isBound()) {
 					OLogManager.instance().info(this,
@@ -103,6 +123,11 @@ public class OServerNetworkListener extends Thread {
 					return;
 				}
 			} catch (BindException be) {
+				if (selector != null)
+					try {
+						serverSocket.close();
+					} catch (IOException e) {
+					}
 				OLogManager.instance().info(this, "Port %s:%d busy, trying the next available...", iHostName, port);
 			} catch (SocketException se) {
 				OLogManager.instance().error(this, "Unable to create socket", se);
@@ -140,6 +165,11 @@ public class OServerNetworkListener extends Thread {
 					// CREATE A NEW PROTOCOL INSTANCE
 					protocol = protocolType.newInstance();
 
+					if (selector != null) {
+						socket.getChannel().configureBlocking(false);
+						((OBinaryNetworkProtocolAbstract) protocol).setSelector(selector);
+					}
+
 					// CONFIGURE THE PROTOCOL FOR THE INCOMING CONNECTION
 					protocol.config(server, socket, configuration);
 
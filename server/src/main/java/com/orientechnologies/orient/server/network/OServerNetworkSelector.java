@@ -0,0 +1,158 @@
+/*
+ * Copyright 1999-2010 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.server.network;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.server.network.protocol.binary.OBinaryNetworkProtocolAbstract;
+
+/**
+ * Watches the idle binary connections of a listener with a single selector. When a connection receives data it's handed to a bounded
+ * pool of worker threads that execute its requests, then it goes back to the selector. In this way the number of threads doesn't
+ * depend on the number of connected clients. The wire protocol doesn't change.
+ *
+ * @author Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ */
+public class OServerNetworkSelector extends Thread {
+	private final Selector																selector;
+	private final ExecutorService													workers;
+	private final Queue<OBinaryNetworkProtocolAbstract>	toRegister	= new ConcurrentLinkedQueue<OBinaryNetworkProtocolAbstract>();
+	private volatile boolean															active			= true;
+
+	public OServerNetworkSelector(final String iName, final int iWorkers) throws IOException {
+		super(Orient.getThreadGroup(), "OrientDB selector " + iName);
+		setDaemon(true);
+
+		selector = Selector.open();
+
+		final AtomicInteger counter = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(iWorkers, new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(Orient.getThreadGroup(), r, "OrientDB worker " + iName + " " + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		start();
+	}
+
+	/**
+	 * Watches the connection until it receives the next request. Can be called by any thread.
+	 */
+	public void register(final OBinaryNetworkProtocolAbstract iProtocol) {
+		toRegister.offer(iProtocol);
+		selector.wakeup();
+	}
+
+	public void shutdown() {
+		active = false;
+		selector.wakeup();
+		workers.shutdown();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (active) {
+				selector.select();
+
+				registerPending();
+
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+					final SelectionKey key = it.next();
+					it.remove();
+
+					try {
+						// STOP WATCHING THE CONNECTION UNTIL THE WORKER HAS EXECUTED ITS REQUESTS
+						key.interestOps(0);
+					} catch (CancelledKeyException e) {
+						// CLOSED IN THE MEANWHILE: THE WORKER WILL FIND THE EOF
+					}
+
+					dispatch((OBinaryNetworkProtocolAbstract) key.attachment());
+				}
+			}
+		} catch (Throwable t) {
+			if (active)
+				OLogManager.instance().error(this, "Error on selecting client connections", t);
+		} finally {
+			closeConnections();
+		}
+	}
+
+	private void registerPending() {
+		OBinaryNetworkProtocolAbstract protocol;
+		while ((protocol = toRegister.poll()) != null) {
+			final SocketChannel channel = protocol.getChannel().socket.getChannel();
+
+			final SelectionKey key = channel.keyFor(selector);
+			try {
+				if (key != null && key.isValid())
+					key.interestOps(SelectionKey.OP_READ);
+				else
+					channel.register(selector, SelectionKey.OP_READ, protocol);
+
+			} catch (ClosedChannelException e) {
+				protocol.shutdown();
+			} catch (CancelledKeyException e) {
+				protocol.shutdown();
+			}
+		}
+	}
+
+	private void dispatch(final OBinaryNetworkProtocolAbstract iProtocol) {
+		OProfiler.getInstance().updateCounter("OServer.selector.dispatched", +1);
+
+		workers.execute(new Runnable() {
+			public void run() {
+				if (iProtocol.executeRequests())
+					register(iProtocol);
+			}
+		});
+	}
+
+	private void closeConnections() {
+		for (SelectionKey key : selector.keys())
+			try {
+				if (key.isValid() && key.interestOps() != 0)
+					// IDLE CONNECTION: THE OTHERS ARE CLOSED BY THEIR WORKERS
+					((OBinaryNetworkProtocolAbstract) key.attachment()).shutdown();
+			} catch (Throwable t) {
+			}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
+	}
+}
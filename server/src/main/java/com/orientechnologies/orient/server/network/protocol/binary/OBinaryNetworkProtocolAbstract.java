@@ -24,12 +24,14 @@ import java.util.logging.Level;
 import com.orientechnologies.common.concur.lock.OLockException;
 import com.orientechnologies.common.exception.OException;
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler;
 import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.config.OContextConfiguration;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabase;
 import com.orientechnologies.orient.core.db.ODatabase.STATUS;
 import com.orientechnologies.orient.core.db.ODatabaseComplex;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
@@ -57,6 +59,7 @@ import com.orientechnologies.orient.enterprise.channel.binary.ONetworkProtocolEx
 import com.orientechnologies.orient.server.OServer;
 import com.orientechnologies.orient.server.OServerMain;
 import com.orientechnologies.orient.server.config.OServerUserConfiguration;
+import com.orientechnologies.orient.server.network.OServerNetworkSelector;
 import com.orientechnologies.orient.server.network.protocol.ONetworkProtocol;
 
 /**
@@ -70,6 +73,10 @@ public abstract class OBinaryNetworkProtocolAbstract extends ONetworkProtocol {
 	protected int												requestType;
 	protected int												clientTxId;
 	protected OServerUserConfiguration	serverUser;
+	protected OServerNetworkSelector		selector;
+	private volatile boolean						closing;
+	private boolean											partialRequest;
+	private boolean											headerRead;
 	private final Level									logClientExceptions;
 
 	public OBinaryNetworkProtocolAbstract(final String iThreadName) {
@@ -101,23 +108,103 @@ public abstract class OBinaryNetworkProtocolAbstract extends ONetworkProtocol {
 	protected void onAfterRequest() throws IOException {
 	}
 
+	/**
+	 * Executed before reading again a request whose rest has been received late. The request can be resumed by a worker thread
+	 * different from the one that started it, so the state bound to the thread must be set again.
+	 * 
+	 * @throws IOException
+	 */
+	protected void onResumeRequest() throws IOException {
+	}
+
 	@Override
 	public void config(final OServer iServer, final Socket iSocket, final OContextConfiguration iConfig) throws IOException {
 		server = iServer;
 		channel = new OChannelBinaryServer(iSocket, iConfig);
 	}
 
+	/**
+	 * Serves the connection by the worker threads of the selector instead of a dedicated thread. Must be called before config().
+	 */
+	public void setSelector(final OServerNetworkSelector iSelector) {
+		selector = iSelector;
+	}
+
+	/**
+	 * Starts serving the connection: by the selector if any, otherwise by the protocol thread.
+	 */
+	protected void startServing() {
+		if (selector != null) {
+			startup();
+			selector.register(this);
+		} else
+			start();
+	}
+
+	/**
+	 * Executes the requests already received on the channel. Called by the worker threads of the selector. Internal.
+	 * 
+	 * @return true if the connection is still open and must be watched again by the selector, otherwise false
+	 */
+	public boolean executeRequests() {
+		try {
+			do {
+				try {
+					execute();
+				} finally {
+					// THE WORKER SERVES ALSO OTHER CONNECTIONS: DON'T LEAVE THE DATABASE OF THIS CLIENT BOUND TO IT
+					ODatabaseRecordThreadLocal.INSTANCE.remove();
+				}
+
+				if (partialRequest) {
+					// THE SELECTOR HANDS THE CONNECTION TO A WORKER AGAIN WHEN THE REST OF THE REQUEST ARRIVES
+					OProfiler.getInstance().updateCounter("OServer.selector.partialRequests", +1);
+					break;
+				}
+			} while (!closing && channel.inStream.available() > 0);
+		} catch (Throwable t) {
+			OLogManager.instance().error(this, "Error on executing request, closing the connection", t);
+			closing = true;
+		}
+
+		if (closing) {
+			shutdown();
+			return false;
+		}
+		return true;
+	}
+
 	@Override
-	protected void execute() throws Exception {
-		requestType = -1;
+	public void sendShutdown() {
+		if (selector != null)
+			// THE WORKER CLOSES THE CONNECTION AT THE END OF THE CURRENT REQUEST
+			closing = true;
+		else
+			super.sendShutdown();
+	}
 
-		clientTxId = 0;
+	@Override
+	protected void execute() throws Exception {
+		if (!headerRead) {
+			requestType = -1;
+			clientTxId = 0;
+		}
+		partialRequest = false;
 
 		try {
-			requestType = channel.readByte();
-			clientTxId = channel.readInt();
+			if (!headerRead) {
+				channel.markRequest();
 
-			onBeforeRequest();
+				requestType = channel.readByte();
+				clientTxId = channel.readInt();
+
+				onBeforeRequest();
+
+				// IF THE REST OF THE REQUEST IS LATE IT'S READ AGAIN FROM HERE, WITHOUT THE HEADER
+				channel.markRequest();
+				headerRead = true;
+			} else
+				onResumeRequest();
 
 			if (!executeRequest()) {
 				OLogManager.instance().error(this, "Request not supported. Code: " + requestType);
@@ -134,18 +221,43 @@ public abstract class OBinaryNetworkProtocolAbstract extends ONetworkProtocol {
 			handleConnectionError(channel, e);
 			sendShutdown();
 		} catch (OException e) {
-			sendError(clientTxId, e);
+			if (!isPartialRequest())
+				sendError(clientTxId, e);
 		} catch (RuntimeException e) {
-			sendError(clientTxId, e);
+			if (!isPartialRequest())
+				sendError(clientTxId, e);
 		} catch (Throwable t) {
-			OLogManager.instance().error(this, "Error on executing request", t);
-			sendError(clientTxId, t);
+			if (!isPartialRequest()) {
+				OLogManager.instance().error(this, "Error on executing request", t);
+				sendError(clientTxId, t);
+			}
 		} finally {
+			if (!partialRequest)
+				headerRead = false;
 
 			OSerializationThreadLocal.INSTANCE.get().clear();
 		}
 	}
 
+	/**
+	 * Checks if the request failed because the rest of it has not been received in time. In this case the channel is rewound to read
+	 * the request again when the rest arrives, so the worker thread is not blocked by a slow client.
+	 */
+	private boolean isPartialRequest() {
+		if (!channel.isRequestStalled())
+			return false;
+
+		partialRequest = true;
+
+		if (!channel.resetRequest()) {
+			// PART OF THE RESPONSE HAS BEEN ALREADY WRITTEN: THE REQUEST CAN'T BE EXECUTED AGAIN
+			OLogManager.instance().warn(this, "Request %d not received in time after sending part of the response, closing the connection",
+					requestType);
+			sendShutdown();
+		}
+		return true;
+	}
+
 	@Override
 	public void shutdown() {
 		channel.close();
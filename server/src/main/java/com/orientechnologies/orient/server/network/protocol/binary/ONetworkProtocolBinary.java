@@ -56,6 +56,7 @@ import com.orientechnologies.orient.core.record.impl.ORecordBytes;
 import com.orientechnologies.orient.core.serialization.serializer.record.string.ORecordSerializerStringAbstract;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerAnyStreamable;
 import com.orientechnologies.orient.core.storage.OCluster;
+import com.orientechnologies.orient.core.storage.ORawBuffer;
 import com.orientechnologies.orient.core.storage.OStorageEmbedded;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
 import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryServer;
@@ -95,7 +96,7 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
 		// SEND PROTOCOL VERSION
 		channel.writeShort((short) OChannelBinaryProtocol.CURRENT_PROTOCOL_VERSION);
 		channel.flush();
-		start();
+		startServing();
 
 		setName("OrientDB <- BinaryClient (" + iSocket.getRemoteSocketAddress() + ")");
 	}
@@ -127,6 +128,12 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
 		OServerHandlerHelper.invokeHandlerCallbackOnBeforeClientRequest(connection, (byte) requestType);
 	}
 
+	@Override
+	protected void onResumeRequest() throws IOException {
+		if (connection != null)
+			ODatabaseRecordThreadLocal.INSTANCE.set(connection.database);
+	}
+
 	@Override
 	protected void onAfterRequest() throws IOException {
 		OServerHandlerHelper.invokeHandlerCallbackOnAfterClientRequest(connection, (byte) requestType);
@@ -1019,6 +1026,8 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
 				endResponse();
 			}
 
+		} else if (fetchPlanString.length() == 0 && readRawRecord(rid, ignoreCache)) {
+			// SENT AS STORED
 		} else {
 			final ORecordInternal<?> record = connection.database.load(rid, fetchPlanString, ignoreCache);
 
@@ -1064,6 +1073,31 @@ public class ONetworkProtocolBinary extends OBinaryNetworkProtocolAbstract {
 		}
 	}
 
+	/**
+	 * Sends the record content as stored, without creating the record. The record is loaded as usual when the database can't return
+	 * its raw content, for example because some hook is called on reading.
+	 * 
+	 * @return true if the record has been sent, otherwise false
+	 */
+	protected boolean readRawRecord(final ORecordId iRid, final boolean iIgnoreCache) throws IOException {
+		final ORawBuffer buffer = ((ODatabaseRecordTx) connection.database.getUnderlying()).readRaw(iRid, iIgnoreCache);
+		if (buffer == null)
+			return false;
+
+		beginResponse();
+		try {
+			sendOk(clientTxId);
+			channel.writeByte((byte) 1); // HAS RECORD
+			channel.writeBytes(buffer.buffer);
+			channel.writeInt(buffer.version);
+			channel.writeByte(buffer.recordType);
+			channel.writeByte((byte) 0); // NO MORE RECORDS
+		} finally {
+			endResponse();
+		}
+		return true;
+	}
+
 	protected void endResponse() throws IOException {
 		channel.flush();
 		channel.releaseExclusiveLock();
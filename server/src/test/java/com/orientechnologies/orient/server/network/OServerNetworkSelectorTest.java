@@ -0,0 +1,259 @@
+package com.orientechnologies.orient.server.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.orient.core.config.OContextConfiguration;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.enterprise.channel.binary.OChannelBinaryProtocol;
+import com.orientechnologies.orient.server.OServer;
+import com.orientechnologies.orient.server.network.protocol.binary.OBinaryNetworkProtocolAbstract;
+
+/**
+ * The connections are served by a selector with a single worker: a client sending its request slowly must not keep the worker busy.
+ */
+@Test
+public class OServerNetworkSelectorTest {
+	private static final int			READ_TIMEOUT	= 50;
+
+	private OServerNetworkSelector	selector;
+	private ServerSocketChannel			serverChannel;
+	private OContextConfiguration		configuration;
+	private final List<Socket>			clients				= new ArrayList<Socket>();
+
+	@BeforeMethod
+	public void beforeMethod() throws IOException {
+		selector = new OServerNetworkSelector("test", 1);
+
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress("localhost", 0));
+
+		configuration = new OContextConfiguration();
+		configuration.setValue(OGlobalConfiguration.NETWORK_SOCKET_TIMEOUT, 10000);
+		configuration.setValue(OGlobalConfiguration.NETWORK_BINARY_NIO_READ_TIMEOUT, READ_TIMEOUT);
+		// SMALLER THAN THE LONGER REQUESTS
+		configuration.setValue(OGlobalConfiguration.NETWORK_SOCKET_BUFFER_SIZE, 16);
+	}
+
+	@AfterMethod
+	public void afterMethod() throws IOException {
+		for (Socket client : clients)
+			client.close();
+		clients.clear();
+
+		selector.shutdown();
+		serverChannel.close();
+	}
+
+	public void slowClientDoesNotBlockTheWorker() throws Exception {
+		final Socket slow = connect();
+		final EchoProtocol slowProtocol = accept();
+		final Socket fast = connect();
+		accept();
+
+		final byte[] request = request(1, "from the slow client");
+		slow.getOutputStream().write(request, 0, 10);
+		slow.getOutputStream().flush();
+		Thread.sleep(READ_TIMEOUT * 4);
+
+		// THE WORKER HAS LEFT THE SLOW CLIENT TO THE SELECTOR
+		fast.getOutputStream().write(request(2, "from the fast client"));
+		fast.getOutputStream().flush();
+		Assert.assertEquals(readResponse(fast, 2), "from the fast client");
+
+		slow.getOutputStream().write(request, 10, request.length - 10);
+		slow.getOutputStream().flush();
+		Assert.assertEquals(readResponse(slow, 1), "from the slow client");
+
+		// THE HEADER IS NOT READ AGAIN
+		Assert.assertEquals(slowProtocol.requests, 1);
+	}
+
+	/**
+	 * The request is received in chunks, each one after the read timeout, and it doesn't fit the buffer: it's read again from the
+	 * beginning on every chunk, also when the header is not complete.
+	 */
+	public void requestReceivedInChunks() throws Exception {
+		final Socket client = connect();
+		final EchoProtocol protocol = accept();
+
+		final boolean recording = OProfiler.getInstance().isRecording();
+		if (!recording)
+			OProfiler.getInstance().startRecording();
+		try {
+			final long partials = Math.max(0, OProfiler.getInstance().getCounter("OServer.selector.partialRequests"));
+
+			final String text = "a request longer than the buffer of the channel";
+			final byte[] request = request(1, text);
+			for (int i = 0; i < request.length; i += 3) {
+				client.getOutputStream().write(request, i, Math.min(3, request.length - i));
+				client.getOutputStream().flush();
+				Thread.sleep(READ_TIMEOUT * 2);
+			}
+			Assert.assertEquals(readResponse(client, 1), text);
+
+			Assert.assertTrue(OProfiler.getInstance().getCounter("OServer.selector.partialRequests") - partials > 1);
+			Assert.assertEquals(protocol.requests, 1);
+
+			// THE NEXT REQUEST FITS THE BUFFER AGAIN
+			client.getOutputStream().write(request(2, "short"));
+			client.getOutputStream().flush();
+			Assert.assertEquals(readResponse(client, 2), "short");
+			Assert.assertEquals(protocol.requests, 2);
+
+		} finally {
+			if (!recording)
+				OProfiler.getInstance().stopRecording();
+		}
+	}
+
+	/**
+	 * The requests of two clients are interleaved on the same worker: every request must be executed with the database of its client,
+	 * also when it's resumed after the request of the other client.
+	 */
+	public void interleavedClientsKeepTheirDatabase() throws Exception {
+		final Socket first = connect();
+		final EchoProtocol firstProtocol = accept();
+		firstProtocol.database = new ODatabaseDocumentTx("memory:firstClient");
+		final Socket second = connect();
+		final EchoProtocol secondProtocol = accept();
+		secondProtocol.database = new ODatabaseDocumentTx("memory:secondClient");
+
+		final byte[] request = request(1, "first");
+		first.getOutputStream().write(request, 0, 10);
+		first.getOutputStream().flush();
+		Thread.sleep(READ_TIMEOUT * 4);
+
+		second.getOutputStream().write(request(2, "second"));
+		second.getOutputStream().flush();
+		Assert.assertEquals(readResponse(second, 2), "second@memory:secondClient");
+
+		// RESUMED BY THE WORKER THAT HAS JUST SERVED THE SECOND CLIENT
+		first.getOutputStream().write(request, 10, request.length - 10);
+		first.getOutputStream().flush();
+		Assert.assertEquals(readResponse(first, 1), "first@memory:firstClient");
+
+		// EVERY REQUEST HAS FOUND THE WORKER WITHOUT DATABASE
+		Assert.assertFalse(firstProtocol.foundDatabase);
+		Assert.assertFalse(secondProtocol.foundDatabase);
+	}
+
+	public void pipelinedRequests() throws Exception {
+		final Socket client = connect();
+		accept();
+
+		final ByteArrayOutputStream requests = new ByteArrayOutputStream();
+		for (int i = 0; i < 3; ++i)
+			requests.write(request(i, "request " + i));
+		client.getOutputStream().write(requests.toByteArray());
+		client.getOutputStream().flush();
+
+		for (int i = 0; i < 3; ++i)
+			Assert.assertEquals(readResponse(client, i), "request " + i);
+	}
+
+	private Socket connect() throws IOException {
+		final Socket client = new Socket("localhost", serverChannel.socket().getLocalPort());
+		client.setSoTimeout(2000);
+		client.setTcpNoDelay(true);
+		clients.add(client);
+		return client;
+	}
+
+	private EchoProtocol accept() throws IOException {
+		final SocketChannel channel = serverChannel.accept();
+		channel.configureBlocking(false);
+
+		final EchoProtocol protocol = new EchoProtocol();
+		protocol.setSelector(selector);
+		protocol.config(null, channel.socket(), configuration);
+		return protocol;
+	}
+
+	private byte[] request(final int iClientTxId, final String iText) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(buffer);
+		out.writeByte(EchoProtocol.REQUEST_ECHO);
+		out.writeInt(iClientTxId);
+		out.writeInt(iText.length());
+		out.writeBytes(iText);
+		return buffer.toByteArray();
+	}
+
+	private String readResponse(final Socket iClient, final int iClientTxId) throws IOException {
+		final DataInputStream in = new DataInputStream(iClient.getInputStream());
+		Assert.assertEquals(in.readByte(), OChannelBinaryProtocol.RESPONSE_STATUS_OK);
+		Assert.assertEquals(in.readInt(), iClientTxId);
+
+		final byte[] text = new byte[in.readInt()];
+		in.readFully(text);
+		return new String(text);
+	}
+
+	private static class EchoProtocol extends OBinaryNetworkProtocolAbstract {
+		private static final byte	REQUEST_ECHO	= 1;
+
+		private volatile int					requests;
+		private volatile boolean			foundDatabase;
+		private ODatabaseDocumentTx	database;
+
+		public EchoProtocol() {
+			super("OrientDB echo");
+		}
+
+		@Override
+		public void config(final OServer iServer, final Socket iSocket, final OContextConfiguration iConfig) throws IOException {
+			super.config(iServer, iSocket, iConfig);
+			startServing();
+		}
+
+		@Override
+		protected void onBeforeRequest() throws IOException {
+			++requests;
+			foundDatabase |= ODatabaseRecordThreadLocal.INSTANCE.isDefined();
+			ODatabaseRecordThreadLocal.INSTANCE.set(database);
+		}
+
+		@Override
+		protected void onResumeRequest() throws IOException {
+			ODatabaseRecordThreadLocal.INSTANCE.set(database);
+		}
+
+		@Override
+		protected boolean executeRequest() throws IOException {
+			if (requestType != REQUEST_ECHO)
+				return false;
+
+			final String text = channel.readString();
+
+			final ODatabaseRecord bound = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+
+			sendOk(clientTxId);
+			channel.writeString(bound != null ? text + "@" + bound.getURL() : text);
+			channel.flush();
+			return true;
+		}
+
+		@Override
+		public String getType() {
+			return "echo";
+		}
+	}
+}